@@ -10,11 +10,18 @@ CREATE TABLE `commit` (
     `commit_url` varchar(2048) NULL COMMENT '提交地址',
     `file` int(10) NOT NULL DEFAULT 0 COMMENT '修改文件数',
     `line` int(10) NOT NULL DEFAULT 0 COMMENT '修改行数',
+    `fetch_attempts` int(10) NOT NULL DEFAULT 0 COMMENT '详情抓取失败次数',
     `created_by` varchar(45) NOT NULL DEFAULT 'SYSTEM' COMMENT '创建人',
     `created_at` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
     `updated_by` varchar(45) NOT NULL DEFAULT 'SYSTEM' COMMENT '更新人',
     `updated_at` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
     PRIMARY KEY (`id`),
     UNIQUE KEY `uk_commit_id` (`commit_id`) USING BTREE,
-    KEY `idx_updated_at` (`updated_at`) USING BTREE
+    KEY `idx_updated_at` (`updated_at`) USING BTREE,
+    KEY `idx_code_updated_at` (`code`, `updated_at`) USING BTREE,
+    KEY `idx_code_created_by_updated_at` (`code`, `created_by`, `updated_at`) USING BTREE,
+    KEY `idx_code_created_by_commit_type_updated_at` (`code`, `created_by`, `commit_type`, `updated_at`) USING BTREE,
+    KEY `idx_code_commit_type_updated_at` (`code`, `commit_type`, `updated_at`) USING BTREE,
+    KEY `idx_created_by_updated_at` (`created_by`, `updated_at`) USING BTREE,
+    KEY `idx_commit_url` (`commit_url`(1)) USING BTREE
 ) ENGINE=InnoDB CHARSET=utf8mb4 COMMENT='GitHub 提交记录';
\ No newline at end of file
@@ -1,5 +1,8 @@
 DROP TABLE IF EXISTS `requirement`;
 
+-- 全文索引不使用 InnoDB 停用词，原因见 db/migration/V1__fulltext_title_search.sql
+SET SESSION innodb_ft_enable_stopword = OFF;
+
 CREATE TABLE `requirement` (
     `id` bigint(20) unsigned NOT NULL auto_increment COMMENT '自增主键',
     `code` varchar(45) NOT NULL COMMENT '需求编号',
@@ -14,8 +17,14 @@ CREATE TABLE `requirement` (
     `updated_at` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
     PRIMARY KEY (`id`),
     UNIQUE KEY `uk_code` (`code`) USING BTREE,
-    KEY `idx_updated_at` (`updated_at`) USING BTREE
+    KEY `idx_updated_at` (`updated_at`) USING BTREE,
+    KEY `idx_status_updated_at` (`status`, `updated_at`) USING BTREE,
+    KEY `idx_status_priority_updated_at` (`status`, `priority`, `updated_at`) USING BTREE,
+    KEY `idx_priority_updated_at` (`priority`, `updated_at`) USING BTREE,
+    FULLTEXT KEY `ft_title_description` (`title`, `description`) WITH PARSER ngram
 ) ENGINE=InnoDB CHARSET=utf8mb4 COMMENT='需求表';
 
 INSERT INTO `requirement` (`code`, `title`, `description`, `status`, `priority`, `requirement_type`) VALUES
 ('REQ-1', '【VoxelFlow】项目管理平台搭建需求', '建立 VoxelFlow 项目管理平台，提高 ECNUMC 社团生产效率', 'REVIEWING', 0, 'EFFICIENCY');
+
+SET SESSION innodb_ft_enable_stopword = ON;
@@ -0,0 +1,23 @@
+DROP TABLE IF EXISTS `retrospective`;
+
+-- 全文索引不使用 InnoDB 停用词，原因见 db/migration/V1__fulltext_title_search.sql
+SET SESSION innodb_ft_enable_stopword = OFF;
+
+CREATE TABLE `retrospective` (
+    `id` bigint(20) unsigned NOT NULL auto_increment COMMENT '自增主键',
+    `code` varchar(45) NOT NULL COMMENT '复盘单编号',
+    `title` varchar(250) NOT NULL COMMENT '复盘标题',
+    `description` TEXT NOT NULL COMMENT '复盘描述',
+    `status` varchar(45) NOT NULL DEFAULT 'READY' COMMENT '复盘状态',
+    `created_by` varchar(45) NOT NULL DEFAULT 'SYSTEM' COMMENT '创建人',
+    `created_at` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
+    `updated_by` varchar(45) NOT NULL DEFAULT 'SYSTEM' COMMENT '更新人',
+    `updated_at` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
+    PRIMARY KEY (`id`),
+    UNIQUE KEY `uk_code` (`code`) USING BTREE,
+    KEY `idx_updated_at` (`updated_at`) USING BTREE,
+    KEY `idx_status_updated_at` (`status`, `updated_at`) USING BTREE,
+    FULLTEXT KEY `ft_title_description` (`title`, `description`) WITH PARSER ngram
+) ENGINE=InnoDB CHARSET=utf8mb4 COMMENT='复盘表';
+
+SET SESSION innodb_ft_enable_stopword = ON;
@@ -1,5 +1,8 @@
 DROP TABLE IF EXISTS `story`;
 
+-- 全文索引不使用 InnoDB 停用词，原因见 db/migration/V1__fulltext_title_search.sql
+SET SESSION innodb_ft_enable_stopword = OFF;
+
 CREATE TABLE `story` (
     `id` bigint(20) unsigned NOT NULL auto_increment COMMENT '自增主键',
     `code` varchar(45) NOT NULL COMMENT '故事编号',
@@ -14,5 +17,11 @@ CREATE TABLE `story` (
     `updated_at` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
     PRIMARY KEY (`id`),
     UNIQUE KEY `uk_code` (`code`) USING BTREE,
-    KEY `idx_updated_at` (`updated_at`) USING BTREE
+    KEY `idx_updated_at` (`updated_at`) USING BTREE,
+    KEY `idx_status_updated_at` (`status`, `updated_at`) USING BTREE,
+    KEY `idx_status_priority_updated_at` (`status`, `priority`, `updated_at`) USING BTREE,
+    KEY `idx_priority_updated_at` (`priority`, `updated_at`) USING BTREE,
+    FULLTEXT KEY `ft_title_description` (`title`, `description`) WITH PARSER ngram
 ) ENGINE=InnoDB CHARSET=utf8mb4 COMMENT='故事表';
+
+SET SESSION innodb_ft_enable_stopword = ON;
@@ -14,5 +14,7 @@ CREATE TABLE `user_retrospective_rel` (
     `updated_at` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
     PRIMARY KEY (`id`),
     KEY `idx_code_uid` (`code`, `uid`) USING BTREE,
-    KEY `idx_updated_at` (`updated_at`) USING BTREE
+    KEY `idx_updated_at` (`updated_at`) USING BTREE,
+    KEY `idx_relation_type_uid` (`relation_type`, `uid`) USING BTREE,
+    KEY `idx_code_old_status_relation_type` (`code`, `old_status`, `relation_type`) USING BTREE
 ) ENGINE=InnoDB CHARSET=utf8mb4 COMMENT='复盘单修改记录';
\ No newline at end of file
@@ -0,0 +1,155 @@
+package org.ecnumc.voxelflow.benchmark;
+
+import org.ecnumc.voxelflow.enumeration.CommitType;
+import org.ecnumc.voxelflow.enumeration.IssueStatus;
+import org.ecnumc.voxelflow.enumeration.StoryStatus;
+import org.ecnumc.voxelflow.po.Issue;
+import org.ecnumc.voxelflow.po.Story;
+import org.ecnumc.voxelflow.resp.IssueResp;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * 基准测试的固定数据，使用固定种子生成，每次运行的输入完全相同，结果才能与基线比较喵~
+ * @author liudongyu
+ */
+final class BenchmarkFixtures {
+	private static final long SEED = 20240501L;
+
+	/**
+	 * 固定时间戳，避免序列化结果随运行时间变化
+	 */
+	private static final long EPOCH_MILLIS = 1714521600000L;
+
+	private BenchmarkFixtures() {
+	}
+
+	/**
+	 * 排序、筛选参数中常见的字段名
+	 * @return 驼峰命名的字段名
+	 */
+	static String[] camelNames() {
+		return new String[] {
+				"code", "createdAt", "updatedAt", "createdBy", "updatedBy", "reqCode",
+				"requirementType", "priority", "HTTPSConnection", "userIdV2"
+		};
+	}
+
+	/**
+	 * 缺陷列表
+	 * @param size	数量
+	 * @return 缺陷列表
+	 */
+	static List<Issue> issues(int size) {
+		Random random = new Random(SEED);
+		IssueStatus[] statuses = IssueStatus.values();
+		List<Issue> issues = new ArrayList<>(size);
+		for(int i = 0; i < size; ++i) {
+			Issue issue = new Issue();
+			issue.setId((long) i + 1L);
+			issue.setCode("BUG-" + (i + 1));
+			issue.setTitle("Issue " + randomWords(random, 6));
+			issue.setDescription(randomWords(random, 40));
+			issue.setStatus(statuses[random.nextInt(statuses.length)].name());
+			issue.setPriority(random.nextInt(5));
+			issue.setCreatedBy(uid(random));
+			issue.setCreatedAt(new Date(EPOCH_MILLIS - random.nextInt(86400000)));
+			issue.setUpdatedBy(uid(random));
+			issue.setUpdatedAt(new Date(EPOCH_MILLIS));
+			issues.add(issue);
+		}
+		return issues;
+	}
+
+	/**
+	 * 故事列表
+	 * @param size	数量
+	 * @return 故事列表
+	 */
+	static List<Story> stories(int size) {
+		Random random = new Random(SEED + 1L);
+		StoryStatus[] statuses = StoryStatus.values();
+		List<Story> stories = new ArrayList<>(size);
+		for(int i = 0; i < size; ++i) {
+			Story story = new Story();
+			story.setId((long) i + 1L);
+			story.setCode("STORY-" + (i + 1));
+			story.setReqCode("REQ-" + (random.nextInt(100) + 1));
+			story.setTitle("Story " + randomWords(random, 6));
+			story.setDescription(randomWords(random, 40));
+			story.setStatus(statuses[random.nextInt(statuses.length)].name());
+			story.setPriority(random.nextInt(5));
+			story.setCreatedBy(uid(random));
+			story.setCreatedAt(new Date(EPOCH_MILLIS - random.nextInt(86400000)));
+			story.setUpdatedBy(uid(random));
+			story.setUpdatedAt(new Date(EPOCH_MILLIS));
+			stories.add(story);
+		}
+		return stories;
+	}
+
+	/**
+	 * 缺陷响应列表，即列表接口一页的数据
+	 * @param size	数量
+	 * @return 缺陷响应列表
+	 */
+	static ArrayList<IssueResp> issueResps(int size) {
+		ArrayList<IssueResp> resps = new ArrayList<>(size);
+		for(Issue issue : issues(size)) {
+			resps.add(new IssueResp(
+					issue.getCode(), issue.getTitle(), issue.getDescription(), issue.getStatus(), issue.getPriority(),
+					issue.getCreatedBy(), issue.getCreatedAt(), issue.getUpdatedBy(), issue.getUpdatedAt()
+			));
+		}
+		return resps;
+	}
+
+	/**
+	 * 一次推送中的提交信息，约四分之一不符合格式
+	 * @param size	数量
+	 * @return 提交信息
+	 */
+	static String[] commitMessages(int size) {
+		Random random = new Random(SEED + 2L);
+		CommitType[] types = CommitType.values();
+		String[] messages = new String[size];
+		for(int i = 0; i < size; ++i) {
+			String type = types[random.nextInt(types.length)].name().toLowerCase(Locale.ROOT);
+			String code = "BUG-" + (random.nextInt(1000) + 1);
+			switch (i % 4) {
+				case 0:
+					messages[i] = "Merge branch 'main' into " + randomWords(random, 2).replace(' ', '-');
+					break;
+				case 1:
+					messages[i] = type + "(" + code + "):" + randomWords(random, 8);
+					break;
+				default:
+					messages[i] = type + "(" + code + "): " + randomWords(random, 12);
+					break;
+			}
+		}
+		return messages;
+	}
+
+	private static String uid(Random random) {
+		return String.format("%032x", random.nextLong() & Long.MAX_VALUE);
+	}
+
+	private static String randomWords(Random random, int count) {
+		StringBuilder builder = new StringBuilder();
+		for(int i = 0; i < count; ++i) {
+			if(i > 0) {
+				builder.append(' ');
+			}
+			int length = 3 + random.nextInt(6);
+			for(int j = 0; j < length; ++j) {
+				builder.append((char) ('a' + random.nextInt(26)));
+			}
+		}
+		return builder.toString();
+	}
+}
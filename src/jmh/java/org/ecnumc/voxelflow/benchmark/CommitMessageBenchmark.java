@@ -0,0 +1,48 @@
+package org.ecnumc.voxelflow.benchmark;
+
+import org.ecnumc.voxelflow.service.CommitCommandService;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+
+/**
+ * 提交信息解析基准测试，与 {@link CommitCommandService#push} 中对每条提交执行的匹配相同喵~
+ * <p>
+ * 运行方式：./gradlew jmh
+ * </p>
+ * @author liudongyu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommitMessageBenchmark {
+	/**
+	 * 一次推送中的提交数
+	 */
+	@Param({ "20" })
+	private int commitCount;
+
+	private String[] messages;
+
+	@Setup
+	public void setup() {
+		this.messages = BenchmarkFixtures.commitMessages(this.commitCount);
+	}
+
+	@Benchmark
+	public void parse(Blackhole blackhole) {
+		for(String message: this.messages) {
+			Matcher matcher = CommitCommandService.COMMIT_MESSAGE_PATTERN.matcher(message);
+			if(matcher.matches() && matcher.groupCount() == 3) {
+				blackhole.consume(matcher.group(1));
+				blackhole.consume(matcher.group(2));
+				blackhole.consume(matcher.group(3));
+			}
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package org.ecnumc.voxelflow.benchmark;
+
+import org.ecnumc.voxelflow.converter.CamelToSnakeConverter;
+import org.ecnumc.voxelflow.converter.IssueConverter;
+import org.ecnumc.voxelflow.converter.StoryConverter;
+import org.ecnumc.voxelflow.po.Issue;
+import org.ecnumc.voxelflow.po.Story;
+import org.mapstruct.factory.Mappers;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 转换器基准测试，覆盖排序字段名转换和列表接口中每一行都要执行的 MapStruct 转换喵~
+ * <p>
+ * 运行方式：./gradlew jmh
+ * </p>
+ * @author liudongyu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConverterBenchmark {
+	/**
+	 * 列表接口的一页数据量
+	 */
+	@Param({ "20" })
+	private int pageSize;
+
+	private CamelToSnakeConverter camelToSnakeConverter;
+
+	private IssueConverter issueConverter;
+
+	private StoryConverter storyConverter;
+
+	private String[] camelNames;
+
+	private List<Issue> issues;
+
+	private List<Story> stories;
+
+	@Setup
+	public void setup() {
+		this.camelToSnakeConverter = new CamelToSnakeConverter();
+		this.issueConverter = Mappers.getMapper(IssueConverter.class);
+		this.storyConverter = Mappers.getMapper(StoryConverter.class);
+		this.camelNames = BenchmarkFixtures.camelNames();
+		this.issues = BenchmarkFixtures.issues(this.pageSize);
+		this.stories = BenchmarkFixtures.stories(this.pageSize);
+	}
+
+	@Benchmark
+	public void camelToSnake(Blackhole blackhole) {
+		for(String name: this.camelNames) {
+			blackhole.consume(this.camelToSnakeConverter.convert(name));
+		}
+	}
+
+	@Benchmark
+	public void issueToResp(Blackhole blackhole) {
+		for(Issue issue: this.issues) {
+			blackhole.consume(this.issueConverter.convertToResp(issue));
+		}
+	}
+
+	@Benchmark
+	public void storyToResp(Blackhole blackhole) {
+		for(Story story: this.stories) {
+			blackhole.consume(this.storyConverter.convertToResp(story));
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package org.ecnumc.voxelflow.benchmark;
+
+import com.alibaba.fastjson.JSON;
+import org.ecnumc.voxelflow.enumeration.ClientErrorCode;
+import org.ecnumc.voxelflow.resp.BaseResp;
+import org.ecnumc.voxelflow.resp.IssueResp;
+import org.ecnumc.voxelflow.resp.PagedResp;
+import org.ecnumc.voxelflow.util.JsonUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FastJSON 序列化基准测试，覆盖列表接口的分页响应和拦截器返回的错误响应喵~
+ * <p>
+ * 运行方式：./gradlew jmh
+ * </p>
+ * @author liudongyu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+	/**
+	 * 列表接口的一页数据量
+	 */
+	@Param({ "20" })
+	private int pageSize;
+
+	private BaseResp<PagedResp<IssueResp>> pagedResp;
+
+	private BaseResp<IssueResp> errorResp;
+
+	@Setup
+	public void setup() {
+		this.pagedResp = BaseResp.success(PagedResp.<IssueResp>builder()
+				.pageNum(1)
+				.pageSize(this.pageSize)
+				.total(this.pageSize * 10)
+				.list(BenchmarkFixtures.issueResps(this.pageSize))
+				.nextCursor(null)
+				.hasMore(true)
+				.build());
+		this.errorResp = BaseResp.error(ClientErrorCode.ERROR_1496);
+	}
+
+	@Benchmark
+	public String pagedIssues() {
+		return JSON.toJSONString(this.pagedResp, JsonUtil.CONFIG);
+	}
+
+	@Benchmark
+	public String error() {
+		return JSON.toJSONString(this.errorResp, JsonUtil.CONFIG);
+	}
+}
@@ -0,0 +1,84 @@
+package org.ecnumc.voxelflow.benchmark;
+
+import org.ecnumc.voxelflow.enumeration.IssueStatus;
+import org.ecnumc.voxelflow.enumeration.RequirementStatus;
+import org.ecnumc.voxelflow.enumeration.StoryStatus;
+import org.ecnumc.voxelflow.enumeration.UserRole;
+import org.ecnumc.voxelflow.util.IOperableStatus;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 权限校验基准测试，对比角色列表逐个查找与角色掩码按位与两种实现喵~
+ * <p>
+ * 运行方式：./gradlew jmh
+ * </p>
+ * @author liudongyu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PermissionBenchmark {
+	private IOperableStatus[] statuses;
+
+	private List<UserRole> userRoles;
+
+	private int userRoleMask;
+
+	@Setup
+	public void setup() {
+		this.statuses = new IOperableStatus[] {
+				IssueStatus.REVIEWING, IssueStatus.HANDLING, IssueStatus.TESTING,
+				StoryStatus.values()[0], StoryStatus.values()[1],
+				RequirementStatus.values()[0], RequirementStatus.values()[1]
+		};
+		// 典型用户有两到三个角色，且都不是超级管理员，因此列表实现需要完整扫描
+		this.userRoles = Arrays.asList(UserRole.PRODUCT, UserRole.SECURITY, UserRole.OPERATION);
+		this.userRoleMask = UserRole.maskOf(this.userRoles);
+	}
+
+	@Benchmark
+	public void roleList(Blackhole blackhole) {
+		for(IOperableStatus status: this.statuses) {
+			blackhole.consume(hasPermissionToModifyByList(status, this.userRoles));
+		}
+	}
+
+	@Benchmark
+	public void roleMask(Blackhole blackhole) {
+		for(IOperableStatus status: this.statuses) {
+			blackhole.consume(IOperableStatus.hasPermissionToModify(status, this.userRoleMask));
+		}
+	}
+
+	@Benchmark
+	public void roleListWithParsing(Blackhole blackhole) {
+		// 原实现每次查询都需要把数据库中的字符串转换为角色列表
+		List<UserRole> roles = Arrays.asList(UserRole.valueOf("PRODUCT"), UserRole.valueOf("SECURITY"), UserRole.valueOf("OPERATION"));
+		for(IOperableStatus status: this.statuses) {
+			blackhole.consume(hasPermissionToModifyByList(status, roles));
+		}
+	}
+
+	/**
+	 * 原有的基于角色列表的权限校验实现，仅作为对照喵~
+	 */
+	private static boolean hasPermissionToModifyByList(IOperableStatus status, List<UserRole> userRoles) {
+		if (userRoles.contains(UserRole.SUPER_ADMIN)) {
+			return true;
+		}
+		for (UserRole role : userRoles) {
+			if (status.getOperableRoles().contains(role)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,258 @@
+package org.ecnumc.voxelflow.loadtest;
+
+import lombok.extern.slf4j.Slf4j;
+import org.ecnumc.voxelflow.enumeration.CommitType;
+import org.ecnumc.voxelflow.enumeration.IssueStatus;
+import org.ecnumc.voxelflow.enumeration.RelationType;
+import org.ecnumc.voxelflow.enumeration.RequirementStatus;
+import org.ecnumc.voxelflow.enumeration.RequirementType;
+import org.ecnumc.voxelflow.enumeration.StoryStatus;
+import org.ecnumc.voxelflow.enumeration.UserRole;
+import org.ecnumc.voxelflow.repository.UserValidationRepository;
+import org.ecnumc.voxelflow.util.IOperableStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * 生成压测数据：用户及角色、需求、故事、缺陷、处理关系和提交记录喵~
+ * <p>
+ * 数据由固定种子生成，同一组参数每次生成的数据完全相同。只生成仍可流转的状态，审批请求才会真正写库；
+ * 约十分之一的用户拥有除超级管理员外的全部角色，作为审批人和下一处理人。
+ * </p>
+ * @author liudongyu
+ */
+@Slf4j
+final class DataSeeder {
+	private static final int BATCH_SIZE = 1000;
+
+	private static final long DAY_MILLIS = 86400000L;
+
+	private final JdbcTemplate jdbcTemplate;
+
+	private final UserValidationRepository userValidationRepository;
+
+	private final LoadTestConfig config;
+
+	private final Random random;
+
+	private final long now = System.currentTimeMillis();
+
+	DataSeeder(JdbcTemplate jdbcTemplate, UserValidationRepository userValidationRepository, LoadTestConfig config) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.userValidationRepository = userValidationRepository;
+		this.config = config;
+		this.random = new Random(config.getSeed());
+	}
+
+	/**
+	 * 清空建表脚本中的示例数据并生成压测数据
+	 * @return 生成的数据，供请求生成使用
+	 */
+	Dataset seed() {
+		for(String table: Arrays.asList(
+				"user", "user_role_rel", "requirement", "story", "issue", "commit", "counter",
+				"user_requirement_rel", "user_story_rel", "user_issue_rel"
+		)) {
+			this.jdbcTemplate.execute("TRUNCATE TABLE `" + table + "`");
+		}
+		Dataset dataset = new Dataset();
+		this.seedUsers(dataset);
+		dataset.requirementCodes = this.seedItems(
+				"requirement", "REQ", this.config.getRequirements(), RequirementStatus.values(), dataset.uids
+		);
+		dataset.storyCodes = this.seedItems(
+				"story", "STORY", this.config.getStories(), StoryStatus.values(), dataset.uids
+		);
+		dataset.issueCodes = this.seedItems(
+				"issue", "BUG", this.config.getIssues(), IssueStatus.values(), dataset.uids
+		);
+		this.seedCommits(dataset);
+		this.jdbcTemplate.batchUpdate(
+				"INSERT INTO `counter` (`code`, `cnt`) VALUES (?, ?)",
+				Arrays.asList(
+						new Object[] { "REQ", dataset.requirementCodes.size() },
+						new Object[] { "BUG", dataset.issueCodes.size() },
+						new Object[] { "RTS", 0 }
+				)
+		);
+		log.info("Seeded {} users, {} requirements, {} stories, {} issues, {} commits",
+				dataset.uids.size(), dataset.requirementCodes.size(), dataset.storyCodes.size(),
+				dataset.issueCodes.size(), this.config.getCommits());
+		return dataset;
+	}
+
+	private void seedUsers(Dataset dataset) {
+		UserRole[] ordinaryRoles = Arrays.stream(UserRole.values())
+				.filter(role -> role != UserRole.SUPER_ADMIN)
+				.toArray(UserRole[]::new);
+		List<Object[]> users = new ArrayList<>();
+		List<Object[]> roles = new ArrayList<>();
+		for(int i = 0; i < this.config.getUsers(); ++i) {
+			String uid = new UUID(this.config.getSeed(), i).toString();
+			String email = "user" + i + "@loadtest.voxelflow";
+			users.add(new Object[] { uid, "user" + i, "loadtest", email, "VERIFIED" });
+			if(i % 10 == 0) {
+				// 审批人拥有全部普通角色，任何可流转的状态都能审批，也都能作为下一处理人
+				for(UserRole role: ordinaryRoles) {
+					roles.add(new Object[] { uid, role.name() });
+				}
+				dataset.approverUids.add(uid);
+			} else {
+				UserRole first = ordinaryRoles[this.random.nextInt(ordinaryRoles.length)];
+				UserRole second = ordinaryRoles[this.random.nextInt(ordinaryRoles.length)];
+				roles.add(new Object[] { uid, first.name() });
+				if(second != first) {
+					roles.add(new Object[] { uid, second.name() });
+				}
+			}
+			dataset.uids.add(uid);
+			dataset.emails.add(email);
+		}
+		this.batchInsert("INSERT INTO `user` (`uid`, `username`, `password`, `email`, `email_verified`) VALUES (?, ?, ?, ?, ?)", users);
+		this.batchInsert("INSERT INTO `user_role_rel` (`uid`, `role`) VALUES (?, ?)", roles);
+		for(String uid: dataset.uids) {
+			String token = UUID.nameUUIDFromBytes(uid.getBytes(StandardCharsets.UTF_8)).toString();
+			this.userValidationRepository.setToken(uid, token);
+			dataset.tokens.put(uid, token);
+		}
+	}
+
+	/**
+	 * 生成工作项，每项有一个当前状态下的待处理人，以及一到两条历史审批记录
+	 */
+	private <S extends Enum<S> & IOperableStatus> List<String> seedItems(String table, String prefix, int count,
+																		 S[] statuses, List<String> uids) {
+		List<S> modifiable = Arrays.stream(statuses)
+				.filter(status -> !status.getOperableRoles().isEmpty())
+				.collect(Collectors.toList());
+		List<String> codes = new ArrayList<>(count);
+		List<Object[]> items = new ArrayList<>();
+		List<Object[]> relations = new ArrayList<>();
+		boolean isRequirement = "requirement".equals(table);
+		boolean isStory = "story".equals(table);
+		for(int i = 1; i <= count; ++i) {
+			String code = prefix + "-" + i;
+			S status = modifiable.get(this.random.nextInt(modifiable.size()));
+			String createdBy = uids.get(this.random.nextInt(uids.size()));
+			Timestamp updatedAt = new Timestamp(this.now - (long) (this.random.nextDouble() * 90 * DAY_MILLIS));
+			List<Object> row = new ArrayList<>(Arrays.asList(
+					code, this.title(prefix, i), this.words(40), status.name(), this.random.nextInt(5),
+					createdBy, updatedAt, createdBy, updatedAt
+			));
+			if(isRequirement) {
+				RequirementType[] types = RequirementType.values();
+				row.add(types[this.random.nextInt(types.length)].name());
+			}
+			if(isStory) {
+				row.add("REQ-" + (this.random.nextInt(Math.max(this.config.getRequirements(), 1)) + 1));
+			}
+			items.add(row.toArray());
+			relations.add(new Object[] {
+					code, uids.get(this.random.nextInt(uids.size())), null, RelationType.HANDLING.name(), status.name(), null, createdBy
+			});
+			int history = 1 + this.random.nextInt(2);
+			for(int j = 0; j < history; ++j) {
+				S oldStatus = modifiable.get(this.random.nextInt(modifiable.size()));
+				relations.add(new Object[] {
+						code, uids.get(this.random.nextInt(uids.size())), this.words(6),
+						RelationType.APPROVED.name(), oldStatus.name(), status.name(), createdBy
+				});
+			}
+			codes.add(code);
+		}
+		String extraColumns = isRequirement ? ", `requirement_type`" : isStory ? ", `req_code`" : "";
+		String extraValues = isRequirement || isStory ? ", ?" : "";
+		this.batchInsert(
+				"INSERT INTO `" + table + "` (`code`, `title`, `description`, `status`, `priority`, `created_by`, `created_at`, `updated_by`, `updated_at`" +
+				extraColumns + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?" + extraValues + ")",
+				items
+		);
+		this.batchInsert(
+				"INSERT INTO `user_" + table + "_rel` (`code`, `uid`, `description`, `relation_type`, `old_status`, `new_status`, `created_by`) " +
+				"VALUES (?, ?, ?, ?, ?, ?, ?)",
+				relations
+		);
+		return codes;
+	}
+
+	private void seedCommits(Dataset dataset) {
+		List<String> codes = new ArrayList<>(dataset.issueCodes);
+		codes.addAll(dataset.storyCodes);
+		codes.addAll(dataset.requirementCodes);
+		if(codes.isEmpty()) {
+			return;
+		}
+		CommitType[] types = CommitType.values();
+		List<Object[]> commits = new ArrayList<>();
+		for(int i = 0; i < this.config.getCommits(); ++i) {
+			String commitId = String.format("%08x%032x", i, this.random.nextLong() & Long.MAX_VALUE);
+			String uid = dataset.uids.get(this.random.nextInt(dataset.uids.size()));
+			commits.add(new Object[] {
+					commitId, "https://github.com/ecnumc/loadtest",
+					types[this.random.nextInt(types.length)].name().toLowerCase(Locale.ROOT),
+					codes.get(this.random.nextInt(codes.size())), this.words(8),
+					"https://github.com/ecnumc/loadtest/commit/" + commitId, uid, uid
+			});
+		}
+		this.batchInsert(
+				"INSERT INTO `commit` (`commit_id`, `repo_url`, `commit_type`, `code`, `message`, `commit_url`, `created_by`, `updated_by`) " +
+				"VALUES (?, ?, ?, ?, ?, ?, ?, ?)",
+				commits
+		);
+	}
+
+	private void batchInsert(String sql, List<Object[]> rows) {
+		for(int from = 0; from < rows.size(); from += BATCH_SIZE) {
+			this.jdbcTemplate.batchUpdate(sql, rows.subList(from, Math.min(from + BATCH_SIZE, rows.size())));
+		}
+	}
+
+	private String title(String prefix, int index) {
+		return prefix + " " + index + " " + this.words(5);
+	}
+
+	private String words(int count) {
+		StringBuilder builder = new StringBuilder();
+		for(int i = 0; i < count; ++i) {
+			if(i > 0) {
+				builder.append(' ');
+			}
+			int length = 3 + this.random.nextInt(6);
+			for(int j = 0; j < length; ++j) {
+				builder.append((char) ('a' + this.random.nextInt(26)));
+			}
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * 生成的数据
+	 */
+	static final class Dataset {
+		final List<String> uids = new ArrayList<>();
+
+		final List<String> emails = new ArrayList<>();
+
+		final List<String> approverUids = new ArrayList<>();
+
+		final Map<String, String> tokens = new HashMap<>();
+
+		List<String> requirementCodes = Collections.emptyList();
+
+		List<String> storyCodes = Collections.emptyList();
+
+		List<String> issueCodes = Collections.emptyList();
+	}
+}
@@ -0,0 +1,107 @@
+package org.ecnumc.voxelflow.loadtest;
+
+import com.wix.mysql.EmbeddedMysql;
+import com.wix.mysql.Sources;
+import com.wix.mysql.SqlScriptSource;
+import com.wix.mysql.config.Charset;
+import com.wix.mysql.config.MysqldConfig;
+import com.wix.mysql.distribution.Version;
+import lombok.extern.slf4j.Slf4j;
+import redis.embedded.RedisServer;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 嵌入式 MySQL 和 Redis，不依赖容器，首次启动时会下载 MySQL 发行包并缓存在 ~/.embedmysql 喵~
+ * <p>
+ * 使用真实的 MySQL 8.0 而不是 H2 等内存数据库，因为审批使用多表 UPDATE、列表检索使用 ngram 全文索引，
+ * 这些语句的锁竞争正是压测要复现的。
+ * </p>
+ * @author liudongyu
+ */
+@Slf4j
+final class EmbeddedInfrastructure implements AutoCloseable {
+	static final String SCHEMA = "voxelflow";
+
+	static final String USER = "voxelflow";
+
+	static final String PASSWORD = "voxelflow";
+
+	private final int mysqlPort;
+
+	private final int redisPort;
+
+	@Nullable
+	private EmbeddedMysql mysql;
+
+	@Nullable
+	private RedisServer redis;
+
+	EmbeddedInfrastructure() throws IOException {
+		this.mysqlPort = freePort();
+		this.redisPort = freePort();
+	}
+
+	/**
+	 * 启动 MySQL 并执行建表脚本，再启动 Redis
+	 * @param sqlDir	建表脚本目录
+	 */
+	void start(String sqlDir) throws IOException {
+		File[] files = new File(sqlDir).listFiles((dir, name) -> name.endsWith(".sql"));
+		if(files == null || files.length == 0) {
+			throw new IllegalStateException("No create table scripts found in " + sqlDir);
+		}
+		Arrays.sort(files);
+		SqlScriptSource[] scripts = Arrays.stream(files).map(Sources::fromFile).toArray(SqlScriptSource[]::new);
+
+		MysqldConfig config = MysqldConfig.aMysqldConfig(Version.v8_0_17)
+				.withPort(this.mysqlPort)
+				.withCharset(Charset.UTF8MB4)
+				.withUser(USER, PASSWORD)
+				.withTimeZone("UTC")
+				.withTimeout(10, TimeUnit.MINUTES)
+				.withServerVariable("max_connections", 500)
+				.build();
+		log.info("Starting embedded MySQL on port {}", this.mysqlPort);
+		this.mysql = EmbeddedMysql.anEmbeddedMysql(config).addSchema(SCHEMA, scripts).start();
+
+		log.info("Starting embedded Redis on port {}", this.redisPort);
+		this.redis = RedisServer.builder().port(this.redisPort).setting("maxmemory 256M").build();
+		this.redis.start();
+	}
+
+	/**
+	 * 应用的 JDBC 连接串
+	 * @return JDBC 连接串
+	 */
+	String jdbcUrl() {
+		return "jdbc:mysql://127.0.0.1:" + this.mysqlPort + "/" + SCHEMA +
+				"?useUnicode=true&useSSL=false&allowPublicKeyRetrieval=true&characterEncoding=utf8" +
+				"&serverTimezone=UTC&rewriteBatchedStatements=true";
+	}
+
+	int getRedisPort() {
+		return this.redisPort;
+	}
+
+	@Override
+	public void close() {
+		if(this.redis != null) {
+			this.redis.stop();
+		}
+		if(this.mysql != null) {
+			this.mysql.stop();
+		}
+	}
+
+	private static int freePort() throws IOException {
+		try(ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package org.ecnumc.voxelflow.loadtest;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.HdrHistogram.Histogram;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 压测报告：各接口的吞吐量、p50/p99 延迟，以及服务端记录的每次请求数据库语句数和 Redis 命令数喵~
+ * <p>
+ * 语句数和命令数来自 {@code voxelflow.request.db.statements} 和 {@code voxelflow.request.redis.commands}，
+ * 取预热结束时的快照作为起点，只统计计时期间的请求。Webhook 在后台线程入库，其语句不计入接口的数据。
+ * </p>
+ * @author liudongyu
+ */
+final class LoadReport {
+	private static final String DB_STATEMENTS = "voxelflow.request.db.statements";
+
+	private static final String REDIS_COMMANDS = "voxelflow.request.redis.commands";
+
+	private final MeterRegistry meterRegistry;
+
+	/**
+	 * 指标名 -> uri -> { 请求数, 总数 }
+	 */
+	private final Map<String, Map<String, double[]>> baseline = new HashMap<>();
+
+	LoadReport(MeterRegistry meterRegistry) {
+		this.meterRegistry = meterRegistry;
+	}
+
+	/**
+	 * 记录服务端指标的起点，在预热结束时调用
+	 */
+	void markStart() {
+		this.baseline.put(DB_STATEMENTS, this.snapshot(DB_STATEMENTS));
+		this.baseline.put(REDIS_COMMANDS, this.snapshot(REDIS_COMMANDS));
+	}
+
+	/**
+	 * 生成报告
+	 * @param result	压测结果
+	 * @return 表格形式的报告
+	 */
+	String format(Workload.Result result) {
+		Map<String, double[]> statements = this.delta(DB_STATEMENTS);
+		Map<String, double[]> redisCommands = this.delta(REDIS_COMMANDS);
+		StringBuilder builder = new StringBuilder();
+		builder.append(String.format(Locale.ROOT, "Measured %.1f seconds%n", result.seconds));
+		builder.append(String.format(Locale.ROOT, "%-26s %9s %7s %9s %9s %9s %9s %9s%n",
+				"endpoint", "requests", "errors", "req/s", "p50(ms)", "p99(ms)", "db/req", "redis/req"));
+		long totalCount = 0L;
+		for(Map.Entry<String, Workload.EndpointStats> entry: new TreeMap<>(result.stats).entrySet()) {
+			Workload.EndpointStats stats = entry.getValue();
+			Histogram histogram = stats.latencyMicros;
+			long count = histogram.getTotalCount();
+			totalCount += count;
+			builder.append(String.format(Locale.ROOT, "%-26s %9d %7d %9.1f %9.2f %9.2f %9s %9s%n",
+					entry.getKey(), count, stats.errors.sum(), count / result.seconds,
+					histogram.getValueAtPercentile(50.0D) / 1000.0D, histogram.getValueAtPercentile(99.0D) / 1000.0D,
+					average(statements.get(stats.uri)), average(redisCommands.get(stats.uri))));
+		}
+		builder.append(String.format(Locale.ROOT, "%-26s %9d %7s %9.1f%n", "total", totalCount, "", totalCount / result.seconds));
+		return builder.toString();
+	}
+
+	private Map<String, double[]> snapshot(String name) {
+		Map<String, double[]> values = new HashMap<>();
+		for(DistributionSummary summary: this.meterRegistry.find(name).summaries()) {
+			values.put(summary.getId().getTag("uri"), new double[] { summary.count(), summary.totalAmount() });
+		}
+		return values;
+	}
+
+	private Map<String, double[]> delta(String name) {
+		Map<String, double[]> start = this.baseline.getOrDefault(name, new HashMap<>());
+		Map<String, double[]> values = this.snapshot(name);
+		for(Map.Entry<String, double[]> entry: values.entrySet()) {
+			double[] before = start.get(entry.getKey());
+			if(before != null) {
+				entry.getValue()[0] -= before[0];
+				entry.getValue()[1] -= before[1];
+			}
+		}
+		return values;
+	}
+
+	private static String average(double[] value) {
+		if(value == null || value[0] <= 0.0D) {
+			return "-";
+		}
+		return String.format(Locale.ROOT, "%.2f", value[1] / value[0]);
+	}
+}
@@ -0,0 +1,62 @@
+package org.ecnumc.voxelflow.loadtest;
+
+import lombok.Getter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 压测参数，均通过 -Dloadtest.xxx 系统属性指定喵~
+ * @author liudongyu
+ */
+@Getter
+final class LoadTestConfig {
+	/**
+	 * 建表脚本目录，由 Gradle 任务传入
+	 */
+	private final String sqlDir = System.getProperty("loadtest.sql-dir", "sql/create_table");
+
+	/**
+	 * 数据生成的随机种子，相同种子生成相同的数据和请求序列
+	 */
+	private final long seed = Long.getLong("loadtest.seed", 20240501L);
+
+	private final int users = Integer.getInteger("loadtest.users", 200);
+
+	private final int requirements = Integer.getInteger("loadtest.requirements", 2000);
+
+	private final int stories = Integer.getInteger("loadtest.stories", 5000);
+
+	private final int issues = Integer.getInteger("loadtest.issues", 10000);
+
+	private final int commits = Integer.getInteger("loadtest.commits", 20000);
+
+	/**
+	 * 并发请求的线程数
+	 */
+	private final int concurrency = Integer.getInteger("loadtest.concurrency", 16);
+
+	/**
+	 * 预热时间，期间的请求不计入结果
+	 */
+	private final int warmupSeconds = Integer.getInteger("loadtest.warmup-seconds", 10);
+
+	private final int durationSeconds = Integer.getInteger("loadtest.duration-seconds", 60);
+
+	/**
+	 * 请求类型及权重，格式为 list:50,query:30,approve:15,webhook:5
+	 */
+	private final Map<String, Integer> mix = parseMix(System.getProperty("loadtest.mix", "list:50,query:30,approve:15,webhook:5"));
+
+	private static Map<String, Integer> parseMix(String mix) {
+		Map<String, Integer> result = new LinkedHashMap<>();
+		for(String entry: mix.split(",")) {
+			String[] pair = entry.trim().split(":");
+			if(pair.length != 2) {
+				throw new IllegalArgumentException("Invalid loadtest.mix entry: " + entry);
+			}
+			result.put(pair[0].trim(), Integer.parseInt(pair[1].trim()));
+		}
+		return result;
+	}
+}
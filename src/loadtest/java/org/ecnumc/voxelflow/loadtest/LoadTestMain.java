@@ -0,0 +1,51 @@
+package org.ecnumc.voxelflow.loadtest;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.ecnumc.voxelflow.Application;
+import org.ecnumc.voxelflow.repository.UserValidationRepository;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * 压测入口：启动嵌入式 MySQL 和 Redis，以它们启动完整的应用，生成数据后回放混合负载并输出报告喵~
+ * <p>
+ * 运行方式：{@code ./gradlew loadTest}，参数见 {@link LoadTestConfig}。
+ * 结果只在同一台机器、同一组参数下可比较。
+ * </p>
+ * @author liudongyu
+ */
+@Slf4j
+public final class LoadTestMain {
+	private LoadTestMain() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		LoadTestConfig config = new LoadTestConfig();
+		try(EmbeddedInfrastructure infrastructure = new EmbeddedInfrastructure()) {
+			infrastructure.start(config.getSqlDir());
+			// 命令行参数的优先级高于 application.properties
+			String[] applicationArgs = {
+					"--spring.datasource.url=" + infrastructure.jdbcUrl(),
+					"--spring.datasource.username=" + EmbeddedInfrastructure.USER,
+					"--spring.datasource.password=" + EmbeddedInfrastructure.PASSWORD,
+					"--spring.redis.host=127.0.0.1",
+					"--spring.redis.port=" + infrastructure.getRedisPort(),
+					"--server.port=0",
+					"--management.server.port=-1",
+					"--logging.level.root=WARN",
+					"--logging.level.org.ecnumc.voxelflow.loadtest=INFO"
+			};
+			try(ConfigurableApplicationContext context = SpringApplication.run(Application.class, applicationArgs)) {
+				DataSeeder.Dataset dataset = new DataSeeder(
+						context.getBean(JdbcTemplate.class), context.getBean(UserValidationRepository.class), config
+				).seed();
+				String port = context.getEnvironment().getProperty("local.server.port");
+				LoadReport report = new LoadReport(context.getBean(MeterRegistry.class));
+				Workload.Result result = new Workload("http://127.0.0.1:" + port, dataset, config).run(report::markStart);
+				log.info("Load test finished, concurrency {}, mix {}\n{}", config.getConcurrency(), config.getMix(), report.format(result));
+			}
+		}
+	}
+}
@@ -0,0 +1,314 @@
+package org.ecnumc.voxelflow.loadtest;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.ecnumc.voxelflow.enumeration.CommitType;
+import org.ecnumc.voxelflow.enumeration.IssueStatus;
+import org.ecnumc.voxelflow.enumeration.RequirementStatus;
+import org.ecnumc.voxelflow.enumeration.StoryStatus;
+import org.ecnumc.voxelflow.util.IOperableStatus;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * 混合负载：按权重随机发起列表、详情、审批和 Webhook 推送请求，按接口记录延迟分布和失败数喵~
+ * <p>
+ * 每个线程使用由种子派生的随机数，同一组参数发出的请求序列相同。预热期间的请求不计入结果。
+ * 业务错误码（如审批时状态已被其他人修改）也计为失败，它们正是并发竞争的表现。
+ * </p>
+ * @author liudongyu
+ */
+@Slf4j
+final class Workload {
+	private static final String[] ITEM_TYPES = { "issue", "story", "requirement" };
+
+	private static final int COMMITS_PER_PUSH = 5;
+
+	private final String baseUrl;
+
+	private final DataSeeder.Dataset dataset;
+
+	private final LoadTestConfig config;
+
+	private final Map<String, List<String>> statusesByType = new ConcurrentHashMap<>();
+
+	private final Map<String, EndpointStats> stats = new ConcurrentHashMap<>();
+
+	private final AtomicLong commitSequence = new AtomicLong();
+
+	private volatile boolean measuring;
+
+	Workload(String baseUrl, DataSeeder.Dataset dataset, LoadTestConfig config) {
+		this.baseUrl = baseUrl;
+		this.dataset = dataset;
+		this.config = config;
+		this.statusesByType.put("issue", modifiableStatuses(IssueStatus.values()));
+		this.statusesByType.put("story", modifiableStatuses(StoryStatus.values()));
+		this.statusesByType.put("requirement", modifiableStatuses(RequirementStatus.values()));
+	}
+
+	/**
+	 * 预热后开始计时，运行到指定时长
+	 * @param onMeasureStart	预热结束、开始计时的回调，用于记录服务端指标的起点
+	 * @return 各接口的统计，以及实际计时的秒数
+	 */
+	Result run(Runnable onMeasureStart) throws InterruptedException {
+		int totalWeight = this.config.getMix().values().stream().mapToInt(Integer::intValue).sum();
+		if(totalWeight <= 0) {
+			throw new IllegalArgumentException("loadtest.mix must have a positive total weight");
+		}
+		long warmupEnd = System.nanoTime() + TimeUnit.SECONDS.toNanos(this.config.getWarmupSeconds());
+		long end = warmupEnd + TimeUnit.SECONDS.toNanos(this.config.getDurationSeconds());
+		ExecutorService executor = Executors.newFixedThreadPool(this.config.getConcurrency());
+		for(int i = 0; i < this.config.getConcurrency(); ++i) {
+			Random random = new Random(this.config.getSeed() * 31L + i);
+			executor.execute(() -> {
+				while(System.nanoTime() < end) {
+					this.execute(this.pick(random, totalWeight), random);
+				}
+			});
+		}
+		long sleepNanos = warmupEnd - System.nanoTime();
+		if(sleepNanos > 0L) {
+			TimeUnit.NANOSECONDS.sleep(sleepNanos);
+		}
+		onMeasureStart.run();
+		this.measuring = true;
+		long measureStart = System.nanoTime();
+		log.info("Warmup finished, measuring for {} seconds with {} threads", this.config.getDurationSeconds(), this.config.getConcurrency());
+		executor.shutdown();
+		executor.awaitTermination(this.config.getDurationSeconds() + 60L, TimeUnit.SECONDS);
+		this.measuring = false;
+		double seconds = (System.nanoTime() - measureStart) / 1e9D;
+		return new Result(this.stats, seconds);
+	}
+
+	private String pick(Random random, int totalWeight) {
+		int value = random.nextInt(totalWeight);
+		for(Map.Entry<String, Integer> entry: this.config.getMix().entrySet()) {
+			value -= entry.getValue();
+			if(value < 0) {
+				return entry.getKey();
+			}
+		}
+		throw new IllegalStateException("Unreachable");
+	}
+
+	private void execute(String operation, Random random) {
+		String type = ITEM_TYPES[random.nextInt(ITEM_TYPES.length)];
+		switch (operation) {
+			case "list":
+				this.list(type, random);
+				break;
+			case "query":
+				this.query(type, random);
+				break;
+			case "approve":
+				this.approve(type, random);
+				break;
+			case "webhook":
+				this.webhook(random);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown operation in loadtest.mix: " + operation);
+		}
+	}
+
+	private void list(String type, Random random) {
+		StringBuilder query = new StringBuilder("?pageSize=20&orderBy=updatedAt&orderDir=desc");
+		int variant = random.nextInt(4);
+		if(variant == 0) {
+			// 游标分页第一页
+			query.append("&cursor=");
+		} else if(variant == 1) {
+			List<String> statuses = this.statusesByType.get(type);
+			query.append("&status=").append(statuses.get(random.nextInt(statuses.size())));
+		} else {
+			query.append("&pageNum=").append(1 + random.nextInt(5));
+		}
+		this.send("GET", "/" + type + "/list", query.toString(), null, this.randomUid(random), null);
+	}
+
+	private void query(String type, Random random) {
+		String code = this.randomCode(type, random);
+		this.send("GET", "/" + type + "/query", "?code=" + encode(code), null, this.randomUid(random), null);
+	}
+
+	private void approve(String type, Random random) {
+		List<String> approvers = this.dataset.approverUids;
+		String uid = approvers.get(random.nextInt(approvers.size()));
+		String nextOperator = approvers.get(random.nextInt(approvers.size()));
+		JSONObject body = new JSONObject();
+		body.put("code", this.randomCode(type, random));
+		body.put("nextOperators", new JSONArray(Arrays.asList(nextOperator)));
+		body.put("description", "loadtest");
+		this.send("POST", "/" + type + "/approve", "", body.toJSONString(), uid, null);
+	}
+
+	private void webhook(Random random) {
+		JSONArray commits = new JSONArray();
+		CommitType[] types = CommitType.values();
+		for(int i = 0; i < COMMITS_PER_PUSH; ++i) {
+			String type = ITEM_TYPES[random.nextInt(ITEM_TYPES.length)];
+			String id = String.format("%016x%024x", this.commitSequence.incrementAndGet(), random.nextLong() & Long.MAX_VALUE);
+			JSONObject committer = new JSONObject();
+			committer.put("email", this.dataset.emails.get(random.nextInt(this.dataset.emails.size())));
+			JSONObject commit = new JSONObject();
+			commit.put("id", id);
+			commit.put("message", types[random.nextInt(types.length)].name().toLowerCase(Locale.ROOT) +
+					"(" + this.randomCode(type, random) + "): loadtest push " + id.substring(0, 8));
+			commit.put("url", "https://github.com/ecnumc/loadtest/commit/" + id);
+			commit.put("committer", committer);
+			commits.add(commit);
+		}
+		JSONObject repository = new JSONObject();
+		repository.put("html_url", "https://github.com/ecnumc/loadtest");
+		JSONObject payload = new JSONObject();
+		payload.put("commits", commits);
+		payload.put("repository", repository);
+		JSONObject body = new JSONObject();
+		body.put("payload", payload);
+		this.send("POST", "/webhook", "", body.toJSONString(), null, "push");
+	}
+
+	/**
+	 * 发送请求并记录延迟，HTTP 状态码不是 2xx 或响应体中的 code 不是 200 时计为失败
+	 */
+	private void send(String method, String path, String query, @Nullable String body, @Nullable String uid, @Nullable String githubEvent) {
+		long start = System.nanoTime();
+		boolean success;
+		try {
+			HttpURLConnection connection = (HttpURLConnection) new URL(this.baseUrl + path + query).openConnection();
+			connection.setRequestMethod(method);
+			connection.setConnectTimeout(5000);
+			connection.setReadTimeout(30000);
+			if(uid != null) {
+				connection.setRequestProperty("p_u", uid);
+				connection.setRequestProperty("p_t", this.dataset.tokens.get(uid));
+			}
+			if(githubEvent != null) {
+				connection.setRequestProperty("X-GitHub-Event", githubEvent);
+			}
+			if(body != null) {
+				connection.setDoOutput(true);
+				connection.setRequestProperty("Content-Type", "application/json;charset=UTF-8");
+				try(OutputStream output = connection.getOutputStream()) {
+					output.write(body.getBytes(StandardCharsets.UTF_8));
+				}
+			}
+			int status = connection.getResponseCode();
+			String response = readFully(status < 400 ? connection.getInputStream() : connection.getErrorStream());
+			success = status / 100 == 2 && (response.isEmpty() || JSON.parseObject(response).getIntValue("code") == 200);
+		} catch (IOException | RuntimeException e) {
+			log.debug("Request {} {} failed:", method, path, e);
+			success = false;
+		}
+		long elapsedMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+		if(this.measuring) {
+			EndpointStats endpointStats = this.stats.computeIfAbsent(method + " " + path, key -> new EndpointStats(path));
+			endpointStats.latencyMicros.recordValue(Math.max(elapsedMicros, 1L));
+			if(!success) {
+				endpointStats.errors.increment();
+			}
+		}
+	}
+
+	private String randomUid(Random random) {
+		return this.dataset.uids.get(random.nextInt(this.dataset.uids.size()));
+	}
+
+	private String randomCode(String type, Random random) {
+		List<String> codes = "issue".equals(type) ? this.dataset.issueCodes :
+				"story".equals(type) ? this.dataset.storyCodes : this.dataset.requirementCodes;
+		return codes.get(random.nextInt(codes.size()));
+	}
+
+	private static List<String> modifiableStatuses(IOperableStatus[] statuses) {
+		return Arrays.stream(statuses)
+				.filter(status -> !status.getOperableRoles().isEmpty())
+				.map(status -> ((Enum<?>) status).name())
+				.collect(Collectors.toList());
+	}
+
+	private static String encode(String value) {
+		try {
+			return URLEncoder.encode(value, "UTF-8");
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String readFully(@Nullable InputStream input) throws IOException {
+		if(input == null) {
+			return "";
+		}
+		try(InputStream in = input) {
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while((read = in.read(buffer)) != -1) {
+				output.write(buffer, 0, read);
+			}
+			return new String(output.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * 单个接口的统计
+	 */
+	static final class EndpointStats {
+		/**
+		 * 服务端指标中的 uri 标签
+		 */
+		final String uri;
+
+		/**
+		 * 延迟分布，单位微秒，最长记录一分钟
+		 */
+		final Histogram latencyMicros = new ConcurrentHistogram(TimeUnit.MINUTES.toMicros(1L), 3);
+
+		final LongAdder errors = new LongAdder();
+
+		private EndpointStats(String uri) {
+			this.uri = uri;
+		}
+	}
+
+	/**
+	 * 压测结果
+	 */
+	static final class Result {
+		final Map<String, EndpointStats> stats;
+
+		final double seconds;
+
+		private Result(Map<String, EndpointStats> stats, double seconds) {
+			this.stats = stats;
+			this.seconds = seconds;
+		}
+	}
+}
@@ -0,0 +1,23 @@
+package org.ecnumc.voxelflow.bo;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 审批前的任务状态 BO，由一次查询同时取得当前状态和待处理的责任人
+ * @author liudongyu
+ */
+@Data
+@Builder
+public class ApprovalStateBo {
+	/**
+	 * 当前状态
+	 */
+	private final String status;
+	/**
+	 * 当前状态下待处理的责任人 UID
+	 */
+	private final List<String> pendingUids;
+}
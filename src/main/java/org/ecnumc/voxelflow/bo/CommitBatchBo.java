@@ -0,0 +1,29 @@
+package org.ecnumc.voxelflow.bo;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.io.Serializable;
+
+/**
+ * 批量写入提交记录的结果 BO
+ * @author liudongyu
+ */
+@Data
+@Builder
+public class CommitBatchBo implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * 新写入的提交记录数
+	 */
+	private final int inserted;
+	/**
+	 * 已存在或批次内重复而被跳过的提交记录数
+	 */
+	private final int duplicated;
+	/**
+	 * 不符合列定义而被拒绝写入的提交记录数
+	 */
+	private final int rejected;
+}
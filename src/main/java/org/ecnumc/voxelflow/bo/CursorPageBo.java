@@ -0,0 +1,26 @@
+package org.ecnumc.voxelflow.bo;
+
+import lombok.Builder;
+import lombok.Data;
+
+import javax.annotation.Nullable;
+import java.util.List;
+
+/**
+ * 游标分页查询结果 BO
+ * @param <T> 实体类型
+ * @author liudongyu
+ */
+@Data
+@Builder
+public class CursorPageBo<T> {
+	/**
+	 * 当前页的数据
+	 */
+	private final List<T> list;
+	/**
+	 * 下一页的游标，null 表示没有下一页
+	 */
+	@Nullable
+	private final String nextCursor;
+}
@@ -0,0 +1,25 @@
+package org.ecnumc.voxelflow.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+/**
+ * Redis 配置
+ * @author liudongyu
+ */
+@Configuration
+public class RedisConfig {
+	/**
+	 * Redis 消息监听容器，用于接收其它节点广播的本地缓存失效通知
+	 * @param connectionFactory	Redis 连接工厂
+	 * @return 消息监听容器
+	 */
+	@Bean
+	public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory) {
+		RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+		container.setConnectionFactory(connectionFactory);
+		return container;
+	}
+}
@@ -1,5 +1,6 @@
 package org.ecnumc.voxelflow.config;
 
+import org.ecnumc.voxelflow.interceptor.RequestStatementInterceptor;
 import org.ecnumc.voxelflow.interceptor.TokenInterceptor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Configuration;
@@ -15,19 +16,26 @@ public class WebMvcConfig implements WebMvcConfigurer {
 	@Autowired
 	private TokenInterceptor tokenInterceptor;
 
+	@Autowired
+	private RequestStatementInterceptor requestStatementInterceptor;
+
 	/**
 	 * 添加拦截器
 	 * @param registry	拦截器注册
 	 */
 	@Override
 	public void addInterceptors(InterceptorRegistry registry) {
+		// 最先注册，Token 校验执行的语句也计入请求的数据库往返次数
+		registry.addInterceptor(this.requestStatementInterceptor)
+			.addPathPatterns("/**");
 		registry.addInterceptor(this.tokenInterceptor)
 			.addPathPatterns("/**")	// 拦截所有请求
 			.excludePathPatterns(
 					"/user/sign-up",	// 排除注册接口
 					"/user/log-in",		// 排除登录接口
 					"/webhook",			// 排除 WebHook 接口
-					"/error"			// 排除 Error 接口
+					"/error",			// 排除 Error 接口
+					"/actuator/**"		// 排除监控接口，只在本机管理端口上暴露
 			);
 	}
 }
@@ -2,11 +2,15 @@ package org.ecnumc.voxelflow.controller;
 
 import lombok.extern.slf4j.Slf4j;
 import org.ecnumc.voxelflow.enumeration.ClientErrorCode;
+import org.ecnumc.voxelflow.enumeration.CountMode;
 import org.ecnumc.voxelflow.req.TaskAssignReq;
+import org.ecnumc.voxelflow.req.TaskBatchAssignReq;
+import org.ecnumc.voxelflow.req.TaskBatchCommandReq;
 import org.ecnumc.voxelflow.req.TaskCommandReq;
 import org.ecnumc.voxelflow.req.IssueCreateReq;
 import org.ecnumc.voxelflow.req.IssueUpdateReq;
 import org.ecnumc.voxelflow.resp.BaseResp;
+import org.ecnumc.voxelflow.resp.BatchResultResp;
 import org.ecnumc.voxelflow.resp.PagedResp;
 import org.ecnumc.voxelflow.resp.IssueResp;
 import org.ecnumc.voxelflow.service.IssueService;
@@ -100,14 +104,24 @@ public class IssueController {
 	 * @param pageSize	每页数量
 	 * @param orderBy	排序字段
 	 * @param orderDir	排序方向
+	 * @param cursor	游标，传入时使用游标分页并忽略 pageNum，空字符串表示第一页
+	 * @param countMode	总数统计方式，默认精确统计
 	 * @return 缺陷列表
 	 */
 	@GetMapping("/list")
 	public BaseResp<PagedResp<IssueResp>> list(@Nullable String title, @Nullable String status, @Nullable Integer priority,
 											   @Min(value = 1) @RequestParam(value = "pageNum", defaultValue = "1") int pageNum,
 											   @Min(value = 1) @Max(value = 10000) @RequestParam(value = "pageSize", defaultValue = "20") int pageSize,
-											   @Nullable String orderBy, @Nullable String orderDir) {
-		return BaseResp.success(this.issueService.list(title, status, priority, pageNum, pageSize, orderBy, orderDir));
+											   @Nullable String orderBy, @Nullable String orderDir, @Nullable String cursor,
+											   @RequestParam(value = "countMode", defaultValue = "EXACT") CountMode countMode) {
+		if(cursor != null) {
+			PagedResp<IssueResp> resp = this.issueService.listByCursor(title, status, priority, pageSize, orderBy, orderDir, cursor);
+			if(resp == null) {
+				return BaseResp.error(ClientErrorCode.ERROR_1495);
+			}
+			return BaseResp.success(resp);
+		}
+		return BaseResp.success(this.issueService.list(title, status, priority, pageNum, pageSize, orderBy, orderDir, countMode));
 	}
 
 	/**
@@ -160,6 +174,48 @@ public class IssueController {
 		return BaseResp.error(errorCode);
 	}
 
+	/**
+	 * 批量通过缺陷
+	 * @param req		批量缺陷操作请求
+	 * @param request	HTTP 请求
+	 * @return 每个缺陷的操作结果
+	 */
+	@PostMapping("/approve/batch")
+	public BaseResp<BatchResultResp> approveIssues(@Validated @RequestBody TaskBatchCommandReq req, HttpServletRequest request) {
+		String uid = (String) request.getAttribute("uid");
+		return BaseResp.success(BatchResultResp.of(
+				this.issueService.approveAll(req.getCodes(), req.getNextOperators(), req.getDescription(), uid)
+		));
+	}
+
+	/**
+	 * 批量拒绝缺陷
+	 * @param req		批量缺陷操作请求
+	 * @param request	HTTP 请求
+	 * @return 每个缺陷的操作结果
+	 */
+	@PostMapping("/reject/batch")
+	public BaseResp<BatchResultResp> rejectIssues(@Validated @RequestBody TaskBatchCommandReq req, HttpServletRequest request) {
+		String uid = (String) request.getAttribute("uid");
+		return BaseResp.success(BatchResultResp.of(
+				this.issueService.rejectAll(req.getCodes(), req.getNextOperators(), req.getDescription(), uid)
+		));
+	}
+
+	/**
+	 * 批量分配缺陷
+	 * @param req		批量缺陷分配请求
+	 * @param request	HTTP 请求
+	 * @return 每个缺陷的操作结果
+	 */
+	@PostMapping("/assign/batch")
+	public BaseResp<BatchResultResp> assignIssues(@Validated @RequestBody TaskBatchAssignReq req, HttpServletRequest request) {
+		String uid = (String) request.getAttribute("uid");
+		return BaseResp.success(BatchResultResp.of(
+				this.issueService.assignAll(req.getCodes(), req.getAssignee() == null ? uid : req.getAssignee(), uid)
+		));
+	}
+
 	/**
 	 * 取消缺陷分配
 	 * @param req		缺陷分配请求
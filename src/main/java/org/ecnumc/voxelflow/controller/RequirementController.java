@@ -2,11 +2,15 @@ package org.ecnumc.voxelflow.controller;
 
 import lombok.extern.slf4j.Slf4j;
 import org.ecnumc.voxelflow.enumeration.ClientErrorCode;
+import org.ecnumc.voxelflow.enumeration.CountMode;
 import org.ecnumc.voxelflow.req.TaskAssignReq;
+import org.ecnumc.voxelflow.req.TaskBatchAssignReq;
+import org.ecnumc.voxelflow.req.TaskBatchCommandReq;
 import org.ecnumc.voxelflow.req.TaskCommandReq;
 import org.ecnumc.voxelflow.req.RequirementCreateReq;
 import org.ecnumc.voxelflow.req.RequirementUpdateReq;
 import org.ecnumc.voxelflow.resp.BaseResp;
+import org.ecnumc.voxelflow.resp.BatchResultResp;
 import org.ecnumc.voxelflow.resp.PagedResp;
 import org.ecnumc.voxelflow.resp.RequirementResp;
 import org.ecnumc.voxelflow.service.RequirementService;
@@ -101,14 +105,24 @@ public class RequirementController {
 	 * @param pageSize	每页数量
 	 * @param orderBy	排序字段
 	 * @param orderDir	排序方向
+	 * @param cursor	游标，传入时使用游标分页并忽略 pageNum，空字符串表示第一页
+	 * @param countMode	总数统计方式，默认精确统计
 	 * @return 需求列表
 	 */
 	@GetMapping("/list")
 	public BaseResp<PagedResp<RequirementResp>> list(@Nullable String title, @Nullable String status, @Nullable Integer priority,
 													 @Min(value = 1) @RequestParam(value = "pageNum", defaultValue = "1") int pageNum,
 													 @Min(value = 1) @Max(value = 10000) @RequestParam(value = "pageSize", defaultValue = "20") int pageSize,
-													 @Nullable String orderBy, @Nullable String orderDir) {
-		return BaseResp.success(this.requirementService.list(title, status, priority, pageNum, pageSize, orderBy, orderDir));
+													 @Nullable String orderBy, @Nullable String orderDir, @Nullable String cursor,
+											   @RequestParam(value = "countMode", defaultValue = "EXACT") CountMode countMode) {
+		if(cursor != null) {
+			PagedResp<RequirementResp> resp = this.requirementService.listByCursor(title, status, priority, pageSize, orderBy, orderDir, cursor);
+			if(resp == null) {
+				return BaseResp.error(ClientErrorCode.ERROR_1495);
+			}
+			return BaseResp.success(resp);
+		}
+		return BaseResp.success(this.requirementService.list(title, status, priority, pageNum, pageSize, orderBy, orderDir, countMode));
 	}
 
 	/**
@@ -161,6 +175,48 @@ public class RequirementController {
 		return BaseResp.error(errorCode);
 	}
 
+	/**
+	 * 批量通过需求
+	 * @param req		批量需求操作请求
+	 * @param request	HTTP 请求
+	 * @return 每个需求的操作结果
+	 */
+	@PostMapping("/approve/batch")
+	public BaseResp<BatchResultResp> approveRequirements(@Validated @RequestBody TaskBatchCommandReq req, HttpServletRequest request) {
+		String uid = (String) request.getAttribute("uid");
+		return BaseResp.success(BatchResultResp.of(
+				this.requirementService.approveAll(req.getCodes(), req.getNextOperators(), req.getDescription(), uid)
+		));
+	}
+
+	/**
+	 * 批量拒绝需求
+	 * @param req		批量需求操作请求
+	 * @param request	HTTP 请求
+	 * @return 每个需求的操作结果
+	 */
+	@PostMapping("/reject/batch")
+	public BaseResp<BatchResultResp> rejectRequirements(@Validated @RequestBody TaskBatchCommandReq req, HttpServletRequest request) {
+		String uid = (String) request.getAttribute("uid");
+		return BaseResp.success(BatchResultResp.of(
+				this.requirementService.rejectAll(req.getCodes(), req.getNextOperators(), req.getDescription(), uid)
+		));
+	}
+
+	/**
+	 * 批量分配需求
+	 * @param req		批量需求分配请求
+	 * @param request	HTTP 请求
+	 * @return 每个需求的操作结果
+	 */
+	@PostMapping("/assign/batch")
+	public BaseResp<BatchResultResp> assignRequirements(@Validated @RequestBody TaskBatchAssignReq req, HttpServletRequest request) {
+		String uid = (String) request.getAttribute("uid");
+		return BaseResp.success(BatchResultResp.of(
+				this.requirementService.assignAll(req.getCodes(), req.getAssignee() == null ? uid : req.getAssignee(), uid)
+		));
+	}
+
 	/**
 	 * 取消需求分配
 	 * @param req		需求分配请求
@@ -2,11 +2,15 @@ package org.ecnumc.voxelflow.controller;
 
 import lombok.extern.slf4j.Slf4j;
 import org.ecnumc.voxelflow.enumeration.ClientErrorCode;
+import org.ecnumc.voxelflow.enumeration.CountMode;
 import org.ecnumc.voxelflow.req.TaskAssignReq;
+import org.ecnumc.voxelflow.req.TaskBatchAssignReq;
+import org.ecnumc.voxelflow.req.TaskBatchCommandReq;
 import org.ecnumc.voxelflow.req.TaskCommandReq;
 import org.ecnumc.voxelflow.req.RetrospectiveCreateReq;
 import org.ecnumc.voxelflow.req.RetrospectiveUpdateReq;
 import org.ecnumc.voxelflow.resp.BaseResp;
+import org.ecnumc.voxelflow.resp.BatchResultResp;
 import org.ecnumc.voxelflow.resp.PagedResp;
 import org.ecnumc.voxelflow.resp.RetrospectiveResp;
 import org.ecnumc.voxelflow.service.RetrospectiveService;
@@ -97,14 +101,24 @@ public class RetrospectiveController {
 	 * @param pageSize	每页数量
 	 * @param orderBy	排序字段
 	 * @param orderDir	排序方向
+	 * @param cursor	游标，传入时使用游标分页并忽略 pageNum，空字符串表示第一页
+	 * @param countMode	总数统计方式，默认精确统计
 	 * @return 复盘列表
 	 */
 	@GetMapping("/list")
 	public BaseResp<PagedResp<RetrospectiveResp>> list(@Nullable String title, @Nullable String status,
 													   @Min(value = 1) @RequestParam(value = "pageNum", defaultValue = "1") int pageNum,
 													   @Min(value = 1) @Max(value = 10000) @RequestParam(value = "pageSize", defaultValue = "20") int pageSize,
-													   @Nullable String orderBy, @Nullable String orderDir) {
-		return BaseResp.success(this.retrospectiveService.list(title, status, null, pageNum, pageSize, orderBy, orderDir));
+													   @Nullable String orderBy, @Nullable String orderDir, @Nullable String cursor,
+											   @RequestParam(value = "countMode", defaultValue = "EXACT") CountMode countMode) {
+		if(cursor != null) {
+			PagedResp<RetrospectiveResp> resp = this.retrospectiveService.listByCursor(title, status, null, pageSize, orderBy, orderDir, cursor);
+			if(resp == null) {
+				return BaseResp.error(ClientErrorCode.ERROR_1495);
+			}
+			return BaseResp.success(resp);
+		}
+		return BaseResp.success(this.retrospectiveService.list(title, status, null, pageNum, pageSize, orderBy, orderDir, countMode));
 	}
 
 	/**
@@ -157,6 +171,48 @@ public class RetrospectiveController {
 		return BaseResp.error(errorCode);
 	}
 
+	/**
+	 * 批量通过复盘
+	 * @param req		批量复盘操作请求
+	 * @param request	HTTP 请求
+	 * @return 每个复盘的操作结果
+	 */
+	@PostMapping("/approve/batch")
+	public BaseResp<BatchResultResp> approveRetrospectives(@Validated @RequestBody TaskBatchCommandReq req, HttpServletRequest request) {
+		String uid = (String) request.getAttribute("uid");
+		return BaseResp.success(BatchResultResp.of(
+				this.retrospectiveService.approveAll(req.getCodes(), req.getNextOperators(), req.getDescription(), uid)
+		));
+	}
+
+	/**
+	 * 批量拒绝复盘
+	 * @param req		批量复盘操作请求
+	 * @param request	HTTP 请求
+	 * @return 每个复盘的操作结果
+	 */
+	@PostMapping("/reject/batch")
+	public BaseResp<BatchResultResp> rejectRetrospectives(@Validated @RequestBody TaskBatchCommandReq req, HttpServletRequest request) {
+		String uid = (String) request.getAttribute("uid");
+		return BaseResp.success(BatchResultResp.of(
+				this.retrospectiveService.rejectAll(req.getCodes(), req.getNextOperators(), req.getDescription(), uid)
+		));
+	}
+
+	/**
+	 * 批量分配复盘
+	 * @param req		批量复盘分配请求
+	 * @param request	HTTP 请求
+	 * @return 每个复盘的操作结果
+	 */
+	@PostMapping("/assign/batch")
+	public BaseResp<BatchResultResp> assignRetrospectives(@Validated @RequestBody TaskBatchAssignReq req, HttpServletRequest request) {
+		String uid = (String) request.getAttribute("uid");
+		return BaseResp.success(BatchResultResp.of(
+				this.retrospectiveService.assignAll(req.getCodes(), req.getAssignee() == null ? uid : req.getAssignee(), uid)
+		));
+	}
+
 	/**
 	 * 取消复盘分配
 	 * @param req		复盘分配请求
@@ -2,11 +2,15 @@ package org.ecnumc.voxelflow.controller;
 
 import lombok.extern.slf4j.Slf4j;
 import org.ecnumc.voxelflow.enumeration.ClientErrorCode;
+import org.ecnumc.voxelflow.enumeration.CountMode;
 import org.ecnumc.voxelflow.req.TaskAssignReq;
+import org.ecnumc.voxelflow.req.TaskBatchAssignReq;
+import org.ecnumc.voxelflow.req.TaskBatchCommandReq;
 import org.ecnumc.voxelflow.req.TaskCommandReq;
 import org.ecnumc.voxelflow.req.StoryCreateReq;
 import org.ecnumc.voxelflow.req.StoryUpdateReq;
 import org.ecnumc.voxelflow.resp.BaseResp;
+import org.ecnumc.voxelflow.resp.BatchResultResp;
 import org.ecnumc.voxelflow.resp.PagedResp;
 import org.ecnumc.voxelflow.resp.StoryResp;
 import org.ecnumc.voxelflow.service.StoryService;
@@ -101,14 +105,24 @@ public class StoryController {
 	 * @param pageSize	每页数量
 	 * @param orderBy	排序字段
 	 * @param orderDir	排序方向
+	 * @param cursor	游标，传入时使用游标分页并忽略 pageNum，空字符串表示第一页
+	 * @param countMode	总数统计方式，默认精确统计
 	 * @return 故事列表
 	 */
 	@GetMapping("/list")
 	public BaseResp<PagedResp<StoryResp>> list(@Nullable String title, @Nullable String status, @Nullable Integer priority,
 											   @Min(value = 1) @RequestParam(value = "pageNum", defaultValue = "1") int pageNum,
 											   @Min(value = 1) @Max(value = 10000) @RequestParam(value = "pageSize", defaultValue = "20") int pageSize,
-											   @Nullable String orderBy, @Nullable String orderDir) {
-		return BaseResp.success(this.storyService.list(title, status, priority, pageNum, pageSize, orderBy, orderDir));
+											   @Nullable String orderBy, @Nullable String orderDir, @Nullable String cursor,
+											   @RequestParam(value = "countMode", defaultValue = "EXACT") CountMode countMode) {
+		if(cursor != null) {
+			PagedResp<StoryResp> resp = this.storyService.listByCursor(title, status, priority, pageSize, orderBy, orderDir, cursor);
+			if(resp == null) {
+				return BaseResp.error(ClientErrorCode.ERROR_1495);
+			}
+			return BaseResp.success(resp);
+		}
+		return BaseResp.success(this.storyService.list(title, status, priority, pageNum, pageSize, orderBy, orderDir, countMode));
 	}
 
 	/**
@@ -161,6 +175,48 @@ public class StoryController {
 		return BaseResp.error(errorCode);
 	}
 
+	/**
+	 * 批量通过故事
+	 * @param req		批量故事操作请求
+	 * @param request	HTTP 请求
+	 * @return 每个故事的操作结果
+	 */
+	@PostMapping("/approve/batch")
+	public BaseResp<BatchResultResp> approveStorys(@Validated @RequestBody TaskBatchCommandReq req, HttpServletRequest request) {
+		String uid = (String) request.getAttribute("uid");
+		return BaseResp.success(BatchResultResp.of(
+				this.storyService.approveAll(req.getCodes(), req.getNextOperators(), req.getDescription(), uid)
+		));
+	}
+
+	/**
+	 * 批量拒绝故事
+	 * @param req		批量故事操作请求
+	 * @param request	HTTP 请求
+	 * @return 每个故事的操作结果
+	 */
+	@PostMapping("/reject/batch")
+	public BaseResp<BatchResultResp> rejectStorys(@Validated @RequestBody TaskBatchCommandReq req, HttpServletRequest request) {
+		String uid = (String) request.getAttribute("uid");
+		return BaseResp.success(BatchResultResp.of(
+				this.storyService.rejectAll(req.getCodes(), req.getNextOperators(), req.getDescription(), uid)
+		));
+	}
+
+	/**
+	 * 批量分配故事
+	 * @param req		批量故事分配请求
+	 * @param request	HTTP 请求
+	 * @return 每个故事的操作结果
+	 */
+	@PostMapping("/assign/batch")
+	public BaseResp<BatchResultResp> assignStorys(@Validated @RequestBody TaskBatchAssignReq req, HttpServletRequest request) {
+		String uid = (String) request.getAttribute("uid");
+		return BaseResp.success(BatchResultResp.of(
+				this.storyService.assignAll(req.getCodes(), req.getAssignee() == null ? uid : req.getAssignee(), uid)
+		));
+	}
+
 	/**
 	 * 取消故事分配
 	 * @param req		故事分配请求
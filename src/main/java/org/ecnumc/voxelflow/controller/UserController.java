@@ -1,6 +1,7 @@
 package org.ecnumc.voxelflow.controller;
 
 import org.ecnumc.voxelflow.enumeration.ClientErrorCode;
+import org.ecnumc.voxelflow.enumeration.CountMode;
 import org.ecnumc.voxelflow.req.UserCommandReq;
 import org.ecnumc.voxelflow.req.UserLogInReq;
 import org.ecnumc.voxelflow.req.UserRoleReq;
@@ -33,6 +34,8 @@ public class UserController {
 	 * @param status		用户状态
 	 * @param pageNum		页码
 	 * @param pageSize		每页数量
+	 * @param cursor		游标，传入时使用游标分页并忽略 pageNum，空字符串表示第一页
+	 * @param countMode		总数统计方式，默认精确统计
 	 * @param request		HTTP 请求
 	 * @return 用户列表
 	 */
@@ -42,9 +45,23 @@ public class UserController {
 											  @RequestParam(value = "status") @Nullable String status,
 											  @Min(value = 1) @RequestParam(value = "pageNum", defaultValue = "1") int pageNum,
 											  @Min(value = 1) @Max(value = 10000) int pageSize,
+											  @Nullable String cursor,
+											  @RequestParam(value = "countMode", defaultValue = "EXACT") CountMode countMode,
 											  HttpServletRequest request) {
 		String uid = (String) request.getAttribute("uid");
-		PagedResp<UserResp> resp = this.userService.list("%" + username + "%", emailVerified, status, pageNum, pageSize, uid);
+		if(cursor != null) {
+			PagedResp<UserResp> resp;
+			try {
+				resp = this.userService.listByCursor("%" + username + "%", emailVerified, status, pageSize, cursor, uid);
+			} catch (IllegalArgumentException e) {
+				return BaseResp.error(ClientErrorCode.ERROR_1495);
+			}
+			if(resp == null) {
+				return BaseResp.error(ClientErrorCode.ERROR_1491);
+			}
+			return BaseResp.success(resp);
+		}
+		PagedResp<UserResp> resp = this.userService.list("%" + username + "%", emailVerified, status, pageNum, pageSize, countMode, uid);
 		if(resp == null) {
 			return BaseResp.error(ClientErrorCode.ERROR_1491);
 		}
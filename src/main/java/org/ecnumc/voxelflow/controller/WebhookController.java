@@ -2,8 +2,10 @@ package org.ecnumc.voxelflow.controller;
 
 import com.alibaba.fastjson.JSONObject;
 import lombok.extern.slf4j.Slf4j;
-import org.ecnumc.voxelflow.service.CommitCommandService;
+import org.ecnumc.voxelflow.service.WebhookIngestService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -20,24 +22,32 @@ import javax.servlet.http.HttpServletRequest;
 @Slf4j
 public class WebhookController {
 	@Autowired
-	private CommitCommandService commitCommandService;
+	private WebhookIngestService webhookIngestService;
 
 	/**
 	 * 当任何代码被推送到仓库时，会触发这个接口的 POST。此时解析 commit message，并关联提交到故事/问题/需求。
+	 * <p>
+	 * 推送事件入队后立即返回 202，由后台线程处理；队列已满时返回 503，GitHub 会稍后重新投递。
+	 * </p>
 	 * @param jsonObject	请求参数
 	 * @param request		HTTP 请求
+	 * @return 响应状态
 	 */
 	@PostMapping("")
-	public void webhook(@RequestBody JSONObject jsonObject, HttpServletRequest request) {
+	public ResponseEntity<Void> webhook(@RequestBody JSONObject jsonObject, HttpServletRequest request) {
 		String githubEvent = request.getHeader("X-GitHub-Event");
 		log.info("githubEvent: {}", githubEvent);
-		log.info("Payload: {}", jsonObject);
+		log.debug("Payload: {}", jsonObject);
 		if("push".equals(githubEvent)) {
 			JSONObject payload = jsonObject.getJSONObject("payload");
 			if(payload == null) {
-				return;
+				return ResponseEntity.ok().build();
 			}
-			this.commitCommandService.push(payload);
+			if(!this.webhookIngestService.submitPush(payload)) {
+				return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+			}
+			return ResponseEntity.status(HttpStatus.ACCEPTED).build();
 		}
+		return ResponseEntity.ok().build();
 	}
 }
@@ -102,7 +102,15 @@ public enum ClientErrorCode implements IErrorCode, Serializable {
 	/**
 	 * 不能重复添加或移除错误喵~
 	 */
-	ERROR_1494(1494, "不能重复添加或移除");
+	ERROR_1494(1494, "不能重复添加或移除"),
+	/**
+	 * 无效的分页游标错误喵~
+	 */
+	ERROR_1495(1495, "无效的分页游标"),
+	/**
+	 * 状态已被其他人修改错误喵~ 刷新后可以重试
+	 */
+	ERROR_1496(1496, "状态已被其他人修改，请刷新后重试");
 
 	private static final long serialVersionUID = 1L;
 
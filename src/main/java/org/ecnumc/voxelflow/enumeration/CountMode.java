@@ -0,0 +1,21 @@
+package org.ecnumc.voxelflow.enumeration;
+
+/**
+ * 分页查询的总数统计方式喵~
+ *
+ * @author liudongyu
+ */
+public enum CountMode {
+	/**
+	 * 精确统计，每次都执行 COUNT 查询
+	 */
+	EXACT,
+	/**
+	 * 近似统计，同一筛选条件的总数在短时间内复用缓存
+	 */
+	APPROXIMATE,
+	/**
+	 * 不统计总数，只返回是否还有下一页
+	 */
+	NONE
+}
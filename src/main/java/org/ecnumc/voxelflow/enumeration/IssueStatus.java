@@ -1,7 +1,6 @@
 package org.ecnumc.voxelflow.enumeration;
 
 import com.google.common.collect.ImmutableSet;
-import lombok.AllArgsConstructor;
 import lombok.Getter;
 import org.ecnumc.voxelflow.util.IOperableStatus;
 
@@ -15,7 +14,6 @@ import static org.ecnumc.voxelflow.enumeration.UserRole.*;
  * @author liudongyu
  */
 @Getter
-@AllArgsConstructor
 public enum IssueStatus implements IOperableStatus {
 	/**
 	 * 审核中状态，由业务、测试、诊断角色审核问题的有效性喵~
@@ -138,6 +136,16 @@ public enum IssueStatus implements IOperableStatus {
 	 * 可操作的角色
 	 */
 	private final Set<UserRole> operableRoles;
+	/**
+	 * 可操作角色的掩码，已包含超级管理员喵~
+	 */
+	private final int operableRoleMask;
+
+	IssueStatus(String name, Set<UserRole> operableRoles) {
+		this.name = name;
+		this.operableRoles = operableRoles;
+		this.operableRoleMask = UserRole.maskOf(operableRoles) | SUPER_ADMIN.getMask();
+	}
 
 	/**
 	 * 负责人完成该阶段喵~
@@ -1,7 +1,6 @@
 package org.ecnumc.voxelflow.enumeration;
 
 import com.google.common.collect.ImmutableSet;
-import lombok.AllArgsConstructor;
 import lombok.Getter;
 import org.ecnumc.voxelflow.util.IOperableStatus;
 
@@ -18,7 +17,6 @@ import static org.ecnumc.voxelflow.enumeration.UserRole.MODEL;
  * @author liudongyu
  */
 @Getter
-@AllArgsConstructor
 public enum StoryStatus implements IOperableStatus {
 	/**
 	 * 草稿状态，故事已创建，由开发、架构、美术、模型、建筑角色编写和完善喵~
@@ -113,6 +111,16 @@ public enum StoryStatus implements IOperableStatus {
 	 * 可操作的角色喵~
 	 */
 	private final Set<UserRole> operableRoles;
+	/**
+	 * 可操作角色的掩码，已包含超级管理员喵~
+	 */
+	private final int operableRoleMask;
+
+	StoryStatus(String name, Set<UserRole> operableRoles) {
+		this.name = name;
+		this.operableRoles = operableRoles;
+		this.operableRoleMask = UserRole.maskOf(operableRoles) | SUPER_ADMIN.getMask();
+	}
 
 	/**
 	 * 负责人完成该阶段喵~
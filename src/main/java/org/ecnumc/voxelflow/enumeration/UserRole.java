@@ -1,5 +1,8 @@
 package org.ecnumc.voxelflow.enumeration;
 
+import java.util.EnumSet;
+import java.util.Set;
+
 /**
  * 用户角色枚举，定义了系统中所有可用的用户角色类型喵~
  *
@@ -53,5 +56,68 @@ public enum UserRole {
 	/**
 	 * 超级管理员
 	 */
-	SUPER_ADMIN
+	SUPER_ADMIN;
+
+	/**
+	 * 角色掩码，每个角色占一位喵~
+	 */
+	private final int mask = 1 << this.ordinal();
+
+	/**
+	 * 获取角色掩码喵~
+	 * @return 角色掩码
+	 */
+	public int getMask() {
+		return this.mask;
+	}
+
+	/**
+	 * 判断掩码中是否包含该角色喵~
+	 * @param roleMask	角色掩码
+	 * @return 是否包含
+	 */
+	public boolean isIn(int roleMask) {
+		return (roleMask & this.mask) != 0;
+	}
+
+	/**
+	 * 计算角色集合的掩码喵~
+	 * @param roles	角色集合
+	 * @return 角色掩码
+	 */
+	public static int maskOf(Iterable<UserRole> roles) {
+		int roleMask = 0;
+		for(UserRole role: roles) {
+			roleMask |= role.mask;
+		}
+		return roleMask;
+	}
+
+	/**
+	 * 计算若干角色的掩码喵~
+	 * @param roles	角色
+	 * @return 角色掩码
+	 */
+	public static int maskOf(UserRole... roles) {
+		int roleMask = 0;
+		for(UserRole role: roles) {
+			roleMask |= role.mask;
+		}
+		return roleMask;
+	}
+
+	/**
+	 * 将角色掩码还原为角色集合喵~
+	 * @param roleMask	角色掩码
+	 * @return 角色集合，按定义顺序排列
+	 */
+	public static Set<UserRole> fromMask(int roleMask) {
+		Set<UserRole> roles = EnumSet.noneOf(UserRole.class);
+		for(UserRole role: values()) {
+			if(role.isIn(roleMask)) {
+				roles.add(role);
+			}
+		}
+		return roles;
+	}
 }
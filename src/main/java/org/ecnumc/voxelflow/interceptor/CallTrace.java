@@ -0,0 +1,109 @@
+package org.ecnumc.voxelflow.interceptor;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 当前线程的调用链，记录 Controller → Service → Repository → Mapper 的嵌套耗时喵~
+ * <p>
+ * 最外层调用结束时整条链随之丢弃；单条链最多记录 {@link #MAX_SPANS} 个节点，超出部分只计时不记录，
+ * 避免循环调用撑大内存。
+ * </p>
+ * @author liudongyu
+ */
+public final class CallTrace {
+	private static final int MAX_SPANS = 256;
+
+	private static final ThreadLocal<Span> CURRENT = new ThreadLocal<>();
+
+	private CallTrace() {
+	}
+
+	/**
+	 * 进入一个调用，作为当前调用的子节点
+	 * @param name	调用名
+	 * @return 新的调用节点
+	 */
+	public static Span enter(String name) {
+		Span parent = CURRENT.get();
+		Span span = new Span(name, parent);
+		if(parent != null && span.root.spanCount < MAX_SPANS) {
+			span.root.spanCount += 1;
+			parent.children.add(span);
+		}
+		CURRENT.set(span);
+		return span;
+	}
+
+	/**
+	 * 退出调用，当前调用回到父节点
+	 * @param span			调用节点，必须是 {@link #enter(String)} 返回的当前节点
+	 * @param elapsedNanos	耗时，单位纳秒
+	 */
+	public static void exit(Span span, long elapsedNanos) {
+		span.elapsedNanos = elapsedNanos;
+		if(span.parent == null) {
+			CURRENT.remove();
+		} else {
+			CURRENT.set(span.parent);
+		}
+	}
+
+	/**
+	 * 调用链中的一个节点
+	 */
+	public static final class Span {
+		private final String name;
+
+		@Nullable
+		private final Span parent;
+
+		private final Span root;
+
+		private final List<Span> children = new ArrayList<>();
+
+		private int spanCount = 1;
+
+		private long elapsedNanos;
+
+		private Span(String name, @Nullable Span parent) {
+			this.name = name;
+			this.parent = parent;
+			this.root = parent == null ? this : parent.root;
+		}
+
+		/**
+		 * 是否是最外层调用
+		 * @return 没有父节点时返回 true
+		 */
+		public boolean isRoot() {
+			return this.parent == null;
+		}
+
+		/**
+		 * 以缩进树的形式输出调用链，每行一个节点
+		 * @return 调用链
+		 */
+		public String format() {
+			StringBuilder builder = new StringBuilder();
+			this.format(builder, 0);
+			if(this.root.spanCount >= MAX_SPANS) {
+				builder.append("  ... truncated after ").append(MAX_SPANS).append(" spans\n");
+			}
+			return builder.toString();
+		}
+
+		private void format(StringBuilder builder, int depth) {
+			for(int i = 0; i < depth; ++i) {
+				builder.append("  ");
+			}
+			builder.append(this.name).append(' ')
+					.append(TimeUnit.NANOSECONDS.toMicros(this.elapsedNanos) / 1000.0D).append(" ms\n");
+			for(Span child : this.children) {
+				child.format(builder, depth + 1);
+			}
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package org.ecnumc.voxelflow.interceptor;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nullable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分层耗时切面，为 Controller、Service、Repository 的公开方法计时，并串成调用链喵~
+ * <p>
+ * 耗时记录到 {@code voxelflow.layer}，以 layer、class、method、exception 为标签；
+ * Mapper 的耗时由 {@link StatementTimingInterceptor} 记录并挂到同一条调用链上。
+ * 最外层调用超过阈值时输出整条调用链，用于定位慢在角色查询、关系更新还是数据库。
+ * </p>
+ * @author liudongyu
+ */
+@Aspect
+@Component
+@Slf4j
+public class LayerTimingAspect {
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Value("${voxelflow.trace.slow-threshold-millis:500}")
+	private long slowThresholdMillis;
+
+	/**
+	 * layer.class.method.exception -> 耗时分布，避免每次调用都构建 Timer
+	 */
+	private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+	@Around("within(org.ecnumc.voxelflow.controller..*) && execution(public * *(..))")
+	public Object traceController(ProceedingJoinPoint joinPoint) throws Throwable {
+		return this.trace(joinPoint, "controller");
+	}
+
+	@Around("within(org.ecnumc.voxelflow.service..*) && execution(public * *(..))")
+	public Object traceService(ProceedingJoinPoint joinPoint) throws Throwable {
+		return this.trace(joinPoint, "service");
+	}
+
+	@Around("within(org.ecnumc.voxelflow.repository..*) && execution(public * *(..))")
+	public Object traceRepository(ProceedingJoinPoint joinPoint) throws Throwable {
+		return this.trace(joinPoint, "repository");
+	}
+
+	/**
+	 * 计时并记录到调用链
+	 * @param joinPoint	切点
+	 * @param layer		所在层
+	 * @return 原方法的返回值
+	 * @throws Throwable 原方法抛出的异常
+	 */
+	private Object trace(ProceedingJoinPoint joinPoint, String layer) throws Throwable {
+		String className = AopUtils.getTargetClass(joinPoint.getTarget()).getSimpleName();
+		String method = joinPoint.getSignature().getName();
+		CallTrace.Span span = CallTrace.enter(className + "." + method);
+		Throwable error = null;
+		long start = System.nanoTime();
+		try {
+			return joinPoint.proceed();
+		} catch (Throwable e) {
+			error = e;
+			throw e;
+		} finally {
+			long elapsed = System.nanoTime() - start;
+			CallTrace.exit(span, elapsed);
+			this.timer(layer, className, method, error).record(elapsed, TimeUnit.NANOSECONDS);
+			if(span.isRoot() && elapsed >= TimeUnit.MILLISECONDS.toNanos(this.slowThresholdMillis)) {
+				log.warn("Slow call {}.{} took {} ms:\n{}", className, method, TimeUnit.NANOSECONDS.toMillis(elapsed), span.format());
+			}
+		}
+	}
+
+	private Timer timer(String layer, String className, String method, @Nullable Throwable error) {
+		String exception = error == null ? "none" : error.getClass().getSimpleName();
+		return this.timers.computeIfAbsent(
+				layer + "." + className + "." + method + "." + exception,
+				key -> Timer.builder("voxelflow.layer")
+						.description("Time spent in a controller, service or repository method")
+						.tag("layer", layer)
+						.tag("class", className)
+						.tag("method", method)
+						.tag("exception", exception)
+						.publishPercentileHistogram()
+						.register(this.meterRegistry)
+		);
+	}
+}
@@ -0,0 +1,64 @@
+package org.ecnumc.voxelflow.interceptor;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.ecnumc.voxelflow.util.RedisCommandCount;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.annotation.Nullable;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * 记录每个请求的数据库和 Redis 往返次数喵~
+ * <p>
+ * 以接口路径为标签记录到 {@code voxelflow.request.db.statements} 和 {@code voxelflow.request.redis.commands}，
+ * 用于观察审批等接口每次调用执行了多少条 SQL 和 Redis 命令；在其它线程中执行的语句和命令不计入。
+ * </p>
+ * @author liudongyu
+ */
+@Component
+@Slf4j
+public class RequestStatementInterceptor implements HandlerInterceptor {
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	private static final String START_ATTRIBUTE = RequestStatementInterceptor.class.getName() + ".start";
+
+	private static final String REDIS_START_ATTRIBUTE = RequestStatementInterceptor.class.getName() + ".redisStart";
+
+	@Override
+	public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+		request.setAttribute(START_ATTRIBUTE, StatementCountInterceptor.current());
+		request.setAttribute(REDIS_START_ATTRIBUTE, RedisCommandCount.current());
+		return true;
+	}
+
+	@Override
+	public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, @Nullable Exception ex) {
+		Object start = request.getAttribute(START_ATTRIBUTE);
+		Object redisStart = request.getAttribute(REDIS_START_ATTRIBUTE);
+		if(!(start instanceof Long) || !(redisStart instanceof Long)) {
+			return;
+		}
+		long statements = StatementCountInterceptor.current() - (Long) start;
+		long redisCommands = RedisCommandCount.current() - (Long) redisStart;
+		Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+		String uri = pattern == null ? "UNKNOWN" : pattern.toString();
+		DistributionSummary.builder("voxelflow.request.db.statements")
+				.description("Database statements executed per request")
+				.tag("uri", uri)
+				.register(this.meterRegistry)
+				.record(statements);
+		DistributionSummary.builder("voxelflow.request.redis.commands")
+				.description("Redis commands executed per request")
+				.tag("uri", uri)
+				.register(this.meterRegistry)
+				.record(redisCommands);
+		log.debug("{} {} executed {} database statements and {} redis commands", request.getMethod(), uri, statements, redisCommands);
+	}
+}
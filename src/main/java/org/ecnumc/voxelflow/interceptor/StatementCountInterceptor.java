@@ -0,0 +1,37 @@
+package org.ecnumc.voxelflow.interceptor;
+
+import org.apache.ibatis.executor.statement.StatementHandler;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Signature;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+
+/**
+ * MyBatis 语句计数拦截器，统计当前线程发送到数据库的语句数喵~
+ * <p>
+ * 每条语句对应一次数据库往返；一级缓存命中的查询不会准备语句，因此不计入，事务的开启和提交也不计入。
+ * </p>
+ * @author liudongyu
+ */
+@Component
+@Intercepts(@Signature(type = StatementHandler.class, method = "prepare", args = { Connection.class, Integer.class }))
+public class StatementCountInterceptor implements Interceptor {
+	private static final ThreadLocal<long[]> COUNT = ThreadLocal.withInitial(() -> new long[1]);
+
+	@Override
+	public Object intercept(Invocation invocation) throws Throwable {
+		COUNT.get()[0] += 1L;
+		return invocation.proceed();
+	}
+
+	/**
+	 * 获取当前线程累计执行的语句数，两次调用的差即为期间的数据库往返次数
+	 * @return 当前线程累计执行的语句数
+	 */
+	public static long current() {
+		return COUNT.get()[0];
+	}
+}
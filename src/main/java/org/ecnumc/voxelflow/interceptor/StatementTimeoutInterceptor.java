@@ -0,0 +1,61 @@
+package org.ecnumc.voxelflow.interceptor;
+
+import org.apache.ibatis.executor.statement.StatementHandler;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Signature;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.function.Supplier;
+
+/**
+ * MyBatis 语句超时拦截器，为当前线程准备的语句设置 JDBC 查询超时喵~
+ * <p>
+ * 中断执行查询的线程不会让数据库停止执行，查询超时由驱动在数据库侧终止查询。
+ * 只在 {@link #withTimeout(int, Supplier)} 内生效，语句已有更短的超时时保留原值。
+ * </p>
+ * @author liudongyu
+ */
+@Component
+@Intercepts(@Signature(type = StatementHandler.class, method = "prepare", args = { Connection.class, Integer.class }))
+public class StatementTimeoutInterceptor implements Interceptor {
+	private static final ThreadLocal<Integer> TIMEOUT_SECONDS = new ThreadLocal<>();
+
+	@Override
+	public Object intercept(Invocation invocation) throws Throwable {
+		Object result = invocation.proceed();
+		Integer timeout = TIMEOUT_SECONDS.get();
+		if(timeout != null && result instanceof Statement) {
+			Statement statement = (Statement) result;
+			int current = statement.getQueryTimeout();
+			if(current == 0 || current > timeout) {
+				statement.setQueryTimeout(timeout);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 在查询超时内执行，期间当前线程准备的语句都设置该超时
+	 * @param timeoutSeconds	查询超时，单位秒，JDBC 的最小粒度
+	 * @param supplier			执行的操作
+	 * @param <T>				返回值类型
+	 * @return 操作的返回值
+	 */
+	public static <T> T withTimeout(int timeoutSeconds, Supplier<T> supplier) {
+		Integer previous = TIMEOUT_SECONDS.get();
+		TIMEOUT_SECONDS.set(timeoutSeconds);
+		try {
+			return supplier.get();
+		} finally {
+			if(previous == null) {
+				TIMEOUT_SECONDS.remove();
+			} else {
+				TIMEOUT_SECONDS.set(previous);
+			}
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package org.ecnumc.voxelflow.interceptor;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MyBatis 语句耗时拦截器，按 Mapper 方法记录耗时分布，并异步记录慢查询喵~
+ * <p>
+ * 耗时记录到 {@code voxelflow.db.statement}，以 mapper、method 为标签，并挂到 {@link CallTrace} 调用链上。
+ * 超过阈值的语句按采样率交给后台线程写日志，日志只包含带占位符的 SQL 和参数个数，不输出绑定参数的值；
+ * 日志队列已满时丢弃并计入 {@code voxelflow.db.slow.dropped}，不阻塞数据库调用。
+ * </p>
+ * @author liudongyu
+ */
+@Component
+@Slf4j
+@Intercepts({
+		@Signature(type = Executor.class, method = "update", args = { MappedStatement.class, Object.class }),
+		@Signature(type = Executor.class, method = "query", args = { MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class }),
+		@Signature(type = Executor.class, method = "query", args = { MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class, CacheKey.class, BoundSql.class })
+})
+public class StatementTimingInterceptor implements Interceptor {
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Value("${voxelflow.slow-query.threshold-millis:200}")
+	private long thresholdMillis;
+
+	@Value("${voxelflow.slow-query.sample-rate:1.0}")
+	private double sampleRate;
+
+	@Value("${voxelflow.slow-query.queue-capacity:256}")
+	private int queueCapacity;
+
+	/**
+	 * Mapper 方法 -> 耗时分布，避免每次执行都构建 Timer
+	 */
+	private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+	private long thresholdNanos;
+
+	private ThreadPoolExecutor logExecutor;
+
+	private Counter slowCounter;
+
+	private Counter droppedCounter;
+
+	@PostConstruct
+	public void init() {
+		this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(this.thresholdMillis);
+		this.slowCounter = Counter.builder("voxelflow.db.slow")
+				.description("Statements slower than the slow query threshold")
+				.register(this.meterRegistry);
+		this.droppedCounter = Counter.builder("voxelflow.db.slow.dropped")
+				.description("Slow query log entries dropped because the log queue was full")
+				.register(this.meterRegistry);
+		this.logExecutor = new ThreadPoolExecutor(
+				1, 1, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(this.queueCapacity),
+				runnable -> {
+					Thread thread = new Thread(runnable, "slow-query-log");
+					thread.setDaemon(true);
+					return thread;
+				},
+				(runnable, executor) -> this.droppedCounter.increment()
+		);
+	}
+
+	@PreDestroy
+	public void destroy() {
+		this.logExecutor.shutdown();
+	}
+
+	@Override
+	public Object intercept(Invocation invocation) throws Throwable {
+		Object[] args = invocation.getArgs();
+		MappedStatement statement = (MappedStatement) args[0];
+		CallTrace.Span span = CallTrace.enter(shortName(statement.getId()));
+		long start = System.nanoTime();
+		try {
+			return invocation.proceed();
+		} finally {
+			long elapsed = System.nanoTime() - start;
+			CallTrace.exit(span, elapsed);
+			this.timer(statement.getId()).record(elapsed, TimeUnit.NANOSECONDS);
+			if(elapsed >= this.thresholdNanos) {
+				this.slowCounter.increment();
+				if(this.sampleRate >= 1.0D || ThreadLocalRandom.current().nextDouble() < this.sampleRate) {
+					BoundSql boundSql = args.length > 5 ? (BoundSql) args[5] : statement.getBoundSql(args[1]);
+					this.logSlow(statement.getId(), elapsed, boundSql.getSql(), boundSql.getParameterMappings().size());
+				}
+			}
+		}
+	}
+
+	/**
+	 * 获取 Mapper 方法的耗时分布
+	 * @param statementId	语句 id，即 Mapper 全限定名加方法名
+	 * @return 耗时分布
+	 */
+	private Timer timer(String statementId) {
+		return this.timers.computeIfAbsent(statementId, id -> {
+			String name = shortName(id);
+			int split = name.lastIndexOf('.');
+			return Timer.builder("voxelflow.db.statement")
+					.description("Time spent executing a mapper method")
+					.tag("mapper", split < 0 ? "UNKNOWN" : name.substring(0, split))
+					.tag("method", name.substring(split + 1))
+					.publishPercentileHistogram()
+					.register(this.meterRegistry);
+		});
+	}
+
+	/**
+	 * 去掉语句 id 中 Mapper 的包名
+	 * @param statementId	语句 id，如 org.ecnumc.voxelflow.mapper.IssueMapper.selectOne
+	 * @return Mapper 简单类名加方法名，如 IssueMapper.selectOne
+	 */
+	private static String shortName(String statementId) {
+		int split = statementId.lastIndexOf('.');
+		return split < 0 ? statementId : statementId.substring(statementId.lastIndexOf('.', split - 1) + 1);
+	}
+
+	/**
+	 * 异步记录慢查询，SQL 中的参数仍是占位符
+	 * @param statementId		语句 id
+	 * @param elapsedNanos		耗时，单位纳秒
+	 * @param sql				带占位符的 SQL
+	 * @param parameterCount	绑定参数个数
+	 */
+	private void logSlow(String statementId, long elapsedNanos, String sql, int parameterCount) {
+		this.logExecutor.execute(() -> log.warn(
+				"Slow statement {} took {} ms: {} [{} parameters redacted]",
+				statementId, TimeUnit.NANOSECONDS.toMillis(elapsedNanos), sql.replaceAll("\\s+", " ").trim(), parameterCount
+		));
+	}
+}
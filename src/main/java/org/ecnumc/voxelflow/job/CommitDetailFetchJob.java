@@ -3,25 +3,52 @@ package org.ecnumc.voxelflow.job;
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.google.common.util.concurrent.RateLimiter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 import org.ecnumc.voxelflow.lock.RedisDistributedLock;
 import org.ecnumc.voxelflow.mapper.CommitMapper;
 import org.ecnumc.voxelflow.po.Commit;
+import org.ecnumc.voxelflow.repository.RedisRepository;
+import org.jsoup.HttpStatusException;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
 import org.jsoup.select.Evaluator;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 /**
  * 获取提交详情，定时请求喵~
+ * <p>
+ * 按主键游标分页扫描尚未获取详情的提交（commit_url 非空），每页的提交并发抓取，
+ * 同一主机按固定速率限流，单次请求有超时并按指数退避重试，结果按页批量回写喵~
+ * </p>
+ * <p>
+ * 重试用尽仍然失败的提交累加失败次数，达到 {@code voxelflow.commit-fetch.max-failed-runs} 后不再抓取，
+ * 失败次数可以手动清零重新抓取。游标每页保存到 Redis，中途被打断的扫描下次从断点继续，扫描完成后清除。
+ * </p>
  * @author liudongyu
  */
 @Component
@@ -34,8 +61,85 @@ public class CommitDetailFetchJob {
 	@Autowired
 	private RedisDistributedLock redisDistributedLock;
 
+	@Autowired
+	private RedisRepository redisRepository;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Value("${voxelflow.commit-fetch.page-size:100}")
+	private int pageSize;
+
+	@Value("${voxelflow.commit-fetch.concurrency:4}")
+	private int concurrency;
+
+	@Value("${voxelflow.commit-fetch.permits-per-second:2.0}")
+	private double permitsPerSecond;
+
+	@Value("${voxelflow.commit-fetch.timeout-millis:10000}")
+	private int timeoutMillis;
+
+	@Value("${voxelflow.commit-fetch.max-attempts:3}")
+	private int maxAttempts;
+
+	@Value("${voxelflow.commit-fetch.backoff-millis:1000}")
+	private long backoffMillis;
+
+	@Value("${voxelflow.commit-fetch.max-failed-runs:5}")
+	private int maxFailedRuns;
+
 	private static final String LOCK_KEY = "commit_detail_fetch";
 
+	/**
+	 * 扫描游标，保存上一页最后一条提交的 id
+	 */
+	private static final String CURSOR_KEY = "commit_detail_fetch_cursor";
+
+	/**
+	 * 游标超时时间，长时间没有继续的扫描从头开始
+	 */
+	private static final long CURSOR_EXPIRE_SECONDS = 86400L;
+
+	private ExecutorService executor;
+
+	/**
+	 * 每个主机一个限流器
+	 */
+	private final ConcurrentMap<String, RateLimiter> rateLimiters = new ConcurrentHashMap<>();
+
+	private Counter fetchedCounter;
+
+	private Counter failedCounter;
+
+	private Counter retriedCounter;
+
+	private Timer runTimer;
+
+	@PostConstruct
+	public void init() {
+		AtomicInteger threadIndex = new AtomicInteger();
+		this.executor = Executors.newFixedThreadPool(
+				this.concurrency, runnable -> new Thread(runnable, "commit-fetch-" + threadIndex.incrementAndGet())
+		);
+		this.fetchedCounter = Counter.builder("voxelflow.commit_fetch.fetched")
+				.description("Commits whose details were fetched")
+				.register(this.meterRegistry);
+		this.failedCounter = Counter.builder("voxelflow.commit_fetch.failed")
+				.description("Commits whose details could not be fetched after all attempts")
+				.register(this.meterRegistry);
+		this.retriedCounter = Counter.builder("voxelflow.commit_fetch.retried")
+				.description("Retried commit detail requests")
+				.register(this.meterRegistry);
+		this.runTimer = Timer.builder("voxelflow.commit_fetch.run")
+				.description("Duration of a commit detail fetch run")
+				.register(this.meterRegistry);
+	}
+
+	@PreDestroy
+	public void destroy() {
+		this.executor.shutdownNow();
+	}
+
 	/**
 	 * 每 10 分钟请求一次，失败则下次重新请求喵~
 	 */
@@ -43,28 +147,10 @@ public class CommitDetailFetchJob {
 	public void compute() {
 		boolean lock = false;
 		try {
-			lock = this.redisDistributedLock.tryLock(LOCK_KEY, 5L, 45L, TimeUnit.SECONDS);
+			// 持有期间由看门狗续期，租期只决定节点崩溃后多久释放
+			lock = this.redisDistributedLock.tryLock(LOCK_KEY, 5L, 15L, TimeUnit.SECONDS);
 			if(lock) {
-				List<Commit> commits = this.commitMapper.selectList(new QueryWrapper<Commit>().isNotNull("range"));
-				commits.forEach(commit -> {
-					if (commit.getRepoUrl() == null || commit.getCommitUrl() == null) {
-						return;
-					}
-					try {
-						Document doc = Jsoup.connect(commit.getCommitUrl()).get();
-						Elements elements = doc.select(new Evaluator.AttributeWithValue("data-target", "react-app.embeddedData"));
-						for (Element element: elements) {
-							JSONObject json = JSON.parseObject(element.text()).getJSONObject("payload").getJSONObject("headerInfo");
-
-							commit.setCommitUrl(null);
-							commit.setFile(json.getInteger("filesChanged"));
-							commit.setLine(json.getInteger("additions") + json.getInteger("deletions"));
-							this.commitMapper.updateById(commit);
-						}
-					} catch (Exception e) {
-						log.error("Failed to fetch commit detail for " + commit.getCommitId() + ":", e);
-					}
-				});
+				this.runTimer.record(this::fetchAll);
 			}
 		} catch (InterruptedException e) {
 			log.error("Failed to get commit detail lock: ", e);
@@ -75,4 +161,161 @@ public class CommitDetailFetchJob {
 			}
 		}
 	}
+
+	/**
+	 * 按主键游标逐页处理所有未获取详情、且失败次数未达到上限的提交，从上次保存的游标继续
+	 */
+	private void fetchAll() {
+		long lastId = this.loadCursor();
+		while(!Thread.currentThread().isInterrupted()) {
+			List<Commit> page = this.commitMapper.selectList(
+					new QueryWrapper<Commit>().select("id", "commit_id", "commit_url")
+							.isNotNull("commit_url").lt("fetch_attempts", this.maxFailedRuns).gt("id", lastId)
+							.orderByAsc("id").last("LIMIT " + this.pageSize)
+			);
+			if(page.isEmpty()) {
+				this.clearCursor();
+				return;
+			}
+			lastId = page.get(page.size() - 1).getId();
+
+			List<CompletableFuture<Commit>> futures = page.stream()
+					.map(commit -> CompletableFuture.supplyAsync(() -> this.fetchDetail(commit), this.executor))
+					.collect(Collectors.toList());
+			List<Commit> fetched = new ArrayList<>();
+			List<Long> failedIds = new ArrayList<>();
+			for(int i = 0; i < page.size(); ++i) {
+				Commit result = futures.get(i).join();
+				if(result != null) {
+					fetched.add(result);
+				} else {
+					failedIds.add(page.get(i).getId());
+				}
+			}
+			if(!fetched.isEmpty()) {
+				this.commitMapper.updateDetailBatch(fetched);
+			}
+			// 停机时被打断的请求不计入失败次数
+			if(!failedIds.isEmpty() && !this.executor.isShutdown()) {
+				this.commitMapper.increaseFetchAttemptsBatch(failedIds);
+			}
+			this.saveCursor(lastId);
+			log.info("Fetched {} of {} commit details, {} failed, cursor at id {}", fetched.size(), page.size(), failedIds.size(), lastId);
+
+			if(page.size() < this.pageSize) {
+				this.clearCursor();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * 读取上次保存的游标，Redis 不可用时从头开始
+	 * @return 上一页最后一条提交的 id，没有时返回 0
+	 */
+	private long loadCursor() {
+		try {
+			String cursor = this.redisRepository.get(CURSOR_KEY);
+			return cursor == null ? 0L : Long.parseLong(cursor);
+		} catch (RuntimeException e) {
+			log.error("Failed to load commit detail fetch cursor:", e);
+			return 0L;
+		}
+	}
+
+	/**
+	 * 保存游标，失败时只影响下次是否从断点继续
+	 * @param lastId	本页最后一条提交的 id
+	 */
+	private void saveCursor(long lastId) {
+		try {
+			this.redisRepository.set(CURSOR_KEY, String.valueOf(lastId), CURSOR_EXPIRE_SECONDS);
+		} catch (RuntimeException e) {
+			log.error("Failed to save commit detail fetch cursor {}:", lastId, e);
+		}
+	}
+
+	/**
+	 * 扫描完成后清除游标，下次从头扫描重试未达到失败上限的提交
+	 */
+	private void clearCursor() {
+		try {
+			this.redisRepository.delete(CURSOR_KEY);
+		} catch (RuntimeException e) {
+			log.error("Failed to clear commit detail fetch cursor:", e);
+		}
+	}
+
+	/**
+	 * 获取单个提交的详情，带限流、超时和指数退避重试
+	 * @param commit	提交记录
+	 * @return 只包含 id、file、line 的提交记录，获取失败返回 null
+	 */
+	@Nullable
+	private Commit fetchDetail(Commit commit) {
+		String url = commit.getCommitUrl();
+		RateLimiter rateLimiter = this.rateLimiters.computeIfAbsent(hostOf(url), host -> RateLimiter.create(this.permitsPerSecond));
+		for(int attempt = 1; ; ++attempt) {
+			rateLimiter.acquire();
+			try {
+				Document doc = Jsoup.connect(url).timeout(this.timeoutMillis).get();
+				for (Element element: doc.select(new Evaluator.AttributeWithValue("data-target", "react-app.embeddedData"))) {
+					JSONObject json = JSON.parseObject(element.text()).getJSONObject("payload").getJSONObject("headerInfo");
+					Commit result = new Commit();
+					result.setId(commit.getId());
+					result.setFile(json.getInteger("filesChanged"));
+					result.setLine(json.getInteger("additions") + json.getInteger("deletions"));
+					this.fetchedCounter.increment();
+					return result;
+				}
+				log.warn("No commit detail found in page of {}", commit.getCommitId());
+				this.failedCounter.increment();
+				return null;
+			} catch (IOException e) {
+				if(attempt >= this.maxAttempts || !isRetryable(e)) {
+					log.error("Failed to fetch commit detail for {}:", commit.getCommitId(), e);
+					this.failedCounter.increment();
+					return null;
+				}
+				this.retriedCounter.increment();
+				try {
+					Thread.sleep(this.backoffMillis << (attempt - 1));
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					return null;
+				}
+			} catch (Exception e) {
+				log.error("Failed to parse commit detail for {}:", commit.getCommitId(), e);
+				this.failedCounter.increment();
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * 客户端错误（限流 429 除外）重试也不会成功
+	 * @param e	请求异常
+	 * @return 是否值得重试
+	 */
+	private static boolean isRetryable(IOException e) {
+		if(e instanceof HttpStatusException) {
+			int status = ((HttpStatusException) e).getStatusCode();
+			return status == 429 || status >= 500;
+		}
+		return true;
+	}
+
+	/**
+	 * 获取 URL 的主机名，用于按主机限流
+	 * @param url	URL
+	 * @return 主机名，无法解析时返回原 URL
+	 */
+	private static String hostOf(String url) {
+		try {
+			String host = URI.create(url).getHost();
+			return host == null ? url : host;
+		} catch (IllegalArgumentException e) {
+			return url;
+		}
+	}
 }
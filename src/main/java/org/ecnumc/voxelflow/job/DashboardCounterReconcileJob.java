@@ -0,0 +1,77 @@
+package org.ecnumc.voxelflow.job;
+
+import lombok.extern.slf4j.Slf4j;
+import org.ecnumc.voxelflow.lock.RedisDistributedLock;
+import org.ecnumc.voxelflow.repository.DashboardCounterRepository;
+import org.ecnumc.voxelflow.repository.IssueQueryRepository;
+import org.ecnumc.voxelflow.repository.RequirementQueryRepository;
+import org.ecnumc.voxelflow.repository.StoryQueryRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 首页计数器对账，定时用数据库统计结果覆盖 Redis 中增量维护的计数器喵~
+ * <p>
+ * 应用启动后会先执行一次，用于初始化计数器。统计之前先开始记录增量日志，统计期间提交的增量在替换时补上。
+ * </p>
+ * @author liudongyu
+ */
+@Component
+@EnableScheduling
+@Slf4j
+public class DashboardCounterReconcileJob {
+	@Autowired
+	private IssueQueryRepository issueQueryRepository;
+
+	@Autowired
+	private RequirementQueryRepository requirementQueryRepository;
+
+	@Autowired
+	private StoryQueryRepository storyQueryRepository;
+
+	@Autowired
+	private DashboardCounterRepository dashboardCounterRepository;
+
+	@Autowired
+	private RedisDistributedLock redisDistributedLock;
+
+	private static final String LOCK_KEY = "dashboard_counter_reconcile";
+
+	@Scheduled(
+			initialDelayString = "${voxelflow.dashboard.reconcile-initial-delay-millis:10000}",
+			fixedDelayString = "${voxelflow.dashboard.reconcile-interval-millis:600000}"
+	)
+	public void reconcile() {
+		boolean lock = false;
+		try {
+			lock = this.redisDistributedLock.tryLock(LOCK_KEY, 0L, 60L, TimeUnit.SECONDS);
+			if(lock) {
+				this.dashboardCounterRepository.startReconcile();
+				Map<String, Integer> assigned = new HashMap<>();
+				this.issueQueryRepository.countAssignedByUid().forEach((uid, count) -> assigned.merge(uid, count, Integer::sum));
+				this.requirementQueryRepository.countAssignedByUid().forEach((uid, count) -> assigned.merge(uid, count, Integer::sum));
+				this.storyQueryRepository.countAssignedByUid().forEach((uid, count) -> assigned.merge(uid, count, Integer::sum));
+				int totalUnassigned = this.issueQueryRepository.countUnassigned() +
+						this.requirementQueryRepository.countUnassigned() +
+						this.storyQueryRepository.countUnassigned();
+				this.dashboardCounterRepository.reset(assigned, totalUnassigned);
+				log.info("Reconciled dashboard counters for {} users, {} unassigned in total", assigned.size(), totalUnassigned);
+			}
+		} catch (InterruptedException e) {
+			log.error("Failed to get dashboard counter reconcile lock: ", e);
+			Thread.currentThread().interrupt();
+		} catch (Exception e) {
+			log.error("Failed to reconcile dashboard counters: ", e);
+		} finally {
+			if (lock) {
+				this.redisDistributedLock.unlock(LOCK_KEY);
+			}
+		}
+	}
+}
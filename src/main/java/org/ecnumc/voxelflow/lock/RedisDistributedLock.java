@@ -1,16 +1,56 @@
 package org.ecnumc.voxelflow.lock;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.ecnumc.voxelflow.util.RedisCommandCount;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Component;
 
-import java.time.Duration;
-import java.util.Objects;
+import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Redis 分布式锁喵~
+ * <p>
+ * 锁以 Hash 形式存储，field 为持有者令牌（节点 UUID + 线程 ID），value 为重入次数，
+ * 加锁、解锁和续期都通过 Lua 脚本原子完成，只有持有者本人才能释放锁喵~
+ * </p>
+ * <p>
+ * 持有锁期间看门狗每隔 1/3 租期为锁续期，直到持有线程释放锁或线程结束，
+ * 因此长任务也可以使用较短的租期，节点崩溃后锁会很快过期喵~
+ * 线程池中的线程不会结束，忘记解锁时看门狗会一直续期，因此持有者连续 {@code voxelflow.lock.max-renewals} 次续期期间
+ * 没有重入或解锁时停止续期，让锁按租期过期；持有时间更长的任务需要使用更长的租期喵~
+ * </p>
+ * <p>
+ * 等待锁的线程阻塞在本地信号量上，由 unlock 广播的释放通知唤醒，
+ * 只在通知丢失时按锁的剩余过期时间兜底重试喵~
+ * 释放通知广播到所有节点，各节点被唤醒的线程与新来的线程一起竞争加锁，锁不保证先等待的线程先获得，
+ * 节点之间也没有排队顺序喵~
+ * </p>
+ * <p>
+ * 加锁、解锁、续期脚本的执行结果计入 {@code voxelflow.redis.commands}，command 标签分别为 lock_acquire、lock_release、lock_renew喵~
+ * </p>
  * @author liudongyu
  */
 @Component
@@ -19,47 +59,144 @@ public class RedisDistributedLock implements DistributedLock {
 	@Autowired
 	private RedisTemplate<String, String> redisTemplate;
 
+	@Autowired
+	private RedisMessageListenerContainer redisMessageListenerContainer;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Value("${voxelflow.lock.fallback-poll-millis:5000}")
+	private long fallbackPollMillis;
+
+	@Value("${voxelflow.lock.max-renewals:720}")
+	private int maxRenewals;
+
+	private static final String RELEASE_CHANNEL = "lock_release";
+
+	/**
+	 * 加锁脚本，成功时返回 nil，失败时返回锁的剩余过期时间（毫秒）
+	 */
+	private static final RedisScript<Long> ACQUIRE_SCRIPT = new DefaultRedisScript<>(
+			"if (redis.call('exists', KEYS[1]) == 0) or (redis.call('hexists', KEYS[1], ARGV[2]) == 1) then " +
+			"redis.call('hincrby', KEYS[1], ARGV[2], 1); " +
+			"redis.call('pexpire', KEYS[1], ARGV[1]); " +
+			"return nil; " +
+			"end; " +
+			"return redis.call('pttl', KEYS[1]);",
+			Long.class
+	);
+
+	/**
+	 * 解锁脚本，非持有者返回 -1，仍有重入返回 0，完全释放返回 1 并广播释放通知
+	 */
+	private static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+			"if (redis.call('hexists', KEYS[1], ARGV[1]) == 0) then " +
+			"return -1; " +
+			"end; " +
+			"if (redis.call('hincrby', KEYS[1], ARGV[1], -1) > 0) then " +
+			"redis.call('pexpire', KEYS[1], ARGV[2]); " +
+			"return 0; " +
+			"end; " +
+			"redis.call('del', KEYS[1]); " +
+			"redis.call('publish', ARGV[3], KEYS[1]); " +
+			"return 1;",
+			Long.class
+	);
+
+	/**
+	 * 续期脚本，仍是持有者时返回 1，否则返回 0
+	 */
+	private static final RedisScript<Long> RENEW_SCRIPT = new DefaultRedisScript<>(
+			"if (redis.call('hexists', KEYS[1], ARGV[1]) == 1) then " +
+			"redis.call('pexpire', KEYS[1], ARGV[2]); " +
+			"return 1; " +
+			"end; " +
+			"return 0;",
+			Long.class
+	);
+
+	/**
+	 * 本节点的唯一标识，与线程 ID 一起组成持有者令牌，避免不同节点的线程 ID 冲突
+	 */
+	private final String nodeId = UUID.randomUUID().toString();
+
+	/**
+	 * 本节点各个锁的等待队列
+	 */
+	private final ConcurrentMap<String, Waiters> waitersMap = new ConcurrentHashMap<>();
+
+	/**
+	 * 本节点当前持有的锁
+	 */
+	private final ConcurrentMap<String, Lease> leases = new ConcurrentHashMap<>();
+
+	/**
+	 * 命令.结果 -> 计数器
+	 */
+	private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+	/**
+	 * 看门狗线程
+	 */
+	private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "redis-lock-watchdog");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	@PostConstruct
+	public void init() {
+		this.redisMessageListenerContainer.addMessageListener(
+				(Message message, byte[] pattern) -> this.onReleased(new String(message.getBody(), StandardCharsets.UTF_8)),
+				new ChannelTopic(RELEASE_CHANNEL)
+		);
+	}
+
+	@PreDestroy
+	public void destroy() {
+		this.watchdog.shutdownNow();
+	}
+
 	/**
 	 * 尝试获取分布式锁，支持等待超时和锁自动过期喵~
 	 *
 	 * @param key 锁的键名喵~
 	 * @param waitTime 等待获取锁的最长时间喵~
-	 * @param leaseTime 锁的自动过期时间喵~
+	 * @param leaseTime 锁的租期，持有期间由看门狗自动续期喵~
 	 * @param unit 时间单位喵~
 	 * @return true 表示成功获取锁，false 表示获取失败喵~
 	 * @throws InterruptedException 如果等待过程中线程被中断喵~
 	 */
-	@SuppressWarnings("BusyWait")
 	@Override
 	public boolean tryLock(String key, long waitTime, long leaseTime, TimeUnit unit) throws InterruptedException {
-		long waitMillis = unit.toMillis(waitTime);
+		long deadline = System.currentTimeMillis() + unit.toMillis(waitTime);
 		long leaseMillis = unit.toMillis(leaseTime);
-		long current = System.currentTimeMillis();
-		long threadId = Thread.currentThread().getId();
 		// 获取锁
-		boolean isAcquire = this.tryAcquire(key, leaseMillis, threadId);
-		if (isAcquire) {
+		Long ttl = this.tryAcquire(key, leaseMillis);
+		if (ttl == null) {
 			return true;
 		}
-
-		waitMillis -= System.currentTimeMillis() - current;
 		// 等待时间用完，获取锁失败
-		if (waitMillis <= 0) {
+		if (deadline - System.currentTimeMillis() <= 0) {
 			return false;
 		}
-		// 获取锁
-		while (true) {
-			long currentTime = System.currentTimeMillis();
-			Thread.sleep(1L);
-			isAcquire = this.tryAcquire(key, leaseMillis, threadId);
-			if (isAcquire) {
-				return true;
-			}
 
-			waitMillis -= System.currentTimeMillis() - currentTime;
-			if (waitMillis <= 0) {
-				return false;
+		Waiters waiters = this.enterWaiting(key);
+		try {
+			while (true) {
+				// 先登记等待再重试，避免错过在两者之间发出的释放通知
+				ttl = this.tryAcquire(key, leaseMillis);
+				if (ttl == null) {
+					return true;
+				}
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					return false;
+				}
+				waiters.semaphore.tryAcquire(Math.min(remaining, this.pollMillis(ttl)), TimeUnit.MILLISECONDS);
 			}
+		} finally {
+			this.exitWaiting(key, waiters);
 		}
 	}
 
@@ -67,53 +204,302 @@ public class RedisDistributedLock implements DistributedLock {
 	 * 获取分布式锁，会一直阻塞直到成功获取锁喵~
 	 *
 	 * @param key 锁的键名喵~
-	 * @param leaseTime 锁的自动过期时间喵~
+	 * @param leaseTime 锁的租期，持有期间由看门狗自动续期喵~
 	 * @param unit 时间单位喵~
 	 */
 	@Override
 	public void lock(String key, long leaseTime, TimeUnit unit) {
-		long threadId = Thread.currentThread().getId();
 		long leaseMillis = unit.toMillis(leaseTime);
-		boolean isAcquire = this.tryAcquire(key, leaseMillis, threadId);
-		while(!isAcquire) {
-			try {
-				Thread.sleep(1L);
-			} catch (InterruptedException e) {
-				log.error("Failed to sleep: ", e);
+		Long ttl = this.tryAcquire(key, leaseMillis);
+		if (ttl == null) {
+			return;
+		}
+
+		boolean interrupted = false;
+		Waiters waiters = this.enterWaiting(key);
+		try {
+			while ((ttl = this.tryAcquire(key, leaseMillis)) != null) {
+				try {
+					waiters.semaphore.tryAcquire(this.pollMillis(ttl), TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					log.error("Interrupted while waiting for lock {}: ", key, e);
+					interrupted = true;
+				}
+			}
+		} finally {
+			this.exitWaiting(key, waiters);
+			if (interrupted) {
 				Thread.currentThread().interrupt();
 			}
-			isAcquire = this.tryAcquire(key, leaseMillis, threadId);
 		}
 	}
 
 	/**
-	 * 释放分布式锁，只有持有锁的线程才能成功释放喵~
+	 * 释放分布式锁，只有持有锁的线程才能成功释放，重入多少次就需要释放多少次喵~
 	 *
 	 * @param key 锁的键名喵~
 	 */
 	@Override
 	public void unlock(String key) {
-		long threadId = Thread.currentThread().getId();
-		String value = this.redisTemplate.opsForValue().getAndDelete(key);
-		if(!Objects.equals(String.valueOf(threadId), value)) {
-			log.warn("Failed to unlock, key: {}, threadId: {}, value: {}", key, threadId, value);
+		String token = this.currentToken();
+		Lease lease = this.leases.get(key);
+		long leaseMillis = lease != null && lease.token.equals(token) ? lease.leaseMillis : 30000L;
+		Long result;
+		try {
+			result = this.redisTemplate.execute(
+					RELEASE_SCRIPT, Collections.singletonList(key), token, String.valueOf(leaseMillis), RELEASE_CHANNEL
+			);
+		} catch (RuntimeException e) {
+			this.count("lock_release", "error");
+			// 无法确认是否已释放，停止续期，锁最迟在租期结束后过期
+			this.stopRenewal(key, token);
+			throw e;
+		}
+		if (result == null || result < 0L) {
+			this.count("lock_release", "not_held");
+			log.warn("Failed to unlock, key: {}, token: {}", key, token);
+			this.stopRenewal(key, token);
+		} else if (result > 0L) {
+			this.count("lock_release", "released");
+			this.stopRenewal(key, token);
+		} else {
+			this.count("lock_release", "reentrant");
+			this.touch(key, token);
 		}
 	}
 
 	/**
-	 * 尝试获取锁的内部实现，使用 Redis 的 SETNX 命令实现喵~
+	 * 收到锁释放通知，唤醒本节点的一个等待线程喵~
 	 *
 	 * @param key 锁的键名喵~
-	 * @param leaseMillis 锁的自动过期时间（毫秒）喵~
-	 * @param threadId 当前线程 ID，用作锁的值喵~
-	 * @return true 表示成功获取锁，false 表示获取失败喵~
 	 */
-	private boolean tryAcquire(String key, long leaseMillis, long threadId) {
-		String value = String.valueOf(threadId);
-		Boolean result = this.redisTemplate.opsForValue().setIfAbsent(key, value, Duration.ofMillis(leaseMillis));
-		if(result == null) {
-			return false;
+	private void onReleased(String key) {
+		Waiters waiters = this.waitersMap.get(key);
+		if (waiters != null && waiters.semaphore.availablePermits() < waiters.count.get()) {
+			waiters.semaphore.release();
+		}
+	}
+
+	/**
+	 * 登记为锁的等待者喵~
+	 *
+	 * @param key 锁的键名喵~
+	 * @return 该锁的等待队列
+	 */
+	private Waiters enterWaiting(String key) {
+		return this.waitersMap.compute(key, (k, waiters) -> {
+			Waiters result = waiters == null ? new Waiters() : waiters;
+			result.count.incrementAndGet();
+			return result;
+		});
+	}
+
+	/**
+	 * 取消等待登记，没有等待者时移除等待队列喵~
+	 *
+	 * @param key 锁的键名喵~
+	 * @param waiters 该锁的等待队列
+	 */
+	private void exitWaiting(String key, Waiters waiters) {
+		this.waitersMap.computeIfPresent(key, (k, current) -> {
+			if (current != waiters) {
+				return current;
+			}
+			return current.count.decrementAndGet() == 0 ? null : current;
+		});
+	}
+
+	/**
+	 * 计算下一次兜底轮询的等待时间，不超过锁的剩余过期时间喵~
+	 * 正常情况下等待线程由释放通知唤醒，兜底轮询只用于通知丢失或持有者崩溃的情况。
+	 *
+	 * @param ttl 锁的剩余过期时间（毫秒），-1 表示没有过期时间，-2 表示锁已不存在
+	 * @return 等待时间（毫秒）
+	 */
+	private long pollMillis(long ttl) {
+		if (ttl == -1L) {
+			return this.fallbackPollMillis;
+		}
+		// 锁已不存在，立即重试
+		if (ttl < 0L) {
+			return 0L;
+		}
+		return Math.min(ttl, this.fallbackPollMillis);
+	}
+
+	/**
+	 * 尝试获取锁的内部实现，成功后启动看门狗续期喵~
+	 *
+	 * @param key 锁的键名喵~
+	 * @param leaseMillis 锁的租期（毫秒）喵~
+	 * @return null 表示成功获取锁，否则为锁的剩余过期时间（毫秒）喵~
+	 */
+	@Nullable
+	private Long tryAcquire(String key, long leaseMillis) {
+		String token = this.currentToken();
+		Long ttl = this.redisTemplate.execute(
+				ACQUIRE_SCRIPT, Collections.singletonList(key), String.valueOf(leaseMillis), token
+		);
+		if (ttl == null) {
+			this.count("lock_acquire", "acquired");
+			this.startRenewal(key, token, leaseMillis);
+		} else {
+			this.count("lock_acquire", "contended");
+		}
+		return ttl;
+	}
+
+	/**
+	 * 为本线程持有的锁启动看门狗，重入时不重复启动喵~
+	 *
+	 * @param key 锁的键名喵~
+	 * @param token 持有者令牌
+	 * @param leaseMillis 锁的租期（毫秒）喵~
+	 */
+	private void startRenewal(String key, String token, long leaseMillis) {
+		this.leases.compute(key, (k, current) -> {
+			if (current != null) {
+				if (current.token.equals(token)) {
+					// 重入说明持有者仍在工作
+					current.renewals.set(0);
+					return current;
+				}
+				// 之前的持有记录已经过期失效
+				if (current.renewal != null) {
+					current.renewal.cancel(false);
+				}
+			}
+			Lease lease = new Lease(token, Thread.currentThread(), leaseMillis);
+			long period = Math.max(leaseMillis / 3L, 1L);
+			lease.renewal = this.watchdog.scheduleAtFixedRate(() -> this.renew(key, lease), period, period, TimeUnit.MILLISECONDS);
+			return lease;
+		});
+	}
+
+	/**
+	 * 停止看门狗续期喵~
+	 *
+	 * @param key 锁的键名喵~
+	 * @param token 持有者令牌
+	 */
+	private void stopRenewal(String key, String token) {
+		this.leases.computeIfPresent(key, (k, lease) -> {
+			if (!lease.token.equals(token)) {
+				return lease;
+			}
+			if (lease.renewal != null) {
+				lease.renewal.cancel(false);
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * 持有者重入或部分解锁，重新开始计算续期次数喵~
+	 *
+	 * @param key 锁的键名喵~
+	 * @param token 持有者令牌
+	 */
+	private void touch(String key, String token) {
+		Lease lease = this.leases.get(key);
+		if (lease != null && lease.token.equals(token)) {
+			lease.renewals.set(0);
+		}
+	}
+
+	/**
+	 * 看门狗续期，持有线程已经结束、长时间没有活动或锁已丢失时停止续期喵~
+	 *
+	 * @param key 锁的键名喵~
+	 * @param lease 本地持有记录
+	 */
+	private void renew(String key, Lease lease) {
+		if (!lease.holder.isAlive()) {
+			log.warn("Holder of lock {} is dead, stop renewing and let it expire", key);
+			this.stopRenewal(key, lease.token);
+			return;
+		}
+		// 线程池中的线程不会结束，持有者忘记解锁时靠续期次数上限让锁过期
+		if (lease.renewals.incrementAndGet() > this.maxRenewals) {
+			this.count("lock_renew", "abandoned");
+			log.warn("Lock {} renewed {} times without activity from {}, stop renewing and let it expire", key, this.maxRenewals, lease.token);
+			this.stopRenewal(key, lease.token);
+			return;
+		}
+		try {
+			Long result = this.redisTemplate.execute(
+					RENEW_SCRIPT, Collections.singletonList(key), lease.token, String.valueOf(lease.leaseMillis)
+			);
+			if (result == null || result == 0L) {
+				this.count("lock_renew", "lost");
+				log.warn("Lock {} is no longer held by {}, stop renewing", key, lease.token);
+				this.stopRenewal(key, lease.token);
+			} else {
+				this.count("lock_renew", "renewed");
+			}
+		} catch (Exception e) {
+			this.count("lock_renew", "error");
+			// 暂时无法访问 Redis，下个周期继续尝试
+			log.error("Failed to renew lock " + key + ":", e);
+		}
+	}
+
+	/**
+	 * 记录一次锁脚本的执行结果喵~
+	 *
+	 * @param command 脚本名
+	 * @param result 执行结果
+	 */
+	private void count(String command, String result) {
+		RedisCommandCount.increment();
+		this.counters.computeIfAbsent(command + "." + result, k -> Counter.builder("voxelflow.redis.commands")
+				.description("Redis commands issued by the application")
+				.tag("command", command)
+				.tag("result", result)
+				.register(this.meterRegistry)).increment();
+	}
+
+	/**
+	 * 当前线程的持有者令牌喵~
+	 *
+	 * @return 节点 UUID:线程 ID
+	 */
+	private String currentToken() {
+		return this.nodeId + ":" + Thread.currentThread().getId();
+	}
+
+	/**
+	 * 单个锁在本节点的等待队列喵~
+	 */
+	private static final class Waiters {
+		/**
+		 * 公平信号量，只决定本节点内先唤醒哪个等待线程；被唤醒的线程仍需与其它线程和其它节点竞争加锁
+		 */
+		private final Semaphore semaphore = new Semaphore(0, true);
+		/**
+		 * 等待线程数量
+		 */
+		private final AtomicInteger count = new AtomicInteger();
+	}
+
+	/**
+	 * 本节点持有的一把锁喵~
+	 */
+	private static final class Lease {
+		private final String token;
+		private final Thread holder;
+		private final long leaseMillis;
+		/**
+		 * 自上次重入或部分解锁以来的续期次数
+		 */
+		private final AtomicInteger renewals = new AtomicInteger();
+		@Nullable
+		private volatile ScheduledFuture<?> renewal;
+
+		private Lease(String token, Thread holder, long leaseMillis) {
+			this.token = token;
+			this.holder = holder;
+			this.leaseMillis = leaseMillis;
 		}
-		return result;
 	}
 }
@@ -1,13 +1,58 @@
 package org.ecnumc.voxelflow.mapper;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Insert;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Update;
 import org.ecnumc.voxelflow.po.Commit;
 
+import java.util.List;
+
 /**
  * 提交记录 Mapper
  * @author liudongyu
  */
 @Mapper
 public interface CommitMapper extends BaseMapper<Commit> {
+	/**
+	 * 多行插入提交记录，commit_id 已存在的记录会被忽略
+	 * <p>
+	 * IGNORE 同样会吞掉超长、空值等错误，调用前必须按列定义校验记录。
+	 * </p>
+	 * @param commits	提交记录，不能为空，且已按列定义校验
+	 * @return 实际插入行数
+	 */
+	@Insert("<script>" +
+			"INSERT IGNORE INTO `commit` (commit_id, repo_url, commit_type, code, message, commit_url, created_by, updated_by) VALUES " +
+			"<foreach collection='commits' item='c' separator=','>" +
+			"(#{c.commitId}, #{c.repoUrl}, #{c.commitType}, #{c.code}, #{c.message}, #{c.commitUrl}, #{c.createdBy}, #{c.updatedBy})" +
+			"</foreach>" +
+			"</script>")
+	int insertIgnoreBatch(@Param("commits") List<Commit> commits);
+
+	/**
+	 * 批量回写提交详情（修改文件数、修改行数），并清空提交地址表示已获取
+	 * @param commits	提交记录，需包含 id、file、line，不能为空
+	 * @return 更新行数
+	 */
+	@Update("<script>" +
+			"UPDATE `commit` SET " +
+			"file = CASE id <foreach collection='commits' item='c'>WHEN #{c.id} THEN #{c.file} </foreach>END, " +
+			"line = CASE id <foreach collection='commits' item='c'>WHEN #{c.id} THEN #{c.line} </foreach>END, " +
+			"commit_url = NULL " +
+			"WHERE id IN <foreach collection='commits' item='c' open='(' separator=',' close=')'>#{c.id}</foreach>" +
+			"</script>")
+	int updateDetailBatch(@Param("commits") List<Commit> commits);
+
+	/**
+	 * 批量增加提交详情抓取失败次数
+	 * @param ids	提交记录 id，不能为空
+	 * @return 更新行数
+	 */
+	@Update("<script>" +
+			"UPDATE `commit` SET fetch_attempts = fetch_attempts + 1 " +
+			"WHERE id IN <foreach collection='ids' item='id' open='(' separator=',' close=')'>#{id}</foreach>" +
+			"</script>")
+	int increaseFetchAttemptsBatch(@Param("ids") List<Long> ids);
 }
@@ -2,12 +2,63 @@ package org.ecnumc.voxelflow.mapper;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
 import org.ecnumc.voxelflow.po.Retrospective;
 
+import java.util.List;
+import java.util.Map;
+
 /**
  * 复盘 Mapper
  * @author liudongyu
  */
 @Mapper
 public interface RetrospectiveMapper extends BaseMapper<Retrospective> {
+	/**
+	 * 查询复盘的当前状态，以及当前状态下待处理的责任人，并锁定复盘行和这些关系行直到事务结束。
+	 * 会签时同一复盘的审批因此串行执行，后执行的审批能看到先提交的审批结果
+	 * @param code	复盘编码
+	 * @return 每行包含 status、uid 两列，没有待处理的责任人时 uid 为 NULL，复盘不存在时为空
+	 */
+	@Select("SELECT t.status, r.uid FROM `retrospective` t " +
+			"LEFT JOIN `user_retrospective_rel` r ON r.code = t.code AND r.old_status = t.status AND r.relation_type = 'HANDLING' " +
+			"WHERE t.code = #{code} FOR UPDATE")
+	List<Map<String, Object>> selectStatusWithPendingUids(@Param("code") String code);
+
+	/**
+	 * 审批通过，一条语句完成：更新人的待处理关系标记为 APPROVED，其他人的标记为 IGNORED，并更新复盘状态
+	 * @param code			复盘编码
+	 * @param oldStatus		旧的状态，复盘已不在该状态时不做任何修改
+	 * @param status		新的状态
+	 * @param description	同意理由
+	 * @param updatedBy		更新人
+	 * @return 匹配行数，0 表示复盘已不在旧状态
+	 */
+	@Update("UPDATE `retrospective` t " +
+			"LEFT JOIN `user_retrospective_rel` r ON r.code = t.code AND r.old_status = #{oldStatus} AND r.relation_type = 'HANDLING' " +
+			"SET t.status = #{status}, t.updated_by = #{updatedBy}, " +
+			"r.relation_type = IF(r.uid = #{updatedBy}, 'APPROVED', 'IGNORED'), " +
+			"r.description = IF(r.uid = #{updatedBy}, #{description}, r.description), " +
+			"r.updated_by = #{updatedBy} " +
+			"WHERE t.code = #{code} AND t.status = #{oldStatus}")
+	int approve(@Param("code") String code, @Param("oldStatus") String oldStatus, @Param("status") String status,
+				@Param("description") String description, @Param("updatedBy") String updatedBy);
+
+	/**
+	 * 记录拒绝：仅当复盘仍处于旧状态时，将更新人的待处理关系标记为拒绝
+	 * @param code			复盘编码
+	 * @param oldStatus		旧的状态
+	 * @param description	拒绝理由
+	 * @param updatedBy		更新人
+	 * @return 匹配的行数，0 表示复盘不存在或状态已被修改
+	 */
+	@Update("UPDATE `retrospective` t " +
+			"LEFT JOIN `user_retrospective_rel` r ON r.code = t.code AND r.old_status = #{oldStatus} AND r.relation_type = 'HANDLING' AND r.uid = #{updatedBy} " +
+			"SET t.updated_by = #{updatedBy}, " +
+			"r.relation_type = 'REJECTED', r.description = #{description}, r.updated_by = #{updatedBy} " +
+			"WHERE t.code = #{code} AND t.status = #{oldStatus}")
+	int reject(@Param("code") String code, @Param("oldStatus") String oldStatus,
+			   @Param("description") String description, @Param("updatedBy") String updatedBy);
 }
@@ -1,13 +1,29 @@
 package org.ecnumc.voxelflow.mapper;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Insert;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
 import org.ecnumc.voxelflow.po.UserIssueRelation;
 
+import java.util.List;
+
 /**
  * 用户问题关系 Mapper
  * @author liudongyu
  */
 @Mapper
 public interface UserIssueRelationMapper extends BaseMapper<UserIssueRelation> {
+	/**
+	 * 多行插入用户问题关系
+	 * @param rels	用户问题关系，不能为空
+	 * @return 插入行数
+	 */
+	@Insert("<script>" +
+			"INSERT INTO `user_issue_rel` (code, uid, relation_type, old_status, created_by, updated_by) VALUES " +
+			"<foreach collection='rels' item='r' separator=','>" +
+			"(#{r.code}, #{r.uid}, #{r.relationType}, #{r.oldStatus}, #{r.createdBy}, #{r.updatedBy})" +
+			"</foreach>" +
+			"</script>")
+	int insertBatch(@Param("rels") List<UserIssueRelation> rels);
 }
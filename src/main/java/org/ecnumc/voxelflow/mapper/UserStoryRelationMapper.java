@@ -1,13 +1,29 @@
 package org.ecnumc.voxelflow.mapper;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Insert;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
 import org.ecnumc.voxelflow.po.UserStoryRelation;
 
+import java.util.List;
+
 /**
  * 用户故事关系 Mapper
  * @author liudongyu
  */
 @Mapper
 public interface UserStoryRelationMapper extends BaseMapper<UserStoryRelation> {
+	/**
+	 * 多行插入用户故事关系
+	 * @param rels	用户故事关系，不能为空
+	 * @return 插入行数
+	 */
+	@Insert("<script>" +
+			"INSERT INTO `user_story_rel` (code, uid, relation_type, old_status, created_by, updated_by) VALUES " +
+			"<foreach collection='rels' item='r' separator=','>" +
+			"(#{r.code}, #{r.uid}, #{r.relationType}, #{r.oldStatus}, #{r.createdBy}, #{r.updatedBy})" +
+			"</foreach>" +
+			"</script>")
+	int insertBatch(@Param("rels") List<UserStoryRelation> rels);
 }
@@ -0,0 +1,145 @@
+package org.ecnumc.voxelflow.migration;
+
+import com.google.common.hash.Hashing;
+import lombok.Getter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 版本化的迁移脚本，文件名格式为 {@code V<版本号>__<描述>.sql} 喵~
+ *
+ * @author liudongyu
+ */
+@Getter
+public final class MigrationScript {
+	private static final Pattern FILE_NAME_PATTERN = Pattern.compile("^V(\\d+)__(.+)\\.sql$");
+
+	/**
+	 * 会删除数据或结构的语句：任何 DROP / TRUNCATE / DELETE / RENAME 语句，以及删除、重命名或修改列的 ALTER TABLE
+	 */
+	private static final Pattern DESTRUCTIVE_PATTERN = Pattern.compile(
+			"^(DROP|TRUNCATE|DELETE|RENAME)\\b" +
+			"|^ALTER\\s+TABLE\\b.*\\b(DROP|RENAME|MODIFY|CHANGE)\\b",
+			Pattern.CASE_INSENSITIVE | Pattern.DOTALL
+	);
+
+	/**
+	 * 不带 WHERE 的 UPDATE 会改写整张表
+	 */
+	private static final Pattern UPDATE_PATTERN = Pattern.compile("^UPDATE\\b", Pattern.CASE_INSENSITIVE);
+	private static final Pattern WHERE_PATTERN = Pattern.compile("\\bWHERE\\b", Pattern.CASE_INSENSITIVE);
+
+	/**
+	 * 语句开头的空白、块注释和 {@code --}、{@code #} 行注释
+	 */
+	private static final Pattern LEADING_COMMENT_PATTERN = Pattern.compile(
+			"^(\\s+|/\\*(?!!).*?\\*/|--[^\\n]*(\\n|$)|#[^\\n]*(\\n|$))+", Pattern.DOTALL
+	);
+
+	/**
+	 * 可以尝试在线执行的 ALTER TABLE 语句
+	 */
+	private static final Pattern ONLINE_ALTER_PATTERN = Pattern.compile(
+			"^\\s*ALTER\\s+TABLE\\b", Pattern.CASE_INSENSITIVE
+	);
+
+	private static final Pattern ALGORITHM_PATTERN = Pattern.compile("\\bALGORITHM\\s*=", Pattern.CASE_INSENSITIVE);
+
+	private final int version;
+	private final String description;
+	private final String checksum;
+	private final List<String> statements;
+
+	private MigrationScript(int version, String description, String checksum, List<String> statements) {
+		this.version = version;
+		this.description = description;
+		this.checksum = checksum;
+		this.statements = statements;
+	}
+
+	/**
+	 * 解析迁移脚本
+	 * @param fileName	文件名
+	 * @param content	脚本内容
+	 * @return 迁移脚本
+	 * @throws IllegalArgumentException 文件名不符合格式
+	 */
+	public static MigrationScript parse(String fileName, String content) {
+		Matcher matcher = FILE_NAME_PATTERN.matcher(fileName);
+		if(!matcher.matches()) {
+			throw new IllegalArgumentException("Invalid migration file name: " + fileName);
+		}
+		String checksum = Hashing.sha256().hashString(content.replace("\r\n", "\n"), StandardCharsets.UTF_8).toString();
+		return new MigrationScript(
+				Integer.parseInt(matcher.group(1)), matcher.group(2).replace('_', ' '), checksum, splitStatements(content)
+		);
+	}
+
+	/**
+	 * 按行尾的分号拆分语句，忽略 {@code --} 开头的注释行
+	 * @param content	脚本内容
+	 * @return 语句列表，不含结尾的分号
+	 */
+	public static List<String> splitStatements(String content) {
+		List<String> statements = new ArrayList<>();
+		StringBuilder current = new StringBuilder();
+		for(String line: content.split("\\r?\\n")) {
+			String trimmed = line.trim();
+			if(trimmed.isEmpty() || trimmed.startsWith("--")) {
+				continue;
+			}
+			if(current.length() > 0) {
+				current.append('\n');
+			}
+			if(trimmed.endsWith(";")) {
+				current.append(line, 0, line.lastIndexOf(';'));
+				statements.add(current.toString().trim());
+				current.setLength(0);
+			} else {
+				current.append(line);
+			}
+		}
+		if(current.toString().trim().length() > 0) {
+			statements.add(current.toString().trim());
+		}
+		return statements;
+	}
+
+	/**
+	 * 是否为会删除数据或结构的语句，先去掉语句开头的注释再判断
+	 * @param statement	语句
+	 * @return 是否具有破坏性
+	 */
+	public static boolean isDestructive(String statement) {
+		String stripped = LEADING_COMMENT_PATTERN.matcher(statement).replaceFirst("");
+		if(DESTRUCTIVE_PATTERN.matcher(stripped).find()) {
+			return true;
+		}
+		return UPDATE_PATTERN.matcher(stripped).find() && !WHERE_PATTERN.matcher(stripped).find();
+	}
+
+	/**
+	 * 为没有指定算法的 ALTER TABLE 语句加上 {@code ALGORITHM=INPLACE, LOCK=NONE}，不支持在线执行时 MySQL 会直接报错而不是锁表
+	 * @param statement	语句
+	 * @return 加上在线执行选项的语句，不适用时返回原语句
+	 */
+	public static String withOnlineOptions(String statement) {
+		if(!ONLINE_ALTER_PATTERN.matcher(statement).find() || ALGORITHM_PATTERN.matcher(statement).find()) {
+			return statement;
+		}
+		return statement + ", ALGORITHM=INPLACE, LOCK=NONE";
+	}
+
+	/**
+	 * @return 版本号和描述，用于日志
+	 */
+	@Override
+	public String toString() {
+		return String.format(Locale.ROOT, "V%d (%s)", this.version, this.description);
+	}
+}
@@ -0,0 +1,225 @@
+package org.ecnumc.voxelflow.migration;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.ecnumc.voxelflow.lock.RedisDistributedLock;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 启动时执行数据库结构迁移喵~
+ * <p>
+ * 按版本号顺序执行 {@code classpath:db/migration} 下尚未执行的脚本，并在 {@code schema_migration} 表中记录校验和与耗时；
+ * 已执行脚本的内容被修改时拒绝启动。ALTER TABLE 优先以 {@code ALGORITHM=INPLACE, LOCK=NONE} 在线执行，
+ * MySQL 不支持时退回默认方式；删除数据或结构的语句只有在显式允许时才会执行。
+ * 同一脚本的所有语句在同一个连接上执行，脚本可以用 {@code SET SESSION} 调整其后语句的会话变量。
+ * </p>
+ * <p>
+ * 在容器启动完成后作为优先级最高的 {@link ApplicationRunner} 执行，不影响其它 Bean 的创建；
+ * 通过 {@code voxelflow.migration.enabled=false} 关闭，此时不会创建该 Bean，也不需要 MySQL 和 Redis。
+ * </p>
+ * @author liudongyu
+ */
+@Component
+@ConditionalOnProperty(name = "voxelflow.migration.enabled", havingValue = "true", matchIfMissing = true)
+@Order(Ordered.HIGHEST_PRECEDENCE)
+@Slf4j
+public class SchemaMigrationRunner implements ApplicationRunner {
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private RedisDistributedLock redisDistributedLock;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Value("${voxelflow.migration.location:classpath:db/migration/V*__*.sql}")
+	private String location;
+
+	@Value("${voxelflow.migration.allow-destructive:false}")
+	private boolean allowDestructive;
+
+	private static final String LOCK_KEY = "schema_migration";
+
+	/**
+	 * MySQL 错误码：不支持指定的 ALGORITHM / LOCK
+	 */
+	private static final int ER_ALTER_OPERATION_NOT_SUPPORTED = 1845;
+	private static final int ER_ALTER_OPERATION_NOT_SUPPORTED_REASON = 1846;
+
+	/**
+	 * MySQL 错误码：列或索引已存在，说明新建库的建表脚本已经包含了这次变更
+	 */
+	private static final int ER_DUP_FIELDNAME = 1060;
+	private static final int ER_DUP_KEYNAME = 1061;
+
+	private static final String CREATE_HISTORY_TABLE = "CREATE TABLE IF NOT EXISTS `schema_migration` (" +
+			"`version` int NOT NULL COMMENT '版本号', " +
+			"`description` varchar(250) NOT NULL COMMENT '描述', " +
+			"`checksum` char(64) NOT NULL COMMENT '脚本 SHA-256', " +
+			"`execution_millis` bigint NOT NULL COMMENT '执行耗时（毫秒）', " +
+			"`executed_at` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '执行时间', " +
+			"PRIMARY KEY (`version`)" +
+			") ENGINE=InnoDB CHARSET=utf8mb4 COMMENT='数据库结构迁移记录'";
+
+	@Override
+	public void run(ApplicationArguments args) throws IOException, InterruptedException {
+		this.migrate();
+	}
+
+	/**
+	 * 执行所有尚未执行的迁移脚本
+	 */
+	public void migrate() throws IOException, InterruptedException {
+		List<MigrationScript> scripts = this.loadScripts();
+		// 多个节点同时启动时只有一个节点执行迁移，其它节点等待其完成
+		if(!this.redisDistributedLock.tryLock(LOCK_KEY, 10L, 60L, TimeUnit.MINUTES)) {
+			throw new IllegalStateException("Timed out waiting for schema migration lock");
+		}
+		try {
+			this.jdbcTemplate.execute(CREATE_HISTORY_TABLE);
+			Map<Integer, String> applied = new HashMap<>();
+			this.jdbcTemplate.query(
+					"SELECT `version`, `checksum` FROM `schema_migration`",
+					rs -> {
+						applied.put(rs.getInt("version"), rs.getString("checksum"));
+					}
+			);
+			for(MigrationScript script: scripts) {
+				String checksum = applied.get(script.getVersion());
+				if(checksum == null) {
+					this.apply(script);
+				} else if(!checksum.equals(script.getChecksum())) {
+					throw new IllegalStateException("Checksum mismatch for applied migration " + script);
+				}
+			}
+		} finally {
+			this.redisDistributedLock.unlock(LOCK_KEY);
+		}
+	}
+
+	/**
+	 * 加载并校验所有迁移脚本
+	 * @return 按版本号排序的迁移脚本
+	 */
+	private List<MigrationScript> loadScripts() throws IOException {
+		List<MigrationScript> scripts = new ArrayList<>();
+		for(Resource resource: new PathMatchingResourcePatternResolver().getResources(this.location)) {
+			try(InputStream inputStream = resource.getInputStream()) {
+				scripts.add(MigrationScript.parse(
+						Objects.requireNonNull(resource.getFilename()), StreamUtils.copyToString(inputStream, StandardCharsets.UTF_8)
+				));
+			}
+		}
+		scripts.sort(Comparator.comparingInt(MigrationScript::getVersion));
+		for(int i = 1; i < scripts.size(); ++i) {
+			if(scripts.get(i).getVersion() == scripts.get(i - 1).getVersion()) {
+				throw new IllegalStateException("Duplicate migration version " + scripts.get(i));
+			}
+		}
+		if(!this.allowDestructive) {
+			for(MigrationScript script: scripts) {
+				for(String statement: script.getStatements()) {
+					if(MigrationScript.isDestructive(statement)) {
+						throw new IllegalStateException("Destructive statement in migration " + script + ": " + statement);
+					}
+				}
+			}
+		}
+		return scripts;
+	}
+
+	/**
+	 * 执行一个迁移脚本并记录
+	 * @param script	迁移脚本
+	 */
+	private void apply(MigrationScript script) {
+		log.info("Applying schema migration {}", script);
+		long start = System.nanoTime();
+		// 同一脚本的语句在同一个连接上执行，脚本中的 SET SESSION 对其后的语句生效
+		this.jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+			JdbcTemplate scriptTemplate = new JdbcTemplate(new SingleConnectionDataSource(connection, true));
+			for(String statement: script.getStatements()) {
+				Timer.builder("voxelflow.migration.statement")
+						.description("Duration of a schema migration statement")
+						.tag("version", String.valueOf(script.getVersion()))
+						.register(this.meterRegistry)
+						.record(() -> execute(scriptTemplate, statement));
+			}
+			return null;
+		});
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		this.jdbcTemplate.update(
+				"INSERT INTO `schema_migration` (`version`, `description`, `checksum`, `execution_millis`) VALUES (?, ?, ?, ?)",
+				script.getVersion(), script.getDescription(), script.getChecksum(), millis
+		);
+		log.info("Applied schema migration {} in {} ms", script, millis);
+	}
+
+	/**
+	 * 执行一条语句，ALTER TABLE 优先在线执行
+	 * @param jdbcTemplate	执行脚本的连接
+	 * @param statement		语句
+	 */
+	private static void execute(JdbcTemplate jdbcTemplate, String statement) {
+		long start = System.nanoTime();
+		String online = MigrationScript.withOnlineOptions(statement);
+		try {
+			try {
+				jdbcTemplate.execute(online);
+			} catch (DataAccessException e) {
+				int errorCode = errorCodeOf(e);
+				if(online.equals(statement) ||
+						(errorCode != ER_ALTER_OPERATION_NOT_SUPPORTED && errorCode != ER_ALTER_OPERATION_NOT_SUPPORTED_REASON)) {
+					throw e;
+				}
+				log.warn("Online DDL not supported, falling back to default algorithm: {}", e.getMessage());
+				jdbcTemplate.execute(statement);
+			}
+		} catch (DataAccessException e) {
+			int errorCode = errorCodeOf(e);
+			if(errorCode != ER_DUP_FIELDNAME && errorCode != ER_DUP_KEYNAME) {
+				throw e;
+			}
+			log.warn("Skipping already applied change: {}", e.getMessage());
+		}
+		log.info("Executed in {} ms: {}", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), statement);
+	}
+
+	/**
+	 * 获取 MySQL 错误码
+	 * @param e	数据库异常
+	 * @return 错误码，无法获取时返回 0
+	 */
+	private static int errorCodeOf(DataAccessException e) {
+		Throwable cause = e.getMostSpecificCause();
+		return cause instanceof SQLException ? ((SQLException) cause).getErrorCode() : 0;
+	}
+}
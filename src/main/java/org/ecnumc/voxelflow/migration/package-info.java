@@ -0,0 +1,12 @@
+/**
+ * 数据库结构迁移
+ * @author liudongyu
+ */
+@FieldsAreNonnullByDefault
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+package org.ecnumc.voxelflow.migration;
+
+import org.ecnumc.voxelflow.annotation.FieldsAreNonnullByDefault;
+import org.ecnumc.voxelflow.annotation.MethodsReturnNonnullByDefault;
+import org.ecnumc.voxelflow.annotation.ParametersAreNonnullByDefault;
\ No newline at end of file
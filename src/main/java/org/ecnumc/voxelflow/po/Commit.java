@@ -74,6 +74,11 @@ public class Commit {
 	@PositiveOrZero
 	private Integer line;
 
+	/**
+	 * 详情抓取失败次数，达到上限后不再抓取
+	 */
+	private Integer fetchAttempts;
+
 	/**
 	 * 创建人
 	 */
@@ -1,12 +1,17 @@
 package org.ecnumc.voxelflow.repository;
 
 import lombok.extern.slf4j.Slf4j;
+import org.ecnumc.voxelflow.bo.CommitBatchBo;
 import org.ecnumc.voxelflow.mapper.CommitMapper;
 import org.ecnumc.voxelflow.po.Commit;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
 import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * 提交记录执行 Repository
@@ -15,33 +20,98 @@ import javax.annotation.Nullable;
 @Repository
 @Slf4j
 public class CommitCommandRepository {
+	/**
+	 * 以下长度与 sql/create_table/commit.sql 中的列定义保持一致
+	 */
+	private static final int COMMIT_ID_LENGTH = 40;
+	private static final int URL_LENGTH = 2048;
+	private static final int SHORT_COLUMN_LENGTH = 45;
+	private static final int MESSAGE_LENGTH = 2048;
+
 	@Autowired
 	private CommitMapper commitMapper;
 
 	/**
-	 * 添加一条提交记录
-	 * @param commitId	提交 ID
-	 * @param repoUrl	仓库 URL
-	 * @param type		提交类型
-	 * @param code		故事/问题/需求编号
-	 * @param message	提交信息
-	 * @param commitUrl	提交 URL
-	 * @param uid		提交人
+	 * 批量添加提交记录，幂等。
+	 * <p>
+	 * 先在内存中按 commit_id 去重，再用一条 INSERT IGNORE 写入，已存在的提交直接跳过，
+	 * 因此 GitHub 重复投递同一次推送只需要一条语句喵~
+	 * </p>
+	 * <p>
+	 * INSERT IGNORE 会把超长、NOT NULL 列为空等严格模式错误降级为警告并截断写入，
+	 * 所以写入前先按列定义校验：过长的提交信息按字符截断，其余不合法的记录直接拒绝，
+	 * 这样语句中被忽略的行只可能是 commit_id 冲突。
+	 * </p>
+	 * @param commits	提交记录
+	 * @return 写入、跳过和拒绝的记录数
+	 */
+	public CommitBatchBo addAll(List<Commit> commits) {
+		Map<String, Commit> distinct = new LinkedHashMap<>();
+		int rejected = 0;
+		for(Commit commit: commits) {
+			String reason = validate(commit);
+			if(reason != null) {
+				++rejected;
+				log.warn("Rejected commit {}: {}", commit.getCommitId(), reason);
+				continue;
+			}
+			distinct.putIfAbsent(commit.getCommitId(), commit);
+		}
+		int inserted = distinct.isEmpty() ? 0 : this.commitMapper.insertIgnoreBatch(new ArrayList<>(distinct.values()));
+		int duplicatedInBatch = commits.size() - rejected - distinct.size();
+		CommitBatchBo result = CommitBatchBo.builder()
+				.inserted(inserted)
+				.duplicated(duplicatedInBatch + distinct.size() - inserted)
+				.rejected(rejected)
+				.build();
+		if(result.getDuplicated() > 0) {
+			log.info("Skipped {} duplicated commits, inserted {}", result.getDuplicated(), inserted);
+		}
+		return result;
+	}
+
+	/**
+	 * 按列定义校验提交记录，提交信息过长时就地截断
+	 * @param commit	提交记录
+	 * @return 拒绝原因，合法时返回 null
+	 */
+	@Nullable
+	private static String validate(Commit commit) {
+		if(!fits(commit.getCommitId(), COMMIT_ID_LENGTH, false)) {
+			return "invalid commit_id";
+		}
+		if(!fits(commit.getRepoUrl(), URL_LENGTH, false)) {
+			return "invalid repo_url";
+		}
+		if(!fits(commit.getCommitType(), SHORT_COLUMN_LENGTH, false)) {
+			return "invalid commit_type";
+		}
+		if(!fits(commit.getCode(), SHORT_COLUMN_LENGTH, false)) {
+			return "invalid code";
+		}
+		if(!fits(commit.getCommitUrl(), URL_LENGTH, true)) {
+			return "invalid commit_url";
+		}
+		if(!fits(commit.getCreatedBy(), SHORT_COLUMN_LENGTH, false) || !fits(commit.getUpdatedBy(), SHORT_COLUMN_LENGTH, false)) {
+			return "invalid operator";
+		}
+		String message = commit.getMessage();
+		if(message == null) {
+			return "missing message";
+		}
+		if(message.codePointCount(0, message.length()) > MESSAGE_LENGTH) {
+			commit.setMessage(message.substring(0, message.offsetByCodePoints(0, MESSAGE_LENGTH)));
+		}
+		return null;
+	}
+
+	/**
+	 * varchar 的长度按字符（码点）计算
 	 */
-	public void add(String commitId, String repoUrl, String type, String code, String message,
-					@Nullable String commitUrl, String uid) {
-		try {
-			Commit commit = new Commit();
-			commit.setCommitId(commitId);
-			commit.setRepoUrl(repoUrl);
-			commit.setCommitType(type);
-			commit.setCode(code);
-			commit.setMessage(message);
-			commit.setCommitUrl(commitUrl);
-			commit.setCreatedBy(uid);
-			this.commitMapper.insert(commit);
-		} catch (Exception e) {
-			log.error("添加提交记录失败", e);
+	private static boolean fits(@Nullable String value, int maxLength, boolean nullable) {
+		if(value == null) {
+			return nullable;
 		}
+		return value.codePointCount(0, value.length()) <= maxLength;
 	}
 }
@@ -2,11 +2,14 @@ package org.ecnumc.voxelflow.repository;
 
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import lombok.extern.slf4j.Slf4j;
+import org.ecnumc.voxelflow.bo.CursorPageBo;
 import org.ecnumc.voxelflow.mapper.CommitMapper;
 import org.ecnumc.voxelflow.po.Commit;
+import org.ecnumc.voxelflow.util.KeysetCursor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
+import javax.annotation.Nullable;
 import java.util.List;
 
 /**
@@ -197,4 +200,24 @@ public class CommitQueryRepository {
 						.eq("created_by", uid)
 		).intValue();
 	}
+
+	/**
+	 * 游标分页获取提交记录，按更新时间倒序，筛选条件为空时不生效喵~
+	 * @param code		编号
+	 * @param uid		用户 ID
+	 * @param type		提交类型
+	 * @param pageSize	页内最大元素数
+	 * @param cursor	上一页返回的游标，null 或空字符串表示第一页
+	 * @return 一页提交记录和下一页的游标
+	 * @throws IllegalArgumentException 游标无效
+	 */
+	public CursorPageBo<Commit> getByCursor(@Nullable String code, @Nullable String uid, @Nullable String type,
+											int pageSize, @Nullable String cursor) {
+		QueryWrapper<Commit> queryWrapper = new QueryWrapper<Commit>()
+				.eq(code != null, "code", code)
+				.eq(uid != null, "created_by", uid)
+				.eq(type != null, "commit_type", type);
+		List<Commit> rows = this.commitMapper.selectList(KeysetCursor.seek(queryWrapper, "updated_at", false, cursor, pageSize));
+		return KeysetCursor.page(rows, "updated_at", false, pageSize, Commit::getUpdatedAt, Commit::getId);
+	}
 }
@@ -6,10 +6,26 @@ import lombok.extern.slf4j.Slf4j;
 import org.ecnumc.voxelflow.mapper.CounterMapper;
 import org.ecnumc.voxelflow.po.Counter;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 计数器 Repository
+ * <p>
+ * 每个节点通过一次原子的 {@code UPDATE counter SET cnt = cnt + N} 预留一段编号，
+ * 之后在内存中无锁地依次分配，号段用完时才再次访问数据库喵~
+ * 节点重启或多节点交替分配时编号可能不连续，但不会重复。
+ * </p>
  * @author liudongyu
  */
 @Repository
@@ -18,6 +34,33 @@ public class CounterRepository {
 	@Autowired
 	private CounterMapper counterMapper;
 
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Value("${voxelflow.counter.block-size:20}")
+	private int blockSize;
+
+	/**
+	 * 号段预留使用独立事务，避免 counter 行锁被外层事务长时间持有
+	 */
+	private TransactionTemplate transactionTemplate;
+
+	/**
+	 * 每个计数器编码当前持有的号段
+	 */
+	private final ConcurrentMap<String, CounterBlock> blocks = new ConcurrentHashMap<>();
+
+	/**
+	 * 每个计数器编码的号段刷新锁
+	 */
+	private final ConcurrentMap<String, Object> refillLocks = new ConcurrentHashMap<>();
+
+	@PostConstruct
+	public void init() {
+		this.transactionTemplate = new TransactionTemplate(this.transactionManager);
+		this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+	}
+
 	/**
 	 * 自增，并获取计数器值
 	 * @param code	计数器编码
@@ -25,18 +68,81 @@ public class CounterRepository {
 	 * @return 计数器值
 	 */
 	public int increaseAndGet(String code, String uid) {
-		Counter counter = this.counterMapper.selectOne(new QueryWrapper<Counter>().eq("code", code));
-		int cnt;
-		if(counter == null) {
-			cnt = 1;
-			counter = new Counter(1);
-			counter.setCode(code);
-			counter.setCreatedBy(uid);
-			this.counterMapper.insert(counter);
-		} else {
-			cnt = counter.getCnt() + 1;
-			this.counterMapper.update(new UpdateWrapper<Counter>().eq("code", code).set("cnt", cnt));
+		CounterBlock block = this.blocks.get(code);
+		if(block != null) {
+			long value = block.next();
+			if(value > 0L) {
+				return (int) value;
+			}
+		}
+		synchronized (this.refillLocks.computeIfAbsent(code, c -> new Object())) {
+			while(true) {
+				// 其它线程可能已经刷新过号段
+				block = this.blocks.get(code);
+				if(block != null) {
+					long value = block.next();
+					if(value > 0L) {
+						return (int) value;
+					}
+				}
+				this.blocks.put(code, this.reserveBlock(code, uid));
+			}
+		}
+	}
+
+	/**
+	 * 从数据库预留一段编号
+	 * @param code	计数器编码
+	 * @param uid	操作用户 ID
+	 * @return 预留的号段
+	 */
+	private CounterBlock reserveBlock(String code, String uid) {
+		int size = Math.max(this.blockSize, 1);
+		int last = Objects.requireNonNull(this.transactionTemplate.execute(status -> {
+			int updated = this.counterMapper.update(
+					new UpdateWrapper<Counter>().eq("code", code).setSql("cnt = cnt + " + size).set("updated_by", uid)
+			);
+			if(updated == 0) {
+				Counter counter = new Counter(size);
+				counter.setCode(code);
+				counter.setCreatedBy(uid);
+				counter.setUpdatedBy(uid);
+				try {
+					this.counterMapper.insert(counter);
+					return size;
+				} catch (DuplicateKeyException e) {
+					// 其它节点同时插入了该计数器
+					this.counterMapper.update(
+							new UpdateWrapper<Counter>().eq("code", code).setSql("cnt = cnt + " + size).set("updated_by", uid)
+					);
+				}
+			}
+			// 行锁由本事务持有，读到的就是本次自增后的值
+			return this.counterMapper.selectOne(new QueryWrapper<Counter>().select("cnt").eq("code", code)).getCnt();
+		}));
+		log.info("Reserved counter block [{}, {}] for {}", last - size + 1, last, code);
+		return new CounterBlock(last - size + 1, last);
+	}
+
+	/**
+	 * 内存中的号段 [next, last]
+	 */
+	private static final class CounterBlock {
+		private final AtomicLong next;
+		private final long last;
+
+		private CounterBlock(long first, long last) {
+			this.next = new AtomicLong(first);
+			this.last = last;
+		}
+
+		/**
+		 * 分配下一个编号
+		 * @return 编号，号段耗尽时返回 -1
+		 */
+		private long next() {
+			long value = this.next.getAndIncrement();
+			return value <= this.last ? value : -1L;
 		}
-		return cnt;
 	}
 }
@@ -0,0 +1,149 @@
+package org.ecnumc.voxelflow.repository;
+
+import lombok.extern.slf4j.Slf4j;
+import org.ecnumc.voxelflow.bo.IndexBo;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 首页统计计数器 Repository
+ * <p>
+ * 用户被分配的任务数和平台待处理的任务总数保存在同一个 Redis 哈希中，由命令 Repository 在分配、处理、状态流转时增量维护，
+ * 首页只需一次 HMGET 喵~ 增量在事务提交后才写入，计数器偏差由定时对账任务修正。
+ * </p>
+ * <p>
+ * 对账先调用 {@link #startReconcile()} 开始记录增量日志，再统计数据库，最后调用 {@link #reset(Map, int)}：
+ * 统计期间提交的增量可能没有被统计到，替换时把日志中的增量加到统计结果上，不会被整体替换覆盖。
+ * 在开始记录之前提交、提交后回调晚于开始记录的增量会被重复计入，窗口只有提交到回调之间的一瞬，由下一次对账修正。
+ * </p>
+ * @author liudongyu
+ */
+@Repository
+@Slf4j
+public class DashboardCounterRepository {
+	@Autowired
+	private RedisRepository redisRepository;
+
+	private static final String COUNTER_KEY = "dashboard_counter";
+
+	private static final String TOTAL_UNASSIGNED_FIELD = "total_unassigned";
+
+	private static final String ASSIGNED_FIELD_PREFIX = "assigned:";
+
+	/**
+	 * 对账期间的增量日志
+	 */
+	private static final String RECONCILE_LOG_KEY = "dashboard_counter_reconcile_log";
+
+	/**
+	 * 增量日志的标记字段，不与计数器字段重名
+	 */
+	private static final String RECONCILE_LOG_MARKER_FIELD = "reconciling";
+
+	/**
+	 * 增量日志超时时间，对账中途失败时由超时删除
+	 */
+	private static final long RECONCILE_LOG_EXPIRE_SECONDS = 300L;
+
+	/**
+	 * 获取首页统计
+	 * @param uid	用户 UID
+	 * @return 首页统计，计数器尚未初始化时返回 null
+	 */
+	@Nullable
+	public IndexBo get(String uid) {
+		List<String> values;
+		try {
+			values = this.redisRepository.multiGetHash(COUNTER_KEY, Arrays.asList(TOTAL_UNASSIGNED_FIELD, ASSIGNED_FIELD_PREFIX + uid));
+		} catch (RuntimeException e) {
+			log.error("Failed to read dashboard counters:", e);
+			return null;
+		}
+		if(values.size() < 2 || values.get(0) == null) {
+			return null;
+		}
+		return IndexBo.builder()
+				.totalUnassigned(Math.max(Integer.parseInt(values.get(0)), 0))
+				.assigned(values.get(1) == null ? 0 : Math.max(Integer.parseInt(values.get(1)), 0))
+				.build();
+	}
+
+	/**
+	 * 调整用户被分配的任务数
+	 * @param uid	用户 UID
+	 * @param delta	增量
+	 */
+	public void incrementAssigned(String uid, long delta) {
+		this.incrementAfterCommit(ASSIGNED_FIELD_PREFIX + uid, delta);
+	}
+
+	/**
+	 * 调整平台待处理的任务总数
+	 * @param delta	增量
+	 */
+	public void incrementTotalUnassigned(long delta) {
+		this.incrementAfterCommit(TOTAL_UNASSIGNED_FIELD, delta);
+	}
+
+	/**
+	 * 开始对账，之后提交的增量同时记入增量日志，必须在统计数据库之前调用
+	 */
+	public void startReconcile() {
+		this.redisRepository.startHashLog(RECONCILE_LOG_KEY, RECONCILE_LOG_MARKER_FIELD, RECONCILE_LOG_EXPIRE_SECONDS);
+	}
+
+	/**
+	 * 用数据库中统计的结果加上统计期间的增量整体替换计数器
+	 * @param assigned			用户 UID -> 被分配的任务数
+	 * @param totalUnassigned	待处理的任务总数
+	 */
+	public void reset(Map<String, Integer> assigned, int totalUnassigned) {
+		Map<String, String> entries = new HashMap<>();
+		assigned.forEach((uid, count) -> entries.put(ASSIGNED_FIELD_PREFIX + uid, String.valueOf(count)));
+		entries.put(TOTAL_UNASSIGNED_FIELD, String.valueOf(totalUnassigned));
+		this.redisRepository.replaceHash(COUNTER_KEY, entries, RECONCILE_LOG_KEY, RECONCILE_LOG_MARKER_FIELD);
+	}
+
+	/**
+	 * 在当前事务提交后调整计数器，没有事务时立即调整
+	 * @param field	计数器字段
+	 * @param delta	增量
+	 */
+	private void incrementAfterCommit(String field, long delta) {
+		if(delta == 0L) {
+			return;
+		}
+		if(TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCommit() {
+					DashboardCounterRepository.this.increment(field, delta);
+				}
+			});
+		} else {
+			this.increment(field, delta);
+		}
+	}
+
+	/**
+	 * 调整计数器，计数器尚未初始化时跳过，由对账任务初始化；对账期间同时记入增量日志
+	 * @param field	计数器字段
+	 * @param delta	增量
+	 */
+	private void increment(String field, long delta) {
+		try {
+			this.redisRepository.incrementHashIfExists(COUNTER_KEY, RECONCILE_LOG_KEY, field, delta);
+		} catch (RuntimeException e) {
+			// 计数器只用于首页展示，失败时等待对账任务修正
+			log.error("Failed to increment dashboard counter {} by {}:", field, delta, e);
+		}
+	}
+}
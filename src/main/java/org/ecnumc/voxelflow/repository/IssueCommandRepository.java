@@ -1,5 +1,6 @@
 package org.ecnumc.voxelflow.repository;
 
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
 import lombok.extern.slf4j.Slf4j;
 import org.ecnumc.voxelflow.enumeration.IssueStatus;
@@ -10,11 +11,14 @@ import org.ecnumc.voxelflow.po.Issue;
 import org.ecnumc.voxelflow.po.UserIssueRelation;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
-import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * 缺陷命令 Repository
@@ -29,9 +33,15 @@ public class IssueCommandRepository implements OperatingRelationAssignable<Issue
 	@Autowired
 	private UserIssueRelationMapper userIssueRelationMapper;
 
+	@Autowired
+	private IssueQueryRepository issueQueryRepository;
+
 	@Autowired
 	private CounterRepository counterRepository;
 
+	@Autowired
+	private DashboardCounterRepository dashboardCounterRepository;
+
 	private static final String ISSUE_CODE = "BUG";
 
 	/**
@@ -55,6 +65,7 @@ public class IssueCommandRepository implements OperatingRelationAssignable<Issue
 		issue.setUpdatedAt(new Date());
 
 		this.issueMapper.insert(issue);
+		this.dashboardCounterRepository.incrementTotalUnassigned(1L);
 
 		return issue;
 	}
@@ -83,6 +94,7 @@ public class IssueCommandRepository implements OperatingRelationAssignable<Issue
 		}
 
 		this.issueMapper.update(updateWrapper);
+		this.issueQueryRepository.evict(code);
 	}
 
 	/**
@@ -92,9 +104,10 @@ public class IssueCommandRepository implements OperatingRelationAssignable<Issue
 	 * @param description	修改描述，如同意/拒绝理由
 	 * @param relationType	修改类型
 	 * @param updatedBy		更新人
+	 * @return 是否更新成功，false 表示更新人在旧状态下没有待处理的关系
 	 */
 	@Override
-	public void updateRelation(String code, IssueStatus oldStatus, String description, RelationType relationType, String updatedBy) {
+	public boolean updateRelation(String code, IssueStatus oldStatus, String description, RelationType relationType, String updatedBy) {
 		UpdateWrapper<UserIssueRelation> updateWrapper = new UpdateWrapper<UserIssueRelation>()
 				.eq("code", code)
 				.eq("uid", updatedBy)
@@ -103,7 +116,9 @@ public class IssueCommandRepository implements OperatingRelationAssignable<Issue
 				.set("updated_by", updatedBy)
 				.set("relation_type", relationType.name())
 				.set("description", description);
-		this.userIssueRelationMapper.update(updateWrapper);
+		int updated = this.userIssueRelationMapper.update(updateWrapper);
+		this.dashboardCounterRepository.incrementAssigned(updatedBy, -updated);
+		return updated > 0;
 	}
 
 	/**
@@ -114,6 +129,11 @@ public class IssueCommandRepository implements OperatingRelationAssignable<Issue
 	 */
 	@Override
 	public void skipRemainingRelations(String code, IssueStatus oldStatus, String updatedBy) {
+		List<UserIssueRelation> pending = this.userIssueRelationMapper.selectList(new QueryWrapper<UserIssueRelation>()
+				.select("uid")
+				.eq("code", code)
+				.eq("old_status", oldStatus.name())
+				.eq("relation_type", RelationType.HANDLING.name()));
 		UpdateWrapper<UserIssueRelation> updateWrapper = new UpdateWrapper<UserIssueRelation>()
 				.eq("code", code)
 				.eq("old_status", oldStatus.name())
@@ -121,23 +141,82 @@ public class IssueCommandRepository implements OperatingRelationAssignable<Issue
 				.set("relation_type", RelationType.IGNORED.name())
 				.set("updated_by", updatedBy);
 		this.userIssueRelationMapper.update(updateWrapper);
+		pending.forEach(rel -> this.dashboardCounterRepository.incrementAssigned(rel.getUid(), -1L));
 	}
 
 	/**
-	 * 更新缺陷状态
+	 * 更新缺陷状态，仅当缺陷仍处于旧状态时更新（比较并交换）
 	 * @param code			缺陷编码
 	 * @param oldStatus		旧的状态
 	 * @param status		新的状态
 	 * @param updatedBy		更新人
+	 * @return 是否更新成功，false 表示状态已被其他人修改
 	 */
-	public void updateStatus(String code, IssueStatus oldStatus, IssueStatus status, String updatedBy) {
+	public boolean updateStatus(String code, IssueStatus oldStatus, IssueStatus status, String updatedBy) {
 		UpdateWrapper<Issue> updateWrapper = new UpdateWrapper<Issue>()
 				.eq("code", code)
+				.eq("status", oldStatus.name())
 				.set("updated_by", updatedBy);
 		if(!status.equals(oldStatus)) {
 			updateWrapper.set("status", status.name());
 		}
-		this.issueMapper.update(updateWrapper);
+		int updated = this.issueMapper.update(updateWrapper);
+		this.issueQueryRepository.evict(code);
+		boolean wasClosed = IssueQueryRepository.CLOSED_STATUSES.contains(oldStatus);
+		boolean closed = IssueQueryRepository.CLOSED_STATUSES.contains(status);
+		if(updated > 0 && wasClosed != closed) {
+			this.dashboardCounterRepository.incrementTotalUnassigned(closed ? -1L : 1L);
+		}
+		return updated > 0;
+	}
+
+	/**
+	 * 审批通过并流转状态，更新人的待处理关系标记为通过、其他人的标记为跳过，与状态更新在一条语句中完成
+	 * @param code			缺陷编码
+	 * @param oldStatus		旧的状态
+	 * @param status		新的状态
+	 * @param description	同意理由
+	 * @param pendingUids	旧状态下待处理的责任人，用于调整首页计数器
+	 * @param updatedBy		更新人
+	 * @return 是否更新成功，false 表示状态已被其他人修改
+	 */
+	public boolean approve(String code, IssueStatus oldStatus, IssueStatus status, String description,
+						List<String> pendingUids, String updatedBy) {
+		int updated = this.issueMapper.approve(code, oldStatus.name(), status.name(), description, updatedBy);
+		this.issueQueryRepository.evict(code);
+		if(updated == 0) {
+			log.warn("Issue {} is no longer in status {}", code, oldStatus);
+			return false;
+		}
+		pendingUids.forEach(uid -> this.dashboardCounterRepository.incrementAssigned(uid, -1L));
+		boolean wasClosed = IssueQueryRepository.CLOSED_STATUSES.contains(oldStatus);
+		boolean closed = IssueQueryRepository.CLOSED_STATUSES.contains(status);
+		if(wasClosed != closed) {
+			this.dashboardCounterRepository.incrementTotalUnassigned(closed ? -1L : 1L);
+		}
+		return true;
+	}
+
+	/**
+	 * 拒绝，更新人的待处理关系标记为拒绝，仅当缺陷仍处于旧状态时执行，与状态检查在一条语句中完成
+	 * @param code			缺陷编码
+	 * @param oldStatus		旧的状态
+	 * @param description	拒绝理由
+	 * @param pendingUids	旧状态下待处理的责任人，用于调整首页计数器
+	 * @param updatedBy		更新人
+	 * @return 是否更新成功，false 表示状态已被其他人修改
+	 */
+	public boolean reject(String code, IssueStatus oldStatus, String description, List<String> pendingUids, String updatedBy) {
+		int updated = this.issueMapper.reject(code, oldStatus.name(), description, updatedBy);
+		this.issueQueryRepository.evict(code);
+		if(updated == 0) {
+			log.warn("Issue {} is no longer in status {}", code, oldStatus);
+			return false;
+		}
+		if(pendingUids.contains(updatedBy)) {
+			this.dashboardCounterRepository.incrementAssigned(updatedBy, -1L);
+		}
+		return true;
 	}
 
 	/**
@@ -157,6 +236,7 @@ public class IssueCommandRepository implements OperatingRelationAssignable<Issue
 		rel.setCreatedBy(updatedBy);
 		rel.setUpdatedBy(updatedBy);
 		this.userIssueRelationMapper.insert(rel);
+		this.dashboardCounterRepository.incrementAssigned(operator, 1L);
 	}
 
 	/**
@@ -169,34 +249,131 @@ public class IssueCommandRepository implements OperatingRelationAssignable<Issue
 	 */
 	@Override
 	public boolean unassignOperator(String code, IssueStatus status, String operator, String updatedBy) {
-		return this.userIssueRelationMapper.update(new UpdateWrapper<UserIssueRelation>()
+		boolean withdrawn = this.userIssueRelationMapper.update(new UpdateWrapper<UserIssueRelation>()
 				.eq("code", code)
 				.eq("uid", operator)
 				.eq("relation_type", RelationType.HANDLING.name())
 				.eq("old_status", status.name())
 				.set("relation_type", RelationType.WITHDRAWN.name())
 				.set("updated_by", updatedBy)) > 0L;
+		if(withdrawn) {
+			this.dashboardCounterRepository.incrementAssigned(operator, -1L);
+		}
+		return withdrawn;
 	}
 
 	/**
-	 * 委派多位责任人处理
+	 * 委派多位责任人处理，所有关系通过一条多行 INSERT 写入
 	 * @param code			缺陷编码
 	 * @param status		新的状态
 	 * @param operators		责任人们
 	 * @param updatedBy		更新人
 	 */
 	@Override
-	@Transactional(rollbackFor = Exception.class)
 	public void assignOperators(String code, IssueStatus status, List<String> operators, String updatedBy) {
-		operators.forEach(uid -> {
-			UserIssueRelation rel = new UserIssueRelation();
-			rel.setCode(code);
-			rel.setUid(uid);
-			rel.setRelationType(RelationType.HANDLING.name());
-			rel.setOldStatus(status.name());
-			rel.setCreatedBy(updatedBy);
-			rel.setUpdatedBy(updatedBy);
-			this.userIssueRelationMapper.insert(rel);
-		});
+		this.assignOperatorsByCodes(Collections.singletonList(code), status, operators, updatedBy);
+	}
+
+	/**
+	 * 批量更新关系
+	 * @param codes			缺陷编码列表，不能为空
+	 * @param oldStatus		旧的状态
+	 * @param description	修改描述，如同意/拒绝理由
+	 * @param relationType	修改类型
+	 * @param updatedBy		更新人
+	 */
+	@Override
+	public void updateRelationsByCodes(Collection<String> codes, IssueStatus oldStatus, String description,
+									   RelationType relationType, String updatedBy) {
+		UpdateWrapper<UserIssueRelation> updateWrapper = new UpdateWrapper<UserIssueRelation>()
+				.in("code", codes)
+				.eq("uid", updatedBy)
+				.eq("old_status", oldStatus.name())
+				.eq("relation_type", RelationType.HANDLING.name())
+				.set("updated_by", updatedBy)
+				.set("relation_type", relationType.name())
+				.set("description", description);
+		int updated = this.userIssueRelationMapper.update(updateWrapper);
+		this.dashboardCounterRepository.incrementAssigned(updatedBy, -updated);
+	}
+
+	/**
+	 * 批量跳过剩余的修改关系
+	 * @param codes		缺陷编码列表，不能为空
+	 * @param oldStatus	旧的状态
+	 * @param updatedBy	更新人
+	 */
+	@Override
+	public void skipRemainingRelationsByCodes(Collection<String> codes, IssueStatus oldStatus, String updatedBy) {
+		List<UserIssueRelation> pending = this.userIssueRelationMapper.selectList(new QueryWrapper<UserIssueRelation>()
+				.select("uid")
+				.in("code", codes)
+				.eq("old_status", oldStatus.name())
+				.eq("relation_type", RelationType.HANDLING.name()));
+		UpdateWrapper<UserIssueRelation> updateWrapper = new UpdateWrapper<UserIssueRelation>()
+				.in("code", codes)
+				.eq("old_status", oldStatus.name())
+				.eq("relation_type", RelationType.HANDLING.name())
+				.set("relation_type", RelationType.IGNORED.name())
+				.set("updated_by", updatedBy);
+		this.userIssueRelationMapper.update(updateWrapper);
+		pending.stream()
+				.collect(Collectors.groupingBy(UserIssueRelation::getUid, Collectors.counting()))
+				.forEach((uid, count) -> this.dashboardCounterRepository.incrementAssigned(uid, -count));
+	}
+
+	/**
+	 * 批量更新缺陷状态，只更新仍处于旧状态的缺陷
+	 * @param codes			缺陷编码列表，不能为空
+	 * @param oldStatus		旧的状态
+	 * @param status		新的状态
+	 * @param updatedBy		更新人
+	 * @return 更新的缺陷数量
+	 */
+	public int updateStatusByCodes(Collection<String> codes, IssueStatus oldStatus, IssueStatus status, String updatedBy) {
+		UpdateWrapper<Issue> updateWrapper = new UpdateWrapper<Issue>()
+				.in("code", codes)
+				.eq("status", oldStatus.name())
+				.set("updated_by", updatedBy);
+		if(!status.equals(oldStatus)) {
+			updateWrapper.set("status", status.name());
+		}
+		int updated = this.issueMapper.update(updateWrapper);
+		this.issueQueryRepository.evict(codes);
+		boolean wasClosed = IssueQueryRepository.CLOSED_STATUSES.contains(oldStatus);
+		boolean closed = IssueQueryRepository.CLOSED_STATUSES.contains(status);
+		if(wasClosed != closed) {
+			this.dashboardCounterRepository.incrementTotalUnassigned(closed ? -updated : updated);
+		}
+		return updated;
+	}
+
+	/**
+	 * 批量委派多位责任人处理
+	 * @param codes			缺陷编码列表，不能为空
+	 * @param status		新的状态
+	 * @param operators		责任人们
+	 * @param updatedBy		更新人
+	 */
+	@Override
+	public void assignOperatorsByCodes(Collection<String> codes, IssueStatus status, List<String> operators, String updatedBy) {
+		if(operators.isEmpty()) {
+			return;
+		}
+		List<UserIssueRelation> rels = new ArrayList<>(codes.size() * operators.size());
+		for(String code: codes) {
+			for(String uid: operators) {
+				UserIssueRelation rel = new UserIssueRelation();
+				rel.setCode(code);
+				rel.setUid(uid);
+				rel.setRelationType(RelationType.HANDLING.name());
+				rel.setOldStatus(status.name());
+				rel.setCreatedBy(updatedBy);
+				rel.setUpdatedBy(updatedBy);
+				rels.add(rel);
+			}
+		}
+		this.userIssueRelationMapper.insertBatch(rels);
+		operators.forEach(uid -> this.dashboardCounterRepository.incrementAssigned(uid, codes.size()));
 	}
 }
@@ -1,7 +1,12 @@
 package org.ecnumc.voxelflow.repository;
 
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Sets;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.ecnumc.voxelflow.bo.ApprovalStateBo;
+import org.ecnumc.voxelflow.bo.CursorPageBo;
 import org.ecnumc.voxelflow.bo.IndexBo;
 import org.ecnumc.voxelflow.enumeration.IssueStatus;
 import org.ecnumc.voxelflow.enumeration.RelationType;
@@ -9,11 +14,24 @@ import org.ecnumc.voxelflow.mapper.IssueMapper;
 import org.ecnumc.voxelflow.mapper.UserIssueRelationMapper;
 import org.ecnumc.voxelflow.po.Issue;
 import org.ecnumc.voxelflow.po.UserIssueRelation;
+import org.ecnumc.voxelflow.util.FullTextSearch;
+import org.ecnumc.voxelflow.util.KeysetCursor;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Repository;
 
 import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * 问题查询 Repository
@@ -28,6 +46,59 @@ public class IssueQueryRepository implements PendingRelationQueryable<UserIssueR
 	@Autowired
 	private UserIssueRelationMapper userIssueRelationMapper;
 
+	@Autowired
+	private RedisRepository redisRepository;
+
+	@Autowired
+	private RedisMessageListenerContainer redisMessageListenerContainer;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Value("${voxelflow.item-cache.issue.maximum-size:10000}")
+	private long cacheMaximumSize;
+
+	@Value("${voxelflow.item-cache.issue.local-expire-seconds:30}")
+	private long cacheLocalExpireSeconds;
+
+	@Value("${voxelflow.item-cache.issue.redis-expire-seconds:600}")
+	private long cacheRedisExpireSeconds;
+
+	/**
+	 * 问题两级缓存，code -> 问题
+	 */
+	private WorkItemCache<Issue> itemCache;
+
+	/**
+	 * 游标分页支持的排序字段
+	 */
+	private static final Map<String, Function<Issue, Object>> CURSOR_SORT_COLUMNS = ImmutableMap.<String, Function<Issue, Object>>builder()
+			.put("updated_at", Issue::getUpdatedAt)
+			.put("created_at", Issue::getCreatedAt)
+			.put("code", Issue::getCode)
+			.put("title", Issue::getTitle)
+			.put("status", Issue::getStatus)
+			.put("priority", Issue::getPriority)
+			.build();
+
+	/**
+	 * 已结束的问题状态，不计入待处理的问题数
+	 */
+	static final Set<IssueStatus> CLOSED_STATUSES = Sets.immutableEnumSet(
+			IssueStatus.REJECTED, IssueStatus.CANCELED, IssueStatus.RELEASED
+	);
+
+	/**
+	 * 初始化问题缓存
+	 */
+	@PostConstruct
+	public void init() {
+		this.itemCache = new WorkItemCache<>(
+				"item_issue", Issue.class, this.cacheMaximumSize, this.cacheLocalExpireSeconds, this.cacheRedisExpireSeconds,
+				this.redisRepository, this.redisMessageListenerContainer, this.meterRegistry
+		);
+	}
+
 	/**
 	 * 获取用户被分配的问题数和平台总共问题数信息
 	 * @param uid	用户 UID
@@ -39,20 +110,91 @@ public class IssueQueryRepository implements PendingRelationQueryable<UserIssueR
 		).eq(
 				"relation_type", RelationType.HANDLING.name()
 		)).intValue();
-		int totalUnassigned = this.issueMapper.selectCount(new QueryWrapper<Issue>().notIn(
-				"status", IssueStatus.REJECTED.name(), IssueStatus.CANCELED.name(), IssueStatus.RELEASED.name()
-		)).intValue();
+		int totalUnassigned = this.countUnassigned();
 		return IndexBo.builder().assigned(assigned).totalUnassigned(totalUnassigned).build();
 	}
 
 	/**
-	 * 根据 code 获取问题
+	 * 统计每个用户被分配的问题数，用于首页计数器对账
+	 * @return 用户 UID -> 被分配的问题数
+	 */
+	public Map<String, Integer> countAssignedByUid() {
+		Map<String, Integer> result = new HashMap<>();
+		this.userIssueRelationMapper.selectMaps(new QueryWrapper<UserIssueRelation>()
+				.select("uid", "COUNT(*) AS cnt")
+				.eq("relation_type", RelationType.HANDLING.name())
+				.groupBy("uid")
+		).forEach(row -> result.put((String) row.get("uid"), ((Number) row.get("cnt")).intValue()));
+		return result;
+	}
+
+	/**
+	 * 统计平台待处理的问题数，用于首页计数器对账
+	 * @return 待处理的问题数
+	 */
+	public int countUnassigned() {
+		return this.issueMapper.selectCount(new QueryWrapper<Issue>().notIn(
+				"status", CLOSED_STATUSES.stream().map(Enum::name).collect(Collectors.toList())
+		)).intValue();
+	}
+
+	/**
+	 * 根据 code 获取问题，依次查找本地缓存、Redis 缓存，都未命中时才查询数据库
 	 * @param code	问题 code
 	 * @return 问题
 	 */
 	@Nullable
 	public Issue getIssueByCode(String code) {
-		return this.issueMapper.selectOne(new QueryWrapper<Issue>().eq("code", code));
+		return this.itemCache.get(code, key -> this.issueMapper.selectOne(new QueryWrapper<Issue>().eq("code", key)));
+	}
+
+	/**
+	 * 失效问题缓存，问题写入数据库后由命令 Repository 调用
+	 * @param code	问题 code
+	 */
+	public void evict(String code) {
+		this.itemCache.evict(code);
+	}
+
+	/**
+	 * 批量失效问题缓存，问题写入数据库后由命令 Repository 调用
+	 * @param codes	问题 code 列表
+	 */
+	public void evict(Collection<String> codes) {
+		this.itemCache.evictAll(codes);
+	}
+
+	/**
+	 * 根据 code 获取问题的当前状态和待处理的责任人，一次查询完成，用于审批
+	 * @param code	问题 code
+	 * @return 审批前的状态，问题不存在时返回 null
+	 */
+	@Nullable
+	public ApprovalStateBo getApprovalState(String code) {
+		List<Map<String, Object>> rows = this.issueMapper.selectStatusWithPendingUids(code);
+		if(rows.isEmpty()) {
+			return null;
+		}
+		return ApprovalStateBo.builder()
+				.status((String) rows.get(0).get("status"))
+				.pendingUids(rows.stream()
+						.map(row -> (String) row.get("uid"))
+						.filter(Objects::nonNull)
+						.collect(Collectors.toList()))
+				.build();
+	}
+
+	/**
+	 * 根据 code 批量获取问题
+	 * @param codes	问题 code 列表
+	 * @return 问题 code -> 问题，不存在的 code 不包含在内
+	 */
+	public Map<String, Issue> getIssuesByCodes(Collection<String> codes) {
+		if(codes.isEmpty()) {
+			return Collections.emptyMap();
+		}
+		return this.issueMapper.selectList(new QueryWrapper<Issue>().in("code", codes)).stream()
+				.collect(Collectors.toMap(Issue::getCode, Function.identity()));
 	}
 
 	/**
@@ -64,15 +206,15 @@ public class IssueQueryRepository implements PendingRelationQueryable<UserIssueR
 	 * @param pageSize	页大小
 	 * @param orderBy	排序字段
 	 * @param orderDir	排序方向
-	 * @return 符合条件的问题列表
+	 * @return 符合条件的问题列表，最多 pageSize + 1 条，多出的一条用于判断是否还有下一页
 	 */
 	public List<Issue> list(List<String> titles, @Nullable String status, @Nullable Integer priority,
 						   int pageNum, int pageSize, @Nullable String orderBy, @Nullable String orderDir) {
 		QueryWrapper<Issue> queryWrapper = new QueryWrapper<>();
 
-		// 标题关键词筛选，所有关键词都需要匹配（AND 关系）喵~
+		// 标题关键词全文检索，所有关键词都需要匹配（AND 关系）喵~
 		if(!titles.isEmpty() && titles.size() < 256) {
-			titles.forEach(title -> queryWrapper.like("title", title));
+			FullTextSearch.match(queryWrapper, titles);
 		}
 
 		// 状态筛选喵~
@@ -85,26 +227,33 @@ public class IssueQueryRepository implements PendingRelationQueryable<UserIssueR
 			queryWrapper.eq("priority", priority);
 		}
 
-		// 排序喵~
+		// 排序，最后按更新时间倒序；已按更新时间排序时不重复添加，否则无法沿索引顺序读取喵~
+		boolean orderedByUpdatedAt = false;
 		if(orderBy != null && orderDir != null) {
 			switch(orderDir) {
 				case "asc":
 					queryWrapper.orderByAsc(orderBy);
+					orderedByUpdatedAt = "updated_at".equals(orderBy);
 					break;
 				case "desc":
 					queryWrapper.orderByDesc(orderBy);
+					orderedByUpdatedAt = "updated_at".equals(orderBy);
 					break;
 				default:
-					queryWrapper.orderByDesc("updated_at");
 					break;
 			}
 		} else {
+			// 未指定排序时，有关键词则优先按相关度排序喵~
+			if(!titles.isEmpty() && titles.size() < 256) {
+				FullTextSearch.orderByRelevance(queryWrapper, titles);
+			}
+		}
+		if(!orderedByUpdatedAt) {
 			queryWrapper.orderByDesc("updated_at");
 		}
 
 		return this.issueMapper.selectList(queryWrapper
-				.orderByDesc("updated_at")
-				.last("LIMIT " + pageSize + " OFFSET " + ((pageNum - 1) * pageSize)));
+				.last("LIMIT " + (pageSize + 1) + " OFFSET " + ((pageNum - 1) * pageSize)));
 	}
 
 	/**
@@ -117,9 +266,9 @@ public class IssueQueryRepository implements PendingRelationQueryable<UserIssueR
 	public int listCount(List<String> titles, @Nullable String status, @Nullable Integer priority) {
 		QueryWrapper<Issue> queryWrapper = new QueryWrapper<>();
 
-		// 标题关键词筛选喵~
+		// 标题关键词全文检索喵~
 		if(!titles.isEmpty() && titles.size() < 256) {
-			titles.forEach(title -> queryWrapper.like("title", title));
+			FullTextSearch.match(queryWrapper, titles);
 		}
 
 		// 状态筛选喵~
@@ -135,6 +284,43 @@ public class IssueQueryRepository implements PendingRelationQueryable<UserIssueR
 		return this.issueMapper.selectCount(queryWrapper).intValue();
 	}
 
+	/**
+	 * 游标分页查询问题，按 (排序字段, id) 定位，翻页深度不影响查询耗时喵~
+	 * @param titles	标题关键词列表
+	 * @param status	状态
+	 * @param priority	优先级
+	 * @param pageSize	页大小
+	 * @param orderBy	排序字段，不在白名单内时按更新时间排序
+	 * @param orderDir	排序方向，asc 为升序，否则为降序
+	 * @param cursor	上一页返回的游标，null 或空字符串表示第一页
+	 * @return 一页问题和下一页的游标
+	 * @throws IllegalArgumentException 游标无效
+	 */
+	public CursorPageBo<Issue> listByCursor(List<String> titles, @Nullable String status, @Nullable Integer priority, int pageSize, @Nullable String orderBy, @Nullable String orderDir,
+										 @Nullable String cursor) {
+		QueryWrapper<Issue> queryWrapper = new QueryWrapper<>();
+
+		// 标题关键词全文检索，所有关键词都需要匹配（AND 关系）喵~
+		if(!titles.isEmpty() && titles.size() < 256) {
+			FullTextSearch.match(queryWrapper, titles);
+		}
+
+		// 状态筛选喵~
+		if(status != null && !status.trim().isEmpty()) {
+			queryWrapper.eq("status", status);
+		}
+
+		// 优先级筛选喵~
+		if(priority != null) {
+			queryWrapper.eq("priority", priority);
+		}
+
+		String column = orderBy != null && CURSOR_SORT_COLUMNS.containsKey(orderBy) ? orderBy : "updated_at";
+		boolean asc = "asc".equals(orderDir);
+		List<Issue> rows = this.issueMapper.selectList(KeysetCursor.seek(queryWrapper, column, asc, cursor, pageSize));
+		return KeysetCursor.page(rows, column, asc, pageSize, CURSOR_SORT_COLUMNS.get(column), Issue::getId);
+	}
+
 	/**
 	 * 查询所有待处理的用户问题关系
 	 * @param code		问题编码
@@ -160,4 +346,25 @@ public class IssueQueryRepository implements PendingRelationQueryable<UserIssueR
 				.eq("old_status", oldStatus.name())
 				.eq("relation_type", RelationType.HANDLING.name())).intValue();
 	}
+
+	/**
+	 * 批量查询待处理的用户问题关系数量
+	 * @param codes		问题编码列表
+	 * @param oldStatus	状态
+	 */
+	@Override
+	public Map<String, Integer> getPendingRelationCounts(Collection<String> codes, IssueStatus oldStatus) {
+		Map<String, Integer> result = new HashMap<>();
+		if(codes.isEmpty()) {
+			return result;
+		}
+		this.userIssueRelationMapper.selectMaps(new QueryWrapper<UserIssueRelation>()
+				.select("code", "COUNT(*) AS cnt")
+				.in("code", codes)
+				.eq("old_status", oldStatus.name())
+				.eq("relation_type", RelationType.HANDLING.name())
+				.groupBy("code")
+		).forEach(row -> result.put((String) row.get("code"), ((Number) row.get("cnt")).intValue()));
+		return result;
+	}
 }
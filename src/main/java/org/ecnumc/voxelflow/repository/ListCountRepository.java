@@ -0,0 +1,88 @@
+package org.ecnumc.voxelflow.repository;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.ecnumc.voxelflow.enumeration.CountMode;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.PostConstruct;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/**
+ * 列表查询总数 Repository，按统计方式决定是否执行 COUNT 查询喵~
+ * <p>
+ * 列表查询会多取一条记录，没有下一页时总数可以直接由当前页推算，不需要再执行 COUNT 查询；
+ * 近似统计时同一筛选条件的总数在短时间内复用缓存。
+ * </p>
+ * @author liudongyu
+ */
+@Repository
+@Slf4j
+public class ListCountRepository {
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Value("${voxelflow.count-cache.maximum-size:1000}")
+	private long countCacheMaximumSize;
+
+	@Value("${voxelflow.count-cache.expire-seconds:30}")
+	private long countCacheExpireSeconds;
+
+	/**
+	 * 筛选条件指纹 -> 总数
+	 */
+	private Cache<String, Integer> countCache;
+
+	@PostConstruct
+	public void init() {
+		this.countCache = CacheBuilder.newBuilder()
+				.maximumSize(this.countCacheMaximumSize)
+				.expireAfterWrite(this.countCacheExpireSeconds, TimeUnit.SECONDS)
+				.recordStats()
+				.build();
+		GuavaCacheMetrics.monitor(this.meterRegistry, this.countCache, "list_count");
+	}
+
+	/**
+	 * 获取列表查询的总数
+	 * @param table		表名，与筛选条件一起组成缓存的指纹
+	 * @param filters	筛选条件
+	 * @param countMode	统计方式
+	 * @param pageNum	页码
+	 * @param pageSize	页大小
+	 * @param pageCount	当前页的记录数
+	 * @param hasMore	是否还有下一页
+	 * @param counter	执行 COUNT 查询
+	 * @return 总数，不统计时返回 -1
+	 */
+	public int count(String table, List<?> filters, CountMode countMode, int pageNum, int pageSize,
+					 int pageCount, boolean hasMore, IntSupplier counter) {
+		if(countMode == CountMode.NONE) {
+			return -1;
+		}
+		// 当前页就是最后一页，总数可以直接推算喵~
+		if(!hasMore && (pageCount > 0 || pageNum == 1)) {
+			return (pageNum - 1) * pageSize + pageCount;
+		}
+		if(countMode == CountMode.EXACT) {
+			return counter.getAsInt();
+		}
+		int total;
+		try {
+			total = this.countCache.get(table + ":" + filters, counter::getAsInt);
+		} catch (ExecutionException e) {
+			log.error("Failed to count {} with filters {}:", table, filters, e);
+			total = counter.getAsInt();
+		}
+		// 缓存的总数可能已经过时，至少不能少于已经看到的记录数
+		return Math.max(total, (pageNum - 1) * pageSize + pageCount + (hasMore ? 1 : 0));
+	}
+}
@@ -2,6 +2,7 @@ package org.ecnumc.voxelflow.repository;
 
 import org.ecnumc.voxelflow.enumeration.RelationType;
 
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -17,8 +18,9 @@ public interface OperatingRelationAssignable<S> {
 	 * @param description	修改描述，如同意/拒绝理由
 	 * @param relationType	修改类型
 	 * @param updatedBy		更新人
+	 * @return 是否更新成功，false 表示更新人在旧状态下没有待处理的关系
 	 */
-	void updateRelation(String code, S oldStatus, String description, RelationType relationType, String updatedBy);
+	boolean updateRelation(String code, S oldStatus, String description, RelationType relationType, String updatedBy);
 
 	/**
 	 * 跳过剩余的修改关系
@@ -55,4 +57,31 @@ public interface OperatingRelationAssignable<S> {
 	 * @param updatedBy	更新人
 	 */
 	void assignOperators(String code, S status, List<String> operators, String updatedBy);
+
+	/**
+	 * 批量更新关系
+	 * @param codes			编码列表，不能为空
+	 * @param oldStatus		旧的状态
+	 * @param description	修改描述，如同意/拒绝理由
+	 * @param relationType	修改类型
+	 * @param updatedBy		更新人
+	 */
+	void updateRelationsByCodes(Collection<String> codes, S oldStatus, String description, RelationType relationType, String updatedBy);
+
+	/**
+	 * 批量跳过剩余的修改关系
+	 * @param codes		编码列表，不能为空
+	 * @param oldStatus	旧的状态
+	 * @param updatedBy	更新人
+	 */
+	void skipRemainingRelationsByCodes(Collection<String> codes, S oldStatus, String updatedBy);
+
+	/**
+	 * 批量委派多位责任人处理，所有关系通过一条多行 INSERT 写入
+	 * @param codes		编码列表，不能为空
+	 * @param status	新的状态
+	 * @param operators	责任人们
+	 * @param updatedBy	更新人
+	 */
+	void assignOperatorsByCodes(Collection<String> codes, S status, List<String> operators, String updatedBy);
 }
@@ -1,6 +1,8 @@
 package org.ecnumc.voxelflow.repository;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * 待处理关联查询接口
@@ -24,4 +26,12 @@ public interface PendingRelationQueryable<R, S> {
 	 * @return 待处理关联数量
 	 */
 	int getPendingRelationCount(String code, S oldStatus);
+
+	/**
+	 * 批量获取待处理关联数量
+	 * @param codes		编码列表
+	 * @param oldStatus	旧状态
+	 * @return 编码 -> 待处理关联数量，没有待处理关联的编码不包含在内
+	 */
+	Map<String, Integer> getPendingRelationCounts(Collection<String> codes, S oldStatus);
 }
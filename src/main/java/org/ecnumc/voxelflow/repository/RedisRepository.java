@@ -1,15 +1,33 @@
 package org.ecnumc.voxelflow.repository;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.ecnumc.voxelflow.util.RedisCommandCount;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.HashOperations;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Repository;
 
 import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 /**
  * 封装的调用 Redis 存储
+ * <p>
+ * 每次调用按命令和结果计入 {@code voxelflow.redis.commands}。
+ * </p>
  * @author liudongyu
  */
 @Repository
@@ -18,13 +36,88 @@ public class RedisRepository {
 	@Autowired
 	private RedisTemplate<String, String> redisTemplate;
 
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	/**
+	 * 命令.结果 -> 计数器，避免每次调用都构建 Counter
+	 */
+	private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+	/**
+	 * 哈希字段自增脚本，哈希不存在时不创建，返回 nil；KEYS[2] 为增量日志，存在时同时记入
+	 */
+	private static final RedisScript<Long> INCREMENT_HASH_IF_EXISTS_SCRIPT = new DefaultRedisScript<>(
+			"if redis.call('exists', KEYS[2]) == 1 then " +
+			"redis.call('hincrby', KEYS[2], ARGV[1], ARGV[2]); " +
+			"end; " +
+			"if redis.call('exists', KEYS[1]) == 1 then " +
+			"return redis.call('hincrby', KEYS[1], ARGV[1], ARGV[2]); " +
+			"end; " +
+			"return nil;",
+			Long.class
+	);
+
+	/**
+	 * 开始记录增量日志，清空旧日志后写入标记字段，增量日志才存在
+	 */
+	private static final RedisScript<Long> START_HASH_LOG_SCRIPT = new DefaultRedisScript<>(
+			"redis.call('del', KEYS[1]); " +
+			"redis.call('hset', KEYS[1], ARGV[1], '0'); " +
+			"return redis.call('expire', KEYS[1], ARGV[2]);",
+			Long.class
+	);
+
+	/**
+	 * 把增量日志中除标记字段外的增量加到临时哈希上，再重命名为目标哈希并删除日志，
+	 * KEYS[1] 为目标哈希，KEYS[2] 为临时哈希，KEYS[3] 为增量日志
+	 */
+	private static final RedisScript<Long> APPLY_HASH_LOG_AND_RENAME_SCRIPT = new DefaultRedisScript<>(
+			"local log = redis.call('hgetall', KEYS[3]); " +
+			"for i = 1, #log, 2 do " +
+			"if log[i] ~= ARGV[1] then " +
+			"redis.call('hincrby', KEYS[2], log[i], log[i + 1]); " +
+			"end; " +
+			"end; " +
+			"redis.call('rename', KEYS[2], KEYS[1]); " +
+			"redis.call('del', KEYS[3]); " +
+			"return #log / 2;",
+			Long.class
+	);
+
+	/**
+	 * 版本未变时设置缓存，KEYS[1] 为缓存 key，KEYS[2] 为版本 key，版本 key 不存在时视为空串
+	 */
+	private static final RedisScript<Long> SET_IF_VERSION_SCRIPT = new DefaultRedisScript<>(
+			"if (redis.call('get', KEYS[2]) or '') ~= ARGV[1] then " +
+			"return 0; " +
+			"end; " +
+			"redis.call('set', KEYS[1], ARGV[2], 'EX', ARGV[3]); " +
+			"return 1;",
+			Long.class
+	);
+
+	/**
+	 * 删除缓存并递增版本，KEYS 前一半为缓存 key，后一半为一一对应的版本 key
+	 */
+	private static final RedisScript<Long> DELETE_AND_BUMP_VERSION_SCRIPT = new DefaultRedisScript<>(
+			"local n = #KEYS / 2; " +
+			"for i = 1, n do " +
+			"redis.call('del', KEYS[i]); " +
+			"redis.call('incr', KEYS[n + i]); " +
+			"redis.call('expire', KEYS[n + i], ARGV[1]); " +
+			"end; " +
+			"return n;",
+			Long.class
+	);
+
 	/**
 	 * 设置缓存，不会过期
 	 * @param key	缓存 key
 	 * @param value	缓存 value
 	 */
 	public void set(String key, String value) {
-		this.redisTemplate.opsForValue().set(key, value);
+		this.execute("set", () -> this.redisTemplate.opsForValue().set(key, value));
 	}
 
 	/**
@@ -34,7 +127,7 @@ public class RedisRepository {
 	 * @param timeout	超时时间，单位秒
 	 */
 	public void set(String key, String value, long timeout) {
-		this.redisTemplate.opsForValue().set(key, value, timeout, TimeUnit.SECONDS);
+		this.execute("set", () -> this.redisTemplate.opsForValue().set(key, value, timeout, TimeUnit.SECONDS));
 	}
 
 	/**
@@ -42,7 +135,48 @@ public class RedisRepository {
 	 * @param key	缓存 key
 	 */
 	public void delete(String key) {
-		this.redisTemplate.delete(key);
+		this.execute("del", () -> this.redisTemplate.delete(key));
+	}
+
+	/**
+	 * 批量删除缓存
+	 * @param keys	缓存 key 列表
+	 */
+	public void delete(Collection<String> keys) {
+		this.execute("del", () -> this.redisTemplate.delete(keys));
+	}
+
+	/**
+	 * 版本 key 的值与读取时一致才设置缓存，并设置超时时间。
+	 * 读取方在查询数据库之前读取版本，期间有写入方递增过版本时放弃回填，避免旧值覆盖失效
+	 * @param key			缓存 key
+	 * @param value			缓存 value
+	 * @param timeout		超时时间，单位秒
+	 * @param versionKey	版本 key
+	 * @param version		读取到的版本，版本 key 不存在时为 null
+	 * @return 是否设置成功
+	 */
+	public boolean setIfVersion(String key, String value, long timeout, String versionKey, @Nullable String version) {
+		Long result = this.execute("set", () -> this.redisTemplate.execute(
+				SET_IF_VERSION_SCRIPT, Arrays.asList(key, versionKey),
+				version == null ? "" : version, value, String.valueOf(timeout)
+		));
+		return result != null && result == 1L;
+	}
+
+	/**
+	 * 批量删除缓存并递增对应的版本 key，一次往返完成
+	 * @param keys			缓存 key 列表
+	 * @param versionKeys	与缓存 key 一一对应的版本 key 列表
+	 * @param timeout		版本 key 的超时时间，单位秒，不应短于缓存的超时时间
+	 */
+	public void deleteAndBumpVersion(List<String> keys, List<String> versionKeys, long timeout) {
+		List<String> scriptKeys = new ArrayList<>(keys.size() + versionKeys.size());
+		scriptKeys.addAll(keys);
+		scriptKeys.addAll(versionKeys);
+		this.execute("del", () -> this.redisTemplate.execute(
+				DELETE_AND_BUMP_VERSION_SCRIPT, scriptKeys, String.valueOf(timeout)
+		));
 	}
 
 	/**
@@ -52,6 +186,109 @@ public class RedisRepository {
 	 */
 	@Nullable
 	public String get(String key) {
-		return this.redisTemplate.opsForValue().get(key);
+		return this.execute("get", () -> this.redisTemplate.opsForValue().get(key));
+	}
+
+	/**
+	 * 向频道广播消息
+	 * @param channel	频道名
+	 * @param message	消息内容
+	 */
+	public void publish(String channel, String message) {
+		this.execute("publish", () -> this.redisTemplate.convertAndSend(channel, message));
+	}
+
+	/**
+	 * 哈希字段自增，哈希不存在时不做任何操作；增量日志存在时无论哈希是否存在都记入日志
+	 * @param key		哈希 key
+	 * @param logKey	增量日志 key，见 {@link #startHashLog(String, String, long)}
+	 * @param field		字段
+	 * @param delta		增量
+	 * @return 自增后的值，哈希不存在时返回 null
+	 */
+	@Nullable
+	public Long incrementHashIfExists(String key, String logKey, String field, long delta) {
+		return this.execute("hincrby", () -> this.redisTemplate.execute(
+				INCREMENT_HASH_IF_EXISTS_SCRIPT, Arrays.asList(key, logKey), field, String.valueOf(delta)
+		));
+	}
+
+	/**
+	 * 开始记录哈希的增量日志，之后的 {@link #incrementHashIfExists(String, String, String, long)} 会同时记入日志，
+	 * 直到 {@link #replaceHash(String, Map, String, String)} 应用并删除日志
+	 * @param logKey		增量日志 key
+	 * @param markerField	标记字段，不能与哈希字段重名
+	 * @param timeout		日志超时时间，单位秒，替换没有执行时由超时删除日志
+	 */
+	public void startHashLog(String logKey, String markerField, long timeout) {
+		this.execute("hset", () -> this.redisTemplate.execute(
+				START_HASH_LOG_SCRIPT, Collections.singletonList(logKey), markerField, String.valueOf(timeout)
+		));
+	}
+
+	/**
+	 * 批量获取哈希字段
+	 * @param key		哈希 key
+	 * @param fields	字段列表
+	 * @return 与字段一一对应的值，不存在的字段为 null
+	 */
+	public List<String> multiGetHash(String key, List<String> fields) {
+		HashOperations<String, String, String> ops = this.redisTemplate.opsForHash();
+		return this.execute("hmget", () -> ops.multiGet(key, fields));
+	}
+
+	/**
+	 * 整体替换哈希，先写入临时 key，再在一个脚本中加上增量日志里记录的增量、重命名并删除日志，
+	 * 读取方不会看到写了一半的哈希，开始记录日志之后的自增也不会被覆盖
+	 * @param key			哈希 key
+	 * @param entries		哈希内容
+	 * @param logKey		增量日志 key
+	 * @param markerField	增量日志的标记字段
+	 */
+	public void replaceHash(String key, Map<String, String> entries, String logKey, String markerField) {
+		String tempKey = key + ":" + UUID.randomUUID();
+		this.execute("hmset", () -> this.redisTemplate.opsForHash().putAll(tempKey, entries));
+		this.execute("rename", () -> this.redisTemplate.execute(
+				APPLY_HASH_LOG_AND_RENAME_SCRIPT, Arrays.asList(key, tempKey, logKey), markerField
+		));
+	}
+
+	/**
+	 * 执行 Redis 命令并计数
+	 * @param command	命令名，用作指标标签
+	 * @param operation	命令
+	 * @param <T>		返回值类型
+	 * @return 命令的返回值
+	 */
+	private <T> T execute(String command, Supplier<T> operation) {
+		RedisCommandCount.increment();
+		try {
+			T result = operation.get();
+			this.counter(command, "success").increment();
+			return result;
+		} catch (RuntimeException e) {
+			this.counter(command, "error").increment();
+			throw e;
+		}
+	}
+
+	/**
+	 * 执行没有返回值的 Redis 命令并计数
+	 * @param command	命令名，用作指标标签
+	 * @param operation	命令
+	 */
+	private void execute(String command, Runnable operation) {
+		this.execute(command, () -> {
+			operation.run();
+			return null;
+		});
+	}
+
+	private Counter counter(String command, String result) {
+		return this.counters.computeIfAbsent(command + "." + result, key -> Counter.builder("voxelflow.redis.commands")
+				.description("Redis commands issued by the application")
+				.tag("command", command)
+				.tag("result", result)
+				.register(this.meterRegistry));
 	}
 }
@@ -1,5 +1,6 @@
 package org.ecnumc.voxelflow.repository;
 
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
 import lombok.extern.slf4j.Slf4j;
 import org.ecnumc.voxelflow.enumeration.RelationType;
@@ -10,11 +11,14 @@ import org.ecnumc.voxelflow.po.Requirement;
 import org.ecnumc.voxelflow.po.UserRequirementRelation;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
-import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * 需求命令 Repository
@@ -29,9 +33,15 @@ public class RequirementCommandRepository implements OperatingRelationAssignable
 	@Autowired
 	private UserRequirementRelationMapper userRequirementRelationMapper;
 
+	@Autowired
+	private RequirementQueryRepository requirementQueryRepository;
+
 	@Autowired
 	private CounterRepository counterRepository;
 
+	@Autowired
+	private DashboardCounterRepository dashboardCounterRepository;
+
 	private static final String REQ_CODE = "REQ";
 
 	/**
@@ -57,6 +67,7 @@ public class RequirementCommandRepository implements OperatingRelationAssignable
 		requirement.setUpdatedAt(new Date());
 
 		this.requirementMapper.insert(requirement);
+		this.dashboardCounterRepository.incrementTotalUnassigned(1L);
 
 		return requirement;
 	}
@@ -89,6 +100,7 @@ public class RequirementCommandRepository implements OperatingRelationAssignable
 		}
 
 		this.requirementMapper.update(updateWrapper);
+		this.requirementQueryRepository.evict(code);
 	}
 
 	/**
@@ -98,9 +110,10 @@ public class RequirementCommandRepository implements OperatingRelationAssignable
 	 * @param description	修改描述，如同意/拒绝理由
 	 * @param relationType	修改类型
 	 * @param updatedBy		更新人
+	 * @return 是否更新成功，false 表示更新人在旧状态下没有待处理的关系
 	 */
 	@Override
-	public void updateRelation(String code, RequirementStatus oldStatus, String description, RelationType relationType, String updatedBy) {
+	public boolean updateRelation(String code, RequirementStatus oldStatus, String description, RelationType relationType, String updatedBy) {
 		UpdateWrapper<UserRequirementRelation> updateWrapper = new UpdateWrapper<UserRequirementRelation>()
 				.eq("code", code)
 				.eq("uid", updatedBy)
@@ -109,7 +122,9 @@ public class RequirementCommandRepository implements OperatingRelationAssignable
 				.set("updated_by", updatedBy)
 				.set("relation_type", relationType.name())
 				.set("description", description);
-		this.userRequirementRelationMapper.update(updateWrapper);
+		int updated = this.userRequirementRelationMapper.update(updateWrapper);
+		this.dashboardCounterRepository.incrementAssigned(updatedBy, -updated);
+		return updated > 0;
 	}
 
 	/**
@@ -120,6 +135,11 @@ public class RequirementCommandRepository implements OperatingRelationAssignable
 	 */
 	@Override
 	public void skipRemainingRelations(String code, RequirementStatus oldStatus, String updatedBy) {
+		List<UserRequirementRelation> pending = this.userRequirementRelationMapper.selectList(new QueryWrapper<UserRequirementRelation>()
+				.select("uid")
+				.eq("code", code)
+				.eq("old_status", oldStatus.name())
+				.eq("relation_type", RelationType.HANDLING.name()));
 		UpdateWrapper<UserRequirementRelation> updateWrapper = new UpdateWrapper<UserRequirementRelation>()
 				.eq("code", code)
 				.eq("old_status", oldStatus.name())
@@ -127,16 +147,18 @@ public class RequirementCommandRepository implements OperatingRelationAssignable
 				.set("relation_type", RelationType.IGNORED.name())
 				.set("updated_by", updatedBy);
 		this.userRequirementRelationMapper.update(updateWrapper);
+		pending.forEach(rel -> this.dashboardCounterRepository.incrementAssigned(rel.getUid(), -1L));
 	}
 
 	/**
-	 * 更新需求状态
+	 * 更新需求状态，仅当需求仍处于旧状态时更新（比较并交换）
 	 * @param code			需求编码
 	 * @param oldStatus		旧的状态
 	 * @param status		新的状态
 	 * @param updatedBy		更新人
+	 * @return 是否更新成功，false 表示状态已被其他人修改
 	 */
-	public void updateStatus(String code, RequirementStatus oldStatus, RequirementStatus status, String updatedBy) {
+	public boolean updateStatus(String code, RequirementStatus oldStatus, RequirementStatus status, String updatedBy) {
 		UpdateWrapper<Requirement> updateWrapper = new UpdateWrapper<Requirement>()
 				.eq("code", code)
 				.eq("status", oldStatus.name())
@@ -144,7 +166,63 @@ public class RequirementCommandRepository implements OperatingRelationAssignable
 		if(!status.equals(oldStatus)) {
 			updateWrapper.set("status", status.name());
 		}
-		this.requirementMapper.update(updateWrapper);
+		int updated = this.requirementMapper.update(updateWrapper);
+		this.requirementQueryRepository.evict(code);
+		boolean wasClosed = RequirementQueryRepository.CLOSED_STATUSES.contains(oldStatus);
+		boolean closed = RequirementQueryRepository.CLOSED_STATUSES.contains(status);
+		if(updated > 0 && wasClosed != closed) {
+			this.dashboardCounterRepository.incrementTotalUnassigned(closed ? -1L : 1L);
+		}
+		return updated > 0;
+	}
+
+	/**
+	 * 审批通过并流转状态，更新人的待处理关系标记为通过、其他人的标记为跳过，与状态更新在一条语句中完成
+	 * @param code			需求编码
+	 * @param oldStatus		旧的状态
+	 * @param status		新的状态
+	 * @param description	同意理由
+	 * @param pendingUids	旧状态下待处理的责任人，用于调整首页计数器
+	 * @param updatedBy		更新人
+	 * @return 是否更新成功，false 表示状态已被其他人修改
+	 */
+	public boolean approve(String code, RequirementStatus oldStatus, RequirementStatus status, String description,
+						List<String> pendingUids, String updatedBy) {
+		int updated = this.requirementMapper.approve(code, oldStatus.name(), status.name(), description, updatedBy);
+		this.requirementQueryRepository.evict(code);
+		if(updated == 0) {
+			log.warn("Requirement {} is no longer in status {}", code, oldStatus);
+			return false;
+		}
+		pendingUids.forEach(uid -> this.dashboardCounterRepository.incrementAssigned(uid, -1L));
+		boolean wasClosed = RequirementQueryRepository.CLOSED_STATUSES.contains(oldStatus);
+		boolean closed = RequirementQueryRepository.CLOSED_STATUSES.contains(status);
+		if(wasClosed != closed) {
+			this.dashboardCounterRepository.incrementTotalUnassigned(closed ? -1L : 1L);
+		}
+		return true;
+	}
+
+	/**
+	 * 拒绝，更新人的待处理关系标记为拒绝，仅当需求仍处于旧状态时执行，与状态检查在一条语句中完成
+	 * @param code			需求编码
+	 * @param oldStatus		旧的状态
+	 * @param description	拒绝理由
+	 * @param pendingUids	旧状态下待处理的责任人，用于调整首页计数器
+	 * @param updatedBy		更新人
+	 * @return 是否更新成功，false 表示状态已被其他人修改
+	 */
+	public boolean reject(String code, RequirementStatus oldStatus, String description, List<String> pendingUids, String updatedBy) {
+		int updated = this.requirementMapper.reject(code, oldStatus.name(), description, updatedBy);
+		this.requirementQueryRepository.evict(code);
+		if(updated == 0) {
+			log.warn("Requirement {} is no longer in status {}", code, oldStatus);
+			return false;
+		}
+		if(pendingUids.contains(updatedBy)) {
+			this.dashboardCounterRepository.incrementAssigned(updatedBy, -1L);
+		}
+		return true;
 	}
 
 	/**
@@ -164,6 +242,7 @@ public class RequirementCommandRepository implements OperatingRelationAssignable
 		rel.setCreatedBy(updatedBy);
 		rel.setUpdatedBy(updatedBy);
 		this.userRequirementRelationMapper.insert(rel);
+		this.dashboardCounterRepository.incrementAssigned(operator, 1L);
 	}
 
 	/**
@@ -176,34 +255,131 @@ public class RequirementCommandRepository implements OperatingRelationAssignable
 	 */
 	@Override
 	public boolean unassignOperator(String code, RequirementStatus status, String operator, String updatedBy) {
-		return this.userRequirementRelationMapper.update(new UpdateWrapper<UserRequirementRelation>()
+		boolean withdrawn = this.userRequirementRelationMapper.update(new UpdateWrapper<UserRequirementRelation>()
 				.eq("code", code)
 				.eq("uid", operator)
 				.eq("relation_type", RelationType.HANDLING.name())
 				.eq("old_status", status.name())
 				.set("relation_type", RelationType.WITHDRAWN.name())
 				.set("updated_by", updatedBy)) > 0L;
+		if(withdrawn) {
+			this.dashboardCounterRepository.incrementAssigned(operator, -1L);
+		}
+		return withdrawn;
 	}
 
 	/**
-	 * 委派多位责任人处理
+	 * 委派多位责任人处理，所有关系通过一条多行 INSERT 写入
 	 * @param code			需求编码
 	 * @param status		新的状态
 	 * @param operators		责任人们
 	 * @param updatedBy		更新人
 	 */
 	@Override
-	@Transactional(rollbackFor = Exception.class)
 	public void assignOperators(String code, RequirementStatus status, List<String> operators, String updatedBy) {
-		operators.forEach(uid -> {
-			UserRequirementRelation rel = new UserRequirementRelation();
-			rel.setCode(code);
-			rel.setUid(uid);
-			rel.setRelationType(RelationType.HANDLING.name());
-			rel.setOldStatus(status.name());
-			rel.setCreatedBy(updatedBy);
-			rel.setUpdatedBy(updatedBy);
-			this.userRequirementRelationMapper.insert(rel);
-		});
+		this.assignOperatorsByCodes(Collections.singletonList(code), status, operators, updatedBy);
+	}
+
+	/**
+	 * 批量更新关系
+	 * @param codes			需求编码列表，不能为空
+	 * @param oldStatus		旧的状态
+	 * @param description	修改描述，如同意/拒绝理由
+	 * @param relationType	修改类型
+	 * @param updatedBy		更新人
+	 */
+	@Override
+	public void updateRelationsByCodes(Collection<String> codes, RequirementStatus oldStatus, String description,
+									   RelationType relationType, String updatedBy) {
+		UpdateWrapper<UserRequirementRelation> updateWrapper = new UpdateWrapper<UserRequirementRelation>()
+				.in("code", codes)
+				.eq("uid", updatedBy)
+				.eq("old_status", oldStatus.name())
+				.eq("relation_type", RelationType.HANDLING.name())
+				.set("updated_by", updatedBy)
+				.set("relation_type", relationType.name())
+				.set("description", description);
+		int updated = this.userRequirementRelationMapper.update(updateWrapper);
+		this.dashboardCounterRepository.incrementAssigned(updatedBy, -updated);
+	}
+
+	/**
+	 * 批量跳过剩余的修改关系
+	 * @param codes		需求编码列表，不能为空
+	 * @param oldStatus	旧的状态
+	 * @param updatedBy	更新人
+	 */
+	@Override
+	public void skipRemainingRelationsByCodes(Collection<String> codes, RequirementStatus oldStatus, String updatedBy) {
+		List<UserRequirementRelation> pending = this.userRequirementRelationMapper.selectList(new QueryWrapper<UserRequirementRelation>()
+				.select("uid")
+				.in("code", codes)
+				.eq("old_status", oldStatus.name())
+				.eq("relation_type", RelationType.HANDLING.name()));
+		UpdateWrapper<UserRequirementRelation> updateWrapper = new UpdateWrapper<UserRequirementRelation>()
+				.in("code", codes)
+				.eq("old_status", oldStatus.name())
+				.eq("relation_type", RelationType.HANDLING.name())
+				.set("relation_type", RelationType.IGNORED.name())
+				.set("updated_by", updatedBy);
+		this.userRequirementRelationMapper.update(updateWrapper);
+		pending.stream()
+				.collect(Collectors.groupingBy(UserRequirementRelation::getUid, Collectors.counting()))
+				.forEach((uid, count) -> this.dashboardCounterRepository.incrementAssigned(uid, -count));
+	}
+
+	/**
+	 * 批量更新需求状态，只更新仍处于旧状态的需求
+	 * @param codes			需求编码列表，不能为空
+	 * @param oldStatus		旧的状态
+	 * @param status		新的状态
+	 * @param updatedBy		更新人
+	 * @return 更新的需求数量
+	 */
+	public int updateStatusByCodes(Collection<String> codes, RequirementStatus oldStatus, RequirementStatus status, String updatedBy) {
+		UpdateWrapper<Requirement> updateWrapper = new UpdateWrapper<Requirement>()
+				.in("code", codes)
+				.eq("status", oldStatus.name())
+				.set("updated_by", updatedBy);
+		if(!status.equals(oldStatus)) {
+			updateWrapper.set("status", status.name());
+		}
+		int updated = this.requirementMapper.update(updateWrapper);
+		this.requirementQueryRepository.evict(codes);
+		boolean wasClosed = RequirementQueryRepository.CLOSED_STATUSES.contains(oldStatus);
+		boolean closed = RequirementQueryRepository.CLOSED_STATUSES.contains(status);
+		if(wasClosed != closed) {
+			this.dashboardCounterRepository.incrementTotalUnassigned(closed ? -updated : updated);
+		}
+		return updated;
+	}
+
+	/**
+	 * 批量委派多位责任人处理
+	 * @param codes			需求编码列表，不能为空
+	 * @param status		新的状态
+	 * @param operators		责任人们
+	 * @param updatedBy		更新人
+	 */
+	@Override
+	public void assignOperatorsByCodes(Collection<String> codes, RequirementStatus status, List<String> operators, String updatedBy) {
+		if(operators.isEmpty()) {
+			return;
+		}
+		List<UserRequirementRelation> rels = new ArrayList<>(codes.size() * operators.size());
+		for(String code: codes) {
+			for(String uid: operators) {
+				UserRequirementRelation rel = new UserRequirementRelation();
+				rel.setCode(code);
+				rel.setUid(uid);
+				rel.setRelationType(RelationType.HANDLING.name());
+				rel.setOldStatus(status.name());
+				rel.setCreatedBy(updatedBy);
+				rel.setUpdatedBy(updatedBy);
+				rels.add(rel);
+			}
+		}
+		this.userRequirementRelationMapper.insertBatch(rels);
+		operators.forEach(uid -> this.dashboardCounterRepository.incrementAssigned(uid, codes.size()));
 	}
 }
@@ -1,7 +1,12 @@
 package org.ecnumc.voxelflow.repository;
 
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Sets;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.ecnumc.voxelflow.bo.ApprovalStateBo;
+import org.ecnumc.voxelflow.bo.CursorPageBo;
 import org.ecnumc.voxelflow.bo.IndexBo;
 import org.ecnumc.voxelflow.enumeration.RelationType;
 import org.ecnumc.voxelflow.enumeration.RequirementStatus;
@@ -9,11 +14,24 @@ import org.ecnumc.voxelflow.mapper.RequirementMapper;
 import org.ecnumc.voxelflow.mapper.UserRequirementRelationMapper;
 import org.ecnumc.voxelflow.po.Requirement;
 import org.ecnumc.voxelflow.po.UserRequirementRelation;
+import org.ecnumc.voxelflow.util.FullTextSearch;
+import org.ecnumc.voxelflow.util.KeysetCursor;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Repository;
 
 import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * 需求查询 Repository
@@ -28,6 +46,59 @@ public class RequirementQueryRepository implements PendingRelationQueryable<User
 	@Autowired
 	private UserRequirementRelationMapper userRequirementRelationMapper;
 
+	@Autowired
+	private RedisRepository redisRepository;
+
+	@Autowired
+	private RedisMessageListenerContainer redisMessageListenerContainer;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Value("${voxelflow.item-cache.requirement.maximum-size:5000}")
+	private long cacheMaximumSize;
+
+	@Value("${voxelflow.item-cache.requirement.local-expire-seconds:60}")
+	private long cacheLocalExpireSeconds;
+
+	@Value("${voxelflow.item-cache.requirement.redis-expire-seconds:1800}")
+	private long cacheRedisExpireSeconds;
+
+	/**
+	 * 需求两级缓存，code -> 需求
+	 */
+	private WorkItemCache<Requirement> itemCache;
+
+	/**
+	 * 游标分页支持的排序字段
+	 */
+	private static final Map<String, Function<Requirement, Object>> CURSOR_SORT_COLUMNS = ImmutableMap.<String, Function<Requirement, Object>>builder()
+			.put("updated_at", Requirement::getUpdatedAt)
+			.put("created_at", Requirement::getCreatedAt)
+			.put("code", Requirement::getCode)
+			.put("title", Requirement::getTitle)
+			.put("status", Requirement::getStatus)
+			.put("priority", Requirement::getPriority)
+			.build();
+
+	/**
+	 * 已结束的需求状态，不计入待处理的需求数
+	 */
+	static final Set<RequirementStatus> CLOSED_STATUSES = Sets.immutableEnumSet(
+			RequirementStatus.REJECTED, RequirementStatus.CANCELED, RequirementStatus.RELEASED
+	);
+
+	/**
+	 * 初始化需求缓存
+	 */
+	@PostConstruct
+	public void init() {
+		this.itemCache = new WorkItemCache<>(
+				"item_requirement", Requirement.class, this.cacheMaximumSize, this.cacheLocalExpireSeconds, this.cacheRedisExpireSeconds,
+				this.redisRepository, this.redisMessageListenerContainer, this.meterRegistry
+		);
+	}
+
 	/**
 	 * 获取用户被分配的需求数和平台总共需求数信息
 	 * @param uid	用户 UID
@@ -39,20 +110,108 @@ public class RequirementQueryRepository implements PendingRelationQueryable<User
 		).eq(
 				"relation_type", RelationType.HANDLING.name()
 		)).intValue();
-		int totalUnassigned = this.requirementMapper.selectCount(new QueryWrapper<Requirement>().notIn(
-				"status", RequirementStatus.REJECTED.name(), RequirementStatus.CANCELED.name(), RequirementStatus.RELEASED.name()
-		)).intValue();
+		int totalUnassigned = this.countUnassigned();
 		return IndexBo.builder().assigned(assigned).totalUnassigned(totalUnassigned).build();
 	}
 
 	/**
-	 * 根据 code 获取需求
+	 * 统计每个用户被分配的需求数，用于首页计数器对账
+	 * @return 用户 UID -> 被分配的需求数
+	 */
+	public Map<String, Integer> countAssignedByUid() {
+		Map<String, Integer> result = new HashMap<>();
+		this.userRequirementRelationMapper.selectMaps(new QueryWrapper<UserRequirementRelation>()
+				.select("uid", "COUNT(*) AS cnt")
+				.eq("relation_type", RelationType.HANDLING.name())
+				.groupBy("uid")
+		).forEach(row -> result.put((String) row.get("uid"), ((Number) row.get("cnt")).intValue()));
+		return result;
+	}
+
+	/**
+	 * 统计平台待处理的需求数，用于首页计数器对账
+	 * @return 待处理的需求数
+	 */
+	public int countUnassigned() {
+		return this.requirementMapper.selectCount(new QueryWrapper<Requirement>().notIn(
+				"status", CLOSED_STATUSES.stream().map(Enum::name).collect(Collectors.toList())
+		)).intValue();
+	}
+
+	/**
+	 * 根据 code 获取需求，依次查找本地缓存、Redis 缓存，都未命中时才查询数据库
 	 * @param code	需求 code
 	 * @return 需求
 	 */
 	@Nullable
 	public Requirement getRequirementByCode(String code) {
-		return this.requirementMapper.selectOne(new QueryWrapper<Requirement>().eq("code", code));
+		return this.itemCache.get(code, key -> this.requirementMapper.selectOne(new QueryWrapper<Requirement>().eq("code", key)));
+	}
+
+	/**
+	 * 失效需求缓存，需求写入数据库后由命令 Repository 调用
+	 * @param code	需求 code
+	 */
+	public void evict(String code) {
+		this.itemCache.evict(code);
+	}
+
+	/**
+	 * 批量失效需求缓存，需求写入数据库后由命令 Repository 调用
+	 * @param codes	需求 code 列表
+	 */
+	public void evict(Collection<String> codes) {
+		this.itemCache.evictAll(codes);
+	}
+
+	/**
+	 * 根据 code 获取需求的当前状态和待处理的责任人，一次查询完成，用于审批。
+	 * 使用加锁读，需在事务中调用，锁定需求直到事务结束
+	 * @param code	需求 code
+	 * @return 审批前的状态，需求不存在时返回 null
+	 */
+	@Nullable
+	public ApprovalStateBo getApprovalState(String code) {
+		List<Map<String, Object>> rows = this.requirementMapper.selectStatusWithPendingUids(code);
+		if(rows.isEmpty()) {
+			return null;
+		}
+		return ApprovalStateBo.builder()
+				.status((String) rows.get(0).get("status"))
+				.pendingUids(rows.stream()
+						.map(row -> (String) row.get("uid"))
+						.filter(Objects::nonNull)
+						.collect(Collectors.toList()))
+				.build();
+	}
+
+	/**
+	 * 按 code 锁定需求行直到事务结束，需在事务中调用。
+	 * 批量会签时先锁定需求，再更新处理关系，与单个审批的加锁顺序一致
+	 * @param codes	需求 code 列表
+	 */
+	public void lockByCodes(Collection<String> codes) {
+		if(codes.isEmpty()) {
+			return;
+		}
+		this.requirementMapper.selectList(new QueryWrapper<Requirement>()
+				.select("id")
+				.in("code", codes)
+				.orderByAsc("code")
+				.last("FOR UPDATE"));
+	}
+
+	/**
+	 * 根据 code 批量获取需求
+	 * @param codes	需求 code 列表
+	 * @return 需求 code -> 需求，不存在的 code 不包含在内
+	 */
+	public Map<String, Requirement> getRequirementsByCodes(Collection<String> codes) {
+		if(codes.isEmpty()) {
+			return Collections.emptyMap();
+		}
+		return this.requirementMapper.selectList(new QueryWrapper<Requirement>().in("code", codes)).stream()
+				.collect(Collectors.toMap(Requirement::getCode, Function.identity()));
 	}
 
 	/**
@@ -64,15 +223,15 @@ public class RequirementQueryRepository implements PendingRelationQueryable<User
 	 * @param pageSize	页大小
 	 * @param orderBy	排序字段
 	 * @param orderDir	排序方向
-	 * @return 符合条件的需求列表
+	 * @return 符合条件的需求列表，最多 pageSize + 1 条，多出的一条用于判断是否还有下一页
 	 */
 	public List<Requirement> list(List<String> titles, @Nullable String status, @Nullable Integer priority,
 								  int pageNum, int pageSize, @Nullable String orderBy, @Nullable String orderDir) {
 		QueryWrapper<Requirement> queryWrapper = new QueryWrapper<>();
 
-		// 标题关键词筛选，所有关键词都需要匹配（AND 关系）喵~
+		// 标题关键词全文检索，所有关键词都需要匹配（AND 关系）喵~
 		if(!titles.isEmpty() && titles.size() < 256) {
-			titles.forEach(title -> queryWrapper.like("title", title));
+			FullTextSearch.match(queryWrapper, titles);
 		}
 
 		// 状态筛选喵~
@@ -85,25 +244,33 @@ public class RequirementQueryRepository implements PendingRelationQueryable<User
 			queryWrapper.eq("priority", priority);
 		}
 
-		// 排序喵~
+		// 排序，最后按更新时间倒序；已按更新时间排序时不重复添加，否则无法沿索引顺序读取喵~
+		boolean orderedByUpdatedAt = false;
 		if(orderBy != null && orderDir != null) {
 			switch(orderDir) {
 				case "asc":
 					queryWrapper.orderByAsc(orderBy);
+					orderedByUpdatedAt = "updated_at".equals(orderBy);
 					break;
 				case "desc":
 					queryWrapper.orderByDesc(orderBy);
+					orderedByUpdatedAt = "updated_at".equals(orderBy);
 					break;
 				default:
-					queryWrapper.orderByDesc("updated_at");
 					break;
 			}
 		} else {
+			// 未指定排序时，有关键词则优先按相关度排序喵~
+			if(!titles.isEmpty() && titles.size() < 256) {
+				FullTextSearch.orderByRelevance(queryWrapper, titles);
+			}
+		}
+		if(!orderedByUpdatedAt) {
 			queryWrapper.orderByDesc("updated_at");
 		}
 
 		return this.requirementMapper.selectList(queryWrapper
-				.last("LIMIT " + pageSize + " OFFSET " + ((pageNum - 1) * pageSize)));
+				.last("LIMIT " + (pageSize + 1) + " OFFSET " + ((pageNum - 1) * pageSize)));
 	}
 
 	/**
@@ -116,9 +283,9 @@ public class RequirementQueryRepository implements PendingRelationQueryable<User
 	public int listCount(List<String> titles, @Nullable String status, @Nullable Integer priority) {
 		QueryWrapper<Requirement> queryWrapper = new QueryWrapper<>();
 
-		// 标题关键词筛选喵~
+		// 标题关键词全文检索喵~
 		if(!titles.isEmpty() && titles.size() < 256) {
-			titles.forEach(title -> queryWrapper.like("title", title));
+			FullTextSearch.match(queryWrapper, titles);
 		}
 
 		// 状态筛选喵~
@@ -134,6 +301,43 @@ public class RequirementQueryRepository implements PendingRelationQueryable<User
 		return this.requirementMapper.selectCount(queryWrapper).intValue();
 	}
 
+	/**
+	 * 游标分页查询需求，按 (排序字段, id) 定位，翻页深度不影响查询耗时喵~
+	 * @param titles	标题关键词列表
+	 * @param status	状态
+	 * @param priority	优先级
+	 * @param pageSize	页大小
+	 * @param orderBy	排序字段，不在白名单内时按更新时间排序
+	 * @param orderDir	排序方向，asc 为升序，否则为降序
+	 * @param cursor	上一页返回的游标，null 或空字符串表示第一页
+	 * @return 一页需求和下一页的游标
+	 * @throws IllegalArgumentException 游标无效
+	 */
+	public CursorPageBo<Requirement> listByCursor(List<String> titles, @Nullable String status, @Nullable Integer priority, int pageSize, @Nullable String orderBy, @Nullable String orderDir,
+										 @Nullable String cursor) {
+		QueryWrapper<Requirement> queryWrapper = new QueryWrapper<>();
+
+		// 标题关键词全文检索，所有关键词都需要匹配（AND 关系）喵~
+		if(!titles.isEmpty() && titles.size() < 256) {
+			FullTextSearch.match(queryWrapper, titles);
+		}
+
+		// 状态筛选喵~
+		if(status != null && !status.trim().isEmpty()) {
+			queryWrapper.eq("status", status);
+		}
+
+		// 优先级筛选喵~
+		if(priority != null) {
+			queryWrapper.eq("priority", priority);
+		}
+
+		String column = orderBy != null && CURSOR_SORT_COLUMNS.containsKey(orderBy) ? orderBy : "updated_at";
+		boolean asc = "asc".equals(orderDir);
+		List<Requirement> rows = this.requirementMapper.selectList(KeysetCursor.seek(queryWrapper, column, asc, cursor, pageSize));
+		return KeysetCursor.page(rows, column, asc, pageSize, CURSOR_SORT_COLUMNS.get(column), Requirement::getId);
+	}
+
 	/**
 	 * 查询所有待处理的用户需求关系
 	 * @param code		需求编码
@@ -159,4 +363,27 @@ public class RequirementQueryRepository implements PendingRelationQueryable<User
 				.eq("old_status", oldStatus.name())
 				.eq("relation_type", RelationType.HANDLING.name())).intValue();
 	}
+
+	/**
+	 * 批量查询待处理的用户需求关系数量。
+	 * 使用加锁读（当前读），在事务中调用时能看到其他事务已提交的审批，不受事务快照影响
+	 * @param codes		需求编码列表
+	 * @param oldStatus	状态
+	 */
+	@Override
+	public Map<String, Integer> getPendingRelationCounts(Collection<String> codes, RequirementStatus oldStatus) {
+		Map<String, Integer> result = new HashMap<>();
+		if(codes.isEmpty()) {
+			return result;
+		}
+		this.userRequirementRelationMapper.selectMaps(new QueryWrapper<UserRequirementRelation>()
+				.select("code", "COUNT(*) AS cnt")
+				.in("code", codes)
+				.eq("old_status", oldStatus.name())
+				.eq("relation_type", RelationType.HANDLING.name())
+				.groupBy("code")
+				.last("FOR UPDATE")
+		).forEach(row -> result.put((String) row.get("code"), ((Number) row.get("cnt")).intValue()));
+		return result;
+	}
 }
@@ -10,9 +10,11 @@ import org.ecnumc.voxelflow.po.Retrospective;
 import org.ecnumc.voxelflow.po.UserRetrospectiveRelation;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
-import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
@@ -29,6 +31,9 @@ public class RetrospectiveCommandRepository implements OperatingRelationAssignab
 	@Autowired
 	private UserRetrospectiveRelationMapper userRetrospectiveRelationMapper;
 
+	@Autowired
+	private RetrospectiveQueryRepository retrospectiveQueryRepository;
+
 	@Autowired
 	private CounterRepository counterRepository;
 
@@ -76,6 +81,7 @@ public class RetrospectiveCommandRepository implements OperatingRelationAssignab
 		}
 
 		this.retrospectiveMapper.update(updateWrapper);
+		this.retrospectiveQueryRepository.evict(code);
 	}
 
 	/**
@@ -85,9 +91,10 @@ public class RetrospectiveCommandRepository implements OperatingRelationAssignab
 	 * @param description	修改描述，如同意/拒绝理由
 	 * @param relationType	修改类型
 	 * @param updatedBy		更新人
+	 * @return 是否更新成功，false 表示更新人在旧状态下没有待处理的关系
 	 */
 	@Override
-	public void updateRelation(String code, RetrospectiveStatus oldStatus, String description, RelationType relationType, String updatedBy) {
+	public boolean updateRelation(String code, RetrospectiveStatus oldStatus, String description, RelationType relationType, String updatedBy) {
 		UpdateWrapper<UserRetrospectiveRelation> updateWrapper = new UpdateWrapper<UserRetrospectiveRelation>()
 				.eq("code", code)
 				.eq("uid", updatedBy)
@@ -96,7 +103,7 @@ public class RetrospectiveCommandRepository implements OperatingRelationAssignab
 				.set("updated_by", updatedBy)
 				.set("relation_type", relationType.name())
 				.set("description", description);
-		this.userRetrospectiveRelationMapper.update(updateWrapper);
+		return this.userRetrospectiveRelationMapper.update(updateWrapper) > 0;
 	}
 
 	/**
@@ -117,13 +124,14 @@ public class RetrospectiveCommandRepository implements OperatingRelationAssignab
 	}
 
 	/**
-	 * 更新复盘状态
+	 * 更新复盘状态，仅当复盘仍处于旧状态时更新（比较并交换）
 	 * @param code			复盘编码
 	 * @param oldStatus		旧的状态
 	 * @param status		新的状态
 	 * @param updatedBy		更新人
+	 * @return 是否更新成功，false 表示状态已被其他人修改
 	 */
-	public void updateStatus(String code, RetrospectiveStatus oldStatus, RetrospectiveStatus status, String updatedBy) {
+	public boolean updateStatus(String code, RetrospectiveStatus oldStatus, RetrospectiveStatus status, String updatedBy) {
 		UpdateWrapper<Retrospective> updateWrapper = new UpdateWrapper<Retrospective>()
 				.eq("code", code)
 				.eq("status", oldStatus.name())
@@ -131,7 +139,46 @@ public class RetrospectiveCommandRepository implements OperatingRelationAssignab
 		if(!status.equals(oldStatus)) {
 			updateWrapper.set("status", status.name());
 		}
-		this.retrospectiveMapper.update(updateWrapper);
+		int updated = this.retrospectiveMapper.update(updateWrapper);
+		this.retrospectiveQueryRepository.evict(code);
+		return updated > 0;
+	}
+
+	/**
+	 * 审批通过并流转状态，更新人的待处理关系标记为通过、其他人的标记为跳过，与状态更新在一条语句中完成
+	 * @param code			复盘编码
+	 * @param oldStatus		旧的状态
+	 * @param status		新的状态
+	 * @param description	同意理由
+	 * @param updatedBy		更新人
+	 * @return 是否更新成功，false 表示状态已被其他人修改
+	 */
+	public boolean approve(String code, RetrospectiveStatus oldStatus, RetrospectiveStatus status, String description, String updatedBy) {
+		int updated = this.retrospectiveMapper.approve(code, oldStatus.name(), status.name(), description, updatedBy);
+		this.retrospectiveQueryRepository.evict(code);
+		if(updated == 0) {
+			log.warn("Retrospective {} is no longer in status {}", code, oldStatus);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * 拒绝，更新人的待处理关系标记为拒绝，仅当复盘仍处于旧状态时执行，与状态检查在一条语句中完成
+	 * @param code			复盘编码
+	 * @param oldStatus		旧的状态
+	 * @param description	拒绝理由
+	 * @param updatedBy		更新人
+	 * @return 是否更新成功，false 表示状态已被其他人修改
+	 */
+	public boolean reject(String code, RetrospectiveStatus oldStatus, String description, String updatedBy) {
+		int updated = this.retrospectiveMapper.reject(code, oldStatus.name(), description, updatedBy);
+		this.retrospectiveQueryRepository.evict(code);
+		if(updated == 0) {
+			log.warn("Retrospective {} is no longer in status {}", code, oldStatus);
+			return false;
+		}
+		return true;
 	}
 
 	/**
@@ -173,24 +220,102 @@ public class RetrospectiveCommandRepository implements OperatingRelationAssignab
 	}
 
 	/**
-	 * 委派多位责任人处理
+	 * 委派多位责任人处理，所有关系通过一条多行 INSERT 写入
 	 * @param code			复盘编码
 	 * @param status		新的状态
 	 * @param operators		责任人们
 	 * @param updatedBy		更新人
 	 */
 	@Override
-	@Transactional(rollbackFor = Exception.class)
 	public void assignOperators(String code, RetrospectiveStatus status, List<String> operators, String updatedBy) {
-		operators.forEach(uid -> {
-			UserRetrospectiveRelation rel = new UserRetrospectiveRelation();
-			rel.setCode(code);
-			rel.setUid(uid);
-			rel.setRelationType(RelationType.HANDLING.name());
-			rel.setOldStatus(status.name());
-			rel.setCreatedBy(updatedBy);
-			rel.setUpdatedBy(updatedBy);
-			this.userRetrospectiveRelationMapper.insert(rel);
-		});
+		this.assignOperatorsByCodes(Collections.singletonList(code), status, operators, updatedBy);
+	}
+
+	/**
+	 * 批量更新关系
+	 * @param codes			复盘编码列表，不能为空
+	 * @param oldStatus		旧的状态
+	 * @param description	修改描述，如同意/拒绝理由
+	 * @param relationType	修改类型
+	 * @param updatedBy		更新人
+	 */
+	@Override
+	public void updateRelationsByCodes(Collection<String> codes, RetrospectiveStatus oldStatus, String description,
+									   RelationType relationType, String updatedBy) {
+		UpdateWrapper<UserRetrospectiveRelation> updateWrapper = new UpdateWrapper<UserRetrospectiveRelation>()
+				.in("code", codes)
+				.eq("uid", updatedBy)
+				.eq("old_status", oldStatus.name())
+				.eq("relation_type", RelationType.HANDLING.name())
+				.set("updated_by", updatedBy)
+				.set("relation_type", relationType.name())
+				.set("description", description);
+		this.userRetrospectiveRelationMapper.update(updateWrapper);
+	}
+
+	/**
+	 * 批量跳过剩余的修改关系
+	 * @param codes		复盘编码列表，不能为空
+	 * @param oldStatus	旧的状态
+	 * @param updatedBy	更新人
+	 */
+	@Override
+	public void skipRemainingRelationsByCodes(Collection<String> codes, RetrospectiveStatus oldStatus, String updatedBy) {
+		UpdateWrapper<UserRetrospectiveRelation> updateWrapper = new UpdateWrapper<UserRetrospectiveRelation>()
+				.in("code", codes)
+				.eq("old_status", oldStatus.name())
+				.eq("relation_type", RelationType.HANDLING.name())
+				.set("relation_type", RelationType.IGNORED.name())
+				.set("updated_by", updatedBy);
+		this.userRetrospectiveRelationMapper.update(updateWrapper);
+	}
+
+	/**
+	 * 批量更新复盘状态，只更新仍处于旧状态的复盘
+	 * @param codes			复盘编码列表，不能为空
+	 * @param oldStatus		旧的状态
+	 * @param status		新的状态
+	 * @param updatedBy		更新人
+	 * @return 更新的复盘数量
+	 */
+	public int updateStatusByCodes(Collection<String> codes, RetrospectiveStatus oldStatus, RetrospectiveStatus status, String updatedBy) {
+		UpdateWrapper<Retrospective> updateWrapper = new UpdateWrapper<Retrospective>()
+				.in("code", codes)
+				.eq("status", oldStatus.name())
+				.set("updated_by", updatedBy);
+		if(!status.equals(oldStatus)) {
+			updateWrapper.set("status", status.name());
+		}
+		int updated = this.retrospectiveMapper.update(updateWrapper);
+		this.retrospectiveQueryRepository.evict(codes);
+		return updated;
+	}
+
+	/**
+	 * 批量委派多位责任人处理
+	 * @param codes			复盘编码列表，不能为空
+	 * @param status		新的状态
+	 * @param operators		责任人们
+	 * @param updatedBy		更新人
+	 */
+	@Override
+	public void assignOperatorsByCodes(Collection<String> codes, RetrospectiveStatus status, List<String> operators, String updatedBy) {
+		if(operators.isEmpty()) {
+			return;
+		}
+		List<UserRetrospectiveRelation> rels = new ArrayList<>(codes.size() * operators.size());
+		for(String code: codes) {
+			for(String uid: operators) {
+				UserRetrospectiveRelation rel = new UserRetrospectiveRelation();
+				rel.setCode(code);
+				rel.setUid(uid);
+				rel.setRelationType(RelationType.HANDLING.name());
+				rel.setOldStatus(status.name());
+				rel.setCreatedBy(updatedBy);
+				rel.setUpdatedBy(updatedBy);
+				rels.add(rel);
+			}
+		}
+		this.userRetrospectiveRelationMapper.insertBatch(rels);
 	}
 }
@@ -1,18 +1,34 @@
 package org.ecnumc.voxelflow.repository;
 
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.google.common.collect.ImmutableMap;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.ecnumc.voxelflow.bo.ApprovalStateBo;
+import org.ecnumc.voxelflow.bo.CursorPageBo;
 import org.ecnumc.voxelflow.enumeration.RelationType;
 import org.ecnumc.voxelflow.enumeration.RetrospectiveStatus;
 import org.ecnumc.voxelflow.mapper.RetrospectiveMapper;
 import org.ecnumc.voxelflow.mapper.UserRetrospectiveRelationMapper;
 import org.ecnumc.voxelflow.po.Retrospective;
 import org.ecnumc.voxelflow.po.UserRetrospectiveRelation;
+import org.ecnumc.voxelflow.util.FullTextSearch;
+import org.ecnumc.voxelflow.util.KeysetCursor;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Repository;
 
 import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * 复盘查询 Repository
@@ -27,14 +43,125 @@ public class RetrospectiveQueryRepository implements PendingRelationQueryable<Us
 	@Autowired
 	private UserRetrospectiveRelationMapper userRetrospectiveRelationMapper;
 
+	@Autowired
+	private RedisRepository redisRepository;
+
+	@Autowired
+	private RedisMessageListenerContainer redisMessageListenerContainer;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Value("${voxelflow.item-cache.retrospective.maximum-size:2000}")
+	private long cacheMaximumSize;
+
+	@Value("${voxelflow.item-cache.retrospective.local-expire-seconds:60}")
+	private long cacheLocalExpireSeconds;
+
+	@Value("${voxelflow.item-cache.retrospective.redis-expire-seconds:1800}")
+	private long cacheRedisExpireSeconds;
+
+	/**
+	 * 复盘两级缓存，code -> 复盘
+	 */
+	private WorkItemCache<Retrospective> itemCache;
+
+	/**
+	 * 游标分页支持的排序字段
+	 */
+	private static final Map<String, Function<Retrospective, Object>> CURSOR_SORT_COLUMNS = ImmutableMap.<String, Function<Retrospective, Object>>builder()
+			.put("updated_at", Retrospective::getUpdatedAt)
+			.put("created_at", Retrospective::getCreatedAt)
+			.put("code", Retrospective::getCode)
+			.put("title", Retrospective::getTitle)
+			.put("status", Retrospective::getStatus)
+			.build();
+
+	/**
+	 * 初始化复盘缓存
+	 */
+	@PostConstruct
+	public void init() {
+		this.itemCache = new WorkItemCache<>(
+				"item_retrospective", Retrospective.class, this.cacheMaximumSize, this.cacheLocalExpireSeconds, this.cacheRedisExpireSeconds,
+				this.redisRepository, this.redisMessageListenerContainer, this.meterRegistry
+		);
+	}
+
 	/**
-	 * 根据 code 获取复盘
+	 * 根据 code 获取复盘，依次查找本地缓存、Redis 缓存，都未命中时才查询数据库
 	 * @param code	复盘 code
 	 * @return 复盘
 	 */
 	@Nullable
 	public Retrospective getRetrospectiveByCode(String code) {
-		return this.retrospectiveMapper.selectOne(new QueryWrapper<Retrospective>().eq("code", code));
+		return this.itemCache.get(code, key -> this.retrospectiveMapper.selectOne(new QueryWrapper<Retrospective>().eq("code", key)));
+	}
+
+	/**
+	 * 失效复盘缓存，复盘写入数据库后由命令 Repository 调用
+	 * @param code	复盘 code
+	 */
+	public void evict(String code) {
+		this.itemCache.evict(code);
+	}
+
+	/**
+	 * 批量失效复盘缓存，复盘写入数据库后由命令 Repository 调用
+	 * @param codes	复盘 code 列表
+	 */
+	public void evict(Collection<String> codes) {
+		this.itemCache.evictAll(codes);
+	}
+
+	/**
+	 * 根据 code 获取复盘的当前状态和待处理的责任人，一次查询完成，用于审批。
+	 * 使用加锁读，需在事务中调用，锁定复盘直到事务结束
+	 * @param code	复盘 code
+	 * @return 审批前的状态，复盘不存在时返回 null
+	 */
+	@Nullable
+	public ApprovalStateBo getApprovalState(String code) {
+		List<Map<String, Object>> rows = this.retrospectiveMapper.selectStatusWithPendingUids(code);
+		if(rows.isEmpty()) {
+			return null;
+		}
+		return ApprovalStateBo.builder()
+				.status((String) rows.get(0).get("status"))
+				.pendingUids(rows.stream()
+						.map(row -> (String) row.get("uid"))
+						.filter(Objects::nonNull)
+						.collect(Collectors.toList()))
+				.build();
+	}
+
+	/**
+	 * 按 code 锁定复盘行直到事务结束，需在事务中调用。
+	 * 批量会签时先锁定复盘，再更新处理关系，与单个审批的加锁顺序一致
+	 * @param codes	复盘 code 列表
+	 */
+	public void lockByCodes(Collection<String> codes) {
+		if(codes.isEmpty()) {
+			return;
+		}
+		this.retrospectiveMapper.selectList(new QueryWrapper<Retrospective>()
+				.select("id")
+				.in("code", codes)
+				.orderByAsc("code")
+				.last("FOR UPDATE"));
+	}
+
+	/**
+	 * 根据 code 批量获取复盘
+	 * @param codes	复盘 code 列表
+	 * @return 复盘 code -> 复盘，不存在的 code 不包含在内
+	 */
+	public Map<String, Retrospective> getRetrospectivesByCodes(Collection<String> codes) {
+		if(codes.isEmpty()) {
+			return Collections.emptyMap();
+		}
+		return this.retrospectiveMapper.selectList(new QueryWrapper<Retrospective>().in("code", codes)).stream()
+				.collect(Collectors.toMap(Retrospective::getCode, Function.identity()));
 	}
 
 	/**
@@ -45,15 +172,15 @@ public class RetrospectiveQueryRepository implements PendingRelationQueryable<Us
 	 * @param pageSize	页大小
 	 * @param orderBy	排序字段
 	 * @param orderDir	排序方向
-	 * @return 符合条件的复盘列表
+	 * @return 符合条件的复盘列表，最多 pageSize + 1 条，多出的一条用于判断是否还有下一页
 	 */
 	public List<Retrospective> list(List<String> titles, @Nullable String status,
 								   int pageNum, int pageSize, @Nullable String orderBy, @Nullable String orderDir) {
 		QueryWrapper<Retrospective> queryWrapper = new QueryWrapper<>();
 
-		// 标题关键词筛选，所有关键词都需要匹配（AND 关系）喵~
+		// 标题关键词全文检索，所有关键词都需要匹配（AND 关系）喵~
 		if(!titles.isEmpty() && titles.size() < 256) {
-			titles.forEach(title -> queryWrapper.like("title", title));
+			FullTextSearch.match(queryWrapper, titles);
 		}
 
 		// 状态筛选喵~
@@ -61,26 +188,33 @@ public class RetrospectiveQueryRepository implements PendingRelationQueryable<Us
 			queryWrapper.eq("status", status);
 		}
 
-		// 排序喵~
+		// 排序，最后按更新时间倒序；已按更新时间排序时不重复添加，否则无法沿索引顺序读取喵~
+		boolean orderedByUpdatedAt = false;
 		if(orderBy != null && orderDir != null) {
 			switch(orderDir) {
 				case "asc":
 					queryWrapper.orderByAsc(orderBy);
+					orderedByUpdatedAt = "updated_at".equals(orderBy);
 					break;
 				case "desc":
 					queryWrapper.orderByDesc(orderBy);
+					orderedByUpdatedAt = "updated_at".equals(orderBy);
 					break;
 				default:
-					queryWrapper.orderByDesc("updated_at");
 					break;
 			}
 		} else {
+			// 未指定排序时，有关键词则优先按相关度排序喵~
+			if(!titles.isEmpty() && titles.size() < 256) {
+				FullTextSearch.orderByRelevance(queryWrapper, titles);
+			}
+		}
+		if(!orderedByUpdatedAt) {
 			queryWrapper.orderByDesc("updated_at");
 		}
 
 		return this.retrospectiveMapper.selectList(queryWrapper
-				.orderByDesc("updated_at")
-				.last("LIMIT " + pageSize + " OFFSET " + ((pageNum - 1) * pageSize)));
+				.last("LIMIT " + (pageSize + 1) + " OFFSET " + ((pageNum - 1) * pageSize)));
 	}
 
 	/**
@@ -92,9 +226,9 @@ public class RetrospectiveQueryRepository implements PendingRelationQueryable<Us
 	public int listCount(List<String> titles, @Nullable String status) {
 		QueryWrapper<Retrospective> queryWrapper = new QueryWrapper<>();
 
-		// 标题关键词筛选喵~
+		// 标题关键词全文检索喵~
 		if(!titles.isEmpty() && titles.size() < 256) {
-			titles.forEach(title -> queryWrapper.like("title", title));
+			FullTextSearch.match(queryWrapper, titles);
 		}
 
 		// 状态筛选喵~
@@ -105,6 +239,37 @@ public class RetrospectiveQueryRepository implements PendingRelationQueryable<Us
 		return this.retrospectiveMapper.selectCount(queryWrapper).intValue();
 	}
 
+	/**
+	 * 游标分页查询复盘，按 (排序字段, id) 定位，翻页深度不影响查询耗时喵~
+	 * @param titles	标题关键词列表
+	 * @param status	状态
+	 * @param pageSize	页大小
+	 * @param orderBy	排序字段，不在白名单内时按更新时间排序
+	 * @param orderDir	排序方向，asc 为升序，否则为降序
+	 * @param cursor	上一页返回的游标，null 或空字符串表示第一页
+	 * @return 一页复盘和下一页的游标
+	 * @throws IllegalArgumentException 游标无效
+	 */
+	public CursorPageBo<Retrospective> listByCursor(List<String> titles, @Nullable String status, int pageSize, @Nullable String orderBy, @Nullable String orderDir,
+										 @Nullable String cursor) {
+		QueryWrapper<Retrospective> queryWrapper = new QueryWrapper<>();
+
+		// 标题关键词全文检索，所有关键词都需要匹配（AND 关系）喵~
+		if(!titles.isEmpty() && titles.size() < 256) {
+			FullTextSearch.match(queryWrapper, titles);
+		}
+
+		// 状态筛选喵~
+		if(status != null && !status.trim().isEmpty()) {
+			queryWrapper.eq("status", status);
+		}
+
+		String column = orderBy != null && CURSOR_SORT_COLUMNS.containsKey(orderBy) ? orderBy : "updated_at";
+		boolean asc = "asc".equals(orderDir);
+		List<Retrospective> rows = this.retrospectiveMapper.selectList(KeysetCursor.seek(queryWrapper, column, asc, cursor, pageSize));
+		return KeysetCursor.page(rows, column, asc, pageSize, CURSOR_SORT_COLUMNS.get(column), Retrospective::getId);
+	}
+
 	/**
 	 * 查询所有待处理的用户故事关系
 	 * @param code		故事编码
@@ -130,4 +295,27 @@ public class RetrospectiveQueryRepository implements PendingRelationQueryable<Us
 				.eq("old_status", oldStatus.name())
 				.eq("relation_type", RelationType.HANDLING.name())).intValue();
 	}
+
+	/**
+	 * 批量查询待处理的用户复盘关系数量。
+	 * 使用加锁读（当前读），在事务中调用时能看到其他事务已提交的审批，不受事务快照影响
+	 * @param codes		复盘编码列表
+	 * @param oldStatus	状态
+	 */
+	@Override
+	public Map<String, Integer> getPendingRelationCounts(Collection<String> codes, RetrospectiveStatus oldStatus) {
+		Map<String, Integer> result = new HashMap<>();
+		if(codes.isEmpty()) {
+			return result;
+		}
+		this.userRetrospectiveRelationMapper.selectMaps(new QueryWrapper<UserRetrospectiveRelation>()
+				.select("code", "COUNT(*) AS cnt")
+				.in("code", codes)
+				.eq("old_status", oldStatus.name())
+				.eq("relation_type", RelationType.HANDLING.name())
+				.groupBy("code")
+				.last("FOR UPDATE")
+		).forEach(row -> result.put((String) row.get("code"), ((Number) row.get("cnt")).intValue()));
+		return result;
+	}
 }
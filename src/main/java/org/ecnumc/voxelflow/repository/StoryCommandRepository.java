@@ -1,5 +1,6 @@
 package org.ecnumc.voxelflow.repository;
 
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
 import lombok.extern.slf4j.Slf4j;
 import org.ecnumc.voxelflow.enumeration.RelationType;
@@ -11,11 +12,14 @@ import org.ecnumc.voxelflow.po.UserGroupRelation;
 import org.ecnumc.voxelflow.po.UserStoryRelation;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
-import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * 用户故事命令 Repository
@@ -30,12 +34,18 @@ public class StoryCommandRepository implements OperatingRelationAssignable<Story
 	@Autowired
 	private UserStoryRelationMapper userStoryRelationMapper;
 
+	@Autowired
+	private StoryQueryRepository storyQueryRepository;
+
 	@Autowired
 	private GroupQueryRepository groupQueryRepository;
 
 	@Autowired
 	private CounterRepository counterRepository;
 
+	@Autowired
+	private DashboardCounterRepository dashboardCounterRepository;
+
 	/**
 	 * 创建用户故事
 	 * @param title			故事标题
@@ -65,6 +75,7 @@ public class StoryCommandRepository implements OperatingRelationAssignable<Story
 		story.setUpdatedAt(new Date());
 
 		this.storyMapper.insert(story);
+		this.dashboardCounterRepository.incrementTotalUnassigned(1L);
 
 		return story;
 	}
@@ -97,6 +108,7 @@ public class StoryCommandRepository implements OperatingRelationAssignable<Story
 		}
 
 		this.storyMapper.update(updateWrapper);
+		this.storyQueryRepository.evict(code);
 	}
 
 	/**
@@ -106,9 +118,10 @@ public class StoryCommandRepository implements OperatingRelationAssignable<Story
 	 * @param description	修改描述，如同意/拒绝理由
 	 * @param relationType	修改类型
 	 * @param updatedBy		更新人
+	 * @return 是否更新成功，false 表示更新人在旧状态下没有待处理的关系
 	 */
 	@Override
-	public void updateRelation(String code, StoryStatus oldStatus, String description, RelationType relationType, String updatedBy) {
+	public boolean updateRelation(String code, StoryStatus oldStatus, String description, RelationType relationType, String updatedBy) {
 		UpdateWrapper<UserStoryRelation> updateWrapper = new UpdateWrapper<UserStoryRelation>()
 				.eq("code", code)
 				.eq("uid", updatedBy)
@@ -117,7 +130,9 @@ public class StoryCommandRepository implements OperatingRelationAssignable<Story
 				.set("updated_by", updatedBy)
 				.set("relation_type", relationType.name())
 				.set("description", description);
-		this.userStoryRelationMapper.update(updateWrapper);
+		int updated = this.userStoryRelationMapper.update(updateWrapper);
+		this.dashboardCounterRepository.incrementAssigned(updatedBy, -updated);
+		return updated > 0;
 	}
 
 	/**
@@ -128,6 +143,11 @@ public class StoryCommandRepository implements OperatingRelationAssignable<Story
 	 */
 	@Override
 	public void skipRemainingRelations(String code, StoryStatus oldStatus, String updatedBy) {
+		List<UserStoryRelation> pending = this.userStoryRelationMapper.selectList(new QueryWrapper<UserStoryRelation>()
+				.select("uid")
+				.eq("code", code)
+				.eq("old_status", oldStatus.name())
+				.eq("relation_type", RelationType.HANDLING.name()));
 		UpdateWrapper<UserStoryRelation> updateWrapper = new UpdateWrapper<UserStoryRelation>()
 				.eq("code", code)
 				.eq("old_status", oldStatus.name())
@@ -135,16 +155,18 @@ public class StoryCommandRepository implements OperatingRelationAssignable<Story
 				.set("relation_type", RelationType.IGNORED.name())
 				.set("updated_by", updatedBy);
 		this.userStoryRelationMapper.update(updateWrapper);
+		pending.forEach(rel -> this.dashboardCounterRepository.incrementAssigned(rel.getUid(), -1L));
 	}
 
 	/**
-	 * 更新故事状态
+	 * 更新故事状态，仅当故事仍处于旧状态时更新（比较并交换）
 	 * @param code			故事编码
 	 * @param oldStatus		旧的状态
 	 * @param status		新的状态
 	 * @param updatedBy		更新人
+	 * @return 是否更新成功，false 表示状态已被其他人修改
 	 */
-	public void updateStatus(String code, StoryStatus oldStatus, StoryStatus status, String updatedBy) {
+	public boolean updateStatus(String code, StoryStatus oldStatus, StoryStatus status, String updatedBy) {
 		UpdateWrapper<Story> updateWrapper = new UpdateWrapper<Story>()
 				.eq("code", code)
 				.eq("status", oldStatus.name())
@@ -152,7 +174,63 @@ public class StoryCommandRepository implements OperatingRelationAssignable<Story
 		if(!status.equals(oldStatus)) {
 			updateWrapper.set("status", status.name());
 		}
-		this.storyMapper.update(updateWrapper);
+		int updated = this.storyMapper.update(updateWrapper);
+		this.storyQueryRepository.evict(code);
+		boolean wasClosed = StoryQueryRepository.CLOSED_STATUSES.contains(oldStatus);
+		boolean closed = StoryQueryRepository.CLOSED_STATUSES.contains(status);
+		if(updated > 0 && wasClosed != closed) {
+			this.dashboardCounterRepository.incrementTotalUnassigned(closed ? -1L : 1L);
+		}
+		return updated > 0;
+	}
+
+	/**
+	 * 审批通过并流转状态，更新人的待处理关系标记为通过、其他人的标记为跳过，与状态更新在一条语句中完成
+	 * @param code			故事编码
+	 * @param oldStatus		旧的状态
+	 * @param status		新的状态
+	 * @param description	同意理由
+	 * @param pendingUids	旧状态下待处理的责任人，用于调整首页计数器
+	 * @param updatedBy		更新人
+	 * @return 是否更新成功，false 表示状态已被其他人修改
+	 */
+	public boolean approve(String code, StoryStatus oldStatus, StoryStatus status, String description,
+						List<String> pendingUids, String updatedBy) {
+		int updated = this.storyMapper.approve(code, oldStatus.name(), status.name(), description, updatedBy);
+		this.storyQueryRepository.evict(code);
+		if(updated == 0) {
+			log.warn("Story {} is no longer in status {}", code, oldStatus);
+			return false;
+		}
+		pendingUids.forEach(uid -> this.dashboardCounterRepository.incrementAssigned(uid, -1L));
+		boolean wasClosed = StoryQueryRepository.CLOSED_STATUSES.contains(oldStatus);
+		boolean closed = StoryQueryRepository.CLOSED_STATUSES.contains(status);
+		if(wasClosed != closed) {
+			this.dashboardCounterRepository.incrementTotalUnassigned(closed ? -1L : 1L);
+		}
+		return true;
+	}
+
+	/**
+	 * 拒绝，更新人的待处理关系标记为拒绝，仅当故事仍处于旧状态时执行，与状态检查在一条语句中完成
+	 * @param code			故事编码
+	 * @param oldStatus		旧的状态
+	 * @param description	拒绝理由
+	 * @param pendingUids	旧状态下待处理的责任人，用于调整首页计数器
+	 * @param updatedBy		更新人
+	 * @return 是否更新成功，false 表示状态已被其他人修改
+	 */
+	public boolean reject(String code, StoryStatus oldStatus, String description, List<String> pendingUids, String updatedBy) {
+		int updated = this.storyMapper.reject(code, oldStatus.name(), description, updatedBy);
+		this.storyQueryRepository.evict(code);
+		if(updated == 0) {
+			log.warn("Story {} is no longer in status {}", code, oldStatus);
+			return false;
+		}
+		if(pendingUids.contains(updatedBy)) {
+			this.dashboardCounterRepository.incrementAssigned(updatedBy, -1L);
+		}
+		return true;
 	}
 
 	/**
@@ -172,6 +250,7 @@ public class StoryCommandRepository implements OperatingRelationAssignable<Story
 		rel.setCreatedBy(updatedBy);
 		rel.setUpdatedBy(updatedBy);
 		this.userStoryRelationMapper.insert(rel);
+		this.dashboardCounterRepository.incrementAssigned(operator, 1L);
 	}
 
 	/**
@@ -184,34 +263,131 @@ public class StoryCommandRepository implements OperatingRelationAssignable<Story
 	 */
 	@Override
 	public boolean unassignOperator(String code, StoryStatus status, String operator, String updatedBy) {
-		return this.userStoryRelationMapper.update(new UpdateWrapper<UserStoryRelation>()
+		boolean withdrawn = this.userStoryRelationMapper.update(new UpdateWrapper<UserStoryRelation>()
 				.eq("code", code)
 				.eq("uid", operator)
 				.eq("relation_type", RelationType.HANDLING.name())
 				.eq("old_status", status.name())
 				.set("relation_type", RelationType.WITHDRAWN.name())
 				.set("updated_by", updatedBy)) > 0L;
+		if(withdrawn) {
+			this.dashboardCounterRepository.incrementAssigned(operator, -1L);
+		}
+		return withdrawn;
 	}
 
 	/**
-	 * 委派多位责任人处理
+	 * 委派多位责任人处理，所有关系通过一条多行 INSERT 写入
 	 * @param code			故事编码
 	 * @param status		新的状态
 	 * @param operators		责任人们
 	 * @param updatedBy		更新人
 	 */
 	@Override
-	@Transactional(rollbackFor = Exception.class)
 	public void assignOperators(String code, StoryStatus status, List<String> operators, String updatedBy) {
-		operators.forEach(uid -> {
-			UserStoryRelation rel = new UserStoryRelation();
-			rel.setCode(code);
-			rel.setUid(uid);
-			rel.setRelationType(RelationType.HANDLING.name());
-			rel.setOldStatus(status.name());
-			rel.setCreatedBy(updatedBy);
-			rel.setUpdatedBy(updatedBy);
-			this.userStoryRelationMapper.insert(rel);
-		});
+		this.assignOperatorsByCodes(Collections.singletonList(code), status, operators, updatedBy);
+	}
+
+	/**
+	 * 批量更新关系
+	 * @param codes			故事编码列表，不能为空
+	 * @param oldStatus		旧的状态
+	 * @param description	修改描述，如同意/拒绝理由
+	 * @param relationType	修改类型
+	 * @param updatedBy		更新人
+	 */
+	@Override
+	public void updateRelationsByCodes(Collection<String> codes, StoryStatus oldStatus, String description,
+									   RelationType relationType, String updatedBy) {
+		UpdateWrapper<UserStoryRelation> updateWrapper = new UpdateWrapper<UserStoryRelation>()
+				.in("code", codes)
+				.eq("uid", updatedBy)
+				.eq("old_status", oldStatus.name())
+				.eq("relation_type", RelationType.HANDLING.name())
+				.set("updated_by", updatedBy)
+				.set("relation_type", relationType.name())
+				.set("description", description);
+		int updated = this.userStoryRelationMapper.update(updateWrapper);
+		this.dashboardCounterRepository.incrementAssigned(updatedBy, -updated);
+	}
+
+	/**
+	 * 批量跳过剩余的修改关系
+	 * @param codes		故事编码列表，不能为空
+	 * @param oldStatus	旧的状态
+	 * @param updatedBy	更新人
+	 */
+	@Override
+	public void skipRemainingRelationsByCodes(Collection<String> codes, StoryStatus oldStatus, String updatedBy) {
+		List<UserStoryRelation> pending = this.userStoryRelationMapper.selectList(new QueryWrapper<UserStoryRelation>()
+				.select("uid")
+				.in("code", codes)
+				.eq("old_status", oldStatus.name())
+				.eq("relation_type", RelationType.HANDLING.name()));
+		UpdateWrapper<UserStoryRelation> updateWrapper = new UpdateWrapper<UserStoryRelation>()
+				.in("code", codes)
+				.eq("old_status", oldStatus.name())
+				.eq("relation_type", RelationType.HANDLING.name())
+				.set("relation_type", RelationType.IGNORED.name())
+				.set("updated_by", updatedBy);
+		this.userStoryRelationMapper.update(updateWrapper);
+		pending.stream()
+				.collect(Collectors.groupingBy(UserStoryRelation::getUid, Collectors.counting()))
+				.forEach((uid, count) -> this.dashboardCounterRepository.incrementAssigned(uid, -count));
+	}
+
+	/**
+	 * 批量更新故事状态，只更新仍处于旧状态的故事
+	 * @param codes			故事编码列表，不能为空
+	 * @param oldStatus		旧的状态
+	 * @param status		新的状态
+	 * @param updatedBy		更新人
+	 * @return 更新的故事数量
+	 */
+	public int updateStatusByCodes(Collection<String> codes, StoryStatus oldStatus, StoryStatus status, String updatedBy) {
+		UpdateWrapper<Story> updateWrapper = new UpdateWrapper<Story>()
+				.in("code", codes)
+				.eq("status", oldStatus.name())
+				.set("updated_by", updatedBy);
+		if(!status.equals(oldStatus)) {
+			updateWrapper.set("status", status.name());
+		}
+		int updated = this.storyMapper.update(updateWrapper);
+		this.storyQueryRepository.evict(codes);
+		boolean wasClosed = StoryQueryRepository.CLOSED_STATUSES.contains(oldStatus);
+		boolean closed = StoryQueryRepository.CLOSED_STATUSES.contains(status);
+		if(wasClosed != closed) {
+			this.dashboardCounterRepository.incrementTotalUnassigned(closed ? -updated : updated);
+		}
+		return updated;
+	}
+
+	/**
+	 * 批量委派多位责任人处理
+	 * @param codes			故事编码列表，不能为空
+	 * @param status		新的状态
+	 * @param operators		责任人们
+	 * @param updatedBy		更新人
+	 */
+	@Override
+	public void assignOperatorsByCodes(Collection<String> codes, StoryStatus status, List<String> operators, String updatedBy) {
+		if(operators.isEmpty()) {
+			return;
+		}
+		List<UserStoryRelation> rels = new ArrayList<>(codes.size() * operators.size());
+		for(String code: codes) {
+			for(String uid: operators) {
+				UserStoryRelation rel = new UserStoryRelation();
+				rel.setCode(code);
+				rel.setUid(uid);
+				rel.setRelationType(RelationType.HANDLING.name());
+				rel.setOldStatus(status.name());
+				rel.setCreatedBy(updatedBy);
+				rel.setUpdatedBy(updatedBy);
+				rels.add(rel);
+			}
+		}
+		this.userStoryRelationMapper.insertBatch(rels);
+		operators.forEach(uid -> this.dashboardCounterRepository.incrementAssigned(uid, codes.size()));
 	}
 }
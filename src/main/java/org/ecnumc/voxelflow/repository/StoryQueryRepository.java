@@ -1,7 +1,12 @@
 package org.ecnumc.voxelflow.repository;
 
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Sets;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.ecnumc.voxelflow.bo.ApprovalStateBo;
+import org.ecnumc.voxelflow.bo.CursorPageBo;
 import org.ecnumc.voxelflow.bo.IndexBo;
 import org.ecnumc.voxelflow.enumeration.RelationType;
 import org.ecnumc.voxelflow.enumeration.StoryStatus;
@@ -9,11 +14,24 @@ import org.ecnumc.voxelflow.mapper.StoryMapper;
 import org.ecnumc.voxelflow.mapper.UserStoryRelationMapper;
 import org.ecnumc.voxelflow.po.Story;
 import org.ecnumc.voxelflow.po.UserStoryRelation;
+import org.ecnumc.voxelflow.util.FullTextSearch;
+import org.ecnumc.voxelflow.util.KeysetCursor;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Repository;
 
 import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * 故事查询 Repository
@@ -28,6 +46,59 @@ public class StoryQueryRepository implements PendingRelationQueryable<UserStoryR
 	@Autowired
 	private UserStoryRelationMapper userStoryRelationMapper;
 
+	@Autowired
+	private RedisRepository redisRepository;
+
+	@Autowired
+	private RedisMessageListenerContainer redisMessageListenerContainer;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Value("${voxelflow.item-cache.story.maximum-size:5000}")
+	private long cacheMaximumSize;
+
+	@Value("${voxelflow.item-cache.story.local-expire-seconds:30}")
+	private long cacheLocalExpireSeconds;
+
+	@Value("${voxelflow.item-cache.story.redis-expire-seconds:600}")
+	private long cacheRedisExpireSeconds;
+
+	/**
+	 * 故事两级缓存，code -> 故事
+	 */
+	private WorkItemCache<Story> itemCache;
+
+	/**
+	 * 游标分页支持的排序字段
+	 */
+	private static final Map<String, Function<Story, Object>> CURSOR_SORT_COLUMNS = ImmutableMap.<String, Function<Story, Object>>builder()
+			.put("updated_at", Story::getUpdatedAt)
+			.put("created_at", Story::getCreatedAt)
+			.put("code", Story::getCode)
+			.put("title", Story::getTitle)
+			.put("status", Story::getStatus)
+			.put("priority", Story::getPriority)
+			.build();
+
+	/**
+	 * 已结束的故事状态，不计入待处理的故事数
+	 */
+	static final Set<StoryStatus> CLOSED_STATUSES = Sets.immutableEnumSet(
+			StoryStatus.REJECTED, StoryStatus.CANCELED, StoryStatus.FINISHED
+	);
+
+	/**
+	 * 初始化故事缓存
+	 */
+	@PostConstruct
+	public void init() {
+		this.itemCache = new WorkItemCache<>(
+				"item_story", Story.class, this.cacheMaximumSize, this.cacheLocalExpireSeconds, this.cacheRedisExpireSeconds,
+				this.redisRepository, this.redisMessageListenerContainer, this.meterRegistry
+		);
+	}
+
 	/**
 	 * 获取用户被分配的故事数和平台总共故事数信息
 	 * @param uid	用户 UID
@@ -37,20 +108,91 @@ public class StoryQueryRepository implements PendingRelationQueryable<UserStoryR
 		int assigned = this.userStoryRelationMapper.selectCount(
 				new QueryWrapper<UserStoryRelation>().eq("uid", uid).eq("relation_type", RelationType.HANDLING.name())
 		).intValue();
-		int totalUnassigned = this.storyMapper.selectCount(new QueryWrapper<Story>().notIn(
-				"status", StoryStatus.REJECTED.name(), StoryStatus.CANCELED.name(), StoryStatus.FINISHED.name()
-		)).intValue();
+		int totalUnassigned = this.countUnassigned();
 		return IndexBo.builder().assigned(assigned).totalUnassigned(totalUnassigned).build();
 	}
 
 	/**
-	 * 根据 code 获取故事
+	 * 统计每个用户被分配的故事数，用于首页计数器对账
+	 * @return 用户 UID -> 被分配的故事数
+	 */
+	public Map<String, Integer> countAssignedByUid() {
+		Map<String, Integer> result = new HashMap<>();
+		this.userStoryRelationMapper.selectMaps(new QueryWrapper<UserStoryRelation>()
+				.select("uid", "COUNT(*) AS cnt")
+				.eq("relation_type", RelationType.HANDLING.name())
+				.groupBy("uid")
+		).forEach(row -> result.put((String) row.get("uid"), ((Number) row.get("cnt")).intValue()));
+		return result;
+	}
+
+	/**
+	 * 统计平台待处理的故事数，用于首页计数器对账
+	 * @return 待处理的故事数
+	 */
+	public int countUnassigned() {
+		return this.storyMapper.selectCount(new QueryWrapper<Story>().notIn(
+				"status", CLOSED_STATUSES.stream().map(Enum::name).collect(Collectors.toList())
+		)).intValue();
+	}
+
+	/**
+	 * 根据 code 获取故事，依次查找本地缓存、Redis 缓存，都未命中时才查询数据库
 	 * @param code	故事 code
 	 * @return 故事
 	 */
 	@Nullable
 	public Story getStoryByCode(String code) {
-		return this.storyMapper.selectOne(new QueryWrapper<Story>().eq("code", code));
+		return this.itemCache.get(code, key -> this.storyMapper.selectOne(new QueryWrapper<Story>().eq("code", key)));
+	}
+
+	/**
+	 * 失效故事缓存，故事写入数据库后由命令 Repository 调用
+	 * @param code	故事 code
+	 */
+	public void evict(String code) {
+		this.itemCache.evict(code);
+	}
+
+	/**
+	 * 批量失效故事缓存，故事写入数据库后由命令 Repository 调用
+	 * @param codes	故事 code 列表
+	 */
+	public void evict(Collection<String> codes) {
+		this.itemCache.evictAll(codes);
+	}
+
+	/**
+	 * 根据 code 获取故事的当前状态和待处理的责任人，一次查询完成，用于审批
+	 * @param code	故事 code
+	 * @return 审批前的状态，故事不存在时返回 null
+	 */
+	@Nullable
+	public ApprovalStateBo getApprovalState(String code) {
+		List<Map<String, Object>> rows = this.storyMapper.selectStatusWithPendingUids(code);
+		if(rows.isEmpty()) {
+			return null;
+		}
+		return ApprovalStateBo.builder()
+				.status((String) rows.get(0).get("status"))
+				.pendingUids(rows.stream()
+						.map(row -> (String) row.get("uid"))
+						.filter(Objects::nonNull)
+						.collect(Collectors.toList()))
+				.build();
+	}
+
+	/**
+	 * 根据 code 批量获取故事
+	 * @param codes	故事 code 列表
+	 * @return 故事 code -> 故事，不存在的 code 不包含在内
+	 */
+	public Map<String, Story> getStorysByCodes(Collection<String> codes) {
+		if(codes.isEmpty()) {
+			return Collections.emptyMap();
+		}
+		return this.storyMapper.selectList(new QueryWrapper<Story>().in("code", codes)).stream()
+				.collect(Collectors.toMap(Story::getCode, Function.identity()));
 	}
 
 	/**
@@ -62,15 +204,15 @@ public class StoryQueryRepository implements PendingRelationQueryable<UserStoryR
 	 * @param pageSize	页大小
 	 * @param orderBy	排序字段
 	 * @param orderDir	排序方向
-	 * @return 符合条件的故事列表
+	 * @return 符合条件的故事列表，最多 pageSize + 1 条，多出的一条用于判断是否还有下一页
 	 */
 	public List<Story> list(List<String> titles, @Nullable String status, @Nullable Integer priority,
 						   int pageNum, int pageSize, @Nullable String orderBy, @Nullable String orderDir) {
 		QueryWrapper<Story> queryWrapper = new QueryWrapper<>();
 
-		// 标题关键词筛选，所有关键词都需要匹配（AND 关系）喵~
+		// 标题关键词全文检索，所有关键词都需要匹配（AND 关系）喵~
 		if(!titles.isEmpty() && titles.size() < 256) {
-			titles.forEach(title -> queryWrapper.like("title", title));
+			FullTextSearch.match(queryWrapper, titles);
 		}
 
 		// 状态筛选喵~
@@ -83,26 +225,33 @@ public class StoryQueryRepository implements PendingRelationQueryable<UserStoryR
 			queryWrapper.eq("priority", priority);
 		}
 
-		// 排序喵~
+		// 排序，最后按更新时间倒序；已按更新时间排序时不重复添加，否则无法沿索引顺序读取喵~
+		boolean orderedByUpdatedAt = false;
 		if(orderBy != null && orderDir != null) {
 			switch(orderDir) {
 				case "asc":
 					queryWrapper.orderByAsc(orderBy);
+					orderedByUpdatedAt = "updated_at".equals(orderBy);
 					break;
 				case "desc":
 					queryWrapper.orderByDesc(orderBy);
+					orderedByUpdatedAt = "updated_at".equals(orderBy);
 					break;
 				default:
-					queryWrapper.orderByDesc("updated_at");
 					break;
 			}
 		} else {
+			// 未指定排序时，有关键词则优先按相关度排序喵~
+			if(!titles.isEmpty() && titles.size() < 256) {
+				FullTextSearch.orderByRelevance(queryWrapper, titles);
+			}
+		}
+		if(!orderedByUpdatedAt) {
 			queryWrapper.orderByDesc("updated_at");
 		}
 
 		return this.storyMapper.selectList(queryWrapper
-				.orderByDesc("updated_at")
-				.last("LIMIT " + pageSize + " OFFSET " + ((pageNum - 1) * pageSize)));
+				.last("LIMIT " + (pageSize + 1) + " OFFSET " + ((pageNum - 1) * pageSize)));
 	}
 
 	/**
@@ -115,9 +264,9 @@ public class StoryQueryRepository implements PendingRelationQueryable<UserStoryR
 	public int listCount(List<String> titles, @Nullable String status, @Nullable Integer priority) {
 		QueryWrapper<Story> queryWrapper = new QueryWrapper<>();
 
-		// 标题关键词筛选喵~
+		// 标题关键词全文检索喵~
 		if(!titles.isEmpty() && titles.size() < 256) {
-			titles.forEach(title -> queryWrapper.like("title", title));
+			FullTextSearch.match(queryWrapper, titles);
 		}
 
 		// 状态筛选喵~
@@ -133,6 +282,43 @@ public class StoryQueryRepository implements PendingRelationQueryable<UserStoryR
 		return this.storyMapper.selectCount(queryWrapper).intValue();
 	}
 
+	/**
+	 * 游标分页查询故事，按 (排序字段, id) 定位，翻页深度不影响查询耗时喵~
+	 * @param titles	标题关键词列表
+	 * @param status	状态
+	 * @param priority	优先级
+	 * @param pageSize	页大小
+	 * @param orderBy	排序字段，不在白名单内时按更新时间排序
+	 * @param orderDir	排序方向，asc 为升序，否则为降序
+	 * @param cursor	上一页返回的游标，null 或空字符串表示第一页
+	 * @return 一页故事和下一页的游标
+	 * @throws IllegalArgumentException 游标无效
+	 */
+	public CursorPageBo<Story> listByCursor(List<String> titles, @Nullable String status, @Nullable Integer priority, int pageSize, @Nullable String orderBy, @Nullable String orderDir,
+										 @Nullable String cursor) {
+		QueryWrapper<Story> queryWrapper = new QueryWrapper<>();
+
+		// 标题关键词全文检索，所有关键词都需要匹配（AND 关系）喵~
+		if(!titles.isEmpty() && titles.size() < 256) {
+			FullTextSearch.match(queryWrapper, titles);
+		}
+
+		// 状态筛选喵~
+		if(status != null && !status.trim().isEmpty()) {
+			queryWrapper.eq("status", status);
+		}
+
+		// 优先级筛选喵~
+		if(priority != null) {
+			queryWrapper.eq("priority", priority);
+		}
+
+		String column = orderBy != null && CURSOR_SORT_COLUMNS.containsKey(orderBy) ? orderBy : "updated_at";
+		boolean asc = "asc".equals(orderDir);
+		List<Story> rows = this.storyMapper.selectList(KeysetCursor.seek(queryWrapper, column, asc, cursor, pageSize));
+		return KeysetCursor.page(rows, column, asc, pageSize, CURSOR_SORT_COLUMNS.get(column), Story::getId);
+	}
+
 	/**
 	 * 查询所有待处理的用户故事关系
 	 * @param code		故事编码
@@ -158,4 +344,25 @@ public class StoryQueryRepository implements PendingRelationQueryable<UserStoryR
 				.eq("old_status", oldStatus.name())
 				.eq("relation_type", RelationType.HANDLING.name())).intValue();
 	}
+
+	/**
+	 * 批量查询待处理的用户故事关系数量
+	 * @param codes		故事编码列表
+	 * @param oldStatus	状态
+	 */
+	@Override
+	public Map<String, Integer> getPendingRelationCounts(Collection<String> codes, StoryStatus oldStatus) {
+		Map<String, Integer> result = new HashMap<>();
+		if(codes.isEmpty()) {
+			return result;
+		}
+		this.userStoryRelationMapper.selectMaps(new QueryWrapper<UserStoryRelation>()
+				.select("code", "COUNT(*) AS cnt")
+				.in("code", codes)
+				.eq("old_status", oldStatus.name())
+				.eq("relation_type", RelationType.HANDLING.name())
+				.groupBy("code")
+		).forEach(row -> result.put((String) row.get("code"), ((Number) row.get("cnt")).intValue()));
+		return result;
+	}
 }
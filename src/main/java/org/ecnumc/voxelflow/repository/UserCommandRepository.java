@@ -27,6 +27,9 @@ public class UserCommandRepository {
 	@Autowired
 	private UserRoleRelationMapper userRoleRelationMapper;
 
+	@Autowired
+	private UserQueryRepository userQueryRepository;
+
 	/**
 	 * 添加用户
 	 * @param username	用户名
@@ -40,6 +43,8 @@ public class UserCommandRepository {
 		user.setPassword(password);
 		user.setEmail(email);
 		this.userMapper.insert(user);
+		// 该邮箱之前可能被缓存为未注册
+		this.userQueryRepository.evictEmail(email);
 	}
 
 	/**
@@ -79,7 +84,9 @@ public class UserCommandRepository {
 		relation.setRole(role);
 		relation.setCreatedBy(uid);
 		relation.setUpdatedBy(uid);
-		return this.userRoleRelationMapper.insert(relation) > 0L;
+		boolean success = this.userRoleRelationMapper.insert(relation) > 0L;
+		this.userQueryRepository.evictUserRoles(toGrant);
+		return success;
 	}
 
 	/**
@@ -89,8 +96,10 @@ public class UserCommandRepository {
 	 * @return 删除是否成功
 	 */
 	public boolean revokeRole(String toRevoke, String role) {
-		return this.userRoleRelationMapper.delete(
+		boolean success = this.userRoleRelationMapper.delete(
 				new QueryWrapper<UserRoleRelation>().eq("uid", toRevoke).eq("role", role)
 		) == 1;
+		this.userQueryRepository.evictUserRoles(toRevoke);
+		return success;
 	}
 }
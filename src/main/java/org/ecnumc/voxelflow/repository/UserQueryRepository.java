@@ -1,18 +1,33 @@
 package org.ecnumc.voxelflow.repository;
 
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
 import lombok.extern.slf4j.Slf4j;
+import org.ecnumc.voxelflow.bo.CursorPageBo;
 import org.ecnumc.voxelflow.enumeration.UserRole;
 import org.ecnumc.voxelflow.mapper.UserMapper;
 import org.ecnumc.voxelflow.mapper.UserRoleRelationMapper;
 import org.ecnumc.voxelflow.po.User;
 import org.ecnumc.voxelflow.po.UserRoleRelation;
+import org.ecnumc.voxelflow.util.KeysetCursor;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Repository;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
 
 import javax.annotation.Nullable;
-import java.util.List;
-import java.util.stream.Collectors;
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 用户查询 Repository
@@ -27,6 +42,86 @@ public class UserQueryRepository {
 	@Autowired
 	private UserRoleRelationMapper userRoleRelationMapper;
 
+	@Autowired
+	private RedisRepository redisRepository;
+
+	@Autowired
+	private RedisMessageListenerContainer redisMessageListenerContainer;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Value("${voxelflow.role-cache.maximum-size:10000}")
+	private long roleCacheMaximumSize;
+
+	@Value("${voxelflow.role-cache.expire-seconds:300}")
+	private long roleCacheExpireSeconds;
+
+	@Value("${voxelflow.email-cache.maximum-size:10000}")
+	private long emailCacheMaximumSize;
+
+	@Value("${voxelflow.email-cache.expire-seconds:600}")
+	private long emailCacheExpireSeconds;
+
+	private static final String ROLE_INVALIDATION_CHANNEL = "role_invalidation";
+
+	private static final String EMAIL_INVALIDATION_CHANNEL = "email_invalidation";
+
+	/**
+	 * 请求内角色缓存在 request attribute 中的名称
+	 */
+	private static final String ROLE_MEMO_ATTRIBUTE = UserQueryRepository.class.getName() + ".roles";
+
+	/**
+	 * 跨请求共享的角色缓存，uid -> 角色掩码
+	 */
+	private Cache<String, Integer> roleCache;
+
+	/**
+	 * 角色缓存的失效代数，每次失效时加一。
+	 * 从数据库加载角色期间若发生过失效，加载结果可能已过期，不能留在缓存中。
+	 */
+	private final AtomicLong roleInvalidationGeneration = new AtomicLong();
+
+	/**
+	 * 邮箱到用户 UID 的缓存，键为小写邮箱；未注册的邮箱缓存为空值，避免重复查询数据库
+	 */
+	private Cache<String, Optional<String>> emailUidCache;
+
+	/**
+	 * 邮箱缓存的失效代数，每次失效时加一。
+	 * 加载期间有用户注册时，加载到的“未注册”结果已过期，不能留在缓存中。
+	 */
+	private final AtomicLong emailInvalidationGeneration = new AtomicLong();
+
+	/**
+	 * 初始化角色缓存和邮箱缓存，注册失效通知监听和缓存命中率指标
+	 */
+	@PostConstruct
+	public void init() {
+		this.roleCache = CacheBuilder.newBuilder()
+				.maximumSize(this.roleCacheMaximumSize)
+				.expireAfterWrite(this.roleCacheExpireSeconds, TimeUnit.SECONDS)
+				.recordStats()
+				.build();
+		GuavaCacheMetrics.monitor(this.meterRegistry, this.roleCache, "user_role");
+		this.redisMessageListenerContainer.addMessageListener(
+				(Message message, byte[] pattern) -> this.invalidateLocalRoles(new String(message.getBody(), StandardCharsets.UTF_8)),
+				new ChannelTopic(ROLE_INVALIDATION_CHANNEL)
+		);
+
+		this.emailUidCache = CacheBuilder.newBuilder()
+				.maximumSize(this.emailCacheMaximumSize)
+				.expireAfterWrite(this.emailCacheExpireSeconds, TimeUnit.SECONDS)
+				.recordStats()
+				.build();
+		GuavaCacheMetrics.monitor(this.meterRegistry, this.emailUidCache, "user_email");
+		this.redisMessageListenerContainer.addMessageListener(
+				(Message message, byte[] pattern) -> this.invalidateLocalEmail(new String(message.getBody(), StandardCharsets.UTF_8)),
+				new ChannelTopic(EMAIL_INVALIDATION_CHANNEL)
+		);
+	}
+
 	/**
 	 * 查询用户总数，支持按用户名、邮箱验证状态和用户状态筛选喵~
 	 *
@@ -57,7 +152,7 @@ public class UserQueryRepository {
 	 * @param status 用户状态
 	 * @param pageNum 页码（从 1 开始）
 	 * @param pageSize 每页数量
-	 * @return 符合条件的用户列表
+	 * @return 符合条件的用户列表，最多 pageSize + 1 条，多出的一条用于判断是否还有下一页
 	 */
 	public List<User> list(@Nullable String username, @Nullable String emailVerified, @Nullable String status,
 						   int pageNum, int pageSize) {
@@ -71,7 +166,33 @@ public class UserQueryRepository {
 		if(status != null) {
 			queryWrapper.eq("user_status", status);
 		}
-		return this.userMapper.selectList(queryWrapper.last("LIMIT " + pageSize + " OFFSET " + ((pageNum - 1) * pageSize)));
+		return this.userMapper.selectList(queryWrapper.last("LIMIT " + (pageSize + 1) + " OFFSET " + ((pageNum - 1) * pageSize)));
+	}
+
+	/**
+	 * 游标分页查询用户，按创建时间升序喵~
+	 * @param username		用户名关键词
+	 * @param emailVerified	邮箱是否已验证
+	 * @param status		用户状态
+	 * @param pageSize		页大小
+	 * @param cursor		上一页返回的游标，null 或空字符串表示第一页
+	 * @return 一页用户和下一页的游标
+	 * @throws IllegalArgumentException 游标无效
+	 */
+	public CursorPageBo<User> listByCursor(@Nullable String username, @Nullable String emailVerified, @Nullable String status,
+										   int pageSize, @Nullable String cursor) {
+		QueryWrapper<User> queryWrapper = new QueryWrapper<>();
+		if(username != null) {
+			queryWrapper.like("username", username);
+		}
+		if(emailVerified != null) {
+			queryWrapper.eq("email_verified", emailVerified);
+		}
+		if(status != null) {
+			queryWrapper.eq("user_status", status);
+		}
+		List<User> rows = this.userMapper.selectList(KeysetCursor.seek(queryWrapper, "created_at", true, cursor, pageSize));
+		return KeysetCursor.page(rows, "created_at", true, pageSize, User::getCreatedAt, User::getId);
 	}
 
 	/**
@@ -120,17 +241,190 @@ public class UserQueryRepository {
 	}
 
 	/**
-	 * 获取用户的所有角色喵~
+	 * 根据邮箱地址批量查询用户喵~
+	 *
+	 * @param emails 邮箱地址
+	 * @return 用户实体列表，只包含 UID 和邮箱，不存在的邮箱不会出现在结果中
+	 */
+	public List<User> getByEmails(Collection<String> emails) {
+		if(emails.isEmpty()) {
+			return Collections.emptyList();
+		}
+		return this.userMapper.selectList(new QueryWrapper<User>().select("uid", "email").in("email", emails));
+	}
+
+	/**
+	 * 根据邮箱地址批量查询用户 UID，邮箱不区分大小写喵~
+	 * <p>
+	 * 优先使用缓存，所有未命中的邮箱通过一次 IN 查询加载；未注册的邮箱同样会被缓存，直到有用户使用该邮箱注册喵~
+	 * 写入缓存后检查失效代数，加载与注册并发时不会留下“未注册”的过期结果。
+	 * </p>
+	 *
+	 * @param emails 邮箱地址
+	 * @return 小写邮箱到用户 UID 的映射，未注册的邮箱不会出现在结果中
+	 */
+	public Map<String, String> getUidsByEmails(Collection<String> emails) {
+		Map<String, String> result = new HashMap<>();
+		Set<String> missing = new HashSet<>();
+		for(String email: emails) {
+			String key = email.toLowerCase(Locale.ROOT);
+			Optional<String> uid = this.emailUidCache.getIfPresent(key);
+			if(uid == null) {
+				missing.add(key);
+			} else {
+				uid.ifPresent(value -> result.put(key, value));
+			}
+		}
+
+		if(!missing.isEmpty()) {
+			long generation = this.emailInvalidationGeneration.get();
+			Map<String, String> loaded = new HashMap<>();
+			for(User user: this.getByEmails(missing)) {
+				if(user.getEmail() != null && user.getUid() != null) {
+					loaded.put(user.getEmail().toLowerCase(Locale.ROOT), user.getUid());
+				}
+			}
+			for(String key: missing) {
+				String uid = loaded.get(key);
+				this.emailUidCache.put(key, Optional.ofNullable(uid));
+				if(uid != null) {
+					result.put(key, uid);
+				}
+			}
+			// 加载期间有用户注册或修改邮箱时移除刚写入的值，新注册的邮箱不会被缓存为未注册
+			if(this.emailInvalidationGeneration.get() != generation) {
+				this.emailUidCache.invalidateAll(missing);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 失效邮箱缓存，并通知其它节点失效，在用户注册或修改邮箱后调用喵~
+	 *
+	 * @param email 邮箱地址
+	 */
+	public void evictEmail(String email) {
+		String key = email.toLowerCase(Locale.ROOT);
+		this.invalidateLocalEmail(key);
+		this.redisRepository.publish(EMAIL_INVALIDATION_CHANNEL, key);
+	}
+
+	/**
+	 * 失效本节点的邮箱缓存，先增加失效代数再移除缓存
+	 * @param key	小写邮箱
+	 */
+	private void invalidateLocalEmail(String key) {
+		this.emailInvalidationGeneration.incrementAndGet();
+		this.emailUidCache.invalidate(key);
+	}
+
+	/**
+	 * 获取用户的角色掩码喵~
+	 * <p>
+	 * 依次查找请求内缓存、跨请求共享缓存，都未命中时才查询数据库喵~
+	 * </p>
+	 *
+	 * @param uid 用户 UID
+	 * @return 用户角色掩码，见 {@link UserRole#getMask()}
+	 */
+	public int getUserRoleMask(String uid) {
+		return this.getUserRoleMasksByUids(Collections.singletonList(uid)).get(uid);
+	}
+
+	/**
+	 * 批量获取用户的角色掩码，所有未命中缓存的用户通过一次 IN 查询加载喵~
+	 * <p>
+	 * 写入共享缓存后检查失效代数，加载期间若有角色变更的失效通知，则移除刚写入的值，
+	 * 已撤销的角色不会在缓存中一直有效到过期。
+	 * </p>
+	 *
+	 * @param uids 用户 UID 列表
+	 * @return 用户 UID 到角色掩码的映射，包含所有传入的 UID
+	 */
+	public Map<String, Integer> getUserRoleMasksByUids(Collection<String> uids) {
+		Map<String, Integer> memo = getRequestMemo();
+		Map<String, Integer> result = new HashMap<>();
+		Set<String> missing = new HashSet<>();
+		for(String uid: uids) {
+			Integer roleMask = memo != null ? memo.get(uid) : null;
+			if(roleMask == null) {
+				roleMask = this.roleCache.getIfPresent(uid);
+			}
+			if(roleMask == null) {
+				missing.add(uid);
+			} else {
+				result.put(uid, roleMask);
+			}
+		}
+
+		if(!missing.isEmpty()) {
+			long generation = this.roleInvalidationGeneration.get();
+			Map<String, Integer> loaded = new HashMap<>();
+			missing.forEach(uid -> loaded.put(uid, 0));
+			this.userRoleRelationMapper.selectList(
+				new QueryWrapper<UserRoleRelation>().select("uid", "role").in("uid", missing)
+			).forEach(rel -> loaded.computeIfPresent(
+					rel.getUid(), (uid, roleMask) -> roleMask | UserRole.valueOf(rel.getRole()).getMask()
+			));
+			loaded.forEach((uid, roleMask) -> {
+				this.roleCache.put(uid, roleMask);
+				result.put(uid, roleMask);
+			});
+			// 加载期间有授权或撤销角色时移除刚写入的值，保证失效总是胜出
+			if(this.roleInvalidationGeneration.get() != generation) {
+				this.roleCache.invalidateAll(loaded.keySet());
+			}
+		}
+
+		if(memo != null) {
+			memo.putAll(result);
+		}
+		return result;
+	}
+
+	/**
+	 * 失效用户角色缓存，并通知其它节点失效喵~
 	 *
 	 * @param uid 用户 UID
-	 * @return 用户角色列表
 	 */
-	public List<UserRole> getUserRoles(String uid) {
-		List<UserRoleRelation> relations = this.userRoleRelationMapper.selectList(
-			new QueryWrapper<UserRoleRelation>().eq("uid", uid)
+	public void evictUserRoles(String uid) {
+		Map<String, Integer> memo = getRequestMemo();
+		if(memo != null) {
+			memo.remove(uid);
+		}
+		this.invalidateLocalRoles(uid);
+		this.redisRepository.publish(ROLE_INVALIDATION_CHANNEL, uid);
+	}
+
+	/**
+	 * 失效本节点的角色缓存。先增加失效代数再移除缓存，与 {@link #getUserRoleMasksByUids} 中写入后的检查配合，
+	 * 无论失效发生在加载前后，过期的角色都不会留在缓存中。
+	 * @param uid	用户 UID
+	 */
+	private void invalidateLocalRoles(String uid) {
+		this.roleInvalidationGeneration.incrementAndGet();
+		this.roleCache.invalidate(uid);
+	}
+
+	/**
+	 * 获取当前请求内的角色缓存，不在 HTTP 请求中时返回 null
+	 * @return 请求内角色缓存
+	 */
+	@Nullable
+	@SuppressWarnings("unchecked")
+	private static Map<String, Integer> getRequestMemo() {
+		RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+		if(attributes == null) {
+			return null;
+		}
+		Map<String, Integer> memo = (Map<String, Integer>) attributes.getAttribute(
+				ROLE_MEMO_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST
 		);
-		return relations.stream()
-			.map(rel -> UserRole.valueOf(rel.getRole()))
-			.collect(Collectors.toList());
+		if(memo == null) {
+			memo = new HashMap<>();
+			attributes.setAttribute(ROLE_MEMO_ATTRIBUTE, memo, RequestAttributes.SCOPE_REQUEST);
+		}
+		return memo;
 	}
 }
@@ -1,13 +1,29 @@
 package org.ecnumc.voxelflow.repository;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Repository;
 
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 用户验证 Repository，主要用于设置和校验 token。
+ * <p>
+ * 校验结果会在本地缓存一小段时间，绝大多数请求无需访问 Redis；
+ * 设置或删除 token 时通过 Redis 频道通知所有节点失效本地缓存喵~
+ * </p>
  * @author liudongyu
  */
 @Repository
@@ -16,14 +32,71 @@ public class UserValidationRepository {
 	@Autowired
 	private RedisRepository redisRepository;
 
+	@Autowired
+	private RedisMessageListenerContainer redisMessageListenerContainer;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Value("${voxelflow.token-cache.maximum-size:10000}")
+	private long maximumSize;
+
+	@Value("${voxelflow.token-cache.expire-seconds:60}")
+	private long expireSeconds;
+
+	private static final String INVALIDATION_CHANNEL = "token_invalidation";
+
+	/**
+	 * 本地 token 缓存，uid -> token
+	 */
+	private Cache<String, String> tokenCache;
+
+	/**
+	 * 失效代数，每次失效本地缓存时加一。
+	 * 从 Redis 加载 token 期间若发生过失效，加载结果可能已被撤销，不能留在缓存中。
+	 */
+	private final AtomicLong invalidationGeneration = new AtomicLong();
+
+	/**
+	 * 初始化本地缓存，注册失效通知监听和缓存命中率指标
+	 */
+	@PostConstruct
+	public void init() {
+		this.tokenCache = CacheBuilder.newBuilder()
+				.maximumSize(this.maximumSize)
+				.expireAfterWrite(this.expireSeconds, TimeUnit.SECONDS)
+				.recordStats()
+				.build();
+		GuavaCacheMetrics.monitor(this.meterRegistry, this.tokenCache, "token");
+		this.redisMessageListenerContainer.addMessageListener(
+				(Message message, byte[] pattern) -> this.invalidateLocal(new String(message.getBody(), StandardCharsets.UTF_8)),
+				new ChannelTopic(INVALIDATION_CHANNEL)
+		);
+	}
+
 	/**
 	 * 验证用户 TOKEN
+	 * <p>
+	 * 本地缓存未命中时从 Redis 加载并写入缓存。写入后检查失效代数，
+	 * 若加载期间有登出或重新登录的失效通知，则移除刚写入的值，保证失效总是胜出喵~
+	 * </p>
 	 * @param uid	用户 UID
 	 * @param token	用户 TOKEN
 	 * @return 验证结果
 	 */
 	public boolean validateToken(String uid, String token) {
+		String cachedToken = this.tokenCache.getIfPresent(uid);
+		if(cachedToken != null) {
+			return Objects.equals(cachedToken, token);
+		}
+		long generation = this.invalidationGeneration.get();
 		String redisToken = this.redisRepository.get(uid);
+		if(redisToken != null) {
+			this.tokenCache.put(uid, redisToken);
+			if(this.invalidationGeneration.get() != generation) {
+				this.tokenCache.invalidate(uid);
+			}
+		}
 		return Objects.equals(redisToken, token);
 	}
 
@@ -35,6 +108,7 @@ public class UserValidationRepository {
 	public void setToken(String uid, String token) {
 		// TOKEN 半天过期
 		this.redisRepository.set(uid, token, 43200L);
+		this.invalidate(uid);
 	}
 
 	/**
@@ -43,5 +117,25 @@ public class UserValidationRepository {
 	 */
 	public void deleteToken(String uid) {
 		this.redisRepository.delete(uid);
+		this.invalidate(uid);
+	}
+
+	/**
+	 * 失效本节点缓存，并通知其它节点失效
+	 * @param uid	用户 UID
+	 */
+	private void invalidate(String uid) {
+		this.invalidateLocal(uid);
+		this.redisRepository.publish(INVALIDATION_CHANNEL, uid);
+	}
+
+	/**
+	 * 失效本节点缓存。先增加失效代数再移除缓存，与 {@link #validateToken} 中写入后的检查配合，
+	 * 无论失效发生在加载前后，过期的 token 都不会留在缓存中。
+	 * @param uid	用户 UID
+	 */
+	private void invalidateLocal(String uid) {
+		this.invalidationGeneration.incrementAndGet();
+		this.tokenCache.invalidate(uid);
 	}
 }
@@ -0,0 +1,233 @@
+package org.ecnumc.voxelflow.repository;
+
+import com.alibaba.fastjson.JSON;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 工作项两级缓存，按编码缓存需求、故事、缺陷、复盘实体喵~
+ * <p>
+ * 读取时依次查找本节点缓存和 Redis 共享缓存，都未命中时才查询数据库并回填两级缓存，不存在的编码不缓存。
+ * 命令 Repository 在写入数据库之后调用 {@link #evict(String)}，不能在写入之前调用：写入前失效时，
+ * 失效与写入之间的并发读取会把旧值回填到两级缓存。在事务中时提交后再失效一次，避免提交前被并发读取回填旧值；
+ * 本节点以外的本地缓存通过 Redis 频道通知失效。
+ * 失效时递增每个编码在 Redis 中的版本，回填 Redis 时版本与查询数据库前读到的不一致就放弃，
+ * 避免失效之前读到旧值的并发读取在失效之后把旧值写回 Redis；回填本地缓存同样在期间有失效时放弃，与用户缓存的做法一致。
+ * 缓存的实体是共享对象，调用方不应修改。
+ * </p>
+ * @author liudongyu
+ */
+@Slf4j
+final class WorkItemCache<T> {
+	/**
+	 * 失效通知中多个编码的分隔符，编码中不会出现
+	 */
+	private static final String CODE_SEPARATOR = ",";
+
+	private final String name;
+
+	private final Class<T> type;
+
+	private final RedisRepository redisRepository;
+
+	private final long redisExpireSeconds;
+
+	private final Cache<String, T> localCache;
+
+	private final Counter redisHits;
+
+	private final Counter redisMisses;
+
+	/**
+	 * 本地失效代数，每次失效本地缓存前递增，用于丢弃失效期间回填的旧值
+	 */
+	private final AtomicLong invalidationGeneration = new AtomicLong();
+
+	/**
+	 * 创建缓存，注册失效通知监听和两级缓存的命中率指标
+	 * @param name						缓存名，用于 Redis key、失效频道和指标
+	 * @param type						实体类型
+	 * @param maximumSize				本地缓存最大条目数
+	 * @param localExpireSeconds		本地缓存过期时间，单位秒
+	 * @param redisExpireSeconds		Redis 缓存过期时间，单位秒
+	 * @param redisRepository			Redis 存储
+	 * @param listenerContainer			Redis 消息监听容器
+	 * @param meterRegistry				指标注册表
+	 */
+	WorkItemCache(String name, Class<T> type, long maximumSize, long localExpireSeconds, long redisExpireSeconds,
+				  RedisRepository redisRepository, RedisMessageListenerContainer listenerContainer, MeterRegistry meterRegistry) {
+		this.name = name;
+		this.type = type;
+		this.redisRepository = redisRepository;
+		this.redisExpireSeconds = redisExpireSeconds;
+		this.localCache = CacheBuilder.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfterWrite(localExpireSeconds, TimeUnit.SECONDS)
+				.recordStats()
+				.build();
+		GuavaCacheMetrics.monitor(meterRegistry, this.localCache, name);
+		// 与 GuavaCacheMetrics 使用相同的指标名，两级缓存的命中率可以用同一个查询统计
+		this.redisHits = Counter.builder("cache.gets")
+				.tag("cache", name + "_redis").tag("result", "hit")
+				.register(meterRegistry);
+		this.redisMisses = Counter.builder("cache.gets")
+				.tag("cache", name + "_redis").tag("result", "miss")
+				.register(meterRegistry);
+		listenerContainer.addMessageListener(
+				(Message message, byte[] pattern) -> this.invalidateLocal(
+						Arrays.asList(new String(message.getBody(), StandardCharsets.UTF_8).split(CODE_SEPARATOR))
+				),
+				new ChannelTopic(this.invalidationChannel())
+		);
+	}
+
+	/**
+	 * 获取实体
+	 * @param code		编码
+	 * @param loader	两级缓存都未命中时从数据库加载
+	 * @return 实体，不存在时返回 null
+	 */
+	@Nullable
+	T get(String code, Function<String, T> loader) {
+		T entity = this.localCache.getIfPresent(code);
+		if(entity != null) {
+			return entity;
+		}
+		long generation = this.invalidationGeneration.get();
+		String json = null;
+		try {
+			json = this.redisRepository.get(this.redisKey(code));
+		} catch (RuntimeException e) {
+			// 共享缓存不可用时直接查询数据库
+			log.error("Failed to read {} cache for {}:", this.name, code, e);
+		}
+		if(json != null) {
+			this.redisHits.increment();
+			entity = JSON.parseObject(json, this.type);
+		} else {
+			this.redisMisses.increment();
+			// 版本必须在查询数据库之前读取，之后的失效才能使回填失败
+			String version = null;
+			boolean versionRead = false;
+			try {
+				version = this.redisRepository.get(this.versionKey(code));
+				versionRead = true;
+			} catch (RuntimeException e) {
+				log.error("Failed to read {} cache version for {}:", this.name, code, e);
+			}
+			entity = loader.apply(code);
+			if(entity == null) {
+				return null;
+			}
+			if(versionRead) {
+				boolean written;
+				try {
+					written = this.redisRepository.setIfVersion(
+							this.redisKey(code), JSON.toJSONString(entity), this.redisExpireSeconds, this.versionKey(code), version
+					);
+				} catch (RuntimeException e) {
+					log.error("Failed to write {} cache for {}:", this.name, code, e);
+					written = true;
+				}
+				if(!written) {
+					// 查询期间被失效过，读到的可能是旧值，本次只返回不回填
+					return entity;
+				}
+			}
+		}
+		this.localCache.put(code, entity);
+		if(this.invalidationGeneration.get() != generation) {
+			this.localCache.invalidate(code);
+		}
+		return entity;
+	}
+
+	/**
+	 * 实体写入数据库后失效两级缓存，在事务中时提交后再失效一次
+	 * @param code	编码
+	 */
+	void evict(String code) {
+		this.evictAll(Collections.singletonList(code));
+	}
+
+	/**
+	 * 批量失效，Redis 删除和失效通知各只需一次往返
+	 * @param codes	编码列表
+	 */
+	void evictAll(Collection<String> codes) {
+		if(codes.isEmpty()) {
+			return;
+		}
+		List<String> snapshot = new ArrayList<>(codes);
+		this.invalidate(snapshot);
+		if(TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCommit() {
+					WorkItemCache.this.invalidate(snapshot);
+				}
+			});
+		}
+	}
+
+	/**
+	 * 失效本节点缓存和 Redis 缓存，并通知其它节点失效
+	 * @param codes	编码列表
+	 */
+	private void invalidate(List<String> codes) {
+		this.invalidateLocal(codes);
+		try {
+			this.redisRepository.deleteAndBumpVersion(
+					codes.stream().map(this::redisKey).collect(Collectors.toList()),
+					codes.stream().map(this::versionKey).collect(Collectors.toList()),
+					this.redisExpireSeconds
+			);
+			this.redisRepository.publish(this.invalidationChannel(), String.join(CODE_SEPARATOR, codes));
+		} catch (RuntimeException e) {
+			// 失效失败时由过期时间兜底
+			log.error("Failed to invalidate {} cache for {}:", this.name, codes, e);
+		}
+	}
+
+	/**
+	 * 失效本节点缓存，先递增失效代数，正在回填的读取据此放弃回填
+	 * @param codes	编码列表
+	 */
+	private void invalidateLocal(List<String> codes) {
+		this.invalidationGeneration.incrementAndGet();
+		this.localCache.invalidateAll(codes);
+	}
+
+	private String redisKey(String code) {
+		return this.name + ":" + code;
+	}
+
+	private String versionKey(String code) {
+		return this.name + "_version:" + code;
+	}
+
+	private String invalidationChannel() {
+		return this.name + "_invalidation";
+	}
+}
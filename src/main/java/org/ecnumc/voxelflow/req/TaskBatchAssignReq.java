@@ -0,0 +1,28 @@
+package org.ecnumc.voxelflow.req;
+
+import lombok.Data;
+
+import javax.annotation.Nullable;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.Size;
+import java.util.List;
+
+/**
+ * 批量任务分配请求
+ * @author liudongyu
+ */
+@Data
+public class TaskBatchAssignReq {
+	/**
+	 * 任务（需求/问题/故事）code 列表
+	 */
+	@NotEmpty(message = "任务 code 不能为空")
+	@Size(max = 200, message = "一次最多操作 200 个任务")
+	private List<String> codes;
+
+	/**
+	 * 分配人 uid，为空表示自己
+	 */
+	@Nullable
+	private String assignee;
+}
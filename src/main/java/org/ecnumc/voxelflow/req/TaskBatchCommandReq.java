@@ -0,0 +1,31 @@
+package org.ecnumc.voxelflow.req;
+
+import lombok.Data;
+
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.Size;
+import java.util.List;
+
+/**
+ * 批量任务操作请求
+ * @author liudongyu
+ */
+@Data
+public class TaskBatchCommandReq {
+	/**
+	 * 任务（需求/问题/故事）code 列表
+	 */
+	@NotEmpty(message = "任务 code 不能为空")
+	@Size(max = 200, message = "一次最多操作 200 个任务")
+	private List<String> codes;
+
+	/**
+	 * 下一个操作人 uid
+	 */
+	private List<String> nextOperators;
+
+	/**
+	 * 同意/拒绝理由
+	 */
+	private String description;
+}
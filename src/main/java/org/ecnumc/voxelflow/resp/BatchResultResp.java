@@ -0,0 +1,81 @@
+package org.ecnumc.voxelflow.resp;
+
+import lombok.Builder;
+import lombok.Data;
+import org.ecnumc.voxelflow.enumeration.ClientErrorCode;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 批量操作响应，逐项返回结果
+ * @author liudongyu
+ */
+@Data
+@Builder
+public class BatchResultResp implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * 成功的数量
+	 */
+	private final int succeeded;
+
+	/**
+	 * 失败的数量
+	 */
+	private final int failed;
+
+	/**
+	 * 每个任务的结果，顺序与请求一致
+	 */
+	private final List<ItemResult> results;
+
+	/**
+	 * 由服务返回的结果创建响应
+	 * @param results	编码 -> 错误码，null 表示成功
+	 * @return 批量操作响应
+	 */
+	public static BatchResultResp of(Map<String, ClientErrorCode> results) {
+		List<ItemResult> items = new ArrayList<>(results.size());
+		int succeeded = 0;
+		for(Map.Entry<String, ClientErrorCode> entry: results.entrySet()) {
+			ClientErrorCode errorCode = entry.getValue();
+			if(errorCode == null) {
+				succeeded += 1;
+				items.add(new ItemResult(entry.getKey(), 200, ""));
+			} else {
+				items.add(new ItemResult(entry.getKey(), errorCode.getCode(), errorCode.getMessage()));
+			}
+		}
+		return BatchResultResp.builder()
+				.succeeded(succeeded).failed(items.size() - succeeded)
+				.results(items)
+				.build();
+	}
+
+	/**
+	 * 单个任务的结果
+	 */
+	@Data
+	public static class ItemResult implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * 任务 code
+		 */
+		private final String code;
+
+		/**
+		 * 响应码，200 表示成功
+		 */
+		private final int status;
+
+		/**
+		 * 响应信息
+		 */
+		private final String message;
+	}
+}
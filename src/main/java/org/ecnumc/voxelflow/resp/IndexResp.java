@@ -22,4 +22,8 @@ public class IndexResp implements Serializable {
 	 * 总待分配的问题数
 	 */
 	private final int totalUnassigned;
+	/**
+	 * 是否只包含部分统计结果，部分统计失败或超时时为 true
+	 */
+	private final boolean partial;
 }
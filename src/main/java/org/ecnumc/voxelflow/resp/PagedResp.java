@@ -3,6 +3,7 @@ package org.ecnumc.voxelflow.resp;
 import lombok.Builder;
 import lombok.Data;
 
+import javax.annotation.Nullable;
 import java.io.Serializable;
 import java.util.List;
 
@@ -15,7 +16,7 @@ import java.util.List;
 public class PagedResp<T extends Serializable> implements Serializable {
 	private static final long serialVersionUID = 1L;
 	/**
-	 * 当前页
+	 * 当前页，游标分页时为 0
 	 */
 	private final int pageNum;
 	/**
@@ -23,7 +24,8 @@ public class PagedResp<T extends Serializable> implements Serializable {
 	 */
 	private final int pageSize;
 	/**
-	 * 总记录数
+	 * 总记录数，为 -1 表示未统计：游标分页时总为 -1；页码分页在 {@code CountMode.NONE} 时为 -1，
+	 * 在 {@code CountMode.APPROXIMATE} 时可能是短时间内缓存的近似值
 	 */
 	private final int total;
 
@@ -31,4 +33,17 @@ public class PagedResp<T extends Serializable> implements Serializable {
 	 * 当前页的数据
 	 */
 	private final List<T> list;
+
+	/**
+	 * 下一页的游标，仅游标分页时返回，没有下一页时为 null
+	 */
+	@Nullable
+	private final String nextCursor;
+
+	/**
+	 * 是否还有下一页。游标分页时与 nextCursor 是否为 null 一致；
+	 * 页码分页的列表接口多取一条记录得出，不依赖 total，{@code CountMode.NONE} 时应以此判断是否翻页。
+	 * 提交记录的页码查询返回精确的 total，不填写此字段，总为 false
+	 */
+	private final boolean hasMore;
 }
@@ -4,6 +4,7 @@ import org.ecnumc.voxelflow.enumeration.ClientErrorCode;
 
 import javax.annotation.Nullable;
 import java.util.List;
+import java.util.Map;
 
 /**
  * 可批准的接口
@@ -31,4 +32,24 @@ public interface Approvable {
 	 */
 	@Nullable
 	ClientErrorCode reject(String code, List<String> nextOperators, String description, String uid);
+
+	/**
+	 * 批量批准，所有任务和角色一次加载并统一校验，通过校验的任务在同一事务中批量更新
+	 * @param codes			编码列表
+	 * @param nextOperators	下一个操作人 UID
+	 * @param description	描述（同意理由）
+	 * @param uid			更新人 UID
+	 * @return 编码 -> 错误码，null 表示成功，顺序与传入的编码一致
+	 */
+	Map<String, ClientErrorCode> approveAll(List<String> codes, List<String> nextOperators, String description, String uid);
+
+	/**
+	 * 批量拒绝，所有任务和角色一次加载并统一校验，通过校验的任务在同一事务中批量更新
+	 * @param codes			编码列表
+	 * @param nextOperators	下一个操作人 UID
+	 * @param description	描述（拒绝理由）
+	 * @param uid			更新人 UID
+	 * @return 编码 -> 错误码，null 表示成功，顺序与传入的编码一致
+	 */
+	Map<String, ClientErrorCode> rejectAll(List<String> codes, List<String> nextOperators, String description, String uid);
 }
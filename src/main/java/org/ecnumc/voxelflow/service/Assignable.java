@@ -3,6 +3,8 @@ package org.ecnumc.voxelflow.service;
 import org.ecnumc.voxelflow.enumeration.ClientErrorCode;
 
 import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Map;
 
 /**
  * 可分配的接口
@@ -28,4 +30,13 @@ public interface Assignable {
 	 */
 	@Nullable
 	ClientErrorCode unassign(String code, String assignee, String uid);
+
+	/**
+	 * 批量分配给用户，所有任务和角色一次加载并统一校验，通过校验的任务在同一事务中批量分配
+	 * @param codes		编码列表
+	 * @param assignee	被分配用户
+	 * @param uid		操作用户
+	 * @return 编码 -> 错误码，null 表示成功，顺序与传入的编码一致
+	 */
+	Map<String, ClientErrorCode> assignAll(List<String> codes, String assignee, String uid);
 }
@@ -4,12 +4,13 @@ import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
 import lombok.extern.slf4j.Slf4j;
 import org.ecnumc.voxelflow.enumeration.CommitType;
-import org.ecnumc.voxelflow.po.User;
+import org.ecnumc.voxelflow.po.Commit;
 import org.ecnumc.voxelflow.repository.CommitCommandRepository;
 import org.ecnumc.voxelflow.repository.UserQueryRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -27,39 +28,61 @@ public class CommitCommandService {
 	@Autowired
 	private UserQueryRepository userQueryRepository;
 
+	/**
+	 * 提交信息格式：type(CODE-123): message，三个分组依次为提交类型、工作项编码和提交说明
+	 */
+	public static final Pattern COMMIT_MESSAGE_PATTERN = Pattern.compile(
+			"^" + CommitType.getRegex() + "\\(([A-Z][A-Z0-9]+-\\d+)\\):[\\s]{0,2}(.*)$"
+	);
+
 	/**
 	 * 推送代码，将提交的代码解析，并保存到数据库中。使用提交记录中的 email 字段获取用户信息，需提醒用户 git 配置邮箱与本平台注册邮箱需保持一致。
+	 * <p>
+	 * 去重后的提交人邮箱通过缓存批量解析，所有提交记录通过一次批量插入写入喵~
+	 * </p>
 	 * @param payload	推送代码的参数
 	 */
 	public void push(JSONObject payload) {
 		JSONArray commits = payload.getJSONArray("commits");
 		JSONObject repository = payload.getJSONObject("repository");
 		String repoUrl = repository.getString("html_url");
-		Pattern pattern = Pattern.compile("^" + CommitType.getRegex() + "\\(([A-Z][A-Z0-9]+-\\d+)\\):[\\s]{0,2}(.*)$");
+
+		Set<String> emails = new HashSet<>();
+		commits.forEach(commit -> {
+			JSONObject committer = ((JSONObject)commit).getJSONObject("committer");
+			if(committer != null && committer.getString("email") != null) {
+				emails.add(committer.getString("email"));
+			}
+		});
+		Map<String, String> uidByEmail = this.userQueryRepository.getUidsByEmails(emails);
+
+		List<Commit> toAdd = new ArrayList<>();
 		commits.forEach(commit -> {
 			JSONObject commitObject = (JSONObject)commit;
 			String message = commitObject.getString("message");
 			JSONObject committer = commitObject.getJSONObject("committer");
-			if(committer == null) {
+			if(committer == null || message == null) {
 				return;
 			}
 			String authorEmail = committer.getString("email");
-			String url = commitObject.getString("url");
-			User user = this.userQueryRepository.getByEmail(authorEmail);
-			if(user == null || user.getUid() == null) {
+			String uid = authorEmail == null ? null : uidByEmail.get(authorEmail.toLowerCase(Locale.ROOT));
+			if(uid == null) {
 				return;
 			}
-			Matcher matcher = pattern.matcher(message);
+			Matcher matcher = COMMIT_MESSAGE_PATTERN.matcher(message);
 			if(matcher.matches() && matcher.groupCount() == 3) {
-				String type = matcher.group(0);
-				String field = matcher.group(1);
-				String msg = matcher.group(2);
-				this.commitCommandRepository.add(
-						commitObject.getString("id"), repoUrl,
-						type, field, msg, url,
-						user.getUid()
-				);
+				Commit po = new Commit();
+				po.setCommitId(commitObject.getString("id"));
+				po.setRepoUrl(repoUrl);
+				po.setCommitType(matcher.group(1));
+				po.setCode(matcher.group(2));
+				po.setMessage(matcher.group(3));
+				po.setCommitUrl(commitObject.getString("url"));
+				po.setCreatedBy(uid);
+				po.setUpdatedBy(uid);
+				toAdd.add(po);
 			}
 		});
+		this.commitCommandRepository.addAll(toAdd);
 	}
 }
@@ -1,7 +1,9 @@
 package org.ecnumc.voxelflow.service;
 
 import lombok.extern.slf4j.Slf4j;
+import org.ecnumc.voxelflow.bo.CursorPageBo;
 import org.ecnumc.voxelflow.converter.CommitConverter;
+import org.ecnumc.voxelflow.po.Commit;
 import org.ecnumc.voxelflow.repository.CommitQueryRepository;
 import org.ecnumc.voxelflow.resp.CommitResp;
 import org.ecnumc.voxelflow.resp.PagedResp;
@@ -90,4 +92,32 @@ public class CommitQueryService {
 				.list(this.commitQueryRepository.getByCodeAndUidAndType(code, uid, type, pageNum, pageSize).stream().map(this.commitConverter::convertToResp).collect(Collectors.toList()))
 				.build();
 	}
+
+	/**
+	 * 游标分页查询提交记录，不统计总数，筛选条件为空时不生效
+	 * @param code		故事/问题/需求编号
+	 * @param type		提交类型
+	 * @param uid		提交人
+	 * @param pageSize	页内最大元素数
+	 * @param cursor	上一页返回的游标，null 或空字符串表示第一页
+	 * @return 提交记录，游标无效时返回 null
+	 */
+	@Nullable
+	public PagedResp<CommitResp> queryByCursor(@Nullable String code, @Nullable String type, @Nullable String uid,
+											   int pageSize, @Nullable String cursor) {
+		CursorPageBo<Commit> page;
+		try {
+			page = this.commitQueryRepository.getByCursor(code, uid, type, pageSize, cursor);
+		} catch (IllegalArgumentException e) {
+			log.warn("Invalid cursor {}: {}", cursor, e.getMessage());
+			return null;
+		}
+		return PagedResp.<CommitResp>builder()
+				.pageSize(pageSize)
+				.total(-1)
+				.list(page.getList().stream().map(this.commitConverter::convertToResp).collect(Collectors.toList()))
+				.nextCursor(page.getNextCursor())
+				.hasMore(page.getNextCursor() != null)
+				.build();
+	}
 }
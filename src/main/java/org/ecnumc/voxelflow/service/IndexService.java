@@ -2,16 +2,38 @@ package org.ecnumc.voxelflow.service;
 
 import lombok.extern.slf4j.Slf4j;
 import org.ecnumc.voxelflow.bo.IndexBo;
+import org.ecnumc.voxelflow.interceptor.StatementTimeoutInterceptor;
+import org.ecnumc.voxelflow.repository.DashboardCounterRepository;
 import org.ecnumc.voxelflow.repository.IssueQueryRepository;
 import org.ecnumc.voxelflow.repository.RequirementQueryRepository;
 import org.ecnumc.voxelflow.repository.StoryQueryRepository;
 import org.ecnumc.voxelflow.resp.BaseResp;
 import org.ecnumc.voxelflow.resp.IndexResp;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
 /**
  * 首页服务，提供用户主界面的任务统计信息喵~
+ * <p>
+ * 计数器尚未初始化时并行统计，超时的统计任务被中断，查询本身由 JDBC 查询超时在数据库侧终止，
+ * 已完成的部分照常返回并标记为不完整。
+ * </p>
  *
  * @author liudongyu
  */
@@ -27,18 +49,108 @@ public class IndexService {
 	@Autowired
 	private StoryQueryRepository storyQueryRepository;
 
+	@Autowired
+	private DashboardCounterRepository dashboardCounterRepository;
+
+	@Value("${voxelflow.index.worker-threads:6}")
+	private int workerThreads;
+
+	@Value("${voxelflow.index.queue-capacity:64}")
+	private int queueCapacity;
+
+	@Value("${voxelflow.index.timeout-millis:2000}")
+	private long timeoutMillis;
+
+	/**
+	 * 首页统计查询专用的有界线程池
+	 */
+	private ThreadPoolExecutor executor;
+
+	/**
+	 * 统计查询的 JDBC 查询超时，单位秒，不小于整体超时
+	 */
+	private int queryTimeoutSeconds;
+
+	@PostConstruct
+	public void init() {
+		AtomicInteger threadIndex = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(
+				this.workerThreads, this.workerThreads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(this.queueCapacity),
+				runnable -> {
+					Thread thread = new Thread(runnable, "index-count-" + threadIndex.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				},
+				new ThreadPoolExecutor.AbortPolicy()
+		);
+		this.queryTimeoutSeconds = (int) Math.max(1L, (this.timeoutMillis + 999L) / 1000L);
+	}
+
+	@PreDestroy
+	public void destroy() {
+		this.executor.shutdownNow();
+	}
+
 	/**
 	 * 用户访问主界面
 	 * @param uid	用户 UID
 	 * @return 用户被分配的任务数和平台总共任务数信息
 	 */
 	public BaseResp<IndexResp> index(String uid) {
-		IndexBo issue = this.issueQueryRepository.getCountsByUid(uid);
-		IndexBo req = this.requirementQueryRepository.getCountsByUid(uid);
-		IndexBo story = this.storyQueryRepository.getCountsByUid(uid);
+		IndexBo counters = this.dashboardCounterRepository.get(uid);
+		if(counters != null) {
+			return BaseResp.success(IndexResp.builder()
+					.assigned(counters.getAssigned())
+					.totalUnassigned(counters.getTotalUnassigned())
+					.build());
+		}
+
+		// 计数器尚未由对账任务初始化，并行统计喵~
+		List<Future<IndexBo>> futures = Arrays.asList(
+				this.submit(() -> this.issueQueryRepository.getCountsByUid(uid)),
+				this.submit(() -> this.requirementQueryRepository.getCountsByUid(uid)),
+				this.submit(() -> this.storyQueryRepository.getCountsByUid(uid))
+		);
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.timeoutMillis);
+		int assigned = 0;
+		int totalUnassigned = 0;
+		boolean partial = false;
+		for(Future<IndexBo> future: futures) {
+			try {
+				IndexBo counts = future.get(Math.max(deadline - System.nanoTime(), 0L), TimeUnit.NANOSECONDS);
+				assigned += counts.getAssigned();
+				totalUnassigned += counts.getTotalUnassigned();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				future.cancel(true);
+				partial = true;
+			} catch (ExecutionException | TimeoutException e) {
+				log.warn("Failed to count index for {}: {}", uid, e.toString());
+				future.cancel(true);
+				partial = true;
+			}
+		}
 		return BaseResp.success(IndexResp.builder()
-				.assigned(issue.getAssigned() + req.getAssigned() + story.getAssigned())
-				.totalUnassigned(issue.getTotalUnassigned() + req.getTotalUnassigned() + story.getTotalUnassigned())
+				.assigned(assigned)
+				.totalUnassigned(totalUnassigned)
+				.partial(partial)
 				.build());
 	}
+
+	/**
+	 * 提交统计任务，线程池已满时任务直接失败。
+	 * 通过线程池提交，取消时能中断正在执行的任务；统计查询设置 JDBC 查询超时
+	 * @param supplier	统计任务
+	 * @return 统计结果
+	 */
+	private Future<IndexBo> submit(Supplier<IndexBo> supplier) {
+		try {
+			return this.executor.submit(() -> StatementTimeoutInterceptor.withTimeout(this.queryTimeoutSeconds, supplier));
+		} catch (RejectedExecutionException e) {
+			CompletableFuture<IndexBo> future = new CompletableFuture<>();
+			future.completeExceptionally(e);
+			return future;
+		}
+	}
 }
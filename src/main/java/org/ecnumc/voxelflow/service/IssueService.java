@@ -1,22 +1,33 @@
 package org.ecnumc.voxelflow.service;
 
 import lombok.extern.slf4j.Slf4j;
+import org.ecnumc.voxelflow.bo.ApprovalStateBo;
+import org.ecnumc.voxelflow.bo.CursorPageBo;
 import org.ecnumc.voxelflow.converter.CamelToSnakeConverter;
 import org.ecnumc.voxelflow.converter.IssueConverter;
 import org.ecnumc.voxelflow.enumeration.*;
 import org.ecnumc.voxelflow.po.Issue;
 import org.ecnumc.voxelflow.repository.IssueCommandRepository;
 import org.ecnumc.voxelflow.repository.IssueQueryRepository;
+import org.ecnumc.voxelflow.repository.ListCountRepository;
 import org.ecnumc.voxelflow.repository.UserQueryRepository;
 import org.ecnumc.voxelflow.resp.PagedResp;
 import org.ecnumc.voxelflow.resp.IssueResp;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
 
 import javax.annotation.Nullable;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 
 import static org.ecnumc.voxelflow.util.IOperableStatus.hasPermissionToModify;
@@ -45,6 +56,9 @@ public class IssueService implements Queryable<IssueResp>, Approvable, Assignabl
 	@Autowired
 	private IssueConverter issueConverter;
 
+	@Autowired
+	private ListCountRepository listCountRepository;
+
 	@Autowired
 	private CamelToSnakeConverter camelToSnakeConverter;
 
@@ -87,24 +101,65 @@ public class IssueService implements Queryable<IssueResp>, Approvable, Assignabl
 	 * @param priority	缺陷优先级
 	 * @param pageNum	页码
 	 * @param pageSize	页大小
+	 * @param countMode	总数统计方式
 	 * @return 缺陷响应列表
 	 */
 	@Override
 	public PagedResp<IssueResp> list(@Nullable String title, @Nullable String status, @Nullable Integer priority,
-									int pageNum, int pageSize, @Nullable String orderBy, @Nullable String orderDir) {
+									int pageNum, int pageSize, @Nullable String orderBy, @Nullable String orderDir, CountMode countMode) {
 		// 处理标题关键词，将标题按空格分割成若干个关键词喵~
 		List<String> titles = (title != null && !title.trim().isEmpty()) ?
 				Arrays.asList(title.trim().split("\\s+")) : Collections.emptyList();
 
-		List<IssueResp> issues = this.issueQueryRepository
-				.list(titles, status, priority, pageNum, pageSize, this.camelToSnakeConverter.convert(orderBy), orderDir)
-				.stream()
+		List<Issue> rows = this.issueQueryRepository
+				.list(titles, status, priority, pageNum, pageSize, this.camelToSnakeConverter.convert(orderBy), orderDir);
+		boolean hasMore = rows.size() > pageSize;
+		List<IssueResp> issues = rows.stream()
+				.limit(pageSize)
 				.map(this.issueConverter::convertToResp)
 				.collect(Collectors.toList());
-		int total = this.issueQueryRepository.listCount(titles, status, priority);
+		int total = this.listCountRepository.count(
+				"issue", Arrays.asList(titles, status, priority), countMode, pageNum, pageSize, issues.size(), hasMore,
+				() -> this.issueQueryRepository.listCount(titles, status, priority)
+		);
 		return PagedResp.<IssueResp>builder()
 				.pageNum(pageNum).pageSize(pageSize).total(total)
-				.list(issues)
+				.list(issues).hasMore(hasMore)
+				.build();
+	}
+
+	/**
+	 * 游标分页查询缺陷，不统计总数
+	 * @param title		缺陷标题关键词
+	 * @param status	缺陷状态
+	 * @param priority	缺陷优先级
+	 * @param pageSize	页大小
+	 * @param orderBy	排序字段
+	 * @param orderDir	排序方向
+	 * @param cursor	上一页返回的游标，null 或空字符串表示第一页
+	 * @return 缺陷响应列表，游标无效时返回 null
+	 */
+	@Nullable
+	@Override
+	public PagedResp<IssueResp> listByCursor(@Nullable String title, @Nullable String status, @Nullable Integer priority,
+										int pageSize, @Nullable String orderBy, @Nullable String orderDir, @Nullable String cursor) {
+		// 处理标题关键词，将标题按空格分割成若干个关键词喵~
+		List<String> titles = (title != null && !title.trim().isEmpty()) ?
+				Arrays.asList(title.trim().split("\\s+")) : Collections.emptyList();
+
+		CursorPageBo<Issue> page;
+		try {
+			page = this.issueQueryRepository.listByCursor(
+					titles, status, priority, pageSize, this.camelToSnakeConverter.convert(orderBy), orderDir, cursor
+			);
+		} catch (IllegalArgumentException e) {
+			log.warn("Invalid cursor {}: {}", cursor, e.getMessage());
+			return null;
+		}
+		return PagedResp.<IssueResp>builder()
+				.pageSize(pageSize).total(-1)
+				.list(page.getList().stream().map(this.issueConverter::convertToResp).collect(Collectors.toList()))
+				.nextCursor(page.getNextCursor()).hasMore(page.getNextCursor() != null)
 				.build();
 	}
 
@@ -135,10 +190,10 @@ public class IssueService implements Queryable<IssueResp>, Approvable, Assignabl
 		}
 
 		// 获取用户角色
-		List<UserRole> userRoles = this.userQueryRepository.getUserRoles(uid);
+		int userRoleMask = this.userQueryRepository.getUserRoleMask(uid);
 
 		// 检查用户是否有权限修改缺陷
-		if (!hasPermissionToModify(currentStatus, userRoles)) {
+		if (!hasPermissionToModify(currentStatus, userRoleMask)) {
 			log.warn("User {} does not have permission to modify issue in status {}", uid, currentStatus);
 			return ClientErrorCode.ERROR_1491;
 		}
@@ -158,46 +213,46 @@ public class IssueService implements Queryable<IssueResp>, Approvable, Assignabl
 	 * @return 错误码，null 表示成功
 	 */
 	@Override @Nullable
+	@Transactional(rollbackFor = Exception.class)
 	public ClientErrorCode approve(String code, List<String> nextOperators, String description, String uid) {
-		// 获取原有缺陷
-		Issue existingIssue = this.issueQueryRepository.getIssueByCode(code);
-		if (existingIssue == null) {
+		// 获取缺陷的当前状态和待处理的责任人，一次查询完成
+		ApprovalStateBo state = this.issueQueryRepository.getApprovalState(code);
+		if (state == null) {
 			log.warn("Issue not found: {}", code);
 			return ClientErrorCode.ERROR_1440;
 		}
 
 		// 检查缺陷状态是否允许修改
-		IssueStatus currentStatus = IssueStatus.valueOf(existingIssue.getStatus());
+		IssueStatus currentStatus = IssueStatus.valueOf(state.getStatus());
 		if (!isModifiable(currentStatus)) {
 			log.warn("Issue status does not allow modification: {}", currentStatus);
 			return ClientErrorCode.ERROR_1442;
 		}
 
 		// 获取用户角色
-		List<UserRole> userRoles = this.userQueryRepository.getUserRoles(uid);
+		int userRoleMask = this.userQueryRepository.getUserRoleMask(uid);
 
 		// 检查用户是否有权限修改缺陷
-		if (!hasPermissionToModify(currentStatus, userRoles)) {
+		if (!hasPermissionToModify(currentStatus, userRoleMask)) {
 			log.warn("User {} does not have permission to modify issue in status {}", uid, currentStatus);
 			return ClientErrorCode.ERROR_1491;
 		}
 
 		IssueStatus nextStatus = currentStatus.approved();
 		// 检查下一个操作人是否有权限接受缺陷
+		Map<String, Integer> nextOperatorRoleMasks = this.userQueryRepository.getUserRoleMasksByUids(nextOperators);
 		for(String nextOperator: nextOperators) {
-			List<UserRole> nextOperatorRoles = this.userQueryRepository.getUserRoles(nextOperator);
-			if(!hasPermissionToModify(nextStatus, nextOperatorRoles)) {
+			int nextOperatorRoleMask = nextOperatorRoleMasks.getOrDefault(nextOperator, 0);
+			if(!hasPermissionToModify(nextStatus, nextOperatorRoleMask)) {
 				log.warn("Next operator {} does not have permission to modify issue in next status {}", nextOperator, nextStatus);
 				return ClientErrorCode.ERROR_1492;
 			}
 		}
 
-		this.issueCommandRepository.skipRemainingRelations(code, currentStatus, uid);
-
-		this.issueCommandRepository.updateRelation(code, currentStatus, description, RelationType.APPROVED, uid);
-
-		// 更新缺陷
-		this.issueCommandRepository.updateStatus(code, currentStatus, nextStatus, uid);
+		// 更新处理关系和缺陷状态，状态已被其他人修改时由用户刷新后重试
+		if(!this.issueCommandRepository.approve(code, currentStatus, nextStatus, description, state.getPendingUids(), uid)) {
+			return ClientErrorCode.ERROR_1496;
+		}
 		this.issueCommandRepository.assignOperators(code, nextStatus, nextOperators, uid);
 
 		return null;
@@ -212,42 +267,46 @@ public class IssueService implements Queryable<IssueResp>, Approvable, Assignabl
 	 * @return 错误码，null 表示成功
 	 */
 	@Override @Nullable
+	@Transactional(rollbackFor = Exception.class)
 	public ClientErrorCode reject(String code, List<String> nextOperators, String description, String uid) {
-		// 获取原有缺陷
-		Issue existingIssue = this.issueQueryRepository.getIssueByCode(code);
-		if (existingIssue == null) {
+		// 获取缺陷的当前状态和待处理的责任人，一次查询完成
+		ApprovalStateBo state = this.issueQueryRepository.getApprovalState(code);
+		if (state == null) {
 			log.warn("Issue not found: {}", code);
 			return ClientErrorCode.ERROR_1440;
 		}
 
 		// 检查缺陷状态是否允许修改
-		IssueStatus currentStatus = IssueStatus.valueOf(existingIssue.getStatus());
+		IssueStatus currentStatus = IssueStatus.valueOf(state.getStatus());
 		if (!isModifiable(currentStatus)) {
 			log.warn("Issue status does not allow modification: {}", currentStatus);
 			return ClientErrorCode.ERROR_1442;
 		}
 
 		// 获取用户角色
-		List<UserRole> userRoles = this.userQueryRepository.getUserRoles(uid);
+		int userRoleMask = this.userQueryRepository.getUserRoleMask(uid);
 
 		// 检查用户是否有权限修改缺陷
-		if (!hasPermissionToModify(currentStatus, userRoles)) {
+		if (!hasPermissionToModify(currentStatus, userRoleMask)) {
 			log.warn("User {} does not have permission to modify issue in status {}", uid, currentStatus);
 			return ClientErrorCode.ERROR_1491;
 		}
 
 		IssueStatus nextStatus = currentStatus.rejected();
 		// 检查下一个操作人是否有权限接受缺陷
+		Map<String, Integer> nextOperatorRoleMasks = this.userQueryRepository.getUserRoleMasksByUids(nextOperators);
 		for(String nextOperator: nextOperators) {
-			List<UserRole> nextOperatorRoles = this.userQueryRepository.getUserRoles(nextOperator);
-			if(!hasPermissionToModify(nextStatus, nextOperatorRoles)) {
+			int nextOperatorRoleMask = nextOperatorRoleMasks.getOrDefault(nextOperator, 0);
+			if(!hasPermissionToModify(nextStatus, nextOperatorRoleMask)) {
 				log.warn("Next operator {} does not have permission to modify issue in next status {}", nextOperator, nextStatus);
 				return ClientErrorCode.ERROR_1492;
 			}
 		}
 
-		// 更新缺陷
-		this.issueCommandRepository.updateRelation(code, currentStatus, description, RelationType.REJECTED, uid);
+		// 记录拒绝，状态已被其他人修改时由用户刷新后重试
+		if(!this.issueCommandRepository.reject(code, currentStatus, description, state.getPendingUids(), uid)) {
+			return ClientErrorCode.ERROR_1496;
+		}
 		this.issueCommandRepository.assignOperators(code, nextStatus, nextOperators, uid);
 
 		return null;
@@ -277,18 +336,18 @@ public class IssueService implements Queryable<IssueResp>, Approvable, Assignabl
 		}
 
 		// 获取用户角色
-		List<UserRole> userRoles = this.userQueryRepository.getUserRoles(uid);
+		int userRoleMask = this.userQueryRepository.getUserRoleMask(uid);
 
 		// 检查用户是否有权限修改缺陷
-		if (!hasPermissionToModify(currentStatus, userRoles)) {
+		if (!hasPermissionToModify(currentStatus, userRoleMask)) {
 			log.warn("User {} does not have permission to modify issue in status {}", uid, currentStatus);
 			return ClientErrorCode.ERROR_1491;
 		}
 
 		// 检查被分配者角色
 		if(!uid.equals(assignee)) {
-			userRoles = this.userQueryRepository.getUserRoles(assignee);
-			if (!hasPermissionToModify(currentStatus, userRoles)) {
+			userRoleMask = this.userQueryRepository.getUserRoleMask(assignee);
+			if (!hasPermissionToModify(currentStatus, userRoleMask)) {
 				log.warn("User {} does not have permission to modify issue in status {}", assignee, currentStatus);
 				return ClientErrorCode.ERROR_1491;
 			}
@@ -322,10 +381,10 @@ public class IssueService implements Queryable<IssueResp>, Approvable, Assignabl
 		}
 
 		// 获取用户角色
-		List<UserRole> userRoles = this.userQueryRepository.getUserRoles(uid);
+		int userRoleMask = this.userQueryRepository.getUserRoleMask(uid);
 
 		// 检查用户是否有权限修改缺陷
-		if (!hasPermissionToModify(currentStatus, userRoles)) {
+		if (!hasPermissionToModify(currentStatus, userRoleMask)) {
 			log.warn("User {} does not have permission to modify issue in status {}", uid, currentStatus);
 			return ClientErrorCode.ERROR_1491;
 		}
@@ -333,6 +392,157 @@ public class IssueService implements Queryable<IssueResp>, Approvable, Assignabl
 		return this.issueCommandRepository.unassignOperator(code, currentStatus, assignee, uid) ? ClientErrorCode.ERROR_1492 : null;
 	}
 
+	/**
+	 * 批量批准缺陷
+	 * @param codes			缺陷编码列表
+	 * @param nextOperators	下一个操作人 UID
+	 * @param description	描述（同意理由）
+	 * @param uid			更新人 UID
+	 * @return 缺陷编码 -> 错误码，null 表示成功
+	 */
+	@Override
+	@Transactional(rollbackFor = Exception.class)
+	public Map<String, ClientErrorCode> approveAll(List<String> codes, List<String> nextOperators, String description, String uid) {
+		Map<String, ClientErrorCode> results = new LinkedHashMap<>();
+		// 同一状态的缺陷合并为一组批量更新
+		for(Map.Entry<IssueStatus, List<String>> entry: this.groupModifiable(codes, nextOperators, IssueStatus::approved, uid, results).entrySet()) {
+			IssueStatus currentStatus = entry.getKey();
+			List<String> group = entry.getValue();
+			IssueStatus nextStatus = currentStatus.approved();
+			// 先记录当前用户的审批，再跳过其他人的待处理关系
+			this.issueCommandRepository.updateRelationsByCodes(group, currentStatus, description, RelationType.APPROVED, uid);
+			this.issueCommandRepository.skipRemainingRelationsByCodes(group, currentStatus, uid);
+
+			// 更新缺陷，有缺陷的状态已被其他人修改时整批回滚
+			if(this.issueCommandRepository.updateStatusByCodes(group, currentStatus, nextStatus, uid) < group.size()) {
+				return rollbackConflicted(results);
+			}
+			this.issueCommandRepository.assignOperatorsByCodes(group, nextStatus, nextOperators, uid);
+		}
+
+		return results;
+	}
+
+	/**
+	 * 批量拒绝缺陷
+	 * @param codes			缺陷编码列表
+	 * @param nextOperators	下一个操作人 UID
+	 * @param description	描述（拒绝理由）
+	 * @param uid			更新人 UID
+	 * @return 缺陷编码 -> 错误码，null 表示成功
+	 */
+	@Override
+	@Transactional(rollbackFor = Exception.class)
+	public Map<String, ClientErrorCode> rejectAll(List<String> codes, List<String> nextOperators, String description, String uid) {
+		Map<String, ClientErrorCode> results = new LinkedHashMap<>();
+		for(Map.Entry<IssueStatus, List<String>> entry: this.groupModifiable(codes, nextOperators, IssueStatus::rejected, uid, results).entrySet()) {
+			IssueStatus currentStatus = entry.getKey();
+			List<String> group = entry.getValue();
+			IssueStatus nextStatus = currentStatus.rejected();
+
+			// 确认缺陷仍处于当前状态，有缺陷的状态已被其他人修改时整批回滚
+			if(this.issueCommandRepository.updateStatusByCodes(group, currentStatus, currentStatus, uid) < group.size()) {
+				return rollbackConflicted(results);
+			}
+
+			// 更新缺陷
+			this.issueCommandRepository.updateRelationsByCodes(group, currentStatus, description, RelationType.REJECTED, uid);
+			this.issueCommandRepository.assignOperatorsByCodes(group, nextStatus, nextOperators, uid);
+		}
+
+		return results;
+	}
+
+	/**
+	 * 批量分配缺陷
+	 * @param codes		缺陷编码列表
+	 * @param assignee	被分配者 UID
+	 * @param uid		更新人 UID
+	 * @return 缺陷编码 -> 错误码，null 表示成功
+	 */
+	@Override
+	@Transactional(rollbackFor = Exception.class)
+	public Map<String, ClientErrorCode> assignAll(List<String> codes, String assignee, String uid) {
+		Map<String, ClientErrorCode> results = new LinkedHashMap<>();
+		// 被分配者需要在当前状态具有权限，分配给自己时不重复检查
+		List<String> assignees = uid.equals(assignee) ? Collections.<String>emptyList() : Collections.singletonList(assignee);
+		this.groupModifiable(codes, assignees, UnaryOperator.identity(), uid, results).forEach((currentStatus, group) ->
+				this.issueCommandRepository.assignOperatorsByCodes(group, currentStatus, Collections.singletonList(assignee), uid)
+		);
+		return results;
+	}
+
+	/**
+	 * 批量加载缺陷并校验，校验结果写入 results，去除重复的编码
+	 * @param codes		缺陷编码列表
+	 * @param operators	需要在下一个状态具有权限的用户 UID
+	 * @param nextState	当前状态 -> 下一个状态
+	 * @param uid		更新人 UID
+	 * @param results	缺陷编码 -> 错误码
+	 * @return 当前状态 -> 通过校验的缺陷编码
+	 */
+	private Map<IssueStatus, List<String>> groupModifiable(List<String> codes, Collection<String> operators,
+															   UnaryOperator<IssueStatus> nextState, String uid,
+															   Map<String, ClientErrorCode> results) {
+		Map<String, Issue> issues = this.issueQueryRepository.getIssuesByCodes(codes);
+		// 用户和下一个操作人的角色各只查询一次
+		int userRoleMask = this.userQueryRepository.getUserRoleMask(uid);
+		Map<String, Integer> operatorRoleMasks = this.userQueryRepository.getUserRoleMasksByUids(operators);
+		Map<IssueStatus, List<String>> groups = new EnumMap<>(IssueStatus.class);
+		for(String code: codes) {
+			if(results.containsKey(code)) {
+				continue;
+			}
+			Issue existingIssue = issues.get(code);
+			if (existingIssue == null) {
+				log.warn("Issue not found: {}", code);
+				results.put(code, ClientErrorCode.ERROR_1440);
+				continue;
+			}
+
+			// 检查缺陷状态是否允许修改
+			IssueStatus currentStatus = IssueStatus.valueOf(existingIssue.getStatus());
+			if (!isModifiable(currentStatus)) {
+				log.warn("Issue {} status does not allow modification: {}", code, currentStatus);
+				results.put(code, ClientErrorCode.ERROR_1442);
+				continue;
+			}
+
+			// 检查用户是否有权限修改缺陷
+			if (!hasPermissionToModify(currentStatus, userRoleMask)) {
+				log.warn("User {} does not have permission to modify issue in status {}", uid, currentStatus);
+				results.put(code, ClientErrorCode.ERROR_1491);
+				continue;
+			}
+
+			// 检查下一个操作人是否有权限接受缺陷
+			IssueStatus nextStatus = nextState.apply(currentStatus);
+			String forbidden = operators.stream()
+					.filter(operator -> !hasPermissionToModify(nextStatus, operatorRoleMasks.getOrDefault(operator, 0)))
+					.findFirst().orElse(null);
+			if(forbidden != null) {
+				log.warn("Next operator {} does not have permission to modify issue in next status {}", forbidden, nextStatus);
+				results.put(code, ClientErrorCode.ERROR_1492);
+				continue;
+			}
+
+			results.put(code, null);
+			groups.computeIfAbsent(currentStatus, status -> new ArrayList<>()).add(code);
+		}
+		return groups;
+	}
+
+	/**
+	 * 批量操作中有缺陷的状态已被其他人修改时回滚整个批次，原本成功的缺陷标记为需要重试
+	 * @param results	缺陷编码 -> 错误码
+	 * @return 缺陷编码 -> 错误码
+	 */
+	private static Map<String, ClientErrorCode> rollbackConflicted(Map<String, ClientErrorCode> results) {
+		TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+		results.replaceAll((code, errorCode) -> errorCode == null ? ClientErrorCode.ERROR_1496 : errorCode);
+		return results;
+	}
+
 	/**
 	 * 检查缺陷状态是否允许修改
 	 * @param status	缺陷状态
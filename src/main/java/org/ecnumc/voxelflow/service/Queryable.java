@@ -1,5 +1,6 @@
 package org.ecnumc.voxelflow.service;
 
+import org.ecnumc.voxelflow.enumeration.CountMode;
 import org.ecnumc.voxelflow.resp.PagedResp;
 
 import javax.annotation.Nullable;
@@ -29,6 +30,38 @@ public interface Queryable<R extends Serializable> {
 	 * @param orderDir	排序方向
 	 * @return 查询结果
 	 */
+	default PagedResp<R> list(@Nullable String title, @Nullable String status, @Nullable Integer priority,
+							  int pageNum, int pageSize, @Nullable String orderBy, @Nullable String orderDir) {
+		return this.list(title, status, priority, pageNum, pageSize, orderBy, orderDir, CountMode.EXACT);
+	}
+
+	/**
+	 * 列表查询，支持根据标题、状态、优先级等条件筛选，并指定总数的统计方式
+	 * @param title		标题关键词（若干个关键词）
+	 * @param status	状态
+	 * @param priority	优先级
+	 * @param pageNum	页码
+	 * @param pageSize	页大小
+	 * @param orderBy	排序字段
+	 * @param orderDir	排序方向
+	 * @param countMode	总数统计方式
+	 * @return 查询结果，不统计总数时 total 为 -1
+	 */
 	PagedResp<R> list(@Nullable String title, @Nullable String status, @Nullable Integer priority,
-					  int pageNum, int pageSize, @Nullable String orderBy, @Nullable String orderDir);
+					  int pageNum, int pageSize, @Nullable String orderBy, @Nullable String orderDir, CountMode countMode);
+
+	/**
+	 * 游标分页列表查询，不统计总数，翻页深度不影响查询耗时
+	 * @param title		标题关键词（若干个关键词）
+	 * @param status	状态
+	 * @param priority	优先级
+	 * @param pageSize	页大小
+	 * @param orderBy	排序字段
+	 * @param orderDir	排序方向
+	 * @param cursor	上一页返回的游标，null 或空字符串表示第一页
+	 * @return 查询结果，游标无效时返回 null
+	 */
+	@Nullable
+	PagedResp<R> listByCursor(@Nullable String title, @Nullable String status, @Nullable Integer priority,
+							  int pageSize, @Nullable String orderBy, @Nullable String orderDir, @Nullable String cursor);
 }
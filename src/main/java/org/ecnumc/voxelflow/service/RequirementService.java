@@ -1,10 +1,13 @@
 package org.ecnumc.voxelflow.service;
 
 import lombok.extern.slf4j.Slf4j;
+import org.ecnumc.voxelflow.bo.ApprovalStateBo;
+import org.ecnumc.voxelflow.bo.CursorPageBo;
 import org.ecnumc.voxelflow.converter.CamelToSnakeConverter;
 import org.ecnumc.voxelflow.converter.RequirementConverter;
 import org.ecnumc.voxelflow.enumeration.*;
 import org.ecnumc.voxelflow.po.Requirement;
+import org.ecnumc.voxelflow.repository.ListCountRepository;
 import org.ecnumc.voxelflow.repository.RequirementCommandRepository;
 import org.ecnumc.voxelflow.repository.RequirementQueryRepository;
 import org.ecnumc.voxelflow.repository.UserQueryRepository;
@@ -12,11 +15,19 @@ import org.ecnumc.voxelflow.resp.PagedResp;
 import org.ecnumc.voxelflow.resp.RequirementResp;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
 
 import javax.annotation.Nullable;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 
 import static org.ecnumc.voxelflow.util.IOperableStatus.hasPermissionToModify;
@@ -45,6 +56,9 @@ public class RequirementService implements Queryable<RequirementResp>, Approvabl
 	@Autowired
 	private RequirementConverter requirementConverter;
 
+	@Autowired
+	private ListCountRepository listCountRepository;
+
 	@Autowired
 	private CamelToSnakeConverter camelToSnakeConverter;
 
@@ -96,24 +110,65 @@ public class RequirementService implements Queryable<RequirementResp>, Approvabl
 	 * @param priority	需求优先级
 	 * @param pageNum	页码
 	 * @param pageSize	页大小
+	 * @param countMode	总数统计方式
 	 * @return 需求响应列表
 	 */
 	@Override
 	public PagedResp<RequirementResp> list(@Nullable String title, @Nullable String status, @Nullable Integer priority,
-										   int pageNum, int pageSize, @Nullable String orderBy, @Nullable String orderDir) {
+										   int pageNum, int pageSize, @Nullable String orderBy, @Nullable String orderDir, CountMode countMode) {
 		// 处理标题关键词，将标题按空格分割成若干个关键词喵~
 		List<String> titles = (title != null && !title.trim().isEmpty()) ?
 				Arrays.asList(title.trim().split("\\s+")) : Collections.emptyList();
 
-		List<RequirementResp> requirements = this.requirementQueryRepository
-				.list(titles, status, priority, pageNum, pageSize, this.camelToSnakeConverter.convert(orderBy), orderDir)
-				.stream()
+		List<Requirement> rows = this.requirementQueryRepository
+				.list(titles, status, priority, pageNum, pageSize, this.camelToSnakeConverter.convert(orderBy), orderDir);
+		boolean hasMore = rows.size() > pageSize;
+		List<RequirementResp> requirements = rows.stream()
+				.limit(pageSize)
 				.map(this.requirementConverter::convertToResp)
 				.collect(Collectors.toList());
-		int total = this.requirementQueryRepository.listCount(titles, status, priority);
+		int total = this.listCountRepository.count(
+				"requirement", Arrays.asList(titles, status, priority), countMode, pageNum, pageSize, requirements.size(), hasMore,
+				() -> this.requirementQueryRepository.listCount(titles, status, priority)
+		);
 		return PagedResp.<RequirementResp>builder()
 				.pageNum(pageNum).pageSize(pageSize).total(total)
-				.list(requirements)
+				.list(requirements).hasMore(hasMore)
+				.build();
+	}
+
+	/**
+	 * 游标分页查询需求，不统计总数
+	 * @param title		需求标题关键词
+	 * @param status	需求状态
+	 * @param priority	需求优先级
+	 * @param pageSize	页大小
+	 * @param orderBy	排序字段
+	 * @param orderDir	排序方向
+	 * @param cursor	上一页返回的游标，null 或空字符串表示第一页
+	 * @return 需求响应列表，游标无效时返回 null
+	 */
+	@Nullable
+	@Override
+	public PagedResp<RequirementResp> listByCursor(@Nullable String title, @Nullable String status, @Nullable Integer priority,
+										int pageSize, @Nullable String orderBy, @Nullable String orderDir, @Nullable String cursor) {
+		// 处理标题关键词，将标题按空格分割成若干个关键词喵~
+		List<String> titles = (title != null && !title.trim().isEmpty()) ?
+				Arrays.asList(title.trim().split("\\s+")) : Collections.emptyList();
+
+		CursorPageBo<Requirement> page;
+		try {
+			page = this.requirementQueryRepository.listByCursor(
+					titles, status, priority, pageSize, this.camelToSnakeConverter.convert(orderBy), orderDir, cursor
+			);
+		} catch (IllegalArgumentException e) {
+			log.warn("Invalid cursor {}: {}", cursor, e.getMessage());
+			return null;
+		}
+		return PagedResp.<RequirementResp>builder()
+				.pageSize(pageSize).total(-1)
+				.list(page.getList().stream().map(this.requirementConverter::convertToResp).collect(Collectors.toList()))
+				.nextCursor(page.getNextCursor()).hasMore(page.getNextCursor() != null)
 				.build();
 	}
 
@@ -151,10 +206,10 @@ public class RequirementService implements Queryable<RequirementResp>, Approvabl
 		}
 
 		// 获取用户角色
-		List<UserRole> userRoles = this.userQueryRepository.getUserRoles(uid);
+		int userRoleMask = this.userQueryRepository.getUserRoleMask(uid);
 
 		// 检查用户是否有权限修改需求
-		if (!hasPermissionToModify(currentStatus, userRoles)) {
+		if (!hasPermissionToModify(currentStatus, userRoleMask)) {
 			log.warn("User {} does not have permission to modify requirement in status {}", uid, currentStatus);
 			return ClientErrorCode.ERROR_1491;
 		}
@@ -176,56 +231,57 @@ public class RequirementService implements Queryable<RequirementResp>, Approvabl
 	 * @return 错误码，null 表示成功
 	 */
 	@Override @Nullable
+	@Transactional(rollbackFor = Exception.class)
 	public ClientErrorCode approve(String code, List<String> nextOperators, String description, String uid) {
-		// 获取原有需求
-		Requirement existingRequirement = this.requirementQueryRepository.getRequirementByCode(code);
-		if (existingRequirement == null) {
+		// 获取需求的当前状态和待处理的责任人，一次查询完成
+		ApprovalStateBo state = this.requirementQueryRepository.getApprovalState(code);
+		if (state == null) {
 			log.warn("Requirement not found: {}", code);
 			return ClientErrorCode.ERROR_1420;
 		}
 
 		// 检查需求状态是否允许修改
-		RequirementStatus currentStatus = RequirementStatus.valueOf(existingRequirement.getStatus());
+		RequirementStatus currentStatus = RequirementStatus.valueOf(state.getStatus());
 		if (!isModifiable(currentStatus)) {
 			log.warn("Requirement status does not allow modification: {}", currentStatus);
 			return ClientErrorCode.ERROR_1422;
 		}
 
 		// 获取用户角色
-		List<UserRole> userRoles = this.userQueryRepository.getUserRoles(uid);
+		int userRoleMask = this.userQueryRepository.getUserRoleMask(uid);
 
 		// 检查用户是否有权限修改需求
-		if (!hasPermissionToModify(currentStatus, userRoles)) {
+		if (!hasPermissionToModify(currentStatus, userRoleMask)) {
 			log.warn("User {} does not have permission to modify requirement in status {}", uid, currentStatus);
 			return ClientErrorCode.ERROR_1491;
 		}
 
 		RequirementStatus nextStatus = currentStatus.approved();
 		// 检查下一个操作人是否有权限接受需求
+		Map<String, Integer> nextOperatorRoleMasks = this.userQueryRepository.getUserRoleMasksByUids(nextOperators);
 		for(String nextOperator: nextOperators) {
-			List<UserRole> nextOperatorRoles = this.userQueryRepository.getUserRoles(nextOperator);
-			if(!hasPermissionToModify(nextStatus, nextOperatorRoles)) {
+			int nextOperatorRoleMask = nextOperatorRoleMasks.getOrDefault(nextOperator, 0);
+			if(!hasPermissionToModify(nextStatus, nextOperatorRoleMask)) {
 				log.warn("Next operator {} does not have permission to modify requirement in next status {}", nextOperator, nextStatus);
 				return ClientErrorCode.ERROR_1492;
 			}
 		}
 
-		boolean update = false;
-		if(currentStatus.waitingForAllApprovals()) {
-			if(this.requirementQueryRepository.getPendingRelationCount(code, currentStatus) == 0) {
-				update = true;
+		// 会签状态下还有其他人未审批时，只记录当前用户的审批。
+		// getApprovalState 已锁定需求，同时审批的最后两人中后执行的一方会看到先提交的审批，由它推进状态
+		if(currentStatus.waitingForAllApprovals() && state.getPendingUids().stream().anyMatch(pending -> !pending.equals(uid))) {
+			if(!this.requirementCommandRepository.updateRelation(code, currentStatus, description, RelationType.APPROVED, uid)) {
+				log.warn("User {} has no pending approval on requirement {} in status {}", uid, code, currentStatus);
+				return ClientErrorCode.ERROR_1491;
 			}
-		} else {
-			update = true;
-			this.requirementCommandRepository.skipRemainingRelations(code, currentStatus, uid);
+			return null;
 		}
 
-		this.requirementCommandRepository.updateRelation(code, currentStatus, description, RelationType.APPROVED, uid);
-		if(update) {
-			// 更新需求
-			this.requirementCommandRepository.updateStatus(code, currentStatus, nextStatus, uid);
-			this.requirementCommandRepository.assignOperators(code, nextStatus, nextOperators, uid);
+		// 更新处理关系和需求状态，状态已被其他人修改时由用户刷新后重试
+		if(!this.requirementCommandRepository.approve(code, currentStatus, nextStatus, description, state.getPendingUids(), uid)) {
+			return ClientErrorCode.ERROR_1496;
 		}
+		this.requirementCommandRepository.assignOperators(code, nextStatus, nextOperators, uid);
 
 		return null;
 	}
@@ -239,42 +295,46 @@ public class RequirementService implements Queryable<RequirementResp>, Approvabl
 	 * @return 错误码，null 表示成功
 	 */
 	@Override @Nullable
+	@Transactional(rollbackFor = Exception.class)
 	public ClientErrorCode reject(String code, List<String> nextOperators, String description, String uid) {
-		// 获取原有需求
-		Requirement existingRequirement = this.requirementQueryRepository.getRequirementByCode(code);
-		if (existingRequirement == null) {
+		// 获取需求的当前状态和待处理的责任人，一次查询完成
+		ApprovalStateBo state = this.requirementQueryRepository.getApprovalState(code);
+		if (state == null) {
 			log.warn("Requirement not found: {}", code);
 			return ClientErrorCode.ERROR_1420;
 		}
 
 		// 检查需求状态是否允许修改
-		RequirementStatus currentStatus = RequirementStatus.valueOf(existingRequirement.getStatus());
+		RequirementStatus currentStatus = RequirementStatus.valueOf(state.getStatus());
 		if (!isModifiable(currentStatus)) {
 			log.warn("Requirement status does not allow modification: {}", currentStatus);
 			return ClientErrorCode.ERROR_1422;
 		}
 
 		// 获取用户角色
-		List<UserRole> userRoles = this.userQueryRepository.getUserRoles(uid);
+		int userRoleMask = this.userQueryRepository.getUserRoleMask(uid);
 
 		// 检查用户是否有权限修改需求
-		if (!hasPermissionToModify(currentStatus, userRoles)) {
+		if (!hasPermissionToModify(currentStatus, userRoleMask)) {
 			log.warn("User {} does not have permission to modify requirement in status {}", uid, currentStatus);
 			return ClientErrorCode.ERROR_1491;
 		}
 
 		RequirementStatus nextStatus = currentStatus.rejected();
 		// 检查下一个操作人是否有权限接受需求
+		Map<String, Integer> nextOperatorRoleMasks = this.userQueryRepository.getUserRoleMasksByUids(nextOperators);
 		for(String nextOperator: nextOperators) {
-			List<UserRole> nextOperatorRoles = this.userQueryRepository.getUserRoles(nextOperator);
-			if(!hasPermissionToModify(nextStatus, nextOperatorRoles)) {
+			int nextOperatorRoleMask = nextOperatorRoleMasks.getOrDefault(nextOperator, 0);
+			if(!hasPermissionToModify(nextStatus, nextOperatorRoleMask)) {
 				log.warn("Next operator {} does not have permission to modify requirement in next status {}", nextOperator, nextStatus);
 				return ClientErrorCode.ERROR_1492;
 			}
 		}
 
-		// 更新需求
-		this.requirementCommandRepository.updateRelation(code, currentStatus, description, RelationType.REJECTED, uid);
+		// 记录拒绝，状态已被其他人修改时由用户刷新后重试
+		if(!this.requirementCommandRepository.reject(code, currentStatus, description, state.getPendingUids(), uid)) {
+			return ClientErrorCode.ERROR_1496;
+		}
 		this.requirementCommandRepository.assignOperators(code, nextStatus, nextOperators, uid);
 
 		return null;
@@ -304,18 +364,18 @@ public class RequirementService implements Queryable<RequirementResp>, Approvabl
 		}
 
 		// 获取用户角色
-		List<UserRole> userRoles = this.userQueryRepository.getUserRoles(uid);
+		int userRoleMask = this.userQueryRepository.getUserRoleMask(uid);
 
 		// 检查用户是否有权限修改需求
-		if (!hasPermissionToModify(currentStatus, userRoles)) {
+		if (!hasPermissionToModify(currentStatus, userRoleMask)) {
 			log.warn("User {} does not have permission to modify requirement in status {}", uid, currentStatus);
 			return ClientErrorCode.ERROR_1491;
 		}
 
 		// 检查被分配者角色
 		if(!uid.equals(assignee)) {
-			userRoles = this.userQueryRepository.getUserRoles(assignee);
-			if (!hasPermissionToModify(currentStatus, userRoles)) {
+			userRoleMask = this.userQueryRepository.getUserRoleMask(assignee);
+			if (!hasPermissionToModify(currentStatus, userRoleMask)) {
 				log.warn("User {} does not have permission to modify requirement in status {}", assignee, currentStatus);
 				return ClientErrorCode.ERROR_1491;
 			}
@@ -349,10 +409,10 @@ public class RequirementService implements Queryable<RequirementResp>, Approvabl
 		}
 
 		// 获取用户角色
-		List<UserRole> userRoles = this.userQueryRepository.getUserRoles(uid);
+		int userRoleMask = this.userQueryRepository.getUserRoleMask(uid);
 
 		// 检查用户是否有权限修改需求
-		if (!hasPermissionToModify(currentStatus, userRoles)) {
+		if (!hasPermissionToModify(currentStatus, userRoleMask)) {
 			log.warn("User {} does not have permission to modify requirement in status {}", uid, currentStatus);
 			return ClientErrorCode.ERROR_1491;
 		}
@@ -371,6 +431,170 @@ public class RequirementService implements Queryable<RequirementResp>, Approvabl
 			.anyMatch(type -> type.name().equals(requirementType));
 	}
 
+	/**
+	 * 批量批准需求
+	 * @param codes			需求编码列表
+	 * @param nextOperators	下一个操作人 UID
+	 * @param description	描述（同意理由）
+	 * @param uid			更新人 UID
+	 * @return 需求编码 -> 错误码，null 表示成功
+	 */
+	@Override
+	@Transactional(rollbackFor = Exception.class)
+	public Map<String, ClientErrorCode> approveAll(List<String> codes, List<String> nextOperators, String description, String uid) {
+		Map<String, ClientErrorCode> results = new LinkedHashMap<>();
+		// 同一状态的需求合并为一组批量更新
+		for(Map.Entry<RequirementStatus, List<String>> entry: this.groupModifiable(codes, nextOperators, RequirementStatus::approved, uid, results).entrySet()) {
+			RequirementStatus currentStatus = entry.getKey();
+			List<String> group = entry.getValue();
+			RequirementStatus nextStatus = currentStatus.approved();
+			// 先记录当前用户的审批，会签状态下只推进其他人都已审批的需求。
+			// 会签时先锁定需求，并用加锁读统计待处理关系，同时审批的最后两人中后执行的一方负责推进状态
+			if(currentStatus.waitingForAllApprovals()) {
+				this.requirementQueryRepository.lockByCodes(group);
+			}
+			this.requirementCommandRepository.updateRelationsByCodes(group, currentStatus, description, RelationType.APPROVED, uid);
+			List<String> advancing = group;
+			if(currentStatus.waitingForAllApprovals()) {
+				Map<String, Integer> pendingCounts = this.requirementQueryRepository.getPendingRelationCounts(group, currentStatus);
+				advancing = group.stream()
+						.filter(code -> pendingCounts.getOrDefault(code, 0) == 0)
+						.collect(Collectors.toList());
+			} else {
+				this.requirementCommandRepository.skipRemainingRelationsByCodes(group, currentStatus, uid);
+			}
+			if(!advancing.isEmpty()) {
+				// 更新需求，有需求的状态已被其他人修改时整批回滚
+				if(this.requirementCommandRepository.updateStatusByCodes(advancing, currentStatus, nextStatus, uid) < advancing.size()) {
+					return rollbackConflicted(results);
+				}
+				this.requirementCommandRepository.assignOperatorsByCodes(advancing, nextStatus, nextOperators, uid);
+			}
+		}
+
+		return results;
+	}
+
+	/**
+	 * 批量拒绝需求
+	 * @param codes			需求编码列表
+	 * @param nextOperators	下一个操作人 UID
+	 * @param description	描述（拒绝理由）
+	 * @param uid			更新人 UID
+	 * @return 需求编码 -> 错误码，null 表示成功
+	 */
+	@Override
+	@Transactional(rollbackFor = Exception.class)
+	public Map<String, ClientErrorCode> rejectAll(List<String> codes, List<String> nextOperators, String description, String uid) {
+		Map<String, ClientErrorCode> results = new LinkedHashMap<>();
+		for(Map.Entry<RequirementStatus, List<String>> entry: this.groupModifiable(codes, nextOperators, RequirementStatus::rejected, uid, results).entrySet()) {
+			RequirementStatus currentStatus = entry.getKey();
+			List<String> group = entry.getValue();
+			RequirementStatus nextStatus = currentStatus.rejected();
+
+			// 确认需求仍处于当前状态，有需求的状态已被其他人修改时整批回滚
+			if(this.requirementCommandRepository.updateStatusByCodes(group, currentStatus, currentStatus, uid) < group.size()) {
+				return rollbackConflicted(results);
+			}
+
+			// 更新需求
+			this.requirementCommandRepository.updateRelationsByCodes(group, currentStatus, description, RelationType.REJECTED, uid);
+			this.requirementCommandRepository.assignOperatorsByCodes(group, nextStatus, nextOperators, uid);
+		}
+
+		return results;
+	}
+
+	/**
+	 * 批量分配需求
+	 * @param codes		需求编码列表
+	 * @param assignee	被分配者 UID
+	 * @param uid		更新人 UID
+	 * @return 需求编码 -> 错误码，null 表示成功
+	 */
+	@Override
+	@Transactional(rollbackFor = Exception.class)
+	public Map<String, ClientErrorCode> assignAll(List<String> codes, String assignee, String uid) {
+		Map<String, ClientErrorCode> results = new LinkedHashMap<>();
+		// 被分配者需要在当前状态具有权限，分配给自己时不重复检查
+		List<String> assignees = uid.equals(assignee) ? Collections.<String>emptyList() : Collections.singletonList(assignee);
+		this.groupModifiable(codes, assignees, UnaryOperator.identity(), uid, results).forEach((currentStatus, group) ->
+				this.requirementCommandRepository.assignOperatorsByCodes(group, currentStatus, Collections.singletonList(assignee), uid)
+		);
+		return results;
+	}
+
+	/**
+	 * 批量加载需求并校验，校验结果写入 results，去除重复的编码
+	 * @param codes		需求编码列表
+	 * @param operators	需要在下一个状态具有权限的用户 UID
+	 * @param nextState	当前状态 -> 下一个状态
+	 * @param uid		更新人 UID
+	 * @param results	需求编码 -> 错误码
+	 * @return 当前状态 -> 通过校验的需求编码
+	 */
+	private Map<RequirementStatus, List<String>> groupModifiable(List<String> codes, Collection<String> operators,
+															   UnaryOperator<RequirementStatus> nextState, String uid,
+															   Map<String, ClientErrorCode> results) {
+		Map<String, Requirement> requirements = this.requirementQueryRepository.getRequirementsByCodes(codes);
+		// 用户和下一个操作人的角色各只查询一次
+		int userRoleMask = this.userQueryRepository.getUserRoleMask(uid);
+		Map<String, Integer> operatorRoleMasks = this.userQueryRepository.getUserRoleMasksByUids(operators);
+		Map<RequirementStatus, List<String>> groups = new EnumMap<>(RequirementStatus.class);
+		for(String code: codes) {
+			if(results.containsKey(code)) {
+				continue;
+			}
+			Requirement existingRequirement = requirements.get(code);
+			if (existingRequirement == null) {
+				log.warn("Requirement not found: {}", code);
+				results.put(code, ClientErrorCode.ERROR_1420);
+				continue;
+			}
+
+			// 检查需求状态是否允许修改
+			RequirementStatus currentStatus = RequirementStatus.valueOf(existingRequirement.getStatus());
+			if (!isModifiable(currentStatus)) {
+				log.warn("Requirement {} status does not allow modification: {}", code, currentStatus);
+				results.put(code, ClientErrorCode.ERROR_1422);
+				continue;
+			}
+
+			// 检查用户是否有权限修改需求
+			if (!hasPermissionToModify(currentStatus, userRoleMask)) {
+				log.warn("User {} does not have permission to modify requirement in status {}", uid, currentStatus);
+				results.put(code, ClientErrorCode.ERROR_1491);
+				continue;
+			}
+
+			// 检查下一个操作人是否有权限接受需求
+			RequirementStatus nextStatus = nextState.apply(currentStatus);
+			String forbidden = operators.stream()
+					.filter(operator -> !hasPermissionToModify(nextStatus, operatorRoleMasks.getOrDefault(operator, 0)))
+					.findFirst().orElse(null);
+			if(forbidden != null) {
+				log.warn("Next operator {} does not have permission to modify requirement in next status {}", forbidden, nextStatus);
+				results.put(code, ClientErrorCode.ERROR_1492);
+				continue;
+			}
+
+			results.put(code, null);
+			groups.computeIfAbsent(currentStatus, status -> new ArrayList<>()).add(code);
+		}
+		return groups;
+	}
+
+	/**
+	 * 批量操作中有需求的状态已被其他人修改时回滚整个批次，原本成功的需求标记为需要重试
+	 * @param results	需求编码 -> 错误码
+	 * @return 需求编码 -> 错误码
+	 */
+	private static Map<String, ClientErrorCode> rollbackConflicted(Map<String, ClientErrorCode> results) {
+		TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+		results.replaceAll((code, errorCode) -> errorCode == null ? ClientErrorCode.ERROR_1496 : errorCode);
+		return results;
+	}
+
 	/**
 	 * 检查需求状态是否允许修改
 	 * @param status	需求状态
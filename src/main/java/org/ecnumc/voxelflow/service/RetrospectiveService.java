@@ -1,10 +1,13 @@
 package org.ecnumc.voxelflow.service;
 
 import lombok.extern.slf4j.Slf4j;
+import org.ecnumc.voxelflow.bo.ApprovalStateBo;
+import org.ecnumc.voxelflow.bo.CursorPageBo;
 import org.ecnumc.voxelflow.converter.CamelToSnakeConverter;
 import org.ecnumc.voxelflow.converter.RetrospectiveConverter;
 import org.ecnumc.voxelflow.enumeration.*;
 import org.ecnumc.voxelflow.po.Retrospective;
+import org.ecnumc.voxelflow.repository.ListCountRepository;
 import org.ecnumc.voxelflow.repository.RetrospectiveCommandRepository;
 import org.ecnumc.voxelflow.repository.RetrospectiveQueryRepository;
 import org.ecnumc.voxelflow.repository.UserQueryRepository;
@@ -12,11 +15,17 @@ import org.ecnumc.voxelflow.resp.PagedResp;
 import org.ecnumc.voxelflow.resp.RetrospectiveResp;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
 
 import javax.annotation.Nullable;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 /**
@@ -43,6 +52,9 @@ public class RetrospectiveService implements Queryable<RetrospectiveResp>, Appro
 	@Autowired
 	private RetrospectiveConverter retrospectiveConverter;
 
+	@Autowired
+	private ListCountRepository listCountRepository;
+
 	@Autowired
 	private CamelToSnakeConverter camelToSnakeConverter;
 
@@ -84,24 +96,65 @@ public class RetrospectiveService implements Queryable<RetrospectiveResp>, Appro
 	 * @param priority	优先级（复盘单不支持，忽略此参数）
 	 * @param pageNum	页码
 	 * @param pageSize	页大小
+	 * @param countMode	总数统计方式
 	 * @return 复盘响应列表
 	 */
 	@Override
 	public PagedResp<RetrospectiveResp> list(@Nullable String title, @Nullable String status, @Nullable Integer priority,
-											 int pageNum, int pageSize, @Nullable String orderBy, @Nullable String orderDir) {
+											 int pageNum, int pageSize, @Nullable String orderBy, @Nullable String orderDir, CountMode countMode) {
 		// 处理标题关键词，将标题按空格分割成若干个关键词喵~
 		List<String> titles = (title != null && !title.trim().isEmpty()) ?
 				Arrays.asList(title.trim().split("\\s+")) : Collections.emptyList();
 
-		List<RetrospectiveResp> retrospectives = this.retrospectiveQueryRepository
-				.list(titles, status, pageNum, pageSize, this.camelToSnakeConverter.convert(orderBy), orderDir)
-				.stream()
+		List<Retrospective> rows = this.retrospectiveQueryRepository
+				.list(titles, status, pageNum, pageSize, this.camelToSnakeConverter.convert(orderBy), orderDir);
+		boolean hasMore = rows.size() > pageSize;
+		List<RetrospectiveResp> retrospectives = rows.stream()
+				.limit(pageSize)
 				.map(this.retrospectiveConverter::convertToResp)
 				.collect(Collectors.toList());
-		int total = this.retrospectiveQueryRepository.listCount(titles, status);
+		int total = this.listCountRepository.count(
+				"retrospective", Arrays.asList(titles, status), countMode, pageNum, pageSize, retrospectives.size(), hasMore,
+				() -> this.retrospectiveQueryRepository.listCount(titles, status)
+		);
 		return PagedResp.<RetrospectiveResp>builder()
 				.pageNum(pageNum).pageSize(pageSize).total(total)
-				.list(retrospectives)
+				.list(retrospectives).hasMore(hasMore)
+				.build();
+	}
+
+	/**
+	 * 游标分页查询复盘，不统计总数
+	 * @param title		复盘标题关键词
+	 * @param status	复盘状态
+	 * @param priority	优先级（复盘无优先级，忽略）
+	 * @param pageSize	页大小
+	 * @param orderBy	排序字段
+	 * @param orderDir	排序方向
+	 * @param cursor	上一页返回的游标，null 或空字符串表示第一页
+	 * @return 复盘响应列表，游标无效时返回 null
+	 */
+	@Nullable
+	@Override
+	public PagedResp<RetrospectiveResp> listByCursor(@Nullable String title, @Nullable String status, @Nullable Integer priority,
+										int pageSize, @Nullable String orderBy, @Nullable String orderDir, @Nullable String cursor) {
+		// 处理标题关键词，将标题按空格分割成若干个关键词喵~
+		List<String> titles = (title != null && !title.trim().isEmpty()) ?
+				Arrays.asList(title.trim().split("\\s+")) : Collections.emptyList();
+
+		CursorPageBo<Retrospective> page;
+		try {
+			page = this.retrospectiveQueryRepository.listByCursor(
+					titles, status, pageSize, this.camelToSnakeConverter.convert(orderBy), orderDir, cursor
+			);
+		} catch (IllegalArgumentException e) {
+			log.warn("Invalid cursor {}: {}", cursor, e.getMessage());
+			return null;
+		}
+		return PagedResp.<RetrospectiveResp>builder()
+				.pageSize(pageSize).total(-1)
+				.list(page.getList().stream().map(this.retrospectiveConverter::convertToResp).collect(Collectors.toList()))
+				.nextCursor(page.getNextCursor()).hasMore(page.getNextCursor() != null)
 				.build();
 	}
 
@@ -144,16 +197,17 @@ public class RetrospectiveService implements Queryable<RetrospectiveResp>, Appro
 	 * @return 错误码，null 表示成功
 	 */
 	@Override @Nullable
+	@Transactional(rollbackFor = Exception.class)
 	public ClientErrorCode approve(String code, List<String> nextOperators, String description, String uid) {
-		// 获取原有复盘
-		Retrospective existingRetrospective = this.retrospectiveQueryRepository.getRetrospectiveByCode(code);
-		if (existingRetrospective == null) {
+		// 获取复盘的当前状态和待处理的责任人，一次查询完成
+		ApprovalStateBo state = this.retrospectiveQueryRepository.getApprovalState(code);
+		if (state == null) {
 			log.warn("Retrospective not found: {}", code);
 			return ClientErrorCode.ERROR_1450;
 		}
 
 		// 检查复盘状态是否允许修改
-		RetrospectiveStatus currentStatus = RetrospectiveStatus.valueOf(existingRetrospective.getStatus());
+		RetrospectiveStatus currentStatus = RetrospectiveStatus.valueOf(state.getStatus());
 		if (!isModifiable(currentStatus)) {
 			log.warn("Retrospective status does not allow modification: {}", currentStatus);
 			return ClientErrorCode.ERROR_1452;
@@ -161,22 +215,21 @@ public class RetrospectiveService implements Queryable<RetrospectiveResp>, Appro
 
 		RetrospectiveStatus nextStatus = currentStatus.next();
 
-		boolean update = false;
-		if(currentStatus.waitingForAllApprovals()) {
-			if(this.retrospectiveQueryRepository.getPendingRelationCount(code, currentStatus) == 0) {
-				update = true;
+		// 会签状态下还有其他人未审批时，只记录当前用户的审批。
+		// getApprovalState 已锁定复盘，同时审批的最后两人中后执行的一方会看到先提交的审批，由它推进状态
+		if(currentStatus.waitingForAllApprovals() && state.getPendingUids().stream().anyMatch(pending -> !pending.equals(uid))) {
+			if(!this.retrospectiveCommandRepository.updateRelation(code, currentStatus, description, RelationType.APPROVED, uid)) {
+				log.warn("User {} has no pending approval on retrospective {} in status {}", uid, code, currentStatus);
+				return ClientErrorCode.ERROR_1491;
 			}
-		} else {
-			update = true;
-			this.retrospectiveCommandRepository.skipRemainingRelations(code, currentStatus, uid);
+			return null;
 		}
 
-		this.retrospectiveCommandRepository.updateRelation(code, currentStatus, description, RelationType.APPROVED, uid);
-		if(update) {
-			// 更新需求
-			this.retrospectiveCommandRepository.updateStatus(code, currentStatus, nextStatus, uid);
-			this.retrospectiveCommandRepository.assignOperators(code, nextStatus, nextOperators, uid);
+		// 更新处理关系和复盘状态，状态已被其他人修改时由用户刷新后重试
+		if(!this.retrospectiveCommandRepository.approve(code, currentStatus, nextStatus, description, uid)) {
+			return ClientErrorCode.ERROR_1496;
 		}
+		this.retrospectiveCommandRepository.assignOperators(code, nextStatus, nextOperators, uid);
 
 		return null;
 	}
@@ -190,6 +243,7 @@ public class RetrospectiveService implements Queryable<RetrospectiveResp>, Appro
 	 * @return 错误码，null 表示成功
 	 */
 	@Override @Nullable
+	@Transactional(rollbackFor = Exception.class)
 	public ClientErrorCode reject(String code, List<String> nextOperators, String description, String uid) {
 		// 获取原有复盘
 		Retrospective existingRetrospective = this.retrospectiveQueryRepository.getRetrospectiveByCode(code);
@@ -207,8 +261,10 @@ public class RetrospectiveService implements Queryable<RetrospectiveResp>, Appro
 
 		RetrospectiveStatus nextStatus = RetrospectiveStatus.CANCELED;
 
-		// 更新复盘
-		this.retrospectiveCommandRepository.updateRelation(code, currentStatus, description, RelationType.REJECTED, uid);
+		// 记录拒绝，状态已被其他人修改时由用户刷新后重试
+		if(!this.retrospectiveCommandRepository.reject(code, currentStatus, description, uid)) {
+			return ClientErrorCode.ERROR_1496;
+		}
 		this.retrospectiveCommandRepository.assignOperators(code, nextStatus, nextOperators, uid);
 
 		return null;
@@ -267,6 +323,142 @@ public class RetrospectiveService implements Queryable<RetrospectiveResp>, Appro
 		return this.retrospectiveCommandRepository.unassignOperator(code, currentStatus, assignee, uid) ? ClientErrorCode.ERROR_1492 : null;
 	}
 
+	/**
+	 * 批量批准复盘
+	 * @param codes			复盘编码列表
+	 * @param nextOperators	下一个操作人 UID
+	 * @param description	描述（同意理由）
+	 * @param uid			更新人 UID
+	 * @return 复盘编码 -> 错误码，null 表示成功
+	 */
+	@Override
+	@Transactional(rollbackFor = Exception.class)
+	public Map<String, ClientErrorCode> approveAll(List<String> codes, List<String> nextOperators, String description, String uid) {
+		Map<String, ClientErrorCode> results = new LinkedHashMap<>();
+		// 同一状态的复盘合并为一组批量更新
+		for(Map.Entry<RetrospectiveStatus, List<String>> entry: this.groupModifiable(codes, results).entrySet()) {
+			RetrospectiveStatus currentStatus = entry.getKey();
+			List<String> group = entry.getValue();
+			RetrospectiveStatus nextStatus = currentStatus.next();
+			// 先记录当前用户的审批，会签状态下只推进其他人都已审批的复盘。
+			// 会签时先锁定复盘，并用加锁读统计待处理关系，同时审批的最后两人中后执行的一方负责推进状态
+			if(currentStatus.waitingForAllApprovals()) {
+				this.retrospectiveQueryRepository.lockByCodes(group);
+			}
+			this.retrospectiveCommandRepository.updateRelationsByCodes(group, currentStatus, description, RelationType.APPROVED, uid);
+			List<String> advancing = group;
+			if(currentStatus.waitingForAllApprovals()) {
+				Map<String, Integer> pendingCounts = this.retrospectiveQueryRepository.getPendingRelationCounts(group, currentStatus);
+				advancing = group.stream()
+						.filter(code -> pendingCounts.getOrDefault(code, 0) == 0)
+						.collect(Collectors.toList());
+			} else {
+				this.retrospectiveCommandRepository.skipRemainingRelationsByCodes(group, currentStatus, uid);
+			}
+			if(!advancing.isEmpty()) {
+				// 更新复盘，有复盘的状态已被其他人修改时整批回滚
+				if(this.retrospectiveCommandRepository.updateStatusByCodes(advancing, currentStatus, nextStatus, uid) < advancing.size()) {
+					return rollbackConflicted(results);
+				}
+				this.retrospectiveCommandRepository.assignOperatorsByCodes(advancing, nextStatus, nextOperators, uid);
+			}
+		}
+
+		return results;
+	}
+
+	/**
+	 * 批量拒绝复盘
+	 * @param codes			复盘编码列表
+	 * @param nextOperators	下一个操作人 UID
+	 * @param description	描述（拒绝理由）
+	 * @param uid			更新人 UID
+	 * @return 复盘编码 -> 错误码，null 表示成功
+	 */
+	@Override
+	@Transactional(rollbackFor = Exception.class)
+	public Map<String, ClientErrorCode> rejectAll(List<String> codes, List<String> nextOperators, String description, String uid) {
+		Map<String, ClientErrorCode> results = new LinkedHashMap<>();
+		for(Map.Entry<RetrospectiveStatus, List<String>> entry: this.groupModifiable(codes, results).entrySet()) {
+			RetrospectiveStatus currentStatus = entry.getKey();
+			List<String> group = entry.getValue();
+			RetrospectiveStatus nextStatus = RetrospectiveStatus.CANCELED;
+
+			// 确认复盘仍处于当前状态，有复盘的状态已被其他人修改时整批回滚
+			if(this.retrospectiveCommandRepository.updateStatusByCodes(group, currentStatus, currentStatus, uid) < group.size()) {
+				return rollbackConflicted(results);
+			}
+
+			// 更新复盘
+			this.retrospectiveCommandRepository.updateRelationsByCodes(group, currentStatus, description, RelationType.REJECTED, uid);
+			this.retrospectiveCommandRepository.assignOperatorsByCodes(group, nextStatus, nextOperators, uid);
+		}
+
+		return results;
+	}
+
+	/**
+	 * 批量分配复盘
+	 * @param codes		复盘编码列表
+	 * @param assignee	被分配者 UID
+	 * @param uid		更新人 UID
+	 * @return 复盘编码 -> 错误码，null 表示成功
+	 */
+	@Override
+	@Transactional(rollbackFor = Exception.class)
+	public Map<String, ClientErrorCode> assignAll(List<String> codes, String assignee, String uid) {
+		Map<String, ClientErrorCode> results = new LinkedHashMap<>();
+		this.groupModifiable(codes, results).forEach((currentStatus, group) ->
+				this.retrospectiveCommandRepository.assignOperatorsByCodes(group, currentStatus, Collections.singletonList(assignee), uid)
+		);
+		return results;
+	}
+
+	/**
+	 * 批量加载复盘并校验，校验结果写入 results，去除重复的编码
+	 * @param codes		复盘编码列表
+	 * @param results	复盘编码 -> 错误码
+	 * @return 当前状态 -> 通过校验的复盘编码
+	 */
+	private Map<RetrospectiveStatus, List<String>> groupModifiable(List<String> codes, Map<String, ClientErrorCode> results) {
+		Map<String, Retrospective> retrospectives = this.retrospectiveQueryRepository.getRetrospectivesByCodes(codes);
+		Map<RetrospectiveStatus, List<String>> groups = new EnumMap<>(RetrospectiveStatus.class);
+		for(String code: codes) {
+			if(results.containsKey(code)) {
+				continue;
+			}
+			Retrospective existingRetrospective = retrospectives.get(code);
+			if (existingRetrospective == null) {
+				log.warn("Retrospective not found: {}", code);
+				results.put(code, ClientErrorCode.ERROR_1450);
+				continue;
+			}
+
+			// 检查复盘状态是否允许修改
+			RetrospectiveStatus currentStatus = RetrospectiveStatus.valueOf(existingRetrospective.getStatus());
+			if (!isModifiable(currentStatus)) {
+				log.warn("Retrospective {} status does not allow modification: {}", code, currentStatus);
+				results.put(code, ClientErrorCode.ERROR_1452);
+				continue;
+			}
+
+			results.put(code, null);
+			groups.computeIfAbsent(currentStatus, status -> new ArrayList<>()).add(code);
+		}
+		return groups;
+	}
+
+	/**
+	 * 批量操作中有复盘的状态已被其他人修改时回滚整个批次，原本成功的复盘标记为需要重试
+	 * @param results	复盘编码 -> 错误码
+	 * @return 复盘编码 -> 错误码
+	 */
+	private static Map<String, ClientErrorCode> rollbackConflicted(Map<String, ClientErrorCode> results) {
+		TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+		results.replaceAll((code, errorCode) -> errorCode == null ? ClientErrorCode.ERROR_1496 : errorCode);
+		return results;
+	}
+
 	/**
 	 * 检查复盘状态是否允许修改
 	 * @param status	复盘状态
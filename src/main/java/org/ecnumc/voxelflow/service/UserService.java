@@ -1,11 +1,14 @@
 package org.ecnumc.voxelflow.service;
 
 import lombok.extern.slf4j.Slf4j;
+import org.ecnumc.voxelflow.bo.CursorPageBo;
 import org.ecnumc.voxelflow.converter.UserConverter;
 import org.ecnumc.voxelflow.enumeration.ClientErrorCode;
+import org.ecnumc.voxelflow.enumeration.CountMode;
 import org.ecnumc.voxelflow.enumeration.UserRole;
 import org.ecnumc.voxelflow.enumeration.UserStatus;
 import org.ecnumc.voxelflow.po.User;
+import org.ecnumc.voxelflow.repository.ListCountRepository;
 import org.ecnumc.voxelflow.repository.UserCommandRepository;
 import org.ecnumc.voxelflow.repository.UserQueryRepository;
 import org.ecnumc.voxelflow.repository.UserValidationRepository;
@@ -17,6 +20,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Nullable;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 import java.util.UUID;
@@ -38,6 +42,9 @@ public class UserService {
 	@Autowired
 	private UserValidationRepository userValidationRepository;
 
+	@Autowired
+	private ListCountRepository listCountRepository;
+
 	@Autowired
 	private UserConverter userConverter;
 
@@ -49,25 +56,62 @@ public class UserService {
 	 * @param status		用户状态
 	 * @param pageNum		页码
 	 * @param pageSize		每页大小
+	 * @param countMode		总数统计方式
 	 * @param uid			操作用户 ID（需要超级管理员权限）
 	 * @return 分页的用户列表，如果权限不足则返回 null
 	 */
 	@Nullable
 	public PagedResp<UserResp> list(@Nullable String username, @Nullable String emailVerified, @Nullable String status,
-									int pageNum, int pageSize, String uid) {
-		List<UserRole> userRoles = this.userQueryRepository.getUserRoles(uid);
+									int pageNum, int pageSize, CountMode countMode, String uid) {
+		int userRoleMask = this.userQueryRepository.getUserRoleMask(uid);
 
 		// 检查用户是否有权限查询用户，只有超级管理员可以查询
-		if (!userRoles.contains(UserRole.SUPER_ADMIN)) {
+		if (!UserRole.SUPER_ADMIN.isIn(userRoleMask)) {
 			log.warn("User {} does not have permission to query user list", uid);
 			return null;
 		}
 
+		List<User> rows = this.userQueryRepository.list(username, emailVerified, status, pageNum, pageSize);
+		boolean hasMore = rows.size() > pageSize;
+		List<UserResp> users = rows.stream().limit(pageSize).map(this.userConverter::convertToResp).collect(Collectors.toList());
 		return PagedResp.<UserResp>builder()
 				.pageNum(pageNum).pageSize(pageSize)
-				.total(this.userQueryRepository.listCount(username, emailVerified, status))
-				.list(this.userQueryRepository.list(username, emailVerified, status, pageNum, pageSize)
-						.stream().map(this.userConverter::convertToResp).collect(Collectors.toList()))
+				.total(this.listCountRepository.count(
+						"user", Arrays.asList(username, emailVerified, status), countMode, pageNum, pageSize, users.size(), hasMore,
+						() -> this.userQueryRepository.listCount(username, emailVerified, status)
+				))
+				.list(users).hasMore(hasMore)
+				.build();
+	}
+
+	/**
+	 * 游标分页查询用户列表，不统计总数喵~
+	 *
+	 * @param username		用户名关键字
+	 * @param emailVerified	邮箱验证状态
+	 * @param status		用户状态
+	 * @param pageSize		每页大小
+	 * @param cursor		上一页返回的游标，null 或空字符串表示第一页
+	 * @param uid			操作用户 ID（需要超级管理员权限）
+	 * @return 分页的用户列表，如果权限不足则返回 null
+	 * @throws IllegalArgumentException 游标无效
+	 */
+	@Nullable
+	public PagedResp<UserResp> listByCursor(@Nullable String username, @Nullable String emailVerified, @Nullable String status,
+											int pageSize, @Nullable String cursor, String uid) {
+		int userRoleMask = this.userQueryRepository.getUserRoleMask(uid);
+
+		// 检查用户是否有权限查询用户，只有超级管理员可以查询
+		if (!UserRole.SUPER_ADMIN.isIn(userRoleMask)) {
+			log.warn("User {} does not have permission to query user list", uid);
+			return null;
+		}
+
+		CursorPageBo<User> page = this.userQueryRepository.listByCursor(username, emailVerified, status, pageSize, cursor);
+		return PagedResp.<UserResp>builder()
+				.pageSize(pageSize).total(-1)
+				.list(page.getList().stream().map(this.userConverter::convertToResp).collect(Collectors.toList()))
+				.nextCursor(page.getNextCursor()).hasMore(page.getNextCursor() != null)
 				.build();
 	}
 
@@ -123,10 +167,10 @@ public class UserService {
 	 */
 	@Nullable
 	public ClientErrorCode ban(String toBan, String uid) {
-		List<UserRole> userRoles = this.userQueryRepository.getUserRoles(uid);
+		int userRoleMask = this.userQueryRepository.getUserRoleMask(uid);
 
 		// 检查用户是否有权限封禁用户，只有超级管理员可以封禁
-		if (!userRoles.contains(UserRole.SUPER_ADMIN)) {
+		if (!UserRole.SUPER_ADMIN.isIn(userRoleMask)) {
 			log.warn("User {} does not have permission to ban {}", uid, toBan);
 			return ClientErrorCode.ERROR_1491;
 		}
@@ -145,10 +189,10 @@ public class UserService {
 	 */
 	@Nullable
 	public ClientErrorCode delete(String toDel, String uid) {
-		List<UserRole> userRoles = this.userQueryRepository.getUserRoles(uid);
+		int userRoleMask = this.userQueryRepository.getUserRoleMask(uid);
 
 		// 检查用户是否有权限注销，自己可以注销自己，超级管理员可以注销任意用户
-		if (!Objects.equals(toDel, uid) && !userRoles.contains(UserRole.SUPER_ADMIN)) {
+		if (!Objects.equals(toDel, uid) && !UserRole.SUPER_ADMIN.isIn(userRoleMask)) {
 			log.warn("User {} does not have permission to delete {}", uid, toDel);
 			return ClientErrorCode.ERROR_1491;
 		}
@@ -166,7 +210,7 @@ public class UserService {
 	 */
 	public RolesResp getRoles(String uid) {
 		return RolesResp.builder().roles(
-				this.userQueryRepository.getUserRoles(uid)
+				UserRole.fromMask(this.userQueryRepository.getUserRoleMask(uid))
 						.stream()
 						.map(UserRole::name)
 						.collect(Collectors.toList())
@@ -182,10 +226,10 @@ public class UserService {
 	 */
 	@Nullable
 	public ClientErrorCode grantRole(String toGrant, String role, String uid) {
-		List<UserRole> userRoles = this.userQueryRepository.getUserRoles(uid);
+		int userRoleMask = this.userQueryRepository.getUserRoleMask(uid);
 
 		// 检查用户是否有权限授予角色，只有超级管理员可以授予
-		if (!userRoles.contains(UserRole.SUPER_ADMIN)) {
+		if (!UserRole.SUPER_ADMIN.isIn(userRoleMask)) {
 			log.warn("User {} does not have permission to grant role {} to {}", uid, role, toGrant);
 			return ClientErrorCode.ERROR_1491;
 		}
@@ -218,10 +262,10 @@ public class UserService {
 	 */
 	@Nullable
 	public ClientErrorCode revokeRole(String toRevoke, String role, String uid) {
-		List<UserRole> userRoles = this.userQueryRepository.getUserRoles(uid);
+		int userRoleMask = this.userQueryRepository.getUserRoleMask(uid);
 
 		// 检查用户是否有权限移除角色，只有超级管理员可以移除
-		if (!userRoles.contains(UserRole.SUPER_ADMIN)) {
+		if (!UserRole.SUPER_ADMIN.isIn(userRoleMask)) {
 			log.warn("User {} does not have permission to revoke role {} from {}", uid, role, toRevoke);
 			return ClientErrorCode.ERROR_1491;
 		}
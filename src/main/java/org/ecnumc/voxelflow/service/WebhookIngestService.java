@@ -0,0 +1,108 @@
+package org.ecnumc.voxelflow.service;
+
+import com.alibaba.fastjson.JSONObject;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Webhook 异步处理服务，推送事件先进入有界队列，再由后台线程池写入数据库喵~
+ * <p>
+ * 队列已满时拒绝新的推送，由调用方返回 503 让 GitHub 稍后重试。
+ * </p>
+ *
+ * @author liudongyu
+ */
+@Service
+@Slf4j
+public class WebhookIngestService {
+	@Autowired
+	private CommitCommandService commitCommandService;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Value("${voxelflow.webhook.worker-threads:2}")
+	private int workerThreads;
+
+	@Value("${voxelflow.webhook.queue-capacity:256}")
+	private int queueCapacity;
+
+	private ThreadPoolExecutor executor;
+
+	/**
+	 * 推送事件从入队到开始处理的等待时间
+	 */
+	private Timer lagTimer;
+
+	/**
+	 * 推送事件的处理时间
+	 */
+	private Timer processTimer;
+
+	@PostConstruct
+	public void init() {
+		AtomicInteger threadIndex = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(
+				this.workerThreads, this.workerThreads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(this.queueCapacity),
+				runnable -> new Thread(runnable, "webhook-ingest-" + threadIndex.incrementAndGet()),
+				new ThreadPoolExecutor.AbortPolicy()
+		);
+		Gauge.builder("voxelflow.webhook.queue.depth", this.executor, e -> e.getQueue().size())
+				.description("Webhook payloads waiting to be processed")
+				.register(this.meterRegistry);
+		this.lagTimer = Timer.builder("voxelflow.webhook.queue.lag")
+				.description("Time between accepting a webhook payload and starting to process it")
+				.register(this.meterRegistry);
+		this.processTimer = Timer.builder("voxelflow.webhook.process")
+				.description("Time spent processing a webhook payload")
+				.register(this.meterRegistry);
+	}
+
+	@PreDestroy
+	public void destroy() throws InterruptedException {
+		// 停止接收新的推送，并尽量处理完已入队的推送
+		this.executor.shutdown();
+		if(!this.executor.awaitTermination(30L, TimeUnit.SECONDS)) {
+			log.warn("{} webhook payloads dropped on shutdown", this.executor.shutdownNow().size());
+		}
+	}
+
+	/**
+	 * 提交推送事件，异步处理
+	 * @param payload	推送代码的参数
+	 * @return 是否成功入队，队列已满时返回 false
+	 */
+	public boolean submitPush(JSONObject payload) {
+		long enqueuedAt = System.nanoTime();
+		try {
+			this.executor.execute(() -> {
+				this.lagTimer.record(System.nanoTime() - enqueuedAt, TimeUnit.NANOSECONDS);
+				this.processTimer.record(() -> {
+					try {
+						this.commitCommandService.push(payload);
+					} catch (Exception e) {
+						log.error("Failed to process push payload:", e);
+					}
+				});
+			});
+			return true;
+		} catch (RejectedExecutionException e) {
+			log.warn("Webhook queue is full, rejecting push payload");
+			return false;
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package org.ecnumc.voxelflow.util;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 标题全文检索工具类，基于 (title, description) 上的 ngram FULLTEXT 索引喵~
+ * <p>
+ * 关键词以 BOOLEAN MODE 的 {@code +"关键词"} 形式组合，所有关键词都需要匹配（AND 关系）。
+ * 短于 ngram 分词长度的关键词无法命中全文索引，退化为标题的 LIKE 匹配。
+ * </p>
+ * <p>
+ * 索引建立时需要关闭 InnoDB 停用词（{@code innodb_ft_enable_stopword=OFF}），否则 ngram 会丢弃包含停用词的分词，
+ * 例如 login 中的 in，英文关键词因此无法命中，见 {@code V1__fulltext_title_search.sql}。
+ * </p>
+ *
+ * @author liudongyu
+ */
+public final class FullTextSearch {
+	/**
+	 * 与 MySQL 的 ngram_token_size 保持一致（默认 2），索引需在关闭停用词的会话中建立
+	 */
+	private static final int NGRAM_TOKEN_SIZE = 2;
+
+	private static final String MATCH_COLUMNS = "MATCH(title, description)";
+
+	private FullTextSearch() {
+	}
+
+	/**
+	 * 添加关键词检索条件
+	 * @param queryWrapper	查询
+	 * @param keywords		关键词列表
+	 * @param <T>			实体类型
+	 * @return 查询
+	 */
+	public static <T> QueryWrapper<T> match(QueryWrapper<T> queryWrapper, List<String> keywords) {
+		String against = against(keywords);
+		if(!against.isEmpty()) {
+			queryWrapper.apply(MATCH_COLUMNS + " AGAINST({0} IN BOOLEAN MODE)", against);
+		}
+		for(String keyword: keywords) {
+			String term = sanitize(keyword);
+			if(!term.isEmpty() && term.length() < NGRAM_TOKEN_SIZE) {
+				queryWrapper.like("title", term);
+			}
+		}
+		return queryWrapper;
+	}
+
+	/**
+	 * 按相关度倒序排序，需要与 {@link #match} 使用相同的关键词
+	 * @param queryWrapper	查询
+	 * @param keywords		关键词列表
+	 * @param <T>			实体类型
+	 * @return 查询
+	 */
+	public static <T> QueryWrapper<T> orderByRelevance(QueryWrapper<T> queryWrapper, List<String> keywords) {
+		String against = against(keywords);
+		if(!against.isEmpty()) {
+			// ORDER BY 无法绑定参数，关键词已经过 sanitize，只包含字母、数字、空格和双引号
+			queryWrapper.orderByDesc(MATCH_COLUMNS + " AGAINST('" + against + "' IN BOOLEAN MODE)");
+		}
+		return queryWrapper;
+	}
+
+	/**
+	 * 生成 BOOLEAN MODE 检索串
+	 * @param keywords	关键词列表
+	 * @return 检索串，没有可用于全文索引的关键词时返回空字符串
+	 */
+	private static String against(List<String> keywords) {
+		List<String> terms = new ArrayList<>();
+		for(String keyword: keywords) {
+			String term = sanitize(keyword);
+			if(term.length() >= NGRAM_TOKEN_SIZE) {
+				terms.add("+\"" + term + "\"");
+			}
+		}
+		return String.join(" ", terms);
+	}
+
+	/**
+	 * 将关键词中的 BOOLEAN MODE 运算符、引号等替换为空格，只保留字母、数字和单个空格
+	 * @param keyword	关键词
+	 * @return 处理后的关键词
+	 */
+	private static String sanitize(String keyword) {
+		StringBuilder builder = new StringBuilder(keyword.length());
+		keyword.codePoints().forEach(c -> {
+			if(Character.isLetterOrDigit(c)) {
+				builder.appendCodePoint(c);
+			} else if(builder.length() > 0 && builder.charAt(builder.length() - 1) != ' ') {
+				builder.append(' ');
+			}
+		});
+		return builder.toString().trim();
+	}
+}
@@ -2,7 +2,6 @@ package org.ecnumc.voxelflow.util;
 
 import org.ecnumc.voxelflow.enumeration.UserRole;
 
-import java.util.List;
 import java.util.Set;
 
 /**
@@ -18,25 +17,20 @@ public interface IOperableStatus {
 	 */
 	Set<UserRole> getOperableRoles();
 
+	/**
+	 * 获取当前状态下可操作角色的掩码，超级管理员总是包含在内喵~
+	 *
+	 * @return 可操作角色的掩码喵~
+	 */
+	int getOperableRoleMask();
+
 	/**
 	 * 检查用户是否有权限修改需求
-	 * @param status	需求状态
-	 * @param userRoles	用户角色
+	 * @param status		需求状态
+	 * @param userRoleMask	用户角色掩码
 	 * @return 是否有权限修改
 	 */
-	static boolean hasPermissionToModify(IOperableStatus status, List<UserRole> userRoles) {
-		// 超级管理员拥有所有权限
-		if (userRoles.contains(UserRole.SUPER_ADMIN)) {
-			return true;
-		}
-
-		// 获取当前状态下可操作的角色
-		for (UserRole role : userRoles) {
-			if (status.getOperableRoles().contains(role)) {
-				return true;
-			}
-		}
-
-		return false;
+	static boolean hasPermissionToModify(IOperableStatus status, int userRoleMask) {
+		return (status.getOperableRoleMask() & userRoleMask) != 0;
 	}
 }
@@ -0,0 +1,142 @@
+package org.ecnumc.voxelflow.util;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.google.common.collect.ImmutableMap;
+import org.ecnumc.voxelflow.bo.CursorPageBo;
+
+import javax.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * 游标分页工具类，按 (排序字段, id) 定位上一页的最后一条记录，翻到任意深度的页都只需扫描一页的数据喵~
+ * <p>
+ * 游标对客户端不透明，内容为排序字段、排序方向、最后一条记录的排序值和 id 的 Base64 编码 JSON。
+ * 解码时按排序字段校验排序值的类型，客户端伪造的游标不会以错误的类型参与比较。
+ * </p>
+ *
+ * @author liudongyu
+ */
+public final class KeysetCursor {
+	/**
+	 * 排序字段 -> 排序值类型，未列出的排序字段为字符串；新增非字符串的排序字段时需要在此登记
+	 */
+	private static final Map<String, Class<?>> VALUE_TYPES = ImmutableMap.of(
+			"updated_at", Date.class,
+			"created_at", Date.class,
+			"priority", Integer.class
+	);
+
+	private final String column;
+	private final boolean asc;
+	private final Object value;
+	private final long id;
+
+	private KeysetCursor(String column, boolean asc, Object value, long id) {
+		this.column = column;
+		this.asc = asc;
+		this.value = value;
+		this.id = id;
+	}
+
+	/**
+	 * 按游标查询一页数据：添加定位条件、按 (排序字段, id) 排序，并多查一条用于判断是否还有下一页喵~
+	 * @param queryWrapper	已包含筛选条件的查询
+	 * @param column		排序字段，必须已经过白名单校验且不可为 NULL
+	 * @param asc			是否升序
+	 * @param cursor		上一页返回的游标，null 或空字符串表示第一页
+	 * @param pageSize		页大小
+	 * @param <T>			实体类型
+	 * @return 查询
+	 * @throws IllegalArgumentException 游标无效，或与本次的排序字段、方向不一致
+	 */
+	public static <T> QueryWrapper<T> seek(QueryWrapper<T> queryWrapper, String column, boolean asc,
+										   @Nullable String cursor, int pageSize) {
+		if(cursor != null && !cursor.isEmpty()) {
+			KeysetCursor decoded = decode(cursor);
+			if(!decoded.column.equals(column) || decoded.asc != asc) {
+				throw new IllegalArgumentException("Cursor does not match sort order");
+			}
+			Object value = decoded.value;
+			long id = decoded.id;
+			if(asc) {
+				queryWrapper.and(w -> w.gt(column, value).or(o -> o.eq(column, value).gt("id", id)));
+			} else {
+				queryWrapper.and(w -> w.lt(column, value).or(o -> o.eq(column, value).lt("id", id)));
+			}
+		}
+		if(asc) {
+			queryWrapper.orderByAsc(column).orderByAsc("id");
+		} else {
+			queryWrapper.orderByDesc(column).orderByDesc("id");
+		}
+		return queryWrapper.last("LIMIT " + (pageSize + 1));
+	}
+
+	/**
+	 * 将 {@link #seek} 查到的数据整理为一页，并生成下一页的游标喵~
+	 * @param rows			查询结果，最多 pageSize + 1 条
+	 * @param column		排序字段
+	 * @param asc			是否升序
+	 * @param pageSize		页大小
+	 * @param valueGetter	获取实体排序字段值的方法
+	 * @param idGetter		获取实体 id 的方法
+	 * @param <T>			实体类型
+	 * @return 一页数据
+	 */
+	public static <T> CursorPageBo<T> page(List<T> rows, String column, boolean asc, int pageSize,
+										   Function<T, Object> valueGetter, Function<T, Long> idGetter) {
+		if(rows.size() <= pageSize) {
+			return CursorPageBo.<T>builder().list(rows).nextCursor(null).build();
+		}
+		List<T> list = rows.subList(0, pageSize);
+		T last = list.get(pageSize - 1);
+		String nextCursor = new KeysetCursor(column, asc, valueGetter.apply(last), idGetter.apply(last)).encode();
+		return CursorPageBo.<T>builder().list(list).nextCursor(nextCursor).build();
+	}
+
+	/**
+	 * 编码游标
+	 * @return Base64 编码的游标
+	 */
+	private String encode() {
+		JSONObject json = new JSONObject();
+		json.put("c", this.column);
+		json.put("a", this.asc);
+		json.put("i", this.id);
+		if(this.value instanceof Date) {
+			json.put("d", ((Date) this.value).getTime());
+		} else {
+			json.put("v", this.value);
+		}
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(json.toJSONString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * 解码游标
+	 * @param cursor	Base64 编码的游标
+	 * @return 游标
+	 * @throws IllegalArgumentException 游标无效，或排序值的类型与排序字段不符
+	 */
+	private static KeysetCursor decode(String cursor) {
+		try {
+			JSONObject json = JSON.parseObject(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+			String column = Objects.requireNonNull(json.getString("c"));
+			Class<?> type = VALUE_TYPES.getOrDefault(column, String.class);
+			Object value = type == Date.class ? new Date(Objects.requireNonNull(json.getLong("d"))) : Objects.requireNonNull(json.get("v"));
+			if(!type.isInstance(value)) {
+				throw new IllegalArgumentException("Cursor value of " + column + " is not " + type.getSimpleName());
+			}
+			return new KeysetCursor(column, json.getBooleanValue("a"), value, json.getLongValue("i"));
+		} catch (RuntimeException e) {
+			throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package org.ecnumc.voxelflow.util;
+
+/**
+ * 统计当前线程发送到 Redis 的命令数喵~
+ * <p>
+ * 由 RedisRepository 和 RedisDistributedLock 在每次执行命令时累加，用法与 StatementCountInterceptor 相同：
+ * 两次调用 {@link #current()} 的差即为期间的 Redis 往返次数。
+ * </p>
+ * @author liudongyu
+ */
+public final class RedisCommandCount {
+	private static final ThreadLocal<long[]> COUNT = ThreadLocal.withInitial(() -> new long[1]);
+
+	private RedisCommandCount() {
+	}
+
+	/**
+	 * 当前线程执行了一条 Redis 命令
+	 */
+	public static void increment() {
+		COUNT.get()[0] += 1L;
+	}
+
+	/**
+	 * 获取当前线程累计执行的 Redis 命令数
+	 * @return 当前线程累计执行的 Redis 命令数
+	 */
+	public static long current() {
+		return COUNT.get()[0];
+	}
+}
@@ -0,0 +1,10 @@
+-- 标题、描述全文检索索引，ngram 分词以支持中文标题
+-- 分词长度由 MySQL 的 ngram_token_size 决定（默认 2），需与 FullTextSearch.NGRAM_TOKEN_SIZE 保持一致
+-- 建索引前关闭 InnoDB 停用词：ngram 会丢弃包含停用词的分词，默认停用词表中的 in、at、is 等会让 login、status 之类的英文关键词无法命中。
+-- 关闭后 innodb_ft_server_stopword_table、innodb_ft_user_stopword_table 也不再生效；停用词在建索引时确定，之后修改设置需要重建索引
+SET SESSION innodb_ft_enable_stopword = OFF;
+ALTER TABLE `issue` ADD FULLTEXT KEY `ft_title_description` (`title`, `description`) WITH PARSER ngram;
+ALTER TABLE `story` ADD FULLTEXT KEY `ft_title_description` (`title`, `description`) WITH PARSER ngram;
+ALTER TABLE `requirement` ADD FULLTEXT KEY `ft_title_description` (`title`, `description`) WITH PARSER ngram;
+ALTER TABLE `retrospective` ADD FULLTEXT KEY `ft_title_description` (`title`, `description`) WITH PARSER ngram;
+SET SESSION innodb_ft_enable_stopword = ON;
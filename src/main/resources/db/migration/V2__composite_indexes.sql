@@ -0,0 +1,26 @@
+-- 每条语句只添加一个索引，新建库已包含其中的索引时可以单独跳过
+
+-- 列表查询：按状态、优先级筛选，按更新时间排序
+ALTER TABLE `issue` ADD KEY `idx_status_priority_updated_at` (`status`, `priority`, `updated_at`) USING BTREE;
+ALTER TABLE `issue` ADD KEY `idx_priority_updated_at` (`priority`, `updated_at`) USING BTREE;
+ALTER TABLE `story` ADD KEY `idx_status_priority_updated_at` (`status`, `priority`, `updated_at`) USING BTREE;
+ALTER TABLE `story` ADD KEY `idx_priority_updated_at` (`priority`, `updated_at`) USING BTREE;
+ALTER TABLE `requirement` ADD KEY `idx_status_priority_updated_at` (`status`, `priority`, `updated_at`) USING BTREE;
+ALTER TABLE `requirement` ADD KEY `idx_priority_updated_at` (`priority`, `updated_at`) USING BTREE;
+ALTER TABLE `retrospective` ADD KEY `idx_status_updated_at` (`status`, `updated_at`) USING BTREE;
+
+-- 关系表：首页统计按 (uid, relation_type) 计数、对账按 relation_type 分组统计 uid，待处理关系按 (code, old_status, relation_type) 查询
+ALTER TABLE `user_issue_rel` ADD KEY `idx_relation_type_uid` (`relation_type`, `uid`) USING BTREE;
+ALTER TABLE `user_issue_rel` ADD KEY `idx_code_old_status_relation_type` (`code`, `old_status`, `relation_type`) USING BTREE;
+ALTER TABLE `user_story_rel` ADD KEY `idx_relation_type_uid` (`relation_type`, `uid`) USING BTREE;
+ALTER TABLE `user_story_rel` ADD KEY `idx_code_old_status_relation_type` (`code`, `old_status`, `relation_type`) USING BTREE;
+ALTER TABLE `user_requirement_rel` ADD KEY `idx_relation_type_uid` (`relation_type`, `uid`) USING BTREE;
+ALTER TABLE `user_requirement_rel` ADD KEY `idx_code_old_status_relation_type` (`code`, `old_status`, `relation_type`) USING BTREE;
+ALTER TABLE `user_retrospective_rel` ADD KEY `idx_relation_type_uid` (`relation_type`, `uid`) USING BTREE;
+ALTER TABLE `user_retrospective_rel` ADD KEY `idx_code_old_status_relation_type` (`code`, `old_status`, `relation_type`) USING BTREE;
+
+-- 提交记录：按编号、提交人、提交类型筛选，按更新时间排序
+ALTER TABLE `commit` ADD KEY `idx_code_created_by_commit_type_updated_at` (`code`, `created_by`, `commit_type`, `updated_at`) USING BTREE;
+ALTER TABLE `commit` ADD KEY `idx_code_commit_type_updated_at` (`code`, `commit_type`, `updated_at`) USING BTREE;
+ALTER TABLE `commit` ADD KEY `idx_created_by_updated_at` (`created_by`, `updated_at`) USING BTREE;
+
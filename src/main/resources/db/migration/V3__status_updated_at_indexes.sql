@@ -0,0 +1,10 @@
+-- 每条语句只添加一个索引，新建库已包含其中的索引时可以单独跳过
+
+-- 列表查询：只按状态筛选、按更新时间排序时，(status, priority, updated_at) 只能用到 status 前缀，需要对整个状态分区排序
+ALTER TABLE `issue` ADD KEY `idx_status_updated_at` (`status`, `updated_at`) USING BTREE;
+ALTER TABLE `story` ADD KEY `idx_status_updated_at` (`status`, `updated_at`) USING BTREE;
+ALTER TABLE `requirement` ADD KEY `idx_status_updated_at` (`status`, `updated_at`) USING BTREE;
+
+-- 提交记录：按编号、或按编号和提交人筛选，按更新时间排序
+ALTER TABLE `commit` ADD KEY `idx_code_updated_at` (`code`, `updated_at`) USING BTREE;
+ALTER TABLE `commit` ADD KEY `idx_code_created_by_updated_at` (`code`, `created_by`, `updated_at`) USING BTREE;
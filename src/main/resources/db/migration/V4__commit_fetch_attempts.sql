@@ -0,0 +1,5 @@
+-- 提交详情抓取：记录失败次数，失败次数达到上限的提交不再抓取
+ALTER TABLE `commit` ADD COLUMN `fetch_attempts` int(10) NOT NULL DEFAULT 0 COMMENT '详情抓取失败次数' AFTER `line`;
+
+-- 待抓取的提交只按 commit_url 是否为空筛选，已抓取的提交 commit_url 为空，前缀索引只需区分空值
+ALTER TABLE `commit` ADD KEY `idx_commit_url` (`commit_url`(1)) USING BTREE;
@@ -0,0 +1,60 @@
+package org.ecnumc.voxelflow.test;
+
+import org.ecnumc.voxelflow.interceptor.CallTrace;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * CallTrace 单元测试喵~
+ *
+ * @author liudongyu
+ */
+class CallTraceTest {
+	/**
+	 * 测试嵌套调用串成一棵树，退出最外层后开始新的调用链喵~
+	 */
+	@Test
+	void testNested() {
+		CallTrace.Span root = CallTrace.enter("RequirementService.approveRequirement");
+		CallTrace.Span query = CallTrace.enter("RequirementQueryRepository.getApprovalState");
+		CallTrace.Span mapper = CallTrace.enter("RequirementMapper.selectStatusWithPendingUids");
+		CallTrace.exit(mapper, TimeUnit.MILLISECONDS.toNanos(2L));
+		CallTrace.exit(query, TimeUnit.MILLISECONDS.toNanos(3L));
+		CallTrace.Span command = CallTrace.enter("RequirementCommandRepository.approve");
+		CallTrace.exit(command, TimeUnit.MILLISECONDS.toNanos(4L));
+		CallTrace.exit(root, TimeUnit.MILLISECONDS.toNanos(8L));
+
+		assertTrue(root.isRoot());
+		assertFalse(query.isRoot());
+		assertEquals(
+				"RequirementService.approveRequirement 8.0 ms\n" +
+				"  RequirementQueryRepository.getApprovalState 3.0 ms\n" +
+				"    RequirementMapper.selectStatusWithPendingUids 2.0 ms\n" +
+				"  RequirementCommandRepository.approve 4.0 ms\n",
+				root.format()
+		);
+
+		CallTrace.Span next = CallTrace.enter("IssueService.getIssue");
+		assertTrue(next.isRoot());
+		CallTrace.exit(next, 0L);
+	}
+
+	/**
+	 * 测试节点数超过上限后不再记录喵~
+	 */
+	@Test
+	void testTruncated() {
+		CallTrace.Span root = CallTrace.enter("IssueService.approveAll");
+		for(int i = 0; i < 300; ++i) {
+			CallTrace.exit(CallTrace.enter("IssueMapper.update"), 0L);
+		}
+		CallTrace.exit(root, 0L);
+
+		String trace = root.format();
+		assertTrue(trace.endsWith("  ... truncated after 256 spans\n"));
+		assertEquals(257, trace.split("\n").length);
+	}
+}
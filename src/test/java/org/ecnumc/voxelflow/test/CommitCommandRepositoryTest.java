@@ -0,0 +1,118 @@
+package org.ecnumc.voxelflow.test;
+
+import org.ecnumc.voxelflow.bo.CommitBatchBo;
+import org.ecnumc.voxelflow.mapper.CommitMapper;
+import org.ecnumc.voxelflow.po.Commit;
+import org.ecnumc.voxelflow.repository.CommitCommandRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.*;
+
+/**
+ * 提交记录批量写入单元测试喵~
+ *
+ * @author liudongyu
+ */
+class CommitCommandRepositoryTest {
+	private CommitCommandRepository commitCommandRepository;
+
+	private CommitMapper commitMapper;
+
+	@BeforeEach
+	void setUp() {
+		this.commitCommandRepository = new CommitCommandRepository();
+		this.commitMapper = mock(CommitMapper.class);
+		ReflectionTestUtils.setField(this.commitCommandRepository, "commitMapper", this.commitMapper);
+	}
+
+	private static Commit createTestCommit(String commitId) {
+		Commit commit = new Commit();
+		commit.setCommitId(commitId);
+		commit.setRepoUrl("https://github.com/ecnumc/voxel-flow");
+		commit.setCommitType("fix");
+		commit.setCode("BUG-1");
+		commit.setMessage("test message");
+		commit.setCommitUrl("https://api.github.com/repos/ecnumc/voxel-flow/commits/" + commitId);
+		commit.setCreatedBy("U1");
+		commit.setUpdatedBy("U1");
+		return commit;
+	}
+
+	private static String repeat(char c, int count) {
+		char[] chars = new char[count];
+		Arrays.fill(chars, c);
+		return new String(chars);
+	}
+
+	/**
+	 * 测试批次内重复和数据库中已存在的提交都计为跳过喵~
+	 */
+	@Test
+	void testAddAllCountsDuplicates() {
+		when(this.commitMapper.insertIgnoreBatch(anyList())).thenReturn(1);
+
+		CommitBatchBo result = this.commitCommandRepository.addAll(Arrays.asList(
+				createTestCommit("a1"), createTestCommit("a1"), createTestCommit("b2")
+		));
+
+		assertEquals(1, result.getInserted());
+		assertEquals(2, result.getDuplicated());
+		assertEquals(0, result.getRejected());
+		verify(this.commitMapper, times(1)).insertIgnoreBatch(argThat(commits -> commits.size() == 2));
+	}
+
+	/**
+	 * 测试超长字段的记录被拒绝而不是截断写入、也不计为重复喵~
+	 */
+	@Test
+	void testAddAllRejectsTooLongColumns() {
+		Commit longId = createTestCommit(repeat('a', 41));
+		Commit longUrl = createTestCommit("c3");
+		longUrl.setCommitUrl(repeat('u', 2049));
+		when(this.commitMapper.insertIgnoreBatch(anyList())).thenReturn(1);
+
+		CommitBatchBo result = this.commitCommandRepository.addAll(Arrays.asList(longId, longUrl, createTestCommit("d4")));
+
+		assertEquals(1, result.getInserted());
+		assertEquals(0, result.getDuplicated());
+		assertEquals(2, result.getRejected());
+		verify(this.commitMapper, times(1)).insertIgnoreBatch(argThat(commits -> commits.size() == 1));
+	}
+
+	/**
+	 * 测试过长的提交信息按字符截断到列长度喵~
+	 */
+	@Test
+	void testAddAllTruncatesLongMessage() {
+		Commit commit = createTestCommit("e5");
+		commit.setMessage(repeat('m', 3000));
+		when(this.commitMapper.insertIgnoreBatch(anyList())).thenReturn(1);
+
+		CommitBatchBo result = this.commitCommandRepository.addAll(Collections.singletonList(commit));
+
+		assertEquals(1, result.getInserted());
+		assertEquals(2048, commit.getMessage().length());
+	}
+
+	/**
+	 * 测试全部被拒绝时不执行插入语句喵~
+	 */
+	@Test
+	void testAddAllSkipsInsertWhenAllRejected() {
+		Commit commit = createTestCommit(null);
+
+		CommitBatchBo result = this.commitCommandRepository.addAll(Collections.singletonList(commit));
+
+		assertEquals(0, result.getInserted());
+		assertEquals(1, result.getRejected());
+		verify(this.commitMapper, never()).insertIgnoreBatch(anyList());
+	}
+}
@@ -0,0 +1,229 @@
+package org.ecnumc.voxelflow.test;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.ecnumc.voxelflow.job.CommitDetailFetchJob;
+import org.ecnumc.voxelflow.lock.RedisDistributedLock;
+import org.ecnumc.voxelflow.mapper.CommitMapper;
+import org.ecnumc.voxelflow.po.Commit;
+import org.ecnumc.voxelflow.repository.RedisRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * 提交详情抓取任务单元测试，提交页面由本地 HTTP 服务提供喵~
+ *
+ * @author liudongyu
+ */
+class CommitDetailFetchJobTest {
+	private static final String CURSOR_KEY = "commit_detail_fetch_cursor";
+
+	private static final String DETAIL_PAGE = "<html><body><div data-target=\"react-app.embeddedData\">" +
+			"{\"payload\":{\"headerInfo\":{\"filesChanged\":2,\"additions\":3,\"deletions\":4}}}" +
+			"</div></body></html>";
+
+	private HttpServer server;
+
+	/**
+	 * 路径 -> 依次返回的状态码，用完后重复最后一个
+	 */
+	private final Map<String, List<Integer>> responses = new ConcurrentHashMap<>();
+
+	/**
+	 * 路径 -> 请求次数
+	 */
+	private final Map<String, AtomicInteger> hits = new ConcurrentHashMap<>();
+
+	private CommitDetailFetchJob commitDetailFetchJob;
+
+	private CommitMapper commitMapper;
+
+	private RedisRepository redisRepository;
+
+	@BeforeEach
+	void setUp() throws IOException, InterruptedException {
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		this.server.createContext("/", exchange -> {
+			String path = exchange.getRequestURI().getPath();
+			int hit = this.hits.computeIfAbsent(path, key -> new AtomicInteger()).getAndIncrement();
+			List<Integer> statuses = this.responses.getOrDefault(path, Collections.singletonList(404));
+			int status = statuses.get(Math.min(hit, statuses.size() - 1));
+			byte[] body = (status == 200 ? DETAIL_PAGE : "error").getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+			exchange.sendResponseHeaders(status, body.length);
+			try (OutputStream os = exchange.getResponseBody()) {
+				os.write(body);
+			}
+		});
+		this.server.start();
+
+		this.commitDetailFetchJob = new CommitDetailFetchJob();
+		this.commitMapper = mock(CommitMapper.class);
+		this.redisRepository = mock(RedisRepository.class);
+		RedisDistributedLock redisDistributedLock = mock(RedisDistributedLock.class);
+		when(redisDistributedLock.tryLock(anyString(), anyLong(), anyLong(), any(TimeUnit.class))).thenReturn(true);
+		ReflectionTestUtils.setField(this.commitDetailFetchJob, "commitMapper", this.commitMapper);
+		ReflectionTestUtils.setField(this.commitDetailFetchJob, "redisDistributedLock", redisDistributedLock);
+		ReflectionTestUtils.setField(this.commitDetailFetchJob, "redisRepository", this.redisRepository);
+		ReflectionTestUtils.setField(this.commitDetailFetchJob, "meterRegistry", new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(this.commitDetailFetchJob, "pageSize", 2);
+		ReflectionTestUtils.setField(this.commitDetailFetchJob, "concurrency", 2);
+		ReflectionTestUtils.setField(this.commitDetailFetchJob, "permitsPerSecond", 1000.0);
+		ReflectionTestUtils.setField(this.commitDetailFetchJob, "timeoutMillis", 5000);
+		ReflectionTestUtils.setField(this.commitDetailFetchJob, "maxAttempts", 3);
+		ReflectionTestUtils.setField(this.commitDetailFetchJob, "backoffMillis", 1L);
+		ReflectionTestUtils.setField(this.commitDetailFetchJob, "maxFailedRuns", 5);
+		this.commitDetailFetchJob.init();
+	}
+
+	@AfterEach
+	void tearDown() {
+		this.commitDetailFetchJob.destroy();
+		this.server.stop(0);
+	}
+
+	private Commit createTestCommit(long id, String path) {
+		Commit commit = new Commit();
+		commit.setId(id);
+		commit.setCommitId("c" + id);
+		commit.setCommitUrl("http://127.0.0.1:" + this.server.getAddress().getPort() + path);
+		return commit;
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<QueryWrapper<Commit>> captureQueries(int times) {
+		ArgumentCaptor<QueryWrapper<Commit>> captor = ArgumentCaptor.forClass(QueryWrapper.class);
+		verify(this.commitMapper, times(times)).selectList(captor.capture());
+		return captor.getAllValues();
+	}
+
+	/**
+	 * 测试抓取成功的提交批量回写，最后一页不满时结束扫描并清除游标喵~
+	 */
+	@Test
+	void testFetchWrittenBack() {
+		this.responses.put("/c1", Collections.singletonList(200));
+		when(this.commitMapper.selectList(any())).thenReturn(Collections.singletonList(createTestCommit(1L, "/c1")));
+
+		this.commitDetailFetchJob.compute();
+
+		@SuppressWarnings("unchecked")
+		ArgumentCaptor<List<Commit>> captor = ArgumentCaptor.forClass(List.class);
+		verify(this.commitMapper).updateDetailBatch(captor.capture());
+		Commit fetched = captor.getValue().get(0);
+		assertEquals(1L, fetched.getId());
+		assertEquals(2, fetched.getFile());
+		assertEquals(7, fetched.getLine());
+		verify(this.commitMapper, never()).increaseFetchAttemptsBatch(anyList());
+		verify(this.redisRepository).delete(CURSOR_KEY);
+	}
+
+	/**
+	 * 测试客户端错误不重试，直接累加失败次数喵~
+	 */
+	@Test
+	void testPermanentFailureCountsAttempt() {
+		this.responses.put("/c1", Collections.singletonList(404));
+		when(this.commitMapper.selectList(any())).thenReturn(Collections.singletonList(createTestCommit(1L, "/c1")));
+
+		this.commitDetailFetchJob.compute();
+
+		assertEquals(1, this.hits.get("/c1").get());
+		verify(this.commitMapper).increaseFetchAttemptsBatch(Collections.singletonList(1L));
+		verify(this.commitMapper, never()).updateDetailBatch(anyList());
+	}
+
+	/**
+	 * 测试服务端错误按次数重试，成功后不计入失败喵~
+	 */
+	@Test
+	void testRetryThenSuccess() {
+		this.responses.put("/c1", Arrays.asList(503, 429, 200));
+		when(this.commitMapper.selectList(any())).thenReturn(Collections.singletonList(createTestCommit(1L, "/c1")));
+
+		this.commitDetailFetchJob.compute();
+
+		assertEquals(3, this.hits.get("/c1").get());
+		verify(this.commitMapper).updateDetailBatch(anyList());
+		verify(this.commitMapper, never()).increaseFetchAttemptsBatch(anyList());
+	}
+
+	/**
+	 * 测试重试用尽后累加失败次数，同一页中成功的提交照常回写喵~
+	 */
+	@Test
+	void testRetryExhaustedCountsAttempt() {
+		this.responses.put("/c1", Collections.singletonList(500));
+		this.responses.put("/c2", Collections.singletonList(200));
+		when(this.commitMapper.selectList(any())).thenReturn(
+				Arrays.asList(createTestCommit(1L, "/c1"), createTestCommit(2L, "/c2")),
+				Collections.emptyList()
+		);
+
+		this.commitDetailFetchJob.compute();
+
+		assertEquals(3, this.hits.get("/c1").get());
+		verify(this.commitMapper).increaseFetchAttemptsBatch(Collections.singletonList(1L));
+		verify(this.commitMapper).updateDetailBatch(argThat(commits -> commits.size() == 1 && commits.get(0).getId() == 2L));
+	}
+
+	/**
+	 * 测试只扫描失败次数未达到上限的提交，每页保存游标喵~
+	 */
+	@Test
+	void testSkipsExhaustedCommitsAndSavesCursor() {
+		this.responses.put("/c1", Collections.singletonList(200));
+		this.responses.put("/c2", Collections.singletonList(200));
+		when(this.commitMapper.selectList(any())).thenReturn(
+				Arrays.asList(createTestCommit(1L, "/c1"), createTestCommit(2L, "/c2")),
+				Collections.emptyList()
+		);
+
+		this.commitDetailFetchJob.compute();
+
+		List<QueryWrapper<Commit>> queries = captureQueries(2);
+		assertTrue(queries.get(0).getSqlSegment().contains("fetch_attempts <"));
+		assertTrue(queries.get(0).getParamNameValuePairs().containsValue(5));
+		assertTrue(queries.get(1).getParamNameValuePairs().containsValue(2L));
+		verify(this.redisRepository).set(eq(CURSOR_KEY), eq("2"), anyLong());
+		verify(this.redisRepository).delete(CURSOR_KEY);
+	}
+
+	/**
+	 * 测试从上次保存的游标继续扫描喵~
+	 */
+	@Test
+	void testResumeFromSavedCursor() {
+		when(this.redisRepository.get(CURSOR_KEY)).thenReturn("42");
+		when(this.commitMapper.selectList(any())).thenReturn(Collections.emptyList());
+
+		this.commitDetailFetchJob.compute();
+
+		assertTrue(captureQueries(1).get(0).getParamNameValuePairs().containsValue(42L));
+		verify(this.redisRepository).delete(CURSOR_KEY);
+	}
+}
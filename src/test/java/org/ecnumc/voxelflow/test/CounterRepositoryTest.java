@@ -0,0 +1,192 @@
+package org.ecnumc.voxelflow.test;
+
+import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
+import org.ecnumc.voxelflow.mapper.CounterMapper;
+import org.ecnumc.voxelflow.po.Counter;
+import org.ecnumc.voxelflow.repository.CounterRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * 计数器 Repository 并发测试，多个节点共享同一行计数器，检查号段耗尽和刷新时编号不重复喵~
+ *
+ * @author liudongyu
+ */
+class CounterRepositoryTest {
+	private static final String TEST_CODE = "BUG";
+
+	private static final String TEST_UID = "U1";
+
+	private static final int BLOCK_SIZE = 5;
+
+	private static final int THREADS_PER_NODE = 4;
+
+	private static final int CALLS_PER_THREAD = 200;
+
+	/**
+	 * 模拟数据库中的计数器行，null 表示还没有插入
+	 */
+	private Integer row;
+
+	/**
+	 * 模拟行锁：每个事务读到的是自己自增后的值
+	 */
+	private final ThreadLocal<Integer> lastUpdated = new ThreadLocal<>();
+
+	private final AtomicInteger reservations = new AtomicInteger();
+
+	private ExecutorService executor;
+
+	@BeforeEach
+	void setUp() {
+		this.row = null;
+		this.executor = Executors.newFixedThreadPool(THREADS_PER_NODE * 2);
+	}
+
+	@AfterEach
+	void tearDown() {
+		this.executor.shutdownNow();
+	}
+
+	/**
+	 * 创建一个节点，所有节点共享同一个模拟的计数器表
+	 * @return 计数器 Repository
+	 */
+	@SuppressWarnings("unchecked")
+	private CounterRepository createNode() {
+		CounterMapper counterMapper = mock(CounterMapper.class);
+		when(counterMapper.update(any(UpdateWrapper.class))).thenAnswer(invocation -> {
+			synchronized (this) {
+				if(this.row == null) {
+					return 0;
+				}
+				this.row += BLOCK_SIZE;
+				this.lastUpdated.set(this.row);
+				this.reservations.incrementAndGet();
+				return 1;
+			}
+		});
+		when(counterMapper.insert(any(Counter.class))).thenAnswer(invocation -> {
+			synchronized (this) {
+				if(this.row != null) {
+					throw new DuplicateKeyException("Duplicate entry '" + TEST_CODE + "' for key 'uk_code'");
+				}
+				this.row = invocation.<Counter>getArgument(0).getCnt();
+				this.lastUpdated.set(this.row);
+				this.reservations.incrementAndGet();
+				return 1;
+			}
+		});
+		when(counterMapper.selectOne(any())).thenAnswer(invocation -> {
+			Counter counter = new Counter(this.lastUpdated.get());
+			counter.setCode(TEST_CODE);
+			return counter;
+		});
+		PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+		when(transactionManager.getTransaction(any())).thenAnswer(invocation -> new SimpleTransactionStatus());
+
+		CounterRepository counterRepository = new CounterRepository();
+		ReflectionTestUtils.setField(counterRepository, "counterMapper", counterMapper);
+		ReflectionTestUtils.setField(counterRepository, "transactionManager", transactionManager);
+		ReflectionTestUtils.setField(counterRepository, "blockSize", BLOCK_SIZE);
+		counterRepository.init();
+		return counterRepository;
+	}
+
+	/**
+	 * 在指定节点上并发分配编号
+	 * @param node	节点
+	 * @param start	所有线程同时开始
+	 * @return 每个线程按分配顺序得到的编号
+	 */
+	private List<Future<List<Integer>>> submit(CounterRepository node, CountDownLatch start) {
+		List<Future<List<Integer>>> futures = new ArrayList<>();
+		for(int i = 0; i < THREADS_PER_NODE; ++i) {
+			futures.add(this.executor.submit(() -> {
+				start.await();
+				List<Integer> values = new ArrayList<>(CALLS_PER_THREAD);
+				for(int j = 0; j < CALLS_PER_THREAD; ++j) {
+					values.add(node.increaseAndGet(TEST_CODE, TEST_UID));
+				}
+				return values;
+			}));
+		}
+		return futures;
+	}
+
+	/**
+	 * 测试两个节点并发分配时编号全局唯一，每个线程得到的编号严格递增，号段耗尽后从数据库刷新喵~
+	 */
+	@Test
+	void testConcurrentIncreaseAcrossNodes() throws Exception {
+		CounterRepository first = this.createNode();
+		CounterRepository second = this.createNode();
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<List<Integer>>> firstFutures = this.submit(first, start);
+		List<Future<List<Integer>>> secondFutures = this.submit(second, start);
+		start.countDown();
+
+		Set<Integer> all = new HashSet<>();
+		int total = 0;
+		for(List<Future<List<Integer>>> futures: Arrays.asList(firstFutures, secondFutures)) {
+			Set<Integer> node = new HashSet<>();
+			for(Future<List<Integer>> future: futures) {
+				List<Integer> values = future.get(30L, TimeUnit.SECONDS);
+				for(int i = 1; i < values.size(); ++i) {
+					assertTrue(values.get(i) > values.get(i - 1), "Not strictly increasing: " + values);
+				}
+				node.addAll(values);
+				all.addAll(values);
+				total += values.size();
+			}
+			assertEquals(THREADS_PER_NODE * CALLS_PER_THREAD, node.size());
+		}
+
+		assertEquals(THREADS_PER_NODE * CALLS_PER_THREAD * 2, total);
+		assertEquals(total, all.size());
+		// 号段只在耗尽时刷新：每个节点最多剩下一个未用完的号段
+		int reserved = this.reservations.get();
+		assertTrue(reserved >= total / BLOCK_SIZE);
+		assertTrue(reserved <= total / BLOCK_SIZE + 2);
+		assertEquals(reserved * BLOCK_SIZE, this.row.intValue());
+		for(int value: all) {
+			assertTrue(value >= 1 && value <= this.row);
+		}
+	}
+
+	/**
+	 * 测试单个节点用完号段后继续从数据库预留下一段，编号连续递增喵~
+	 */
+	@Test
+	void testRefillAfterExhaustion() {
+		CounterRepository node = this.createNode();
+
+		for(int i = 1; i <= BLOCK_SIZE * 3; ++i) {
+			assertEquals(i, node.increaseAndGet(TEST_CODE, TEST_UID));
+		}
+
+		assertEquals(3, this.reservations.get());
+		assertEquals(BLOCK_SIZE * 3, this.row.intValue());
+	}
+}
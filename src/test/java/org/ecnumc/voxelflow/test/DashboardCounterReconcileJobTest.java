@@ -0,0 +1,111 @@
+package org.ecnumc.voxelflow.test;
+
+import org.ecnumc.voxelflow.job.DashboardCounterReconcileJob;
+import org.ecnumc.voxelflow.lock.RedisDistributedLock;
+import org.ecnumc.voxelflow.repository.DashboardCounterRepository;
+import org.ecnumc.voxelflow.repository.IssueQueryRepository;
+import org.ecnumc.voxelflow.repository.RequirementQueryRepository;
+import org.ecnumc.voxelflow.repository.StoryQueryRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * 首页计数器对账任务单元测试喵~
+ *
+ * @author liudongyu
+ */
+class DashboardCounterReconcileJobTest {
+	private DashboardCounterReconcileJob dashboardCounterReconcileJob;
+
+	private IssueQueryRepository issueQueryRepository;
+
+	private RequirementQueryRepository requirementQueryRepository;
+
+	private StoryQueryRepository storyQueryRepository;
+
+	private DashboardCounterRepository dashboardCounterRepository;
+
+	private RedisDistributedLock redisDistributedLock;
+
+	@BeforeEach
+	void setUp() {
+		this.dashboardCounterReconcileJob = new DashboardCounterReconcileJob();
+		this.issueQueryRepository = mock(IssueQueryRepository.class);
+		this.requirementQueryRepository = mock(RequirementQueryRepository.class);
+		this.storyQueryRepository = mock(StoryQueryRepository.class);
+		this.dashboardCounterRepository = mock(DashboardCounterRepository.class);
+		this.redisDistributedLock = mock(RedisDistributedLock.class);
+		ReflectionTestUtils.setField(this.dashboardCounterReconcileJob, "issueQueryRepository", this.issueQueryRepository);
+		ReflectionTestUtils.setField(this.dashboardCounterReconcileJob, "requirementQueryRepository", this.requirementQueryRepository);
+		ReflectionTestUtils.setField(this.dashboardCounterReconcileJob, "storyQueryRepository", this.storyQueryRepository);
+		ReflectionTestUtils.setField(this.dashboardCounterReconcileJob, "dashboardCounterRepository", this.dashboardCounterRepository);
+		ReflectionTestUtils.setField(this.dashboardCounterReconcileJob, "redisDistributedLock", this.redisDistributedLock);
+	}
+
+	/**
+	 * 测试先开始记录增量日志再统计，三类工作项按用户合并后整体替换喵~
+	 */
+	@Test
+	void testReconcile() throws InterruptedException {
+		when(this.redisDistributedLock.tryLock(anyString(), anyLong(), anyLong(), any(TimeUnit.class))).thenReturn(true);
+		when(this.issueQueryRepository.countAssignedByUid()).thenReturn(Collections.singletonMap("U1", 1));
+		when(this.requirementQueryRepository.countAssignedByUid()).thenReturn(Collections.singletonMap("U1", 2));
+		when(this.storyQueryRepository.countAssignedByUid()).thenReturn(Collections.singletonMap("U2", 3));
+		when(this.issueQueryRepository.countUnassigned()).thenReturn(4);
+		when(this.requirementQueryRepository.countUnassigned()).thenReturn(5);
+		when(this.storyQueryRepository.countUnassigned()).thenReturn(6);
+
+		this.dashboardCounterReconcileJob.reconcile();
+
+		Map<String, Integer> assigned = new HashMap<>();
+		assigned.put("U1", 3);
+		assigned.put("U2", 3);
+		InOrder inOrder = inOrder(this.dashboardCounterRepository, this.issueQueryRepository, this.redisDistributedLock);
+		inOrder.verify(this.dashboardCounterRepository).startReconcile();
+		inOrder.verify(this.issueQueryRepository).countAssignedByUid();
+		inOrder.verify(this.dashboardCounterRepository).reset(assigned, 15);
+		inOrder.verify(this.redisDistributedLock).unlock(anyString());
+	}
+
+	/**
+	 * 测试其它节点正在对账时跳过喵~
+	 */
+	@Test
+	void testReconcileSkippedWhenLocked() throws InterruptedException {
+		when(this.redisDistributedLock.tryLock(anyString(), anyLong(), anyLong(), any(TimeUnit.class))).thenReturn(false);
+
+		this.dashboardCounterReconcileJob.reconcile();
+
+		verifyNoInteractions(this.dashboardCounterRepository, this.issueQueryRepository);
+		verify(this.redisDistributedLock, never()).unlock(anyString());
+	}
+
+	/**
+	 * 测试统计失败时不替换计数器，并释放锁喵~
+	 */
+	@Test
+	void testReconcileFailureKeepsCounters() throws InterruptedException {
+		when(this.redisDistributedLock.tryLock(anyString(), anyLong(), anyLong(), any(TimeUnit.class))).thenReturn(true);
+		when(this.issueQueryRepository.countAssignedByUid()).thenThrow(new IllegalStateException("db down"));
+
+		this.dashboardCounterReconcileJob.reconcile();
+
+		verify(this.dashboardCounterRepository, never()).reset(anyMap(), anyInt());
+		verify(this.redisDistributedLock).unlock(eq("dashboard_counter_reconcile"));
+	}
+}
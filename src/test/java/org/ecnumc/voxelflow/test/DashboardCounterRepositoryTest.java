@@ -0,0 +1,159 @@
+package org.ecnumc.voxelflow.test;
+
+import org.ecnumc.voxelflow.bo.IndexBo;
+import org.ecnumc.voxelflow.repository.DashboardCounterRepository;
+import org.ecnumc.voxelflow.repository.RedisRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * 首页统计计数器单元测试喵~
+ *
+ * @author liudongyu
+ */
+class DashboardCounterRepositoryTest {
+	private static final String COUNTER_KEY = "dashboard_counter";
+
+	private static final String LOG_KEY = "dashboard_counter_reconcile_log";
+
+	private static final String TEST_UID = "U1";
+
+	private DashboardCounterRepository dashboardCounterRepository;
+
+	private RedisRepository redisRepository;
+
+	@BeforeEach
+	void setUp() {
+		this.dashboardCounterRepository = new DashboardCounterRepository();
+		this.redisRepository = mock(RedisRepository.class);
+		ReflectionTestUtils.setField(this.dashboardCounterRepository, "redisRepository", this.redisRepository);
+	}
+
+	@AfterEach
+	void tearDown() {
+		if(TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+	}
+
+	/**
+	 * 测试没有事务时立即调整计数器，并带上增量日志 key喵~
+	 */
+	@Test
+	void testIncrementWithoutTransaction() {
+		this.dashboardCounterRepository.incrementAssigned(TEST_UID, 2L);
+		this.dashboardCounterRepository.incrementTotalUnassigned(-1L);
+
+		verify(this.redisRepository).incrementHashIfExists(COUNTER_KEY, LOG_KEY, "assigned:" + TEST_UID, 2L);
+		verify(this.redisRepository).incrementHashIfExists(COUNTER_KEY, LOG_KEY, "total_unassigned", -1L);
+	}
+
+	/**
+	 * 测试事务中的增量在提交后才写入喵~
+	 */
+	@Test
+	void testIncrementAfterCommit() {
+		TransactionSynchronizationManager.initSynchronization();
+
+		this.dashboardCounterRepository.incrementAssigned(TEST_UID, 1L);
+		verify(this.redisRepository, never()).incrementHashIfExists(anyString(), anyString(), anyString(), anyLong());
+
+		TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+		verify(this.redisRepository).incrementHashIfExists(COUNTER_KEY, LOG_KEY, "assigned:" + TEST_UID, 1L);
+	}
+
+	/**
+	 * 测试事务回滚时增量不写入喵~
+	 */
+	@Test
+	void testIncrementDroppedOnRollback() {
+		TransactionSynchronizationManager.initSynchronization();
+
+		this.dashboardCounterRepository.incrementTotalUnassigned(1L);
+		TransactionSynchronizationManager.getSynchronizations().forEach(
+				synchronization -> synchronization.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK)
+		);
+
+		verify(this.redisRepository, never()).incrementHashIfExists(anyString(), anyString(), anyString(), anyLong());
+	}
+
+	/**
+	 * 测试增量为 0 时不访问 Redis喵~
+	 */
+	@Test
+	void testZeroDeltaSkipped() {
+		this.dashboardCounterRepository.incrementAssigned(TEST_UID, 0L);
+
+		verifyNoInteractions(this.redisRepository);
+	}
+
+	/**
+	 * 测试调整失败不影响调用方，由对账修正喵~
+	 */
+	@Test
+	void testIncrementFailureSwallowed() {
+		when(this.redisRepository.incrementHashIfExists(anyString(), anyString(), anyString(), anyLong()))
+				.thenThrow(new IllegalStateException("redis down"));
+
+		assertDoesNotThrow(() -> this.dashboardCounterRepository.incrementAssigned(TEST_UID, 1L));
+	}
+
+	/**
+	 * 测试计数器尚未初始化时返回 null，由调用方查询数据库喵~
+	 */
+	@Test
+	void testGetNotInitialized() {
+		when(this.redisRepository.multiGetHash(eq(COUNTER_KEY), anyList())).thenReturn(Arrays.asList(null, null));
+
+		assertNull(this.dashboardCounterRepository.get(TEST_UID));
+	}
+
+	/**
+	 * 测试读取计数器，用户没有字段时视为 0，负数按 0 展示喵~
+	 */
+	@Test
+	void testGet() {
+		when(this.redisRepository.multiGetHash(COUNTER_KEY, Arrays.asList("total_unassigned", "assigned:" + TEST_UID)))
+				.thenReturn(Arrays.asList("5", null));
+		when(this.redisRepository.multiGetHash(COUNTER_KEY, Arrays.asList("total_unassigned", "assigned:U2")))
+				.thenReturn(Arrays.asList("5", "-1"));
+
+		IndexBo bo = this.dashboardCounterRepository.get(TEST_UID);
+		assertNotNull(bo);
+		assertEquals(5, bo.getTotalUnassigned());
+		assertEquals(0, bo.getAssigned());
+		assertEquals(0, this.dashboardCounterRepository.get("U2").getAssigned());
+	}
+
+	/**
+	 * 测试对账先开始记录增量日志，替换时带上同一个日志喵~
+	 */
+	@Test
+	void testReconcileUsesDeltaLog() {
+		this.dashboardCounterRepository.startReconcile();
+		this.dashboardCounterRepository.reset(Collections.singletonMap(TEST_UID, 3), 7);
+
+		Map<String, String> entries = new HashMap<>();
+		entries.put("assigned:" + TEST_UID, "3");
+		entries.put("total_unassigned", "7");
+		verify(this.redisRepository).startHashLog(eq(LOG_KEY), anyString(), anyLong());
+		verify(this.redisRepository).replaceHash(eq(COUNTER_KEY), eq(entries), eq(LOG_KEY), any());
+	}
+}
@@ -0,0 +1,141 @@
+package org.ecnumc.voxelflow.test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.ecnumc.voxelflow.bo.IndexBo;
+import org.ecnumc.voxelflow.repository.DashboardCounterRepository;
+import org.ecnumc.voxelflow.repository.RedisRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 首页计数器 Redis 脚本测试，在真实的 Redis 上检查自增、增量日志和整体替换的语义喵~
+ * <p>
+ * 需要可写的 Redis，默认跳过，通过 {@code -Dvoxelflow.redis-test=true} 启用，
+ * 地址由 {@code voxelflow.redis-test.host} 和 {@code voxelflow.redis-test.port} 指定，默认 localhost:6379。
+ * </p>
+ *
+ * @author liudongyu
+ */
+@EnabledIfSystemProperty(named = "voxelflow.redis-test", matches = "true")
+class DashboardCounterScriptTest {
+	private static final String COUNTER_KEY = "dashboard_counter";
+
+	private static final String LOG_KEY = "dashboard_counter_reconcile_log";
+
+	private LettuceConnectionFactory connectionFactory;
+
+	private StringRedisTemplate redisTemplate;
+
+	private DashboardCounterRepository dashboardCounterRepository;
+
+	@BeforeEach
+	void setUp() {
+		this.connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration(
+				System.getProperty("voxelflow.redis-test.host", "localhost"),
+				Integer.parseInt(System.getProperty("voxelflow.redis-test.port", "6379"))
+		));
+		this.connectionFactory.afterPropertiesSet();
+		this.redisTemplate = new StringRedisTemplate(this.connectionFactory);
+		RedisRepository redisRepository = new RedisRepository();
+		ReflectionTestUtils.setField(redisRepository, "redisTemplate", this.redisTemplate);
+		ReflectionTestUtils.setField(redisRepository, "meterRegistry", new SimpleMeterRegistry());
+		this.dashboardCounterRepository = new DashboardCounterRepository();
+		ReflectionTestUtils.setField(this.dashboardCounterRepository, "redisRepository", redisRepository);
+		this.redisTemplate.delete(Arrays.asList(COUNTER_KEY, LOG_KEY));
+	}
+
+	@AfterEach
+	void tearDown() {
+		this.redisTemplate.delete(Arrays.asList(COUNTER_KEY, LOG_KEY));
+		this.connectionFactory.destroy();
+	}
+
+	/**
+	 * 测试计数器尚未初始化时跳过自增，不会创建只有部分字段的哈希喵~
+	 */
+	@Test
+	void testIncrementSkippedWhenAbsent() {
+		this.dashboardCounterRepository.incrementTotalUnassigned(1L);
+
+		assertFalse(this.redisTemplate.hasKey(COUNTER_KEY));
+		assertNull(this.dashboardCounterRepository.get("U1"));
+	}
+
+	/**
+	 * 测试不在对账期间时只调整计数器，不创建增量日志喵~
+	 */
+	@Test
+	void testIncrementOutsideReconcile() {
+		this.dashboardCounterRepository.reset(Collections.singletonMap("U1", 2), 5);
+
+		this.dashboardCounterRepository.incrementAssigned("U1", 1L);
+		this.dashboardCounterRepository.incrementTotalUnassigned(-1L);
+
+		IndexBo bo = this.dashboardCounterRepository.get("U1");
+		assertEquals(3, bo.getAssigned());
+		assertEquals(4, bo.getTotalUnassigned());
+		assertFalse(this.redisTemplate.hasKey(LOG_KEY));
+	}
+
+	/**
+	 * 测试统计期间提交的增量在替换后保留，不被统计结果覆盖喵~
+	 */
+	@Test
+	void testIncrementDuringReconcileKept() {
+		this.dashboardCounterRepository.reset(Collections.singletonMap("U1", 2), 5);
+
+		this.dashboardCounterRepository.startReconcile();
+		// 统计开始后提交：统计结果中没有这些增量
+		this.dashboardCounterRepository.incrementAssigned("U1", 1L);
+		this.dashboardCounterRepository.incrementAssigned("U2", 1L);
+		this.dashboardCounterRepository.incrementTotalUnassigned(1L);
+		Map<String, Integer> assigned = new HashMap<>();
+		assigned.put("U1", 2);
+		this.dashboardCounterRepository.reset(assigned, 5);
+
+		assertEquals(3, this.dashboardCounterRepository.get("U1").getAssigned());
+		assertEquals(1, this.dashboardCounterRepository.get("U2").getAssigned());
+		assertEquals(6, this.dashboardCounterRepository.get("U1").getTotalUnassigned());
+		assertFalse(this.redisTemplate.hasKey(LOG_KEY));
+		assertFalse(this.redisTemplate.opsForHash().hasKey(COUNTER_KEY, "reconciling"));
+	}
+
+	/**
+	 * 测试首次对账期间计数器还不存在时，增量同样记入日志并在初始化时补上喵~
+	 */
+	@Test
+	void testIncrementDuringFirstReconcileKept() {
+		this.dashboardCounterRepository.startReconcile();
+		this.dashboardCounterRepository.incrementTotalUnassigned(-1L);
+		assertFalse(this.redisTemplate.hasKey(COUNTER_KEY));
+
+		this.dashboardCounterRepository.reset(Collections.emptyMap(), 5);
+
+		assertEquals(4, this.dashboardCounterRepository.get("U1").getTotalUnassigned());
+	}
+
+	/**
+	 * 测试增量日志带有超时，对账中途失败时不会一直记录喵~
+	 */
+	@Test
+	void testDeltaLogExpires() {
+		this.dashboardCounterRepository.startReconcile();
+
+		Long ttl = this.redisTemplate.getExpire(LOG_KEY);
+		assertNotNull(ttl);
+		assertTrue(ttl > 0L);
+	}
+}
@@ -0,0 +1,60 @@
+package org.ecnumc.voxelflow.test;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import org.ecnumc.voxelflow.po.Issue;
+import org.ecnumc.voxelflow.util.FullTextSearch;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * FullTextSearch 单元测试喵~
+ *
+ * @author liudongyu
+ */
+class FullTextSearchTest {
+	/**
+	 * 测试多个关键词组合为 AND 关系的全文检索喵~
+	 */
+	@Test
+	void testMatch() {
+		QueryWrapper<Issue> queryWrapper = FullTextSearch.match(new QueryWrapper<>(), Arrays.asList("平台", "VoxelFlow"));
+		assertTrue(queryWrapper.getSqlSegment().contains("MATCH(title, description) AGAINST("));
+		assertTrue(queryWrapper.getParamNameValuePairs().containsValue("+\"平台\" +\"VoxelFlow\""));
+		assertFalse(queryWrapper.getSqlSegment().contains("LIKE"));
+	}
+
+	/**
+	 * 测试运算符和引号被去掉，不能注入检索语法喵~
+	 */
+	@Test
+	void testSanitize() {
+		QueryWrapper<Issue> queryWrapper = FullTextSearch.orderByRelevance(new QueryWrapper<>(), Collections.singletonList("-bug') OR (\"1"));
+		String sql = queryWrapper.getSqlSegment();
+		assertTrue(sql.contains("AGAINST('+\"bug OR 1\"' IN BOOLEAN MODE)"));
+	}
+
+	/**
+	 * 测试短于分词长度的关键词退化为 LIKE 喵~
+	 */
+	@Test
+	void testShortKeyword() {
+		QueryWrapper<Issue> queryWrapper = FullTextSearch.match(new QueryWrapper<>(), Collections.singletonList("修"));
+		assertFalse(queryWrapper.getSqlSegment().contains("MATCH"));
+		assertTrue(queryWrapper.getSqlSegment().contains("title LIKE"));
+	}
+
+	/**
+	 * 测试包含默认停用词分词的英文关键词照常走全文索引，不退化为 LIKE 喵~
+	 */
+	@Test
+	void testLatinKeyword() {
+		QueryWrapper<Issue> queryWrapper = FullTextSearch.match(new QueryWrapper<>(), Collections.singletonList("login"));
+		assertTrue(queryWrapper.getSqlSegment().contains("MATCH(title, description) AGAINST("));
+		assertTrue(queryWrapper.getParamNameValuePairs().containsValue("+\"login\""));
+		assertFalse(queryWrapper.getSqlSegment().contains("LIKE"));
+	}
+}
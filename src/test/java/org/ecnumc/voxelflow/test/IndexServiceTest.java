@@ -0,0 +1,159 @@
+package org.ecnumc.voxelflow.test;
+
+import org.ecnumc.voxelflow.bo.IndexBo;
+import org.ecnumc.voxelflow.repository.DashboardCounterRepository;
+import org.ecnumc.voxelflow.repository.IssueQueryRepository;
+import org.ecnumc.voxelflow.repository.RequirementQueryRepository;
+import org.ecnumc.voxelflow.repository.StoryQueryRepository;
+import org.ecnumc.voxelflow.resp.IndexResp;
+import org.ecnumc.voxelflow.service.IndexService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * 首页服务单元测试喵~
+ *
+ * @author liudongyu
+ */
+class IndexServiceTest {
+	private static final String TEST_UID = "U1";
+
+	private IndexService indexService;
+
+	private IssueQueryRepository issueQueryRepository;
+
+	private RequirementQueryRepository requirementQueryRepository;
+
+	private StoryQueryRepository storyQueryRepository;
+
+	private DashboardCounterRepository dashboardCounterRepository;
+
+	@BeforeEach
+	void setUp() {
+		this.indexService = new IndexService();
+		this.issueQueryRepository = mock(IssueQueryRepository.class);
+		this.requirementQueryRepository = mock(RequirementQueryRepository.class);
+		this.storyQueryRepository = mock(StoryQueryRepository.class);
+		this.dashboardCounterRepository = mock(DashboardCounterRepository.class);
+		ReflectionTestUtils.setField(this.indexService, "issueQueryRepository", this.issueQueryRepository);
+		ReflectionTestUtils.setField(this.indexService, "requirementQueryRepository", this.requirementQueryRepository);
+		ReflectionTestUtils.setField(this.indexService, "storyQueryRepository", this.storyQueryRepository);
+		ReflectionTestUtils.setField(this.indexService, "dashboardCounterRepository", this.dashboardCounterRepository);
+		ReflectionTestUtils.setField(this.indexService, "workerThreads", 3);
+		ReflectionTestUtils.setField(this.indexService, "queueCapacity", 8);
+		ReflectionTestUtils.setField(this.indexService, "timeoutMillis", 200L);
+		this.indexService.init();
+	}
+
+	@AfterEach
+	void tearDown() {
+		this.indexService.destroy();
+	}
+
+	private static IndexBo counts(int assigned, int totalUnassigned) {
+		return IndexBo.builder().assigned(assigned).totalUnassigned(totalUnassigned).build();
+	}
+
+	/**
+	 * 测试计数器已初始化时直接返回，不查询数据库喵~
+	 */
+	@Test
+	void testIndexFromCounters() {
+		when(this.dashboardCounterRepository.get(TEST_UID)).thenReturn(counts(1, 2));
+
+		IndexResp resp = this.indexService.index(TEST_UID).getData();
+
+		assertEquals(1, resp.getAssigned());
+		assertEquals(2, resp.getTotalUnassigned());
+		assertFalse(resp.isPartial());
+		verifyNoInteractions(this.issueQueryRepository, this.requirementQueryRepository, this.storyQueryRepository);
+	}
+
+	/**
+	 * 测试计数器尚未初始化时并行统计三类工作项并求和喵~
+	 */
+	@Test
+	void testIndexCounted() {
+		when(this.issueQueryRepository.getCountsByUid(TEST_UID)).thenReturn(counts(1, 10));
+		when(this.requirementQueryRepository.getCountsByUid(TEST_UID)).thenReturn(counts(2, 20));
+		when(this.storyQueryRepository.getCountsByUid(TEST_UID)).thenReturn(counts(3, 30));
+
+		IndexResp resp = this.indexService.index(TEST_UID).getData();
+
+		assertEquals(6, resp.getAssigned());
+		assertEquals(60, resp.getTotalUnassigned());
+		assertFalse(resp.isPartial());
+	}
+
+	/**
+	 * 测试超时的统计被中断，已完成的部分照常返回并标记为不完整喵~
+	 */
+	@Test
+	void testTimeoutReturnsPartial() throws InterruptedException {
+		CountDownLatch interrupted = new CountDownLatch(1);
+		when(this.issueQueryRepository.getCountsByUid(TEST_UID)).thenReturn(counts(1, 10));
+		when(this.requirementQueryRepository.getCountsByUid(TEST_UID)).thenAnswer(invocation -> {
+			try {
+				Thread.sleep(TimeUnit.SECONDS.toMillis(30));
+			} catch (InterruptedException e) {
+				interrupted.countDown();
+				throw e;
+			}
+			return counts(2, 20);
+		});
+		when(this.storyQueryRepository.getCountsByUid(TEST_UID)).thenReturn(counts(3, 30));
+
+		long start = System.nanoTime();
+		IndexResp resp = this.indexService.index(TEST_UID).getData();
+
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+		assertEquals(4, resp.getAssigned());
+		assertEquals(40, resp.getTotalUnassigned());
+		assertTrue(resp.isPartial());
+		assertTrue(interrupted.await(5, TimeUnit.SECONDS), "timed out count should be interrupted");
+	}
+
+	/**
+	 * 测试统计抛出异常时其余部分照常返回喵~
+	 */
+	@Test
+	void testFailureReturnsPartial() {
+		when(this.issueQueryRepository.getCountsByUid(TEST_UID)).thenThrow(new IllegalStateException("db down"));
+		when(this.requirementQueryRepository.getCountsByUid(TEST_UID)).thenReturn(counts(2, 20));
+		when(this.storyQueryRepository.getCountsByUid(TEST_UID)).thenReturn(counts(3, 30));
+
+		IndexResp resp = this.indexService.index(TEST_UID).getData();
+
+		assertEquals(5, resp.getAssigned());
+		assertEquals(50, resp.getTotalUnassigned());
+		assertTrue(resp.isPartial());
+	}
+
+	/**
+	 * 测试统计线程是守护线程，不阻止进程退出喵~
+	 */
+	@Test
+	void testWorkerThreadsAreDaemon() {
+		AtomicBoolean daemon = new AtomicBoolean();
+		when(this.issueQueryRepository.getCountsByUid(anyString())).thenAnswer(invocation -> {
+			daemon.set(Thread.currentThread().isDaemon());
+			return counts(0, 0);
+		});
+		when(this.requirementQueryRepository.getCountsByUid(anyString())).thenReturn(counts(0, 0));
+		when(this.storyQueryRepository.getCountsByUid(anyString())).thenReturn(counts(0, 0));
+
+		this.indexService.index(TEST_UID);
+
+		assertTrue(daemon.get());
+	}
+}
@@ -0,0 +1,256 @@
+package org.ecnumc.voxelflow.test;
+
+import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
+import org.ecnumc.voxelflow.enumeration.IssueStatus;
+import org.ecnumc.voxelflow.enumeration.RelationType;
+import org.ecnumc.voxelflow.mapper.IssueMapper;
+import org.ecnumc.voxelflow.mapper.UserIssueRelationMapper;
+import org.ecnumc.voxelflow.po.UserIssueRelation;
+import org.ecnumc.voxelflow.repository.CounterRepository;
+import org.ecnumc.voxelflow.repository.DashboardCounterRepository;
+import org.ecnumc.voxelflow.repository.IssueCommandRepository;
+import org.ecnumc.voxelflow.repository.IssueQueryRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * 缺陷命令 Repository 单元测试，检查每条写入路径对首页计数器的增量喵~
+ *
+ * @author liudongyu
+ */
+class IssueCommandRepositoryTest {
+	private static final String TEST_CODE = "BUG-1";
+
+	private IssueCommandRepository issueCommandRepository;
+
+	private IssueMapper issueMapper;
+
+	private UserIssueRelationMapper userIssueRelationMapper;
+
+	private DashboardCounterRepository dashboardCounterRepository;
+
+	@BeforeEach
+	void setUp() {
+		this.issueCommandRepository = new IssueCommandRepository();
+		this.issueMapper = mock(IssueMapper.class);
+		this.userIssueRelationMapper = mock(UserIssueRelationMapper.class);
+		this.dashboardCounterRepository = mock(DashboardCounterRepository.class);
+		ReflectionTestUtils.setField(this.issueCommandRepository, "issueMapper", this.issueMapper);
+		ReflectionTestUtils.setField(this.issueCommandRepository, "userIssueRelationMapper", this.userIssueRelationMapper);
+		ReflectionTestUtils.setField(this.issueCommandRepository, "issueQueryRepository", mock(IssueQueryRepository.class));
+		ReflectionTestUtils.setField(this.issueCommandRepository, "counterRepository", mock(CounterRepository.class));
+		ReflectionTestUtils.setField(this.issueCommandRepository, "dashboardCounterRepository", this.dashboardCounterRepository);
+	}
+
+	private static UserIssueRelation createTestRelation(String uid) {
+		UserIssueRelation rel = new UserIssueRelation();
+		rel.setUid(uid);
+		return rel;
+	}
+
+	/**
+	 * 测试创建缺陷时待处理总数加一喵~
+	 */
+	@Test
+	void testCreateIssue() {
+		this.issueCommandRepository.createIssue("title", "description", 1, "U1");
+
+		verify(this.dashboardCounterRepository).incrementTotalUnassigned(1L);
+		verify(this.dashboardCounterRepository, never()).incrementAssigned(anyString(), anyLong());
+	}
+
+	/**
+	 * 测试更新关系时按实际更新的行数减少更新人的分配数喵~
+	 */
+	@Test
+	void testUpdateRelation() {
+		when(this.userIssueRelationMapper.update(any(UpdateWrapper.class))).thenReturn(1, 0);
+
+		assertTrue(this.issueCommandRepository.updateRelation(TEST_CODE, IssueStatus.REVIEWING, "ok", RelationType.APPROVED, "U1"));
+		assertFalse(this.issueCommandRepository.updateRelation(TEST_CODE, IssueStatus.REVIEWING, "ok", RelationType.APPROVED, "U1"));
+
+		verify(this.dashboardCounterRepository).incrementAssigned("U1", -1L);
+		verify(this.dashboardCounterRepository).incrementAssigned("U1", 0L);
+	}
+
+	/**
+	 * 测试跳过剩余关系时每位待处理责任人的分配数减一喵~
+	 */
+	@Test
+	void testSkipRemainingRelations() {
+		when(this.userIssueRelationMapper.selectList(any())).thenReturn(Arrays.asList(createTestRelation("U1"), createTestRelation("U2")));
+
+		this.issueCommandRepository.skipRemainingRelations(TEST_CODE, IssueStatus.REVIEWING, "U3");
+
+		verify(this.dashboardCounterRepository).incrementAssigned("U1", -1L);
+		verify(this.dashboardCounterRepository).incrementAssigned("U2", -1L);
+		verify(this.dashboardCounterRepository, never()).incrementAssigned(eq("U3"), anyLong());
+	}
+
+	/**
+	 * 测试状态流转进入结束状态时待处理总数减一，未结束状态之间流转和比较失败时不变喵~
+	 */
+	@Test
+	void testUpdateStatus() {
+		when(this.issueMapper.update(any(UpdateWrapper.class))).thenReturn(1, 1, 0);
+
+		assertTrue(this.issueCommandRepository.updateStatus(TEST_CODE, IssueStatus.REVIEWING, IssueStatus.REJECTED, "U1"));
+		assertTrue(this.issueCommandRepository.updateStatus(TEST_CODE, IssueStatus.REVIEWING, IssueStatus.CONFIRMING, "U1"));
+		assertFalse(this.issueCommandRepository.updateStatus(TEST_CODE, IssueStatus.REVIEWING, IssueStatus.CANCELED, "U1"));
+
+		verify(this.dashboardCounterRepository, times(1)).incrementTotalUnassigned(anyLong());
+		verify(this.dashboardCounterRepository).incrementTotalUnassigned(-1L);
+	}
+
+	/**
+	 * 测试重新打开已结束的缺陷时待处理总数加一喵~
+	 */
+	@Test
+	void testUpdateStatusReopen() {
+		when(this.issueMapper.update(any(UpdateWrapper.class))).thenReturn(1);
+
+		this.issueCommandRepository.updateStatus(TEST_CODE, IssueStatus.REJECTED, IssueStatus.REVIEWING, "U1");
+
+		verify(this.dashboardCounterRepository).incrementTotalUnassigned(1L);
+	}
+
+	/**
+	 * 测试审批通过时所有待处理责任人的分配数减一，进入结束状态时待处理总数减一喵~
+	 */
+	@Test
+	void testApprove() {
+		when(this.issueMapper.approve(anyString(), anyString(), anyString(), anyString(), anyString())).thenReturn(3);
+
+		assertTrue(this.issueCommandRepository.approve(
+				TEST_CODE, IssueStatus.CHECKING, IssueStatus.RELEASED, "ok", Arrays.asList("U1", "U2"), "U1"
+		));
+
+		verify(this.dashboardCounterRepository).incrementAssigned("U1", -1L);
+		verify(this.dashboardCounterRepository).incrementAssigned("U2", -1L);
+		verify(this.dashboardCounterRepository).incrementTotalUnassigned(-1L);
+	}
+
+	/**
+	 * 测试审批时状态已被修改则计数器不变喵~
+	 */
+	@Test
+	void testApproveConflict() {
+		assertFalse(this.issueCommandRepository.approve(
+				TEST_CODE, IssueStatus.CHECKING, IssueStatus.RELEASED, "ok", Arrays.asList("U1", "U2"), "U1"
+		));
+
+		verifyNoInteractions(this.dashboardCounterRepository);
+	}
+
+	/**
+	 * 测试拒绝时只有更新人自己的分配数减一，更新人不是待处理责任人时不变喵~
+	 */
+	@Test
+	void testReject() {
+		when(this.issueMapper.reject(anyString(), anyString(), anyString(), anyString())).thenReturn(1);
+
+		assertTrue(this.issueCommandRepository.reject(TEST_CODE, IssueStatus.REVIEWING, "no", Arrays.asList("U1", "U2"), "U1"));
+		assertTrue(this.issueCommandRepository.reject(TEST_CODE, IssueStatus.REVIEWING, "no", Collections.singletonList("U2"), "U3"));
+
+		verify(this.dashboardCounterRepository, times(1)).incrementAssigned(anyString(), anyLong());
+		verify(this.dashboardCounterRepository).incrementAssigned("U1", -1L);
+		verify(this.dashboardCounterRepository, never()).incrementTotalUnassigned(anyLong());
+	}
+
+	/**
+	 * 测试委派时责任人的分配数加一喵~
+	 */
+	@Test
+	void testAssignOperator() {
+		this.issueCommandRepository.assignOperator(TEST_CODE, IssueStatus.CONFIRMING, "U2", "U1");
+
+		verify(this.dashboardCounterRepository).incrementAssigned("U2", 1L);
+	}
+
+	/**
+	 * 测试撤销委派成功时责任人的分配数减一，失败时不变喵~
+	 */
+	@Test
+	void testUnassignOperator() {
+		when(this.userIssueRelationMapper.update(any(UpdateWrapper.class))).thenReturn(1, 0);
+
+		assertTrue(this.issueCommandRepository.unassignOperator(TEST_CODE, IssueStatus.CONFIRMING, "U2", "U1"));
+		assertFalse(this.issueCommandRepository.unassignOperator(TEST_CODE, IssueStatus.CONFIRMING, "U2", "U1"));
+
+		verify(this.dashboardCounterRepository, times(1)).incrementAssigned("U2", -1L);
+	}
+
+	/**
+	 * 测试批量更新关系时按实际更新的行数减少更新人的分配数喵~
+	 */
+	@Test
+	void testUpdateRelationsByCodes() {
+		when(this.userIssueRelationMapper.update(any(UpdateWrapper.class))).thenReturn(2);
+
+		this.issueCommandRepository.updateRelationsByCodes(
+				Arrays.asList(TEST_CODE, "BUG-2", "BUG-3"), IssueStatus.REVIEWING, "ok", RelationType.APPROVED, "U1"
+		);
+
+		verify(this.dashboardCounterRepository).incrementAssigned("U1", -2L);
+	}
+
+	/**
+	 * 测试批量跳过剩余关系时按责任人合并减少分配数喵~
+	 */
+	@Test
+	void testSkipRemainingRelationsByCodes() {
+		when(this.userIssueRelationMapper.selectList(any())).thenReturn(Arrays.asList(
+				createTestRelation("U1"), createTestRelation("U2"), createTestRelation("U1")
+		));
+
+		this.issueCommandRepository.skipRemainingRelationsByCodes(Arrays.asList(TEST_CODE, "BUG-2"), IssueStatus.REVIEWING, "U3");
+
+		verify(this.dashboardCounterRepository).incrementAssigned("U1", -2L);
+		verify(this.dashboardCounterRepository).incrementAssigned("U2", -1L);
+	}
+
+	/**
+	 * 测试批量状态流转按实际更新的行数调整待处理总数喵~
+	 */
+	@Test
+	void testUpdateStatusByCodes() {
+		when(this.issueMapper.update(any(UpdateWrapper.class))).thenReturn(2, 3);
+
+		assertEquals(2, this.issueCommandRepository.updateStatusByCodes(
+				Arrays.asList(TEST_CODE, "BUG-2", "BUG-3"), IssueStatus.REVIEWING, IssueStatus.REJECTED, "U1"
+		));
+		assertEquals(3, this.issueCommandRepository.updateStatusByCodes(
+				Arrays.asList(TEST_CODE, "BUG-2", "BUG-3"), IssueStatus.REVIEWING, IssueStatus.CONFIRMING, "U1"
+		));
+
+		verify(this.dashboardCounterRepository, times(1)).incrementTotalUnassigned(anyLong());
+		verify(this.dashboardCounterRepository).incrementTotalUnassigned(-2L);
+	}
+
+	/**
+	 * 测试批量委派时每位责任人的分配数按缺陷数增加喵~
+	 */
+	@Test
+	void testAssignOperatorsByCodes() {
+		this.issueCommandRepository.assignOperatorsByCodes(
+				Arrays.asList(TEST_CODE, "BUG-2"), IssueStatus.CONFIRMING, Arrays.asList("U1", "U2"), "U3"
+		);
+		this.issueCommandRepository.assignOperators(TEST_CODE, IssueStatus.CONFIRMING, Collections.singletonList("U1"), "U3");
+
+		verify(this.userIssueRelationMapper, times(2)).insertBatch(any());
+		verify(this.dashboardCounterRepository).incrementAssigned("U1", 2L);
+		verify(this.dashboardCounterRepository).incrementAssigned("U2", 2L);
+		verify(this.dashboardCounterRepository).incrementAssigned("U1", 1L);
+	}
+}
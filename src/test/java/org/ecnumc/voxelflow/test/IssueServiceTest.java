@@ -1,9 +1,12 @@
 package org.ecnumc.voxelflow.test;
 
+import com.google.common.collect.ImmutableMap;
 import org.ecnumc.voxelflow.Application;
+import org.ecnumc.voxelflow.bo.ApprovalStateBo;
 import org.ecnumc.voxelflow.converter.IssueConverter;
 import org.ecnumc.voxelflow.enumeration.ClientErrorCode;
 import org.ecnumc.voxelflow.enumeration.IssueStatus;
+import org.ecnumc.voxelflow.enumeration.RelationType;
 import org.ecnumc.voxelflow.enumeration.UserRole;
 import org.ecnumc.voxelflow.po.Issue;
 import org.ecnumc.voxelflow.repository.IssueCommandRepository;
@@ -17,9 +20,11 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.springframework.boot.test.context.SpringBootTest;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
@@ -64,6 +69,13 @@ class IssueServiceTest {
 		return issue;
 	}
 
+	private ApprovalStateBo createTestApprovalState(Issue issue) {
+		return ApprovalStateBo.builder()
+				.status(issue.getStatus())
+				.pendingUids(Collections.singletonList(TEST_UID))
+				.build();
+	}
+
 	private IssueResp createTestIssueResp() {
 		return IssueResp.builder()
 				.code(TEST_CODE)
@@ -145,10 +157,10 @@ class IssueServiceTest {
 	@Test
 	void testUpdateIssueSuccess() {
 		Issue issue = this.createTestIssue();
-		List<UserRole> userRoles = Collections.singletonList(UserRole.DEVELOPMENT);
+		int userRoleMask = UserRole.DEVELOPMENT.getMask();
 
 		when(this.issueQueryRepository.getIssueByCode(TEST_CODE)).thenReturn(issue);
-		when(this.userQueryRepository.getUserRoles(TEST_UID)).thenReturn(userRoles);
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(userRoleMask);
 
 		String newTitle = "Updated Title";
 		String newDescription = "Updated Description";
@@ -157,7 +169,7 @@ class IssueServiceTest {
 
 		assertNull(result);
 		verify(this.issueQueryRepository, times(1)).getIssueByCode(TEST_CODE);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_UID);
+		verify(this.userQueryRepository, times(1)).getUserRoleMask(TEST_UID);
 		verify(this.issueCommandRepository, times(1))
 				.updateIssue(TEST_CODE, newTitle, newDescription, 2, TEST_UID);
 	}
@@ -199,16 +211,16 @@ class IssueServiceTest {
 	@Test
 	void testUpdateIssueFailNoPermission() {
 		Issue issue = this.createTestIssue();
-		List<UserRole> userRoles = Collections.singletonList(UserRole.BUSINESS);
+		int userRoleMask = UserRole.BUSINESS.getMask();
 
 		when(this.issueQueryRepository.getIssueByCode(TEST_CODE)).thenReturn(issue);
-		when(this.userQueryRepository.getUserRoles(TEST_UID)).thenReturn(userRoles);
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(userRoleMask);
 
 		ClientErrorCode result = this.issueService.updateIssue(TEST_CODE, "New Title", "New Description", 2, TEST_UID);
 
 		assertEquals(ClientErrorCode.ERROR_1491, result);
 		verify(this.issueQueryRepository, times(1)).getIssueByCode(TEST_CODE);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_UID);
+		verify(this.userQueryRepository, times(1)).getUserRoleMask(TEST_UID);
 		verify(this.issueCommandRepository, never()).updateIssue(any(), any(), any(), any(), any());
 	}
 
@@ -218,21 +230,22 @@ class IssueServiceTest {
 	@Test
 	void testApproveIssueSuccess() {
 		Issue issue = this.createTestIssue();
-		List<UserRole> userRoles = Collections.singletonList(UserRole.DEVELOPMENT);
-		List<UserRole> nextOperatorRoles = Collections.singletonList(UserRole.TEST);
+		int userRoleMask = UserRole.DEVELOPMENT.getMask();
+		int nextOperatorRoleMask = UserRole.TEST.getMask();
 		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
 
-		when(this.issueQueryRepository.getIssueByCode(TEST_CODE)).thenReturn(issue);
-		when(this.userQueryRepository.getUserRoles(TEST_UID)).thenReturn(userRoles);
-		when(this.userQueryRepository.getUserRoles(TEST_NEXT_OPERATOR)).thenReturn(nextOperatorRoles);
+		when(this.issueQueryRepository.getApprovalState(TEST_CODE)).thenReturn(this.createTestApprovalState(issue));
+		when(this.issueCommandRepository.approve(TEST_CODE, IssueStatus.HANDLING, IssueStatus.TESTING, "Approved", Collections.singletonList(TEST_UID), TEST_UID)).thenReturn(true);
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(userRoleMask);
+		when(this.userQueryRepository.getUserRoleMasksByUids(nextOperators)).thenReturn(ImmutableMap.of(TEST_NEXT_OPERATOR, nextOperatorRoleMask));
 
 		ClientErrorCode result = this.issueService.approve(TEST_CODE, nextOperators, "Approved", TEST_UID);
 
 		assertNull(result);
-		verify(this.issueQueryRepository, times(1)).getIssueByCode(TEST_CODE);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_UID);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_NEXT_OPERATOR);
-		verify(this.issueCommandRepository, times(1)).updateStatus(TEST_CODE, IssueStatus.HANDLING, IssueStatus.TESTING, TEST_UID);
+		verify(this.issueQueryRepository, times(1)).getApprovalState(TEST_CODE);
+		verify(this.userQueryRepository, times(1)).getUserRoleMask(TEST_UID);
+		verify(this.userQueryRepository, times(1)).getUserRoleMasksByUids(nextOperators);
+		verify(this.issueCommandRepository, times(1)).approve(TEST_CODE, IssueStatus.HANDLING, IssueStatus.TESTING, "Approved", Collections.singletonList(TEST_UID), TEST_UID);
 	}
 
 	/**
@@ -240,13 +253,13 @@ class IssueServiceTest {
 	 */
 	@Test
 	void testApproveIssueFailNotFound() {
-		when(this.issueQueryRepository.getIssueByCode(TEST_CODE)).thenReturn(null);
+		when(this.issueQueryRepository.getApprovalState(TEST_CODE)).thenReturn(null);
 
 		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
 		ClientErrorCode result = this.issueService.approve(TEST_CODE, nextOperators, "Approved", TEST_UID);
 
 		assertEquals(ClientErrorCode.ERROR_1440, result);
-		verify(this.issueQueryRepository, times(1)).getIssueByCode(TEST_CODE);
+		verify(this.issueQueryRepository, times(1)).getApprovalState(TEST_CODE);
 		verify(this.issueCommandRepository, never()).updateRelation(any(), any(), any(), any(), any());
 	}
 
@@ -257,13 +270,13 @@ class IssueServiceTest {
 	void testApproveIssueFailNotModifiable() {
 		Issue issue = this.createTestIssue();
 		issue.setStatus(IssueStatus.RELEASED.name());
-		when(this.issueQueryRepository.getIssueByCode(TEST_CODE)).thenReturn(issue);
+		when(this.issueQueryRepository.getApprovalState(TEST_CODE)).thenReturn(this.createTestApprovalState(issue));
 
 		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
 		ClientErrorCode result = this.issueService.approve(TEST_CODE, nextOperators, "Approved", TEST_UID);
 
 		assertEquals(ClientErrorCode.ERROR_1442, result);
-		verify(this.issueQueryRepository, times(1)).getIssueByCode(TEST_CODE);
+		verify(this.issueQueryRepository, times(1)).getApprovalState(TEST_CODE);
 		verify(this.issueCommandRepository, never()).updateRelation(any(), any(), any(), any(), any());
 	}
 
@@ -273,17 +286,17 @@ class IssueServiceTest {
 	@Test
 	void testApproveIssueFailNoPermission() {
 		Issue issue = this.createTestIssue();
-		List<UserRole> userRoles = Collections.singletonList(UserRole.BUSINESS);
+		int userRoleMask = UserRole.BUSINESS.getMask();
 
-		when(this.issueQueryRepository.getIssueByCode(TEST_CODE)).thenReturn(issue);
-		when(this.userQueryRepository.getUserRoles(TEST_UID)).thenReturn(userRoles);
+		when(this.issueQueryRepository.getApprovalState(TEST_CODE)).thenReturn(this.createTestApprovalState(issue));
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(userRoleMask);
 
 		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
 		ClientErrorCode result = this.issueService.approve(TEST_CODE, nextOperators, "Approved", TEST_UID);
 
 		assertEquals(ClientErrorCode.ERROR_1491, result);
-		verify(this.issueQueryRepository, times(1)).getIssueByCode(TEST_CODE);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_UID);
+		verify(this.issueQueryRepository, times(1)).getApprovalState(TEST_CODE);
+		verify(this.userQueryRepository, times(1)).getUserRoleMask(TEST_UID);
 		verify(this.issueCommandRepository, never()).updateRelation(any(), any(), any(), any(), any());
 	}
 
@@ -293,23 +306,45 @@ class IssueServiceTest {
 	@Test
 	void testApproveIssueFailNextOperatorNoPermission() {
 		Issue issue = this.createTestIssue();
-		List<UserRole> userRoles = Collections.singletonList(UserRole.DEVELOPMENT);
-		List<UserRole> nextOperatorRoles = Collections.singletonList(UserRole.BUSINESS);
+		int userRoleMask = UserRole.DEVELOPMENT.getMask();
+		int nextOperatorRoleMask = UserRole.BUSINESS.getMask();
 		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
 
-		when(this.issueQueryRepository.getIssueByCode(TEST_CODE)).thenReturn(issue);
-		when(this.userQueryRepository.getUserRoles(TEST_UID)).thenReturn(userRoles);
-		when(this.userQueryRepository.getUserRoles(TEST_NEXT_OPERATOR)).thenReturn(nextOperatorRoles);
+		when(this.issueQueryRepository.getApprovalState(TEST_CODE)).thenReturn(this.createTestApprovalState(issue));
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(userRoleMask);
+		when(this.userQueryRepository.getUserRoleMasksByUids(nextOperators)).thenReturn(ImmutableMap.of(TEST_NEXT_OPERATOR, nextOperatorRoleMask));
 
 		ClientErrorCode result = this.issueService.approve(TEST_CODE, nextOperators, "Approved", TEST_UID);
 
 		assertEquals(ClientErrorCode.ERROR_1492, result);
-		verify(this.issueQueryRepository, times(1)).getIssueByCode(TEST_CODE);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_UID);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_NEXT_OPERATOR);
+		verify(this.issueQueryRepository, times(1)).getApprovalState(TEST_CODE);
+		verify(this.userQueryRepository, times(1)).getUserRoleMask(TEST_UID);
+		verify(this.userQueryRepository, times(1)).getUserRoleMasksByUids(nextOperators);
 		verify(this.issueCommandRepository, never()).updateRelation(any(), any(), any(), any(), any());
 	}
 
+	/**
+	 * 测试批准缺陷失败的场景，缺陷状态已被其他人修改
+	 */
+	@Test
+	void testApproveIssueFailConflict() {
+		Issue issue = this.createTestIssue();
+		int userRoleMask = UserRole.DEVELOPMENT.getMask();
+		int nextOperatorRoleMask = UserRole.TEST.getMask();
+		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
+
+		when(this.issueQueryRepository.getApprovalState(TEST_CODE)).thenReturn(this.createTestApprovalState(issue));
+		when(this.issueCommandRepository.approve(TEST_CODE, IssueStatus.HANDLING, IssueStatus.TESTING, "Approved", Collections.singletonList(TEST_UID), TEST_UID)).thenReturn(false);
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(userRoleMask);
+		when(this.userQueryRepository.getUserRoleMasksByUids(nextOperators)).thenReturn(ImmutableMap.of(TEST_NEXT_OPERATOR, nextOperatorRoleMask));
+
+		ClientErrorCode result = this.issueService.approve(TEST_CODE, nextOperators, "Approved", TEST_UID);
+
+		assertEquals(ClientErrorCode.ERROR_1496, result);
+		verify(this.issueCommandRepository, times(1)).approve(TEST_CODE, IssueStatus.HANDLING, IssueStatus.TESTING, "Approved", Collections.singletonList(TEST_UID), TEST_UID);
+		verify(this.issueCommandRepository, never()).assignOperators(any(), any(), any(), any());
+	}
+
 	/**
 	 * 测试拒绝缺陷成功的场景
 	 */
@@ -317,20 +352,23 @@ class IssueServiceTest {
 	void testRejectIssueSuccess() {
 		Issue issue = this.createTestIssue();
 		issue.setStatus(IssueStatus.TESTING.name());
-		List<UserRole> userRoles = Collections.singletonList(UserRole.TEST);
-		List<UserRole> nextOperatorRoles = Collections.singletonList(UserRole.DEVELOPMENT);
+		int userRoleMask = UserRole.TEST.getMask();
+		int nextOperatorRoleMask = UserRole.DEVELOPMENT.getMask();
 		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
 
-		when(this.issueQueryRepository.getIssueByCode(TEST_CODE)).thenReturn(issue);
-		when(this.userQueryRepository.getUserRoles(TEST_UID)).thenReturn(userRoles);
-		when(this.userQueryRepository.getUserRoles(TEST_NEXT_OPERATOR)).thenReturn(nextOperatorRoles);
+		when(this.issueQueryRepository.getApprovalState(TEST_CODE)).thenReturn(this.createTestApprovalState(issue));
+		when(this.issueCommandRepository.reject(TEST_CODE, IssueStatus.TESTING, "Rejected", Collections.singletonList(TEST_UID), TEST_UID)).thenReturn(true);
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(userRoleMask);
+		when(this.userQueryRepository.getUserRoleMasksByUids(nextOperators)).thenReturn(ImmutableMap.of(TEST_NEXT_OPERATOR, nextOperatorRoleMask));
 
 		ClientErrorCode result = this.issueService.reject(TEST_CODE, nextOperators, "Rejected", TEST_UID);
 
 		assertNull(result);
-		verify(this.issueQueryRepository, times(1)).getIssueByCode(TEST_CODE);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_UID);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_NEXT_OPERATOR);
+		verify(this.issueQueryRepository, times(1)).getApprovalState(TEST_CODE);
+		verify(this.userQueryRepository, times(1)).getUserRoleMask(TEST_UID);
+		verify(this.userQueryRepository, times(1)).getUserRoleMasksByUids(nextOperators);
+		verify(this.issueCommandRepository, times(1)).reject(TEST_CODE, IssueStatus.TESTING, "Rejected", Collections.singletonList(TEST_UID), TEST_UID);
+		verify(this.issueCommandRepository, times(1)).assignOperators(TEST_CODE, IssueStatus.HANDLING, nextOperators, TEST_UID);
 	}
 
 	/**
@@ -338,13 +376,13 @@ class IssueServiceTest {
 	 */
 	@Test
 	void testRejectIssueFailNotFound() {
-		when(this.issueQueryRepository.getIssueByCode(TEST_CODE)).thenReturn(null);
+		when(this.issueQueryRepository.getApprovalState(TEST_CODE)).thenReturn(null);
 
 		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
 		ClientErrorCode result = this.issueService.reject(TEST_CODE, nextOperators, "Rejected", TEST_UID);
 
 		assertEquals(ClientErrorCode.ERROR_1440, result);
-		verify(this.issueQueryRepository, times(1)).getIssueByCode(TEST_CODE);
+		verify(this.issueQueryRepository, times(1)).getApprovalState(TEST_CODE);
 		verify(this.issueCommandRepository, never()).updateRelation(any(), any(), any(), any(), any());
 	}
 
@@ -355,13 +393,13 @@ class IssueServiceTest {
 	void testRejectIssueFailNotModifiable() {
 		Issue issue = this.createTestIssue();
 		issue.setStatus(IssueStatus.RELEASED.name());
-		when(this.issueQueryRepository.getIssueByCode(TEST_CODE)).thenReturn(issue);
+		when(this.issueQueryRepository.getApprovalState(TEST_CODE)).thenReturn(this.createTestApprovalState(issue));
 
 		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
 		ClientErrorCode result = this.issueService.reject(TEST_CODE, nextOperators, "Rejected", TEST_UID);
 
 		assertEquals(ClientErrorCode.ERROR_1442, result);
-		verify(this.issueQueryRepository, times(1)).getIssueByCode(TEST_CODE);
+		verify(this.issueQueryRepository, times(1)).getApprovalState(TEST_CODE);
 		verify(this.issueCommandRepository, never()).updateRelation(any(), any(), any(), any(), any());
 	}
 
@@ -371,17 +409,17 @@ class IssueServiceTest {
 	@Test
 	void testRejectIssueFailNoPermission() {
 		Issue issue = this.createTestIssue();
-		List<UserRole> userRoles = Collections.singletonList(UserRole.BUSINESS);
+		int userRoleMask = UserRole.BUSINESS.getMask();
 
-		when(this.issueQueryRepository.getIssueByCode(TEST_CODE)).thenReturn(issue);
-		when(this.userQueryRepository.getUserRoles(TEST_UID)).thenReturn(userRoles);
+		when(this.issueQueryRepository.getApprovalState(TEST_CODE)).thenReturn(this.createTestApprovalState(issue));
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(userRoleMask);
 
 		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
 		ClientErrorCode result = this.issueService.reject(TEST_CODE, nextOperators, "Rejected", TEST_UID);
 
 		assertEquals(ClientErrorCode.ERROR_1491, result);
-		verify(this.issueQueryRepository, times(1)).getIssueByCode(TEST_CODE);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_UID);
+		verify(this.issueQueryRepository, times(1)).getApprovalState(TEST_CODE);
+		verify(this.userQueryRepository, times(1)).getUserRoleMask(TEST_UID);
 		verify(this.issueCommandRepository, never()).updateRelation(any(), any(), any(), any(), any());
 	}
 
@@ -392,20 +430,20 @@ class IssueServiceTest {
 	void testRejectIssueFailNextOperatorNoPermission() {
 		Issue issue = this.createTestIssue();
 		issue.setStatus(IssueStatus.TESTING.name());
-		List<UserRole> userRoles = Collections.singletonList(UserRole.TEST);
-		List<UserRole> nextOperatorRoles = Collections.singletonList(UserRole.BUSINESS);
+		int userRoleMask = UserRole.TEST.getMask();
+		int nextOperatorRoleMask = UserRole.BUSINESS.getMask();
 		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
 
-		when(this.issueQueryRepository.getIssueByCode(TEST_CODE)).thenReturn(issue);
-		when(this.userQueryRepository.getUserRoles(TEST_UID)).thenReturn(userRoles);
-		when(this.userQueryRepository.getUserRoles(TEST_NEXT_OPERATOR)).thenReturn(nextOperatorRoles);
+		when(this.issueQueryRepository.getApprovalState(TEST_CODE)).thenReturn(this.createTestApprovalState(issue));
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(userRoleMask);
+		when(this.userQueryRepository.getUserRoleMasksByUids(nextOperators)).thenReturn(ImmutableMap.of(TEST_NEXT_OPERATOR, nextOperatorRoleMask));
 
 		ClientErrorCode result = this.issueService.reject(TEST_CODE, nextOperators, "Rejected", TEST_UID);
 
 		assertEquals(ClientErrorCode.ERROR_1492, result);
-		verify(this.issueQueryRepository, times(1)).getIssueByCode(TEST_CODE);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_UID);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_NEXT_OPERATOR);
+		verify(this.issueQueryRepository, times(1)).getApprovalState(TEST_CODE);
+		verify(this.userQueryRepository, times(1)).getUserRoleMask(TEST_UID);
+		verify(this.userQueryRepository, times(1)).getUserRoleMasksByUids(nextOperators);
 		verify(this.issueCommandRepository, never()).updateRelation(any(), any(), any(), any(), any());
 	}
 
@@ -415,19 +453,19 @@ class IssueServiceTest {
 	@Test
 	void testAssignIssueSuccess() {
 		Issue issue = this.createTestIssue();
-		List<UserRole> userRoles = Collections.singletonList(UserRole.DEVELOPMENT);
-		List<UserRole> assigneeRoles = Collections.singletonList(UserRole.DEVELOPMENT);
+		int userRoleMask = UserRole.DEVELOPMENT.getMask();
+		int assigneeRoleMask = UserRole.DEVELOPMENT.getMask();
 
 		when(this.issueQueryRepository.getIssueByCode(TEST_CODE)).thenReturn(issue);
-		when(this.userQueryRepository.getUserRoles(TEST_UID)).thenReturn(userRoles);
-		when(this.userQueryRepository.getUserRoles(TEST_NEXT_OPERATOR)).thenReturn(assigneeRoles);
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(userRoleMask);
+		when(this.userQueryRepository.getUserRoleMask(TEST_NEXT_OPERATOR)).thenReturn(assigneeRoleMask);
 
 		ClientErrorCode result = this.issueService.assign(TEST_CODE, TEST_NEXT_OPERATOR, TEST_UID);
 
 		assertNull(result);
 		verify(this.issueQueryRepository, times(1)).getIssueByCode(TEST_CODE);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_UID);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_NEXT_OPERATOR);
+		verify(this.userQueryRepository, times(1)).getUserRoleMask(TEST_UID);
+		verify(this.userQueryRepository, times(1)).getUserRoleMask(TEST_NEXT_OPERATOR);
 		verify(this.issueCommandRepository, times(1)).assignOperator(TEST_CODE, IssueStatus.HANDLING, TEST_NEXT_OPERATOR, TEST_UID);
 	}
 
@@ -467,16 +505,16 @@ class IssueServiceTest {
 	@Test
 	void testAssignIssueFailNoPermission() {
 		Issue issue = this.createTestIssue();
-		List<UserRole> userRoles = Collections.singletonList(UserRole.BUSINESS);
+		int userRoleMask = UserRole.BUSINESS.getMask();
 
 		when(this.issueQueryRepository.getIssueByCode(TEST_CODE)).thenReturn(issue);
-		when(this.userQueryRepository.getUserRoles(TEST_UID)).thenReturn(userRoles);
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(userRoleMask);
 
 		ClientErrorCode result = this.issueService.assign(TEST_CODE, TEST_NEXT_OPERATOR, TEST_UID);
 
 		assertEquals(ClientErrorCode.ERROR_1491, result);
 		verify(this.issueQueryRepository, times(1)).getIssueByCode(TEST_CODE);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_UID);
+		verify(this.userQueryRepository, times(1)).getUserRoleMask(TEST_UID);
 		verify(this.issueCommandRepository, never()).assignOperator(any(), any(), any(), any());
 	}
 
@@ -486,19 +524,19 @@ class IssueServiceTest {
 	@Test
 	void testAssignIssueFailAssigneeNoPermission() {
 		Issue issue = this.createTestIssue();
-		List<UserRole> userRoles = Collections.singletonList(UserRole.DEVELOPMENT);
-		List<UserRole> assigneeRoles = Collections.singletonList(UserRole.BUSINESS);
+		int userRoleMask = UserRole.DEVELOPMENT.getMask();
+		int assigneeRoleMask = UserRole.BUSINESS.getMask();
 
 		when(this.issueQueryRepository.getIssueByCode(TEST_CODE)).thenReturn(issue);
-		when(this.userQueryRepository.getUserRoles(TEST_UID)).thenReturn(userRoles);
-		when(this.userQueryRepository.getUserRoles(TEST_NEXT_OPERATOR)).thenReturn(assigneeRoles);
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(userRoleMask);
+		when(this.userQueryRepository.getUserRoleMask(TEST_NEXT_OPERATOR)).thenReturn(assigneeRoleMask);
 
 		ClientErrorCode result = this.issueService.assign(TEST_CODE, TEST_NEXT_OPERATOR, TEST_UID);
 
 		assertEquals(ClientErrorCode.ERROR_1491, result);
 		verify(this.issueQueryRepository, times(1)).getIssueByCode(TEST_CODE);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_UID);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_NEXT_OPERATOR);
+		verify(this.userQueryRepository, times(1)).getUserRoleMask(TEST_UID);
+		verify(this.userQueryRepository, times(1)).getUserRoleMask(TEST_NEXT_OPERATOR);
 		verify(this.issueCommandRepository, never()).assignOperator(any(), any(), any(), any());
 	}
 
@@ -508,17 +546,17 @@ class IssueServiceTest {
 	@Test
 	void testUnassignIssueSuccess() {
 		Issue issue = this.createTestIssue();
-		List<UserRole> userRoles = Collections.singletonList(UserRole.DEVELOPMENT);
+		int userRoleMask = UserRole.DEVELOPMENT.getMask();
 
 		when(this.issueQueryRepository.getIssueByCode(TEST_CODE)).thenReturn(issue);
-		when(this.userQueryRepository.getUserRoles(TEST_UID)).thenReturn(userRoles);
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(userRoleMask);
 		when(this.issueCommandRepository.unassignOperator(TEST_CODE, IssueStatus.HANDLING, TEST_NEXT_OPERATOR, TEST_UID)).thenReturn(false);
 
 		ClientErrorCode result = this.issueService.unassign(TEST_CODE, TEST_NEXT_OPERATOR, TEST_UID);
 
 		assertNull(result);
 		verify(this.issueQueryRepository, times(1)).getIssueByCode(TEST_CODE);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_UID);
+		verify(this.userQueryRepository, times(1)).getUserRoleMask(TEST_UID);
 		verify(this.issueCommandRepository, times(1)).unassignOperator(TEST_CODE, IssueStatus.HANDLING, TEST_NEXT_OPERATOR, TEST_UID);
 	}
 
@@ -558,16 +596,67 @@ class IssueServiceTest {
 	@Test
 	void testUnassignIssueFailNoPermission() {
 		Issue issue = this.createTestIssue();
-		List<UserRole> userRoles = Collections.singletonList(UserRole.BUSINESS);
+		int userRoleMask = UserRole.BUSINESS.getMask();
 
 		when(this.issueQueryRepository.getIssueByCode(TEST_CODE)).thenReturn(issue);
-		when(this.userQueryRepository.getUserRoles(TEST_UID)).thenReturn(userRoles);
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(userRoleMask);
 
 		ClientErrorCode result = this.issueService.unassign(TEST_CODE, TEST_NEXT_OPERATOR, TEST_UID);
 
 		assertEquals(ClientErrorCode.ERROR_1491, result);
 		verify(this.issueQueryRepository, times(1)).getIssueByCode(TEST_CODE);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_UID);
+		verify(this.userQueryRepository, times(1)).getUserRoleMask(TEST_UID);
 		verify(this.issueCommandRepository, never()).unassignOperator(any(), any(), any(), any());
 	}
+
+	/**
+	 * 测试批量批准缺陷，逐项返回结果并按状态批量更新
+	 */
+	@Test
+	void testApproveAllIssues() {
+		Issue issue = this.createTestIssue();
+		Issue released = this.createTestIssue();
+		released.setCode("BUG-002");
+		released.setStatus(IssueStatus.RELEASED.name());
+		List<String> codes = Arrays.asList(TEST_CODE, "BUG-002", "BUG-003", TEST_CODE);
+		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
+
+		when(this.issueQueryRepository.getIssuesByCodes(codes)).thenReturn(ImmutableMap.of(TEST_CODE, issue, "BUG-002", released));
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(UserRole.DEVELOPMENT.getMask());
+		when(this.userQueryRepository.getUserRoleMasksByUids(nextOperators)).thenReturn(ImmutableMap.of(TEST_NEXT_OPERATOR, UserRole.TEST.getMask()));
+		when(this.issueCommandRepository.updateStatusByCodes(Collections.singletonList(TEST_CODE), IssueStatus.HANDLING, IssueStatus.TESTING, TEST_UID)).thenReturn(1);
+
+		Map<String, ClientErrorCode> result = this.issueService.approveAll(codes, nextOperators, "Approved", TEST_UID);
+
+		assertEquals(Arrays.asList(TEST_CODE, "BUG-002", "BUG-003"), Arrays.asList(result.keySet().toArray()));
+		assertNull(result.get(TEST_CODE));
+		assertEquals(ClientErrorCode.ERROR_1442, result.get("BUG-002"));
+		assertEquals(ClientErrorCode.ERROR_1440, result.get("BUG-003"));
+		verify(this.issueQueryRepository, times(1)).getIssuesByCodes(codes);
+		verify(this.issueQueryRepository, never()).getIssueByCode(any());
+		verify(this.userQueryRepository, times(1)).getUserRoleMask(TEST_UID);
+		List<String> approved = Collections.singletonList(TEST_CODE);
+		verify(this.issueCommandRepository, times(1)).updateRelationsByCodes(approved, IssueStatus.HANDLING, "Approved", RelationType.APPROVED, TEST_UID);
+		verify(this.issueCommandRepository, times(1)).updateStatusByCodes(approved, IssueStatus.HANDLING, IssueStatus.TESTING, TEST_UID);
+		verify(this.issueCommandRepository, times(1)).assignOperatorsByCodes(approved, IssueStatus.TESTING, nextOperators, TEST_UID);
+	}
+
+	/**
+	 * 测试批量分配缺陷失败的场景，被分配者没有权限
+	 */
+	@Test
+	void testAssignAllIssuesFailAssigneeNoPermission() {
+		Issue issue = this.createTestIssue();
+		List<String> codes = Collections.singletonList(TEST_CODE);
+
+		when(this.issueQueryRepository.getIssuesByCodes(codes)).thenReturn(ImmutableMap.of(TEST_CODE, issue));
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(UserRole.DEVELOPMENT.getMask());
+		when(this.userQueryRepository.getUserRoleMasksByUids(Collections.singletonList(TEST_NEXT_OPERATOR)))
+				.thenReturn(ImmutableMap.of(TEST_NEXT_OPERATOR, UserRole.BUSINESS.getMask()));
+
+		Map<String, ClientErrorCode> result = this.issueService.assignAll(codes, TEST_NEXT_OPERATOR, TEST_UID);
+
+		assertEquals(ClientErrorCode.ERROR_1492, result.get(TEST_CODE));
+		verify(this.issueCommandRepository, never()).assignOperatorsByCodes(any(), any(), any(), any());
+	}
 }
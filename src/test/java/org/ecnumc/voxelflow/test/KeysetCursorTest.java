@@ -0,0 +1,121 @@
+package org.ecnumc.voxelflow.test;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import org.ecnumc.voxelflow.bo.CursorPageBo;
+import org.ecnumc.voxelflow.po.Issue;
+import org.ecnumc.voxelflow.util.KeysetCursor;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * KeysetCursor 单元测试喵~
+ *
+ * @author liudongyu
+ */
+class KeysetCursorTest {
+	private static Issue issue(long id, long updatedAt) {
+		Issue issue = new Issue();
+		issue.setId(id);
+		issue.setUpdatedAt(new Date(updatedAt));
+		return issue;
+	}
+
+	/**
+	 * 测试最后一页不返回游标喵~
+	 */
+	@Test
+	void testLastPage() {
+		List<Issue> rows = Arrays.asList(issue(1L, 1000L), issue(2L, 1000L));
+		CursorPageBo<Issue> page = KeysetCursor.page(rows, "updated_at", false, 2, Issue::getUpdatedAt, Issue::getId);
+		assertEquals(2, page.getList().size());
+		assertNull(page.getNextCursor());
+	}
+
+	/**
+	 * 测试多查出的一条被截掉，游标可以用于下一页查询喵~
+	 */
+	@Test
+	void testNextCursor() {
+		List<Issue> rows = Arrays.asList(issue(3L, 3000L), issue(2L, 2000L), issue(1L, 1000L));
+		CursorPageBo<Issue> page = KeysetCursor.page(rows, "updated_at", false, 2, Issue::getUpdatedAt, Issue::getId);
+		assertEquals(2, page.getList().size());
+		assertNotNull(page.getNextCursor());
+
+		QueryWrapper<Issue> queryWrapper = KeysetCursor.seek(new QueryWrapper<>(), "updated_at", false, page.getNextCursor(), 2);
+		String sql = queryWrapper.getCustomSqlSegment();
+		assertTrue(sql.contains("updated_at <"));
+		assertTrue(sql.contains("id <"));
+		assertTrue(sql.contains("LIMIT 3"));
+		assertTrue(queryWrapper.getParamNameValuePairs().containsValue(new Date(2000L)));
+		assertTrue(queryWrapper.getParamNameValuePairs().containsValue(2L));
+	}
+
+	/**
+	 * 测试第一页不添加定位条件喵~
+	 */
+	@Test
+	void testFirstPage() {
+		String sql = KeysetCursor.seek(new QueryWrapper<Issue>(), "code", true, "", 20).getCustomSqlSegment();
+		assertFalse(sql.contains("code >"));
+		assertTrue(sql.contains("LIMIT 21"));
+	}
+
+	/**
+	 * 测试无效游标喵~
+	 */
+	@Test
+	void testInvalidCursor() {
+		assertThrows(IllegalArgumentException.class,
+				() -> KeysetCursor.seek(new QueryWrapper<Issue>(), "updated_at", false, "not a cursor", 20));
+	}
+
+	/**
+	 * 测试游标与排序方式不一致喵~
+	 */
+	@Test
+	void testMismatchedCursor() {
+		List<Issue> rows = Arrays.asList(issue(2L, 2000L), issue(1L, 1000L));
+		String cursor = KeysetCursor.page(rows, "updated_at", false, 1, Issue::getUpdatedAt, Issue::getId).getNextCursor();
+		assertThrows(IllegalArgumentException.class,
+				() -> KeysetCursor.seek(new QueryWrapper<Issue>(), "updated_at", true, cursor, 1));
+		assertThrows(IllegalArgumentException.class,
+				() -> KeysetCursor.seek(new QueryWrapper<Issue>(), "created_at", false, cursor, 1));
+	}
+
+	private static String encode(String json) {
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * 测试按排序字段校验游标中排序值的类型喵~
+	 */
+	@Test
+	void testCursorValueType() {
+		Issue second = issue(2L, 2000L);
+		second.setPriority(3);
+		List<Issue> rows = Arrays.asList(second, issue(1L, 1000L));
+		String cursor = KeysetCursor.page(rows, "priority", false, 1, Issue::getPriority, Issue::getId).getNextCursor();
+		QueryWrapper<Issue> queryWrapper = KeysetCursor.seek(new QueryWrapper<>(), "priority", false, cursor, 1);
+		assertTrue(queryWrapper.getParamNameValuePairs().containsValue(3));
+
+		assertThrows(IllegalArgumentException.class, () -> KeysetCursor.seek(
+				new QueryWrapper<Issue>(), "priority", false, encode("{\"c\":\"priority\",\"a\":false,\"i\":1,\"v\":\"3\"}"), 1
+		));
+		assertThrows(IllegalArgumentException.class, () -> KeysetCursor.seek(
+				new QueryWrapper<Issue>(), "updated_at", false, encode("{\"c\":\"updated_at\",\"a\":false,\"i\":1,\"v\":\"2024-01-01\"}"), 1
+		));
+		assertThrows(IllegalArgumentException.class, () -> KeysetCursor.seek(
+				new QueryWrapper<Issue>(), "code", true, encode("{\"c\":\"code\",\"a\":true,\"i\":1,\"v\":{\"x\":1}}"), 1
+		));
+		assertThrows(IllegalArgumentException.class, () -> KeysetCursor.seek(
+				new QueryWrapper<Issue>(), "code", true, encode("{\"c\":\"code\",\"a\":true,\"i\":1,\"v\":7}"), 1
+		));
+	}
+}
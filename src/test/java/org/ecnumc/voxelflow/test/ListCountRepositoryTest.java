@@ -0,0 +1,82 @@
+package org.ecnumc.voxelflow.test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.ecnumc.voxelflow.enumeration.CountMode;
+import org.ecnumc.voxelflow.repository.ListCountRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ListCountRepository 单元测试喵~
+ *
+ * @author liudongyu
+ */
+class ListCountRepositoryTest {
+	private ListCountRepository listCountRepository;
+
+	private final AtomicInteger counted = new AtomicInteger();
+
+	@BeforeEach
+	void setUp() {
+		this.listCountRepository = new ListCountRepository();
+		ReflectionTestUtils.setField(this.listCountRepository, "meterRegistry", new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(this.listCountRepository, "countCacheMaximumSize", 100L);
+		ReflectionTestUtils.setField(this.listCountRepository, "countCacheExpireSeconds", 30L);
+		this.listCountRepository.init();
+		this.counted.set(0);
+	}
+
+	private int count() {
+		this.counted.incrementAndGet();
+		return 100;
+	}
+
+	/**
+	 * 测试最后一页不执行 COUNT 查询喵~
+	 */
+	@Test
+	void testLastPageSkipsCount() {
+		int total = this.listCountRepository.count("issue", Arrays.asList("a", null), CountMode.EXACT, 3, 20, 5, false, this::count);
+		assertEquals(45, total);
+		assertEquals(0, this.counted.get());
+	}
+
+	/**
+	 * 测试不统计总数喵~
+	 */
+	@Test
+	void testNone() {
+		assertEquals(-1, this.listCountRepository.count("issue", Arrays.asList("a", null), CountMode.NONE, 1, 20, 20, true, this::count));
+		assertEquals(0, this.counted.get());
+	}
+
+	/**
+	 * 测试精确统计每次都执行 COUNT 查询喵~
+	 */
+	@Test
+	void testExact() {
+		this.listCountRepository.count("issue", Arrays.asList("a", null), CountMode.EXACT, 1, 20, 20, true, this::count);
+		assertEquals(100, this.listCountRepository.count("issue", Arrays.asList("a", null), CountMode.EXACT, 1, 20, 20, true, this::count));
+		assertEquals(2, this.counted.get());
+	}
+
+	/**
+	 * 测试近似统计复用同一筛选条件的缓存喵~
+	 */
+	@Test
+	void testApproximate() {
+		this.listCountRepository.count("issue", Arrays.asList("a", null), CountMode.APPROXIMATE, 1, 20, 20, true, this::count);
+		assertEquals(100, this.listCountRepository.count("issue", Arrays.asList("a", null), CountMode.APPROXIMATE, 2, 20, 20, true, this::count));
+		assertEquals(1, this.counted.get());
+		this.listCountRepository.count("story", Arrays.asList("a", null), CountMode.APPROXIMATE, 1, 20, 20, true, this::count);
+		assertEquals(2, this.counted.get());
+		// 缓存的总数不能少于已经看到的记录数
+		assertEquals(201, this.listCountRepository.count("issue", Arrays.asList("a", null), CountMode.APPROXIMATE, 10, 20, 20, true, this::count));
+	}
+}
@@ -0,0 +1,99 @@
+package org.ecnumc.voxelflow.test;
+
+import org.ecnumc.voxelflow.migration.MigrationScript;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * MigrationScript 单元测试喵~
+ *
+ * @author liudongyu
+ */
+class MigrationScriptTest {
+	/**
+	 * 测试解析文件名和拆分语句喵~
+	 */
+	@Test
+	void testParse() {
+		MigrationScript script = MigrationScript.parse("V3__add_index.sql",
+				"-- 注释\nALTER TABLE `issue`\n    ADD KEY `idx_a` (`a`);\n\nALTER TABLE `story` ADD KEY `idx_b` (`b`);\n");
+		assertEquals(3, script.getVersion());
+		assertEquals("add index", script.getDescription());
+		List<String> statements = script.getStatements();
+		assertEquals(2, statements.size());
+		assertEquals("ALTER TABLE `issue`\n    ADD KEY `idx_a` (`a`)", statements.get(0));
+		assertEquals(64, script.getChecksum().length());
+	}
+
+	/**
+	 * 测试校验和与换行符无关、与内容有关喵~
+	 */
+	@Test
+	void testChecksum() {
+		String unix = MigrationScript.parse("V1__a.sql", "SELECT 1;\n").getChecksum();
+		assertEquals(unix, MigrationScript.parse("V1__a.sql", "SELECT 1;\r\n").getChecksum());
+		assertNotEquals(unix, MigrationScript.parse("V1__a.sql", "SELECT 2;\n").getChecksum());
+	}
+
+	/**
+	 * 测试非法文件名喵~
+	 */
+	@Test
+	void testInvalidFileName() {
+		assertThrows(IllegalArgumentException.class, () -> MigrationScript.parse("add_index.sql", "SELECT 1;"));
+	}
+
+	/**
+	 * 测试识别破坏性语句喵~
+	 */
+	@Test
+	void testDestructive() {
+		assertTrue(MigrationScript.isDestructive("DROP TABLE IF EXISTS `issue`"));
+		assertTrue(MigrationScript.isDestructive("ALTER TABLE `issue` DROP COLUMN `title`"));
+		assertTrue(MigrationScript.isDestructive("ALTER TABLE `issue` MODIFY `title` varchar(10)"));
+		assertTrue(MigrationScript.isDestructive("truncate `issue`"));
+		assertFalse(MigrationScript.isDestructive("ALTER TABLE `issue` ADD KEY `idx_a` (`a`)"));
+		assertFalse(MigrationScript.isDestructive("CREATE TABLE `a` (`id` bigint)"));
+	}
+
+	/**
+	 * 测试 DROP INDEX、DROP TRIGGER、多表 DELETE、RENAME 和不带 WHERE 的 UPDATE 都被识别喵~
+	 */
+	@Test
+	void testDestructiveStatements() {
+		assertTrue(MigrationScript.isDestructive("DROP INDEX `idx_a` ON `issue`"));
+		assertTrue(MigrationScript.isDestructive("DROP TRIGGER `trg_issue`"));
+		assertTrue(MigrationScript.isDestructive("DROP PROCEDURE IF EXISTS `p`"));
+		assertTrue(MigrationScript.isDestructive("DELETE t FROM `issue` t JOIN `story` s ON t.code = s.code"));
+		assertTrue(MigrationScript.isDestructive("RENAME TABLE `issue` TO `issue_old`"));
+		assertTrue(MigrationScript.isDestructive("UPDATE `issue` SET `status` = 'CLOSED'"));
+		assertFalse(MigrationScript.isDestructive("UPDATE `issue` SET `status` = 'CLOSED' WHERE `id` = 1"));
+	}
+
+	/**
+	 * 测试语句开头的注释不能绕过破坏性语句检查喵~
+	 */
+	@Test
+	void testDestructiveAfterLeadingComments() {
+		assertTrue(MigrationScript.isDestructive("/* 清理旧索引 */ DROP INDEX `idx_a` ON `issue`"));
+		assertTrue(MigrationScript.isDestructive("/* a */\n/* b */ TRUNCATE `issue`"));
+		assertTrue(MigrationScript.isDestructive("# 注释\nDELETE FROM `issue`"));
+		assertTrue(MigrationScript.isDestructive("-- 注释\nUPDATE `issue` SET `title` = ''"));
+		assertFalse(MigrationScript.isDestructive("/* DROP */ ALTER TABLE `issue` ADD KEY `idx_a` (`a`)"));
+	}
+
+	/**
+	 * 测试 ALTER TABLE 加上在线执行选项喵~
+	 */
+	@Test
+	void testOnlineOptions() {
+		assertEquals("ALTER TABLE `issue` ADD KEY `idx_a` (`a`), ALGORITHM=INPLACE, LOCK=NONE",
+				MigrationScript.withOnlineOptions("ALTER TABLE `issue` ADD KEY `idx_a` (`a`)"));
+		assertEquals("ALTER TABLE `issue` ADD KEY `idx_a` (`a`), ALGORITHM=COPY",
+				MigrationScript.withOnlineOptions("ALTER TABLE `issue` ADD KEY `idx_a` (`a`), ALGORITHM=COPY"));
+		assertEquals("CREATE TABLE `a` (`id` bigint)", MigrationScript.withOnlineOptions("CREATE TABLE `a` (`id` bigint)"));
+	}
+}
@@ -0,0 +1,330 @@
+package org.ecnumc.voxelflow.test;
+
+import org.apache.ibatis.cache.CacheKey;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.ecnumc.voxelflow.Application;
+import org.ecnumc.voxelflow.enumeration.IssueStatus;
+import org.ecnumc.voxelflow.enumeration.RequirementStatus;
+import org.ecnumc.voxelflow.enumeration.RetrospectiveStatus;
+import org.ecnumc.voxelflow.enumeration.StoryStatus;
+import org.ecnumc.voxelflow.po.Issue;
+import org.ecnumc.voxelflow.repository.CommitQueryRepository;
+import org.ecnumc.voxelflow.repository.IssueQueryRepository;
+import org.ecnumc.voxelflow.repository.RequirementQueryRepository;
+import org.ecnumc.voxelflow.repository.RetrospectiveQueryRepository;
+import org.ecnumc.voxelflow.repository.StoryQueryRepository;
+import org.ecnumc.voxelflow.repository.UserQueryRepository;
+import org.ecnumc.voxelflow.util.KeysetCursor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 调用 Repository 的主要查询，对实际生成的 SQL 执行 EXPLAIN，检查索引是否可用喵~
+ * <p>
+ * 需要连接已执行过全部迁移脚本的 MySQL，默认跳过，通过 {@code -Dvoxelflow.explain-test=true} 启用。
+ * SQL 和绑定参数由 {@link StatementRecorder} 在 Mapper 执行时记录，QueryWrapper 的改动会直接反映到检查结果中。
+ * 既是全表扫描、又没有任何可用索引时判定失败；带 ORDER BY 和 LIMIT 的查询出现 {@code Using filesort} 时也判定失败，
+ * 按全文检索相关度排序、或全文检索后再排序的查询无法避免排序，不检查 filesort。
+ * </p>
+ *
+ * @author liudongyu
+ */
+@SpringBootTest(classes = Application.class)
+@Import(QueryIndexExplainTest.StatementRecorder.class)
+@EnabledIfSystemProperty(named = "voxelflow.explain-test", matches = "true")
+class QueryIndexExplainTest {
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private StatementRecorder statementRecorder;
+
+	@Autowired
+	private IssueQueryRepository issueQueryRepository;
+
+	@Autowired
+	private StoryQueryRepository storyQueryRepository;
+
+	@Autowired
+	private RequirementQueryRepository requirementQueryRepository;
+
+	@Autowired
+	private RetrospectiveQueryRepository retrospectiveQueryRepository;
+
+	@Autowired
+	private CommitQueryRepository commitQueryRepository;
+
+	@Autowired
+	private UserQueryRepository userQueryRepository;
+
+	private static final List<String> NO_TITLES = Collections.emptyList();
+
+	/**
+	 * 长度不小于 ngram 分词长度，走全文索引
+	 */
+	private static final List<String> TITLES = Collections.singletonList("登录");
+
+	/**
+	 * 英文关键词，分词 in 在 InnoDB 默认停用词表中，建索引时需要关闭停用词
+	 */
+	private static final List<String> LATIN_TITLES = Collections.singletonList("login");
+
+	private static final List<String> CODES = Arrays.asList("X-1", "X-2");
+
+	/**
+	 * 按更新时间倒序的第二页游标，检查定位条件能否使用索引
+	 */
+	private static final String UPDATED_AT_CURSOR = cursor();
+
+	private static String cursor() {
+		Issue first = new Issue();
+		first.setId(2L);
+		first.setUpdatedAt(new Date());
+		Issue second = new Issue();
+		second.setId(1L);
+		second.setUpdatedAt(new Date());
+		return KeysetCursor.page(Arrays.asList(first, second), "updated_at", false, 1, Issue::getUpdatedAt, Issue::getId)
+				.getNextCursor();
+	}
+
+	/**
+	 * 待检查的 Repository 调用
+	 * @return 调用名 -> 调用
+	 */
+	private Map<String, Runnable> calls() {
+		Map<String, Runnable> calls = new LinkedHashMap<>();
+
+		String issueStatus = IssueStatus.REVIEWING.name();
+		calls.put("issue.list(status)", () -> this.issueQueryRepository.list(NO_TITLES, issueStatus, null, 2, 20, "updated_at", "desc"));
+		calls.put("issue.list(status, priority)", () -> this.issueQueryRepository.list(NO_TITLES, issueStatus, 2, 1, 20, "priority", "desc"));
+		calls.put("issue.list(priority)", () -> this.issueQueryRepository.list(NO_TITLES, null, 2, 1, 20, null, null));
+		calls.put("issue.list()", () -> this.issueQueryRepository.list(NO_TITLES, null, null, 1, 20, null, null));
+		calls.put("issue.list(titles)", () -> this.issueQueryRepository.list(TITLES, null, null, 1, 20, null, null));
+		calls.put("issue.list(latin titles)", () -> this.issueQueryRepository.list(LATIN_TITLES, null, null, 1, 20, null, null));
+		calls.put("issue.listCount(titles, status)", () -> this.issueQueryRepository.listCount(TITLES, issueStatus, null));
+		calls.put("issue.listCount(status, priority)", () -> this.issueQueryRepository.listCount(NO_TITLES, issueStatus, 2));
+		calls.put("issue.listByCursor()", () -> this.issueQueryRepository.listByCursor(NO_TITLES, null, null, 20, null, null, UPDATED_AT_CURSOR));
+		calls.put("issue.listByCursor(status)", () -> this.issueQueryRepository.listByCursor(NO_TITLES, issueStatus, null, 20, null, null, UPDATED_AT_CURSOR));
+		calls.put("issue.listByCursor(priority)", () -> this.issueQueryRepository.listByCursor(NO_TITLES, null, 2, 20, null, null, UPDATED_AT_CURSOR));
+		calls.put("issue.listByCursor(titles)", () -> this.issueQueryRepository.listByCursor(TITLES, null, null, 20, null, null, null));
+		calls.put("issue.countUnassigned", () -> this.issueQueryRepository.countUnassigned());
+		calls.put("issue.getCountsByUid", () -> this.issueQueryRepository.getCountsByUid("u"));
+		calls.put("issue.countAssignedByUid", () -> this.issueQueryRepository.countAssignedByUid());
+		calls.put("issue.getApprovalState", () -> this.issueQueryRepository.getApprovalState("X-1"));
+		calls.put("issue.getIssuesByCodes", () -> this.issueQueryRepository.getIssuesByCodes(CODES));
+		calls.put("issue.getPendingRelationList", () -> this.issueQueryRepository.getPendingRelationList("X-1", IssueStatus.REVIEWING));
+		calls.put("issue.getPendingRelationCounts", () -> this.issueQueryRepository.getPendingRelationCounts(CODES, IssueStatus.REVIEWING));
+
+		String storyStatus = StoryStatus.PROGRESSING.name();
+		calls.put("story.list(status)", () -> this.storyQueryRepository.list(NO_TITLES, storyStatus, null, 2, 20, "updated_at", "desc"));
+		calls.put("story.list(status, priority)", () -> this.storyQueryRepository.list(NO_TITLES, storyStatus, 2, 1, 20, "priority", "desc"));
+		calls.put("story.list(priority)", () -> this.storyQueryRepository.list(NO_TITLES, null, 2, 1, 20, null, null));
+		calls.put("story.list()", () -> this.storyQueryRepository.list(NO_TITLES, null, null, 1, 20, null, null));
+		calls.put("story.list(titles)", () -> this.storyQueryRepository.list(TITLES, null, null, 1, 20, null, null));
+		calls.put("story.listCount(titles, status)", () -> this.storyQueryRepository.listCount(TITLES, storyStatus, null));
+		calls.put("story.listByCursor()", () -> this.storyQueryRepository.listByCursor(NO_TITLES, null, null, 20, null, null, UPDATED_AT_CURSOR));
+		calls.put("story.listByCursor(status)", () -> this.storyQueryRepository.listByCursor(NO_TITLES, storyStatus, null, 20, null, null, UPDATED_AT_CURSOR));
+		calls.put("story.listByCursor(priority)", () -> this.storyQueryRepository.listByCursor(NO_TITLES, null, 2, 20, null, null, UPDATED_AT_CURSOR));
+		calls.put("story.countUnassigned", () -> this.storyQueryRepository.countUnassigned());
+		calls.put("story.getCountsByUid", () -> this.storyQueryRepository.getCountsByUid("u"));
+		calls.put("story.countAssignedByUid", () -> this.storyQueryRepository.countAssignedByUid());
+		calls.put("story.getStorysByCodes", () -> this.storyQueryRepository.getStorysByCodes(CODES));
+		calls.put("story.getPendingRelationList", () -> this.storyQueryRepository.getPendingRelationList("X-1", StoryStatus.PROGRESSING));
+		calls.put("story.getPendingRelationCounts", () -> this.storyQueryRepository.getPendingRelationCounts(CODES, StoryStatus.PROGRESSING));
+
+		String requirementStatus = RequirementStatus.REVIEWING.name();
+		calls.put("requirement.list(status)", () -> this.requirementQueryRepository.list(NO_TITLES, requirementStatus, null, 2, 20, "updated_at", "desc"));
+		calls.put("requirement.list(status, priority)", () -> this.requirementQueryRepository.list(NO_TITLES, requirementStatus, 2, 1, 20, "priority", "desc"));
+		calls.put("requirement.list(priority)", () -> this.requirementQueryRepository.list(NO_TITLES, null, 2, 1, 20, null, null));
+		calls.put("requirement.list()", () -> this.requirementQueryRepository.list(NO_TITLES, null, null, 1, 20, null, null));
+		calls.put("requirement.list(titles)", () -> this.requirementQueryRepository.list(TITLES, null, null, 1, 20, null, null));
+		calls.put("requirement.listCount(titles, status)", () -> this.requirementQueryRepository.listCount(TITLES, requirementStatus, null));
+		calls.put("requirement.listByCursor()", () -> this.requirementQueryRepository.listByCursor(NO_TITLES, null, null, 20, null, null, UPDATED_AT_CURSOR));
+		calls.put("requirement.listByCursor(status)", () -> this.requirementQueryRepository.listByCursor(NO_TITLES, requirementStatus, null, 20, null, null, UPDATED_AT_CURSOR));
+		calls.put("requirement.listByCursor(priority)", () -> this.requirementQueryRepository.listByCursor(NO_TITLES, null, 2, 20, null, null, UPDATED_AT_CURSOR));
+		calls.put("requirement.countUnassigned", () -> this.requirementQueryRepository.countUnassigned());
+		calls.put("requirement.getCountsByUid", () -> this.requirementQueryRepository.getCountsByUid("u"));
+		calls.put("requirement.countAssignedByUid", () -> this.requirementQueryRepository.countAssignedByUid());
+		calls.put("requirement.getRequirementsByCodes", () -> this.requirementQueryRepository.getRequirementsByCodes(CODES));
+		calls.put("requirement.getPendingRelationList", () -> this.requirementQueryRepository.getPendingRelationList("X-1", RequirementStatus.REVIEWING));
+		calls.put("requirement.getPendingRelationCounts", () -> this.requirementQueryRepository.getPendingRelationCounts(CODES, RequirementStatus.REVIEWING));
+
+		String retrospectiveStatus = RetrospectiveStatus.READY.name();
+		calls.put("retrospective.list(status)", () -> this.retrospectiveQueryRepository.list(NO_TITLES, retrospectiveStatus, 2, 20, "updated_at", "desc"));
+		calls.put("retrospective.list()", () -> this.retrospectiveQueryRepository.list(NO_TITLES, null, 1, 20, null, null));
+		calls.put("retrospective.list(titles)", () -> this.retrospectiveQueryRepository.list(TITLES, null, 1, 20, null, null));
+		calls.put("retrospective.listByCursor(status)", () -> this.retrospectiveQueryRepository.listByCursor(NO_TITLES, retrospectiveStatus, 20, null, null, UPDATED_AT_CURSOR));
+		calls.put("retrospective.getRetrospectivesByCodes", () -> this.retrospectiveQueryRepository.getRetrospectivesByCodes(CODES));
+		calls.put("retrospective.getPendingRelationList", () -> this.retrospectiveQueryRepository.getPendingRelationList("X-1", RetrospectiveStatus.READY));
+
+		calls.put("commit.getAll", () -> this.commitQueryRepository.getAll(2, 20));
+		calls.put("commit.getByCode", () -> this.commitQueryRepository.getByCode("X-1", 1, 20));
+		calls.put("commit.getByCodeAndType", () -> this.commitQueryRepository.getByCodeAndType("X-1", "feat", 1, 20));
+		calls.put("commit.getByCodeAndUid", () -> this.commitQueryRepository.getByCodeAndUid("X-1", "u", 1, 20));
+		calls.put("commit.getByCodeAndUidAndType", () -> this.commitQueryRepository.getByCodeAndUidAndType("X-1", "u", "feat", 1, 20));
+		calls.put("commit.getByUid", () -> this.commitQueryRepository.getByUid("u", 1, 20));
+		calls.put("commit.countByCodeAndUidAndType", () -> this.commitQueryRepository.countByCodeAndUidAndType("X-1", "u", "feat"));
+		calls.put("commit.getByCursor(code)", () -> this.commitQueryRepository.getByCursor("X-1", null, null, 20, UPDATED_AT_CURSOR));
+		calls.put("commit.getByCursor(uid)", () -> this.commitQueryRepository.getByCursor(null, "u", null, 20, UPDATED_AT_CURSOR));
+		calls.put("commit.getByCursor(code, type)", () -> this.commitQueryRepository.getByCursor("X-1", null, "feat", 20, UPDATED_AT_CURSOR));
+
+		calls.put("user.getByEmails", () -> this.userQueryRepository.getByEmails(Arrays.asList("a@example.com", "b@example.com")));
+		// 随机 UID 不会命中角色缓存
+		calls.put("user.getUserRoleMasksByUids", () -> this.userQueryRepository.getUserRoleMasksByUids(
+				Arrays.asList("explain-" + System.nanoTime(), "explain-" + (System.nanoTime() + 1L))
+		));
+		return calls;
+	}
+
+	/**
+	 * 测试所有查询都使用了索引，分页查询不需要额外排序喵~
+	 */
+	@Test
+	void testIndexUsage() {
+		List<String> failures = new ArrayList<>();
+		int explained = 0;
+		for(Map.Entry<String, Runnable> call: this.calls().entrySet()) {
+			List<StatementRecorder.RecordedStatement> statements = this.statementRecorder.record(call.getValue());
+			assertFalse(statements.isEmpty(), call.getKey() + " did not execute any statement");
+			for(StatementRecorder.RecordedStatement statement: statements) {
+				String sql = statement.sql.replaceAll("\\s+", " ").trim();
+				String upper = sql.toUpperCase(Locale.ROOT);
+				boolean checkFilesort = upper.contains("ORDER BY") && upper.contains("LIMIT") && !upper.contains("MATCH(");
+				for(Map<String, Object> row: this.jdbcTemplate.queryForList("EXPLAIN " + sql, statement.parameters.toArray())) {
+					Object extra = row.get("Extra");
+					if("ALL".equals(row.get("type")) && row.get("possible_keys") == null) {
+						failures.add(call.getKey() + ": full table scan without usable index: " + sql);
+					} else if(checkFilesort && extra != null && extra.toString().contains("Using filesort")) {
+						failures.add(call.getKey() + ": filesort for ORDER BY ... LIMIT (key=" + row.get("key") + "): " + sql);
+					}
+				}
+				++explained;
+			}
+		}
+		assertTrue(explained > 0);
+		assertTrue(failures.isEmpty(), "Queries without a suitable index:\n" + String.join("\n", failures));
+	}
+
+	/**
+	 * 测试英文关键词能检索到标题中包含它的缺陷，全文索引没有按停用词丢弃分词喵~
+	 * <p>
+	 * 全文索引只包含已提交的数据，测试数据插入后直接提交，结束时删除。
+	 * </p>
+	 */
+	@Test
+	void testLatinKeywordMatches() {
+		String code = "EXPLAIN-" + System.nanoTime();
+		// 第二个关键词只出现在测试数据中，结果不受库中已有数据影响
+		String marker = "x" + System.nanoTime();
+		this.jdbcTemplate.update("INSERT INTO `issue` (`code`, `title`, `description`) VALUES (?, ?, ?)", code, "login timeout " + marker, "");
+		try {
+			List<String> keywords = new ArrayList<>(LATIN_TITLES);
+			keywords.add(marker);
+			List<Issue> issues = this.issueQueryRepository.list(keywords, null, null, 1, 20, null, null);
+			assertTrue(issues.stream().anyMatch(issue -> code.equals(issue.getCode())), "Latin keyword did not match: " + code);
+		} finally {
+			this.jdbcTemplate.update("DELETE FROM `issue` WHERE `code` = ?", code);
+		}
+	}
+
+	/**
+	 * 记录当前线程执行的查询语句和绑定参数，供 EXPLAIN 使用喵~
+	 */
+	@Intercepts({
+			@Signature(type = Executor.class, method = "query", args = { MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class }),
+			@Signature(type = Executor.class, method = "query", args = { MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class, CacheKey.class, BoundSql.class })
+	})
+	static class StatementRecorder implements Interceptor {
+		private final ThreadLocal<List<RecordedStatement>> recording = new ThreadLocal<>();
+
+		/**
+		 * 执行调用并返回其间当前线程执行的查询，其它线程的查询不记录
+		 * @param call	调用
+		 * @return 查询语句
+		 */
+		List<RecordedStatement> record(Runnable call) {
+			List<RecordedStatement> statements = new ArrayList<>();
+			this.recording.set(statements);
+			try {
+				call.run();
+			} finally {
+				this.recording.remove();
+			}
+			return statements;
+		}
+
+		@Override
+		public Object intercept(Invocation invocation) throws Throwable {
+			List<RecordedStatement> statements = this.recording.get();
+			if(statements != null) {
+				Object[] args = invocation.getArgs();
+				MappedStatement statement = (MappedStatement) args[0];
+				BoundSql boundSql = args.length > 5 ? (BoundSql) args[5] : statement.getBoundSql(args[1]);
+				statements.add(new RecordedStatement(boundSql.getSql(), parameters(statement.getConfiguration(), boundSql)));
+			}
+			return invocation.proceed();
+		}
+
+		/**
+		 * 按 DefaultParameterHandler 的规则取出绑定参数的值
+		 */
+		private static List<Object> parameters(Configuration configuration, BoundSql boundSql) {
+			Object parameterObject = boundSql.getParameterObject();
+			List<Object> values = new ArrayList<>();
+			for(ParameterMapping mapping: boundSql.getParameterMappings()) {
+				String property = mapping.getProperty();
+				if(boundSql.hasAdditionalParameter(property)) {
+					values.add(boundSql.getAdditionalParameter(property));
+				} else if(parameterObject == null) {
+					values.add(null);
+				} else if(configuration.getTypeHandlerRegistry().hasTypeHandler(parameterObject.getClass())) {
+					values.add(parameterObject);
+				} else {
+					MetaObject metaObject = configuration.newMetaObject(parameterObject);
+					values.add(metaObject.getValue(property));
+				}
+			}
+			return values;
+		}
+
+		/**
+		 * 记录的查询
+		 */
+		static final class RecordedStatement {
+			final String sql;
+
+			final List<Object> parameters;
+
+			private RecordedStatement(String sql, List<Object> parameters) {
+				this.sql = sql;
+				this.parameters = parameters;
+			}
+		}
+	}
+}
@@ -0,0 +1,260 @@
+package org.ecnumc.voxelflow.test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.ecnumc.voxelflow.lock.RedisDistributedLock;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.listener.Topic;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Redis 分布式锁单元测试，锁脚本由内存中的 {@link FakeRedisTemplate} 按相同语义执行喵~
+ *
+ * @author liudongyu
+ */
+class RedisDistributedLockTest {
+	private static final String TEST_KEY = "test_lock";
+
+	private RedisDistributedLock redisDistributedLock;
+
+	private FakeRedisTemplate redisTemplate;
+
+	/**
+	 * 另一个持有者，单线程保证每次调用使用同一个持有者令牌
+	 */
+	private ExecutorService other;
+
+	@BeforeEach
+	void setUp() {
+		this.redisTemplate = new FakeRedisTemplate();
+		RedisMessageListenerContainer container = mock(RedisMessageListenerContainer.class);
+		doAnswer(invocation -> {
+			this.redisTemplate.listener = invocation.getArgument(0);
+			return null;
+		}).when(container).addMessageListener(any(MessageListener.class), any(Topic.class));
+		this.redisDistributedLock = new RedisDistributedLock();
+		ReflectionTestUtils.setField(this.redisDistributedLock, "redisTemplate", this.redisTemplate);
+		ReflectionTestUtils.setField(this.redisDistributedLock, "redisMessageListenerContainer", container);
+		ReflectionTestUtils.setField(this.redisDistributedLock, "meterRegistry", new SimpleMeterRegistry());
+		// 兜底轮询足够长，等待线程只能由释放通知唤醒
+		ReflectionTestUtils.setField(this.redisDistributedLock, "fallbackPollMillis", 10000L);
+		ReflectionTestUtils.setField(this.redisDistributedLock, "maxRenewals", 720);
+		this.redisDistributedLock.init();
+		this.other = Executors.newSingleThreadExecutor();
+	}
+
+	@AfterEach
+	void tearDown() {
+		this.other.shutdownNow();
+		this.redisDistributedLock.destroy();
+	}
+
+	private <T> T inOther(Callable<T> call) throws Exception {
+		return this.other.submit(call).get(5L, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * 测试只有持有者能释放锁，其它线程解锁不影响持有者喵~
+	 */
+	@Test
+	void testReleaseOnlyByOwner() throws Exception {
+		assertTrue(this.redisDistributedLock.tryLock(TEST_KEY, 0L, 30L, TimeUnit.SECONDS));
+
+		this.inOther(() -> {
+			this.redisDistributedLock.unlock(TEST_KEY);
+			return null;
+		});
+
+		assertTrue(this.redisTemplate.isHeld(TEST_KEY));
+		assertFalse(this.inOther(() -> this.redisDistributedLock.tryLock(TEST_KEY, 0L, 30L, TimeUnit.SECONDS)));
+		this.redisDistributedLock.unlock(TEST_KEY);
+		assertFalse(this.redisTemplate.isHeld(TEST_KEY));
+	}
+
+	/**
+	 * 测试同一线程可以重入，重入多少次就需要释放多少次喵~
+	 */
+	@Test
+	void testReentrant() throws Exception {
+		assertTrue(this.redisDistributedLock.tryLock(TEST_KEY, 0L, 30L, TimeUnit.SECONDS));
+		assertTrue(this.redisDistributedLock.tryLock(TEST_KEY, 0L, 30L, TimeUnit.SECONDS));
+
+		this.redisDistributedLock.unlock(TEST_KEY);
+		assertFalse(this.inOther(() -> this.redisDistributedLock.tryLock(TEST_KEY, 0L, 30L, TimeUnit.SECONDS)));
+
+		this.redisDistributedLock.unlock(TEST_KEY);
+		assertTrue(this.inOther(() -> this.redisDistributedLock.tryLock(TEST_KEY, 0L, 30L, TimeUnit.SECONDS)));
+		this.inOther(() -> {
+			this.redisDistributedLock.unlock(TEST_KEY);
+			return null;
+		});
+	}
+
+	/**
+	 * 测试等待线程由释放通知唤醒，不需要等到兜底轮询喵~
+	 */
+	@Test
+	void testWaiterWokenByRelease() throws Exception {
+		assertTrue(this.redisDistributedLock.tryLock(TEST_KEY, 0L, 30L, TimeUnit.SECONDS));
+		Future<Boolean> waiting = this.other.submit(() -> this.redisDistributedLock.tryLock(TEST_KEY, 5L, 30L, TimeUnit.SECONDS));
+		Thread.sleep(100L);
+
+		long start = System.currentTimeMillis();
+		this.redisDistributedLock.unlock(TEST_KEY);
+
+		assertTrue(waiting.get(5L, TimeUnit.SECONDS));
+		assertTrue(System.currentTimeMillis() - start < 2000L);
+	}
+
+	/**
+	 * 测试看门狗在租期内续期，解锁后停止续期喵~
+	 */
+	@Test
+	void testWatchdogRenewsUntilUnlock() throws Exception {
+		assertTrue(this.redisDistributedLock.tryLock(TEST_KEY, 0L, 150L, TimeUnit.MILLISECONDS));
+
+		Thread.sleep(500L);
+		assertTrue(this.redisTemplate.isHeld(TEST_KEY));
+		assertTrue(this.redisTemplate.renewals.get() >= 2);
+
+		this.redisDistributedLock.unlock(TEST_KEY);
+		Thread.sleep(50L);
+		int renewals = this.redisTemplate.renewals.get();
+		Thread.sleep(200L);
+		assertEquals(renewals, this.redisTemplate.renewals.get());
+	}
+
+	/**
+	 * 测试解锁时访问 Redis 失败也停止续期，锁在租期结束后过期喵~
+	 */
+	@Test
+	void testUnlockFailureStopsRenewal() throws Exception {
+		assertTrue(this.redisDistributedLock.tryLock(TEST_KEY, 0L, 150L, TimeUnit.MILLISECONDS));
+		this.redisTemplate.failRelease = true;
+
+		assertThrows(RedisConnectionFailureException.class, () -> this.redisDistributedLock.unlock(TEST_KEY));
+
+		int renewals = this.redisTemplate.renewals.get();
+		Thread.sleep(300L);
+		assertEquals(renewals, this.redisTemplate.renewals.get());
+		assertFalse(this.redisTemplate.isHeld(TEST_KEY));
+	}
+
+	/**
+	 * 测试持有线程一直存活但长时间没有重入或解锁时，达到续期次数上限后停止续期，锁按租期过期喵~
+	 */
+	@Test
+	void testRenewalLimitWithoutActivity() throws Exception {
+		ReflectionTestUtils.setField(this.redisDistributedLock, "maxRenewals", 2);
+		assertTrue(this.redisDistributedLock.tryLock(TEST_KEY, 0L, 90L, TimeUnit.MILLISECONDS));
+
+		Thread.sleep(400L);
+
+		assertEquals(2, this.redisTemplate.renewals.get());
+		assertFalse(this.redisTemplate.isHeld(TEST_KEY));
+		assertTrue(this.inOther(() -> this.redisDistributedLock.tryLock(TEST_KEY, 0L, 30L, TimeUnit.SECONDS)));
+	}
+
+	/**
+	 * 按加锁、解锁、续期脚本的语义在内存中执行，带有过期时间和释放通知喵~
+	 */
+	private static final class FakeRedisTemplate extends RedisTemplate<String, String> {
+		/**
+		 * 锁 -> 持有者令牌 -> 重入次数
+		 */
+		private final Map<String, Map<String, Long>> hashes = new HashMap<>();
+
+		/**
+		 * 锁 -> 过期时刻
+		 */
+		private final Map<String, Long> expireAt = new HashMap<>();
+
+		/**
+		 * 续期脚本的执行次数
+		 */
+		private final AtomicInteger renewals = new AtomicInteger();
+
+		private volatile boolean failRelease;
+
+		private volatile MessageListener listener;
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public synchronized <T> T execute(RedisScript<T> script, List<String> keys, Object... args) {
+			String key = keys.get(0);
+			this.expire(key);
+			Map<String, Long> hash = this.hashes.get(key);
+			String source = script.getScriptAsString();
+			if(source.contains("pttl")) {
+				String token = (String) args[1];
+				if(hash == null || hash.containsKey(token)) {
+					this.hashes.computeIfAbsent(key, k -> new HashMap<>()).merge(token, 1L, Long::sum);
+					this.expireAt.put(key, System.currentTimeMillis() + Long.parseLong((String) args[0]));
+					return null;
+				}
+				return (T) Long.valueOf(Math.max(this.expireAt.get(key) - System.currentTimeMillis(), 0L));
+			}
+			String token = (String) args[0];
+			if(source.contains("publish")) {
+				if(this.failRelease) {
+					throw new RedisConnectionFailureException("Redis is down");
+				}
+				if(hash == null || !hash.containsKey(token)) {
+					return (T) Long.valueOf(-1L);
+				}
+				long count = hash.merge(token, -1L, Long::sum);
+				if(count > 0L) {
+					this.expireAt.put(key, System.currentTimeMillis() + Long.parseLong((String) args[1]));
+					return (T) Long.valueOf(0L);
+				}
+				this.hashes.remove(key);
+				this.expireAt.remove(key);
+				this.listener.onMessage(new DefaultMessage(
+						((String) args[2]).getBytes(StandardCharsets.UTF_8), key.getBytes(StandardCharsets.UTF_8)
+				), null);
+				return (T) Long.valueOf(1L);
+			}
+			this.renewals.incrementAndGet();
+			if(hash == null || !hash.containsKey(token)) {
+				return (T) Long.valueOf(0L);
+			}
+			this.expireAt.put(key, System.currentTimeMillis() + Long.parseLong((String) args[1]));
+			return (T) Long.valueOf(1L);
+		}
+
+		private synchronized boolean isHeld(String key) {
+			this.expire(key);
+			return this.hashes.containsKey(key);
+		}
+
+		private void expire(String key) {
+			Long at = this.expireAt.get(key);
+			if(at != null && at <= System.currentTimeMillis()) {
+				this.hashes.remove(key);
+				this.expireAt.remove(key);
+			}
+		}
+	}
+}
@@ -1,8 +1,11 @@
 package org.ecnumc.voxelflow.test;
 
+import com.google.common.collect.ImmutableMap;
 import org.ecnumc.voxelflow.Application;
+import org.ecnumc.voxelflow.bo.ApprovalStateBo;
 import org.ecnumc.voxelflow.converter.RequirementConverter;
 import org.ecnumc.voxelflow.enumeration.ClientErrorCode;
+import org.ecnumc.voxelflow.enumeration.RelationType;
 import org.ecnumc.voxelflow.enumeration.RequirementStatus;
 import org.ecnumc.voxelflow.enumeration.UserRole;
 import org.ecnumc.voxelflow.po.Requirement;
@@ -13,14 +16,21 @@ import org.ecnumc.voxelflow.resp.RequirementResp;
 import org.ecnumc.voxelflow.service.RequirementService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.springframework.aop.framework.ProxyFactory;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.AnnotationTransactionAttributeSource;
+import org.springframework.transaction.interceptor.TransactionInterceptor;
+import org.springframework.transaction.support.SimpleTransactionStatus;
 
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
@@ -67,6 +77,13 @@ class RequirementServiceTest {
 		return requirement;
 	}
 
+	private ApprovalStateBo createTestApprovalState(Requirement requirement) {
+		return ApprovalStateBo.builder()
+				.status(requirement.getStatus())
+				.pendingUids(Collections.singletonList(TEST_UID))
+				.build();
+	}
+
 	private RequirementResp createTestRequirementResp() {
 		return RequirementResp.builder()
 				.code(TEST_CODE)
@@ -164,10 +181,10 @@ class RequirementServiceTest {
 	@Test
 	void testUpdateRequirementSuccess() {
 		Requirement requirement = this.createTestRequirement();
-		List<UserRole> userRoles = Collections.singletonList(UserRole.BUSINESS);
+		int userRoleMask = UserRole.BUSINESS.getMask();
 
 		when(this.requirementQueryRepository.getRequirementByCode(TEST_CODE)).thenReturn(requirement);
-		when(this.userQueryRepository.getUserRoles(TEST_UID)).thenReturn(userRoles);
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(userRoleMask);
 
 		String newTitle = "Updated Title";
 		String newDescription = "Updated Description";
@@ -176,7 +193,7 @@ class RequirementServiceTest {
 
 		assertNull(result);
 		verify(this.requirementQueryRepository, times(1)).getRequirementByCode(TEST_CODE);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_UID);
+		verify(this.userQueryRepository, times(1)).getUserRoleMask(TEST_UID);
 		verify(this.requirementCommandRepository, times(1))
 				.updateRequirement(TEST_CODE, newTitle, newDescription, 2, TEST_REQUIREMENT_TYPE, TEST_UID);
 	}
@@ -235,16 +252,16 @@ class RequirementServiceTest {
 	@Test
 	void testUpdateRequirementFailNoPermission() {
 		Requirement requirement = this.createTestRequirement();
-		List<UserRole> userRoles = Collections.singletonList(UserRole.DEVELOPMENT);
+		int userRoleMask = UserRole.DEVELOPMENT.getMask();
 
 		when(this.requirementQueryRepository.getRequirementByCode(TEST_CODE)).thenReturn(requirement);
-		when(this.userQueryRepository.getUserRoles(TEST_UID)).thenReturn(userRoles);
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(userRoleMask);
 
 		ClientErrorCode result = this.requirementService.updateRequirement(TEST_CODE, "New Title", "New Description", 2, TEST_REQUIREMENT_TYPE, TEST_UID);
 
 		assertEquals(ClientErrorCode.ERROR_1491, result);
 		verify(this.requirementQueryRepository, times(1)).getRequirementByCode(TEST_CODE);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_UID);
+		verify(this.userQueryRepository, times(1)).getUserRoleMask(TEST_UID);
 		verify(this.requirementCommandRepository, never()).updateRequirement(any(), any(), any(), any(), any(), any());
 	}
 
@@ -254,22 +271,131 @@ class RequirementServiceTest {
 	@Test
 	void testApproveRequirementSuccess() {
 		Requirement requirement = this.createTestRequirement();
-		List<UserRole> userRoles = Collections.singletonList(UserRole.BUSINESS);
-		List<UserRole> nextOperatorRoles = Collections.singletonList(UserRole.PRODUCT);
+		int userRoleMask = UserRole.BUSINESS.getMask();
+		int nextOperatorRoleMask = UserRole.PRODUCT.getMask();
 		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
 
-		when(this.requirementQueryRepository.getRequirementByCode(TEST_CODE)).thenReturn(requirement);
-		when(this.userQueryRepository.getUserRoles(TEST_UID)).thenReturn(userRoles);
-		when(this.userQueryRepository.getUserRoles(TEST_NEXT_OPERATOR)).thenReturn(nextOperatorRoles);
-		when(this.requirementQueryRepository.getPendingRelationCount(TEST_CODE, RequirementStatus.REVIEWING)).thenReturn(0);
+		when(this.requirementQueryRepository.getApprovalState(TEST_CODE)).thenReturn(this.createTestApprovalState(requirement));
+		when(this.requirementCommandRepository.approve(TEST_CODE, RequirementStatus.REVIEWING, RequirementStatus.COUNTERSIGNING, "Approved", Collections.singletonList(TEST_UID), TEST_UID)).thenReturn(true);
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(userRoleMask);
+		when(this.userQueryRepository.getUserRoleMasksByUids(nextOperators)).thenReturn(ImmutableMap.of(TEST_NEXT_OPERATOR, nextOperatorRoleMask));
 
 		ClientErrorCode result = this.requirementService.approve(TEST_CODE, nextOperators, "Approved", TEST_UID);
 
 		assertNull(result);
-		verify(this.requirementQueryRepository, times(1)).getRequirementByCode(TEST_CODE);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_UID);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_NEXT_OPERATOR);
-		verify(this.requirementCommandRepository, times(1)).updateStatus(TEST_CODE, RequirementStatus.REVIEWING, RequirementStatus.COUNTERSIGNING, TEST_UID);
+		verify(this.requirementQueryRepository, times(1)).getApprovalState(TEST_CODE);
+		verify(this.userQueryRepository, times(1)).getUserRoleMask(TEST_UID);
+		verify(this.userQueryRepository, times(1)).getUserRoleMasksByUids(nextOperators);
+		verify(this.requirementCommandRepository, times(1)).approve(TEST_CODE, RequirementStatus.REVIEWING, RequirementStatus.COUNTERSIGNING, "Approved", Collections.singletonList(TEST_UID), TEST_UID);
+	}
+
+	/**
+	 * 测试会签状态下还有其他人未审批的场景，只记录当前用户的审批
+	 */
+	@Test
+	void testApproveRequirementWaitingForOthers() {
+		Requirement requirement = this.createTestRequirement();
+		requirement.setStatus(RequirementStatus.COUNTERSIGNING.name());
+		int userRoleMask = UserRole.PRODUCT.getMask();
+		int nextOperatorRoleMask = UserRole.PRODUCT.getMask();
+		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
+		ApprovalStateBo state = ApprovalStateBo.builder()
+				.status(requirement.getStatus())
+				.pendingUids(Arrays.asList(TEST_UID, TEST_NEXT_OPERATOR))
+				.build();
+
+		when(this.requirementQueryRepository.getApprovalState(TEST_CODE)).thenReturn(state);
+		when(this.requirementCommandRepository.updateRelation(TEST_CODE, RequirementStatus.COUNTERSIGNING, "Approved", RelationType.APPROVED, TEST_UID)).thenReturn(true);
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(userRoleMask);
+		when(this.userQueryRepository.getUserRoleMasksByUids(nextOperators)).thenReturn(ImmutableMap.of(TEST_NEXT_OPERATOR, nextOperatorRoleMask));
+
+		ClientErrorCode result = this.requirementService.approve(TEST_CODE, nextOperators, "Approved", TEST_UID);
+
+		assertNull(result);
+		verify(this.requirementCommandRepository, times(1)).updateRelation(TEST_CODE, RequirementStatus.COUNTERSIGNING, "Approved", RelationType.APPROVED, TEST_UID);
+		verify(this.requirementCommandRepository, never()).approve(any(), any(), any(), any(), any(), any());
+		verify(this.requirementCommandRepository, never()).assignOperators(any(), any(), any(), any());
+	}
+
+	/**
+	 * 测试会签的最后两人同时审批的场景：审批因需求行锁串行执行，后执行的一方看到先提交的审批，由它推进状态
+	 */
+	@Test
+	void testApproveRequirementLastTwoApprovers() {
+		String otherApprover = "00000000-0000-0000-0000-000000000003";
+		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
+		// 先执行的审批看到两人待处理，后执行的审批在锁释放后只看到自己待处理
+		when(this.requirementQueryRepository.getApprovalState(TEST_CODE)).thenReturn(
+				ApprovalStateBo.builder().status(RequirementStatus.COUNTERSIGNING.name()).pendingUids(Arrays.asList(TEST_UID, otherApprover)).build(),
+				ApprovalStateBo.builder().status(RequirementStatus.COUNTERSIGNING.name()).pendingUids(Collections.singletonList(otherApprover)).build()
+		);
+		when(this.requirementCommandRepository.updateRelation(TEST_CODE, RequirementStatus.COUNTERSIGNING, "Approved", RelationType.APPROVED, TEST_UID)).thenReturn(true);
+		when(this.requirementCommandRepository.approve(TEST_CODE, RequirementStatus.COUNTERSIGNING, RequirementStatus.REQUIREMENT_ANALYSIS, "Approved", Collections.singletonList(otherApprover), otherApprover)).thenReturn(true);
+		when(this.userQueryRepository.getUserRoleMask(anyString())).thenReturn(UserRole.PRODUCT.getMask());
+		when(this.userQueryRepository.getUserRoleMasksByUids(nextOperators)).thenReturn(ImmutableMap.of(TEST_NEXT_OPERATOR, UserRole.PRODUCT.getMask()));
+
+		assertNull(this.requirementService.approve(TEST_CODE, nextOperators, "Approved", TEST_UID));
+		assertNull(this.requirementService.approve(TEST_CODE, nextOperators, "Approved", otherApprover));
+
+		verify(this.requirementCommandRepository, times(1)).updateRelation(TEST_CODE, RequirementStatus.COUNTERSIGNING, "Approved", RelationType.APPROVED, TEST_UID);
+		verify(this.requirementCommandRepository, times(1)).approve(TEST_CODE, RequirementStatus.COUNTERSIGNING, RequirementStatus.REQUIREMENT_ANALYSIS, "Approved", Collections.singletonList(otherApprover), otherApprover);
+		verify(this.requirementCommandRepository, times(1)).assignOperators(TEST_CODE, RequirementStatus.REQUIREMENT_ANALYSIS, nextOperators, otherApprover);
+	}
+
+	/**
+	 * 测试会签状态下当前用户没有待处理关系的场景，不能当作审批成功
+	 */
+	@Test
+	void testApproveRequirementWaitingForOthersFailNoPendingRelation() {
+		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
+		ApprovalStateBo state = ApprovalStateBo.builder()
+				.status(RequirementStatus.COUNTERSIGNING.name())
+				.pendingUids(Collections.singletonList(TEST_NEXT_OPERATOR))
+				.build();
+
+		when(this.requirementQueryRepository.getApprovalState(TEST_CODE)).thenReturn(state);
+		when(this.requirementCommandRepository.updateRelation(TEST_CODE, RequirementStatus.COUNTERSIGNING, "Approved", RelationType.APPROVED, TEST_UID)).thenReturn(false);
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(UserRole.PRODUCT.getMask());
+		when(this.userQueryRepository.getUserRoleMasksByUids(nextOperators)).thenReturn(ImmutableMap.of(TEST_NEXT_OPERATOR, UserRole.PRODUCT.getMask()));
+
+		ClientErrorCode result = this.requirementService.approve(TEST_CODE, nextOperators, "Approved", TEST_UID);
+
+		assertEquals(ClientErrorCode.ERROR_1491, result);
+		verify(this.requirementCommandRepository, never()).approve(any(), any(), any(), any(), any(), any());
+		verify(this.requirementCommandRepository, never()).assignOperators(any(), any(), any(), any());
+	}
+
+	/**
+	 * 测试批量会签时先锁定需求再记录审批，只推进其他人都已审批的需求
+	 */
+	@Test
+	void testApproveAllRequirementsCountersignLocksBeforeCounting() {
+		Requirement first = this.createTestRequirement();
+		first.setStatus(RequirementStatus.COUNTERSIGNING.name());
+		Requirement second = this.createTestRequirement();
+		second.setCode("REQ-002");
+		second.setStatus(RequirementStatus.COUNTERSIGNING.name());
+		List<String> codes = Arrays.asList(TEST_CODE, "REQ-002");
+		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
+
+		when(this.requirementQueryRepository.getRequirementsByCodes(codes)).thenReturn(ImmutableMap.of(TEST_CODE, first, "REQ-002", second));
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(UserRole.PRODUCT.getMask());
+		when(this.userQueryRepository.getUserRoleMasksByUids(nextOperators)).thenReturn(ImmutableMap.of(TEST_NEXT_OPERATOR, UserRole.PRODUCT.getMask()));
+		when(this.requirementQueryRepository.getPendingRelationCounts(codes, RequirementStatus.COUNTERSIGNING)).thenReturn(ImmutableMap.of("REQ-002", 1));
+		List<String> advancing = Collections.singletonList(TEST_CODE);
+		when(this.requirementCommandRepository.updateStatusByCodes(advancing, RequirementStatus.COUNTERSIGNING, RequirementStatus.REQUIREMENT_ANALYSIS, TEST_UID)).thenReturn(1);
+
+		Map<String, ClientErrorCode> result = this.requirementService.approveAll(codes, nextOperators, "Approved", TEST_UID);
+
+		assertNull(result.get(TEST_CODE));
+		assertNull(result.get("REQ-002"));
+		InOrder inOrder = inOrder(this.requirementQueryRepository, this.requirementCommandRepository);
+		inOrder.verify(this.requirementQueryRepository).lockByCodes(codes);
+		inOrder.verify(this.requirementCommandRepository).updateRelationsByCodes(codes, RequirementStatus.COUNTERSIGNING, "Approved", RelationType.APPROVED, TEST_UID);
+		inOrder.verify(this.requirementQueryRepository).getPendingRelationCounts(codes, RequirementStatus.COUNTERSIGNING);
+		inOrder.verify(this.requirementCommandRepository).updateStatusByCodes(advancing, RequirementStatus.COUNTERSIGNING, RequirementStatus.REQUIREMENT_ANALYSIS, TEST_UID);
+		inOrder.verify(this.requirementCommandRepository).assignOperatorsByCodes(advancing, RequirementStatus.REQUIREMENT_ANALYSIS, nextOperators, TEST_UID);
+		verify(this.requirementCommandRepository, never()).skipRemainingRelationsByCodes(any(), any(), any());
 	}
 
 	/**
@@ -277,13 +403,13 @@ class RequirementServiceTest {
 	 */
 	@Test
 	void testApproveRequirementFailNotFound() {
-		when(this.requirementQueryRepository.getRequirementByCode(TEST_CODE)).thenReturn(null);
+		when(this.requirementQueryRepository.getApprovalState(TEST_CODE)).thenReturn(null);
 
 		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
 		ClientErrorCode result = this.requirementService.approve(TEST_CODE, nextOperators, "Approved", TEST_UID);
 
 		assertEquals(ClientErrorCode.ERROR_1420, result);
-		verify(this.requirementQueryRepository, times(1)).getRequirementByCode(TEST_CODE);
+		verify(this.requirementQueryRepository, times(1)).getApprovalState(TEST_CODE);
 		verify(this.requirementCommandRepository, never()).updateRelation(any(), any(), any(), any(), any());
 	}
 
@@ -294,13 +420,13 @@ class RequirementServiceTest {
 	void testApproveRequirementFailNotModifiable() {
 		Requirement requirement = this.createTestRequirement();
 		requirement.setStatus(RequirementStatus.RELEASED.name());
-		when(this.requirementQueryRepository.getRequirementByCode(TEST_CODE)).thenReturn(requirement);
+		when(this.requirementQueryRepository.getApprovalState(TEST_CODE)).thenReturn(this.createTestApprovalState(requirement));
 
 		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
 		ClientErrorCode result = this.requirementService.approve(TEST_CODE, nextOperators, "Approved", TEST_UID);
 
 		assertEquals(ClientErrorCode.ERROR_1422, result);
-		verify(this.requirementQueryRepository, times(1)).getRequirementByCode(TEST_CODE);
+		verify(this.requirementQueryRepository, times(1)).getApprovalState(TEST_CODE);
 		verify(this.requirementCommandRepository, never()).updateRelation(any(), any(), any(), any(), any());
 	}
 
@@ -310,17 +436,17 @@ class RequirementServiceTest {
 	@Test
 	void testApproveRequirementFailNoPermission() {
 		Requirement requirement = this.createTestRequirement();
-		List<UserRole> userRoles = Collections.singletonList(UserRole.DEVELOPMENT);
+		int userRoleMask = UserRole.DEVELOPMENT.getMask();
 
-		when(this.requirementQueryRepository.getRequirementByCode(TEST_CODE)).thenReturn(requirement);
-		when(this.userQueryRepository.getUserRoles(TEST_UID)).thenReturn(userRoles);
+		when(this.requirementQueryRepository.getApprovalState(TEST_CODE)).thenReturn(this.createTestApprovalState(requirement));
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(userRoleMask);
 
 		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
 		ClientErrorCode result = this.requirementService.approve(TEST_CODE, nextOperators, "Approved", TEST_UID);
 
 		assertEquals(ClientErrorCode.ERROR_1491, result);
-		verify(this.requirementQueryRepository, times(1)).getRequirementByCode(TEST_CODE);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_UID);
+		verify(this.requirementQueryRepository, times(1)).getApprovalState(TEST_CODE);
+		verify(this.userQueryRepository, times(1)).getUserRoleMask(TEST_UID);
 		verify(this.requirementCommandRepository, never()).updateRelation(any(), any(), any(), any(), any());
 	}
 
@@ -330,20 +456,20 @@ class RequirementServiceTest {
 	@Test
 	void testApproveRequirementFailNextOperatorNoPermission() {
 		Requirement requirement = this.createTestRequirement();
-		List<UserRole> userRoles = Collections.singletonList(UserRole.BUSINESS);
-		List<UserRole> nextOperatorRoles = Collections.singletonList(UserRole.TEST);
+		int userRoleMask = UserRole.BUSINESS.getMask();
+		int nextOperatorRoleMask = UserRole.TEST.getMask();
 		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
 
-		when(this.requirementQueryRepository.getRequirementByCode(TEST_CODE)).thenReturn(requirement);
-		when(this.userQueryRepository.getUserRoles(TEST_UID)).thenReturn(userRoles);
-		when(this.userQueryRepository.getUserRoles(TEST_NEXT_OPERATOR)).thenReturn(nextOperatorRoles);
+		when(this.requirementQueryRepository.getApprovalState(TEST_CODE)).thenReturn(this.createTestApprovalState(requirement));
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(userRoleMask);
+		when(this.userQueryRepository.getUserRoleMasksByUids(nextOperators)).thenReturn(ImmutableMap.of(TEST_NEXT_OPERATOR, nextOperatorRoleMask));
 
 		ClientErrorCode result = this.requirementService.approve(TEST_CODE, nextOperators, "Approved", TEST_UID);
 
 		assertEquals(ClientErrorCode.ERROR_1492, result);
-		verify(this.requirementQueryRepository, times(1)).getRequirementByCode(TEST_CODE);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_UID);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_NEXT_OPERATOR);
+		verify(this.requirementQueryRepository, times(1)).getApprovalState(TEST_CODE);
+		verify(this.userQueryRepository, times(1)).getUserRoleMask(TEST_UID);
+		verify(this.userQueryRepository, times(1)).getUserRoleMasksByUids(nextOperators);
 		verify(this.requirementCommandRepository, never()).updateRelation(any(), any(), any(), any(), any());
 	}
 
@@ -354,20 +480,23 @@ class RequirementServiceTest {
 	void testRejectRequirementSuccess() {
 		Requirement requirement = this.createTestRequirement();
 		requirement.setStatus(RequirementStatus.DEVELOPING.name());
-		List<UserRole> userRoles = Collections.singletonList(UserRole.DEVELOPMENT);
-		List<UserRole> nextOperatorRoles = Collections.singletonList(UserRole.PRODUCT);
+		int userRoleMask = UserRole.DEVELOPMENT.getMask();
+		int nextOperatorRoleMask = UserRole.PRODUCT.getMask();
 		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
 
-		when(this.requirementQueryRepository.getRequirementByCode(TEST_CODE)).thenReturn(requirement);
-		when(this.userQueryRepository.getUserRoles(TEST_UID)).thenReturn(userRoles);
-		when(this.userQueryRepository.getUserRoles(TEST_NEXT_OPERATOR)).thenReturn(nextOperatorRoles);
+		when(this.requirementQueryRepository.getApprovalState(TEST_CODE)).thenReturn(this.createTestApprovalState(requirement));
+		when(this.requirementCommandRepository.reject(TEST_CODE, RequirementStatus.DEVELOPING, "Rejected", Collections.singletonList(TEST_UID), TEST_UID)).thenReturn(true);
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(userRoleMask);
+		when(this.userQueryRepository.getUserRoleMasksByUids(nextOperators)).thenReturn(ImmutableMap.of(TEST_NEXT_OPERATOR, nextOperatorRoleMask));
 
 		ClientErrorCode result = this.requirementService.reject(TEST_CODE, nextOperators, "Rejected", TEST_UID);
 
 		assertNull(result);
-		verify(this.requirementQueryRepository, times(1)).getRequirementByCode(TEST_CODE);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_UID);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_NEXT_OPERATOR);
+		verify(this.requirementQueryRepository, times(1)).getApprovalState(TEST_CODE);
+		verify(this.userQueryRepository, times(1)).getUserRoleMask(TEST_UID);
+		verify(this.userQueryRepository, times(1)).getUserRoleMasksByUids(nextOperators);
+		verify(this.requirementCommandRepository, times(1)).reject(TEST_CODE, RequirementStatus.DEVELOPING, "Rejected", Collections.singletonList(TEST_UID), TEST_UID);
+		verify(this.requirementCommandRepository, times(1)).assignOperators(TEST_CODE, RequirementStatus.SCHEDULING, nextOperators, TEST_UID);
 	}
 
 	/**
@@ -375,13 +504,13 @@ class RequirementServiceTest {
 	 */
 	@Test
 	void testRejectRequirementFailNotFound() {
-		when(this.requirementQueryRepository.getRequirementByCode(TEST_CODE)).thenReturn(null);
+		when(this.requirementQueryRepository.getApprovalState(TEST_CODE)).thenReturn(null);
 
 		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
 		ClientErrorCode result = this.requirementService.reject(TEST_CODE, nextOperators, "Rejected", TEST_UID);
 
 		assertEquals(ClientErrorCode.ERROR_1420, result);
-		verify(this.requirementQueryRepository, times(1)).getRequirementByCode(TEST_CODE);
+		verify(this.requirementQueryRepository, times(1)).getApprovalState(TEST_CODE);
 		verify(this.requirementCommandRepository, never()).updateRelation(any(), any(), any(), any(), any());
 	}
 
@@ -392,13 +521,13 @@ class RequirementServiceTest {
 	void testRejectRequirementFailNotModifiable() {
 		Requirement requirement = this.createTestRequirement();
 		requirement.setStatus(RequirementStatus.RELEASED.name());
-		when(this.requirementQueryRepository.getRequirementByCode(TEST_CODE)).thenReturn(requirement);
+		when(this.requirementQueryRepository.getApprovalState(TEST_CODE)).thenReturn(this.createTestApprovalState(requirement));
 
 		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
 		ClientErrorCode result = this.requirementService.reject(TEST_CODE, nextOperators, "Rejected", TEST_UID);
 
 		assertEquals(ClientErrorCode.ERROR_1422, result);
-		verify(this.requirementQueryRepository, times(1)).getRequirementByCode(TEST_CODE);
+		verify(this.requirementQueryRepository, times(1)).getApprovalState(TEST_CODE);
 		verify(this.requirementCommandRepository, never()).updateRelation(any(), any(), any(), any(), any());
 	}
 
@@ -408,17 +537,17 @@ class RequirementServiceTest {
 	@Test
 	void testRejectRequirementFailNoPermission() {
 		Requirement requirement = this.createTestRequirement();
-		List<UserRole> userRoles = Collections.singletonList(UserRole.DEVELOPMENT);	// 开发人员无权操作审核中的需求
+		int userRoleMask = UserRole.DEVELOPMENT.getMask();	// 开发人员无权操作审核中的需求
 
-		when(this.requirementQueryRepository.getRequirementByCode(TEST_CODE)).thenReturn(requirement);
-		when(this.userQueryRepository.getUserRoles(TEST_UID)).thenReturn(userRoles);
+		when(this.requirementQueryRepository.getApprovalState(TEST_CODE)).thenReturn(this.createTestApprovalState(requirement));
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(userRoleMask);
 
 		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
 		ClientErrorCode result = this.requirementService.reject(TEST_CODE, nextOperators, "Rejected", TEST_UID);
 
 		assertEquals(ClientErrorCode.ERROR_1491, result);
-		verify(this.requirementQueryRepository, times(1)).getRequirementByCode(TEST_CODE);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_UID);
+		verify(this.requirementQueryRepository, times(1)).getApprovalState(TEST_CODE);
+		verify(this.userQueryRepository, times(1)).getUserRoleMask(TEST_UID);
 		verify(this.requirementCommandRepository, never()).updateRelation(any(), any(), any(), any(), any());
 	}
 
@@ -429,20 +558,163 @@ class RequirementServiceTest {
 	void testRejectRequirementFailNextOperatorNoPermission() {
 		Requirement requirement = this.createTestRequirement();
 		requirement.setStatus(RequirementStatus.TESTING.name());	// 下一个状态是验收中
-		List<UserRole> userRoles = Collections.singletonList(UserRole.TEST);
-		List<UserRole> nextOperatorRoles = Arrays.asList(UserRole.PRODUCT, UserRole.SECURITY);	// 无权验收
+		int userRoleMask = UserRole.TEST.getMask();
+		int nextOperatorRoleMask = UserRole.maskOf(UserRole.PRODUCT, UserRole.SECURITY);	// 无权验收
 		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
 
-		when(this.requirementQueryRepository.getRequirementByCode(TEST_CODE)).thenReturn(requirement);
-		when(this.userQueryRepository.getUserRoles(TEST_UID)).thenReturn(userRoles);
-		when(this.userQueryRepository.getUserRoles(TEST_NEXT_OPERATOR)).thenReturn(nextOperatorRoles);
+		when(this.requirementQueryRepository.getApprovalState(TEST_CODE)).thenReturn(this.createTestApprovalState(requirement));
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(userRoleMask);
+		when(this.userQueryRepository.getUserRoleMasksByUids(nextOperators)).thenReturn(ImmutableMap.of(TEST_NEXT_OPERATOR, nextOperatorRoleMask));
 
 		ClientErrorCode result = this.requirementService.reject(TEST_CODE, nextOperators, "Rejected", TEST_UID);
 
 		assertEquals(ClientErrorCode.ERROR_1492, result);
-		verify(this.requirementQueryRepository, times(1)).getRequirementByCode(TEST_CODE);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_UID);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_NEXT_OPERATOR);
+		verify(this.requirementQueryRepository, times(1)).getApprovalState(TEST_CODE);
+		verify(this.userQueryRepository, times(1)).getUserRoleMask(TEST_UID);
+		verify(this.userQueryRepository, times(1)).getUserRoleMasksByUids(nextOperators);
 		verify(this.requirementCommandRepository, never()).updateRelation(any(), any(), any(), any(), any());
 	}
+
+	/**
+	 * 用事务拦截器代理需求服务，批量操作整批回滚时可以检查事务状态
+	 */
+	private RequirementService transactional(PlatformTransactionManager transactionManager) {
+		ProxyFactory proxyFactory = new ProxyFactory(this.requirementService);
+		proxyFactory.setProxyTargetClass(true);
+		proxyFactory.addAdvice(new TransactionInterceptor(transactionManager, new AnnotationTransactionAttributeSource()));
+		return (RequirementService) proxyFactory.getProxy();
+	}
+
+	/**
+	 * 测试批量批准需求部分校验失败的场景，失败的需求逐项返回错误码，通过校验的需求照常批量更新
+	 */
+	@Test
+	void testApproveAllRequirementsPartialValidation() {
+		Requirement requirement = this.createTestRequirement();
+		Requirement released = this.createTestRequirement();
+		released.setCode("REQ-002");
+		released.setStatus(RequirementStatus.RELEASED.name());
+		Requirement countersigning = this.createTestRequirement();
+		countersigning.setCode("REQ-003");
+		countersigning.setStatus(RequirementStatus.COUNTERSIGNING.name());
+		List<String> codes = Arrays.asList(TEST_CODE, "REQ-002", "REQ-003", "REQ-004");
+		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
+
+		when(this.requirementQueryRepository.getRequirementsByCodes(codes)).thenReturn(ImmutableMap.of(TEST_CODE, requirement, "REQ-002", released, "REQ-003", countersigning));
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(UserRole.BUSINESS.getMask());
+		when(this.userQueryRepository.getUserRoleMasksByUids(nextOperators)).thenReturn(ImmutableMap.of(TEST_NEXT_OPERATOR, UserRole.PRODUCT.getMask()));
+		List<String> approved = Collections.singletonList(TEST_CODE);
+		when(this.requirementCommandRepository.updateStatusByCodes(approved, RequirementStatus.REVIEWING, RequirementStatus.COUNTERSIGNING, TEST_UID)).thenReturn(1);
+
+		Map<String, ClientErrorCode> result = this.requirementService.approveAll(codes, nextOperators, "Approved", TEST_UID);
+
+		assertNull(result.get(TEST_CODE));
+		assertEquals(ClientErrorCode.ERROR_1422, result.get("REQ-002"));
+		assertEquals(ClientErrorCode.ERROR_1491, result.get("REQ-003"));
+		assertEquals(ClientErrorCode.ERROR_1420, result.get("REQ-004"));
+		verify(this.requirementQueryRepository, never()).lockByCodes(any());
+		verify(this.requirementCommandRepository, times(1)).skipRemainingRelationsByCodes(approved, RequirementStatus.REVIEWING, TEST_UID);
+		verify(this.requirementCommandRepository, times(1)).assignOperatorsByCodes(approved, RequirementStatus.COUNTERSIGNING, nextOperators, TEST_UID);
+	}
+
+	/**
+	 * 测试批量会签时所有需求都还有其他人待审批，只记录审批，不推进状态
+	 */
+	@Test
+	void testApproveAllRequirementsCountersignNoneAdvancing() {
+		Requirement countersigning = this.createTestRequirement();
+		countersigning.setStatus(RequirementStatus.COUNTERSIGNING.name());
+		List<String> codes = Collections.singletonList(TEST_CODE);
+		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
+
+		when(this.requirementQueryRepository.getRequirementsByCodes(codes)).thenReturn(ImmutableMap.of(TEST_CODE, countersigning));
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(UserRole.PRODUCT.getMask());
+		when(this.userQueryRepository.getUserRoleMasksByUids(nextOperators)).thenReturn(ImmutableMap.of(TEST_NEXT_OPERATOR, UserRole.PRODUCT.getMask()));
+		when(this.requirementQueryRepository.getPendingRelationCounts(codes, RequirementStatus.COUNTERSIGNING)).thenReturn(ImmutableMap.of(TEST_CODE, 2));
+
+		Map<String, ClientErrorCode> result = this.requirementService.approveAll(codes, nextOperators, "Approved", TEST_UID);
+
+		assertNull(result.get(TEST_CODE));
+		verify(this.requirementCommandRepository, times(1)).updateRelationsByCodes(codes, RequirementStatus.COUNTERSIGNING, "Approved", RelationType.APPROVED, TEST_UID);
+		verify(this.requirementCommandRepository, never()).updateStatusByCodes(any(), any(), any(), any());
+		verify(this.requirementCommandRepository, never()).assignOperatorsByCodes(any(), any(), any(), any());
+	}
+
+	/**
+	 * 测试批量会签推进时有需求的状态已被其他人修改，整批回滚，已记录的审批一并撤销
+	 */
+	@Test
+	void testApproveAllRequirementsCountersignConflictRollsBackBatch() {
+		Requirement first = this.createTestRequirement();
+		first.setStatus(RequirementStatus.COUNTERSIGNING.name());
+		Requirement second = this.createTestRequirement();
+		second.setCode("REQ-002");
+		second.setStatus(RequirementStatus.COUNTERSIGNING.name());
+		List<String> codes = Arrays.asList(TEST_CODE, "REQ-002", "REQ-004");
+		List<String> group = Arrays.asList(TEST_CODE, "REQ-002");
+		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
+		PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+		SimpleTransactionStatus status = new SimpleTransactionStatus();
+
+		when(transactionManager.getTransaction(any())).thenReturn(status);
+		when(this.requirementQueryRepository.getRequirementsByCodes(codes)).thenReturn(ImmutableMap.of(TEST_CODE, first, "REQ-002", second));
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(UserRole.PRODUCT.getMask());
+		when(this.userQueryRepository.getUserRoleMasksByUids(nextOperators)).thenReturn(ImmutableMap.of(TEST_NEXT_OPERATOR, UserRole.PRODUCT.getMask()));
+		when(this.requirementQueryRepository.getPendingRelationCounts(group, RequirementStatus.COUNTERSIGNING)).thenReturn(Collections.emptyMap());
+		when(this.requirementCommandRepository.updateStatusByCodes(group, RequirementStatus.COUNTERSIGNING, RequirementStatus.REQUIREMENT_ANALYSIS, TEST_UID)).thenReturn(1);
+
+		Map<String, ClientErrorCode> result = this.transactional(transactionManager).approveAll(codes, nextOperators, "Approved", TEST_UID);
+
+		assertEquals(ClientErrorCode.ERROR_1496, result.get(TEST_CODE));
+		assertEquals(ClientErrorCode.ERROR_1496, result.get("REQ-002"));
+		assertEquals(ClientErrorCode.ERROR_1420, result.get("REQ-004"));
+		assertTrue(status.isRollbackOnly());
+		verify(transactionManager, times(1)).commit(status);
+		verify(this.requirementQueryRepository, times(1)).lockByCodes(group);
+		verify(this.requirementCommandRepository, never()).assignOperatorsByCodes(any(), any(), any(), any());
+	}
+
+	/**
+	 * 测试批量拒绝需求时状态已被其他人修改，整批回滚，不记录拒绝
+	 */
+	@Test
+	void testRejectAllRequirementsConflictRollsBackBatch() {
+		List<String> codes = Collections.singletonList(TEST_CODE);
+		PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+		SimpleTransactionStatus status = new SimpleTransactionStatus();
+
+		when(transactionManager.getTransaction(any())).thenReturn(status);
+		when(this.requirementQueryRepository.getRequirementsByCodes(codes)).thenReturn(ImmutableMap.of(TEST_CODE, this.createTestRequirement()));
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(UserRole.BUSINESS.getMask());
+
+		Map<String, ClientErrorCode> result = this.transactional(transactionManager).rejectAll(codes, Collections.emptyList(), "Rejected", TEST_UID);
+
+		assertEquals(ClientErrorCode.ERROR_1496, result.get(TEST_CODE));
+		assertTrue(status.isRollbackOnly());
+		verify(this.requirementCommandRepository, never()).updateRelationsByCodes(any(), any(), any(), any(), any());
+	}
+
+	/**
+	 * 测试批量分配需求部分校验失败的场景，只委派通过校验的需求
+	 */
+	@Test
+	void testAssignAllRequirementsPartialValidation() {
+		Requirement requirement = this.createTestRequirement();
+		Requirement countersigning = this.createTestRequirement();
+		countersigning.setCode("REQ-002");
+		countersigning.setStatus(RequirementStatus.COUNTERSIGNING.name());
+		List<String> codes = Arrays.asList(TEST_CODE, "REQ-002");
+		List<String> assignees = Collections.singletonList(TEST_NEXT_OPERATOR);
+
+		when(this.requirementQueryRepository.getRequirementsByCodes(codes)).thenReturn(ImmutableMap.of(TEST_CODE, requirement, "REQ-002", countersigning));
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(UserRole.BUSINESS.getMask() | UserRole.PRODUCT.getMask());
+		when(this.userQueryRepository.getUserRoleMasksByUids(assignees)).thenReturn(ImmutableMap.of(TEST_NEXT_OPERATOR, UserRole.BUSINESS.getMask()));
+
+		Map<String, ClientErrorCode> result = this.requirementService.assignAll(codes, TEST_NEXT_OPERATOR, TEST_UID);
+
+		assertNull(result.get(TEST_CODE));
+		assertEquals(ClientErrorCode.ERROR_1492, result.get("REQ-002"));
+		verify(this.requirementCommandRepository, times(1)).assignOperatorsByCodes(Collections.singletonList(TEST_CODE), RequirementStatus.REVIEWING, assignees, TEST_UID);
+		verify(this.requirementCommandRepository, times(1)).assignOperatorsByCodes(any(), any(), any(), any());
+	}
 }
@@ -1,8 +1,11 @@
 package org.ecnumc.voxelflow.test;
 
+import com.google.common.collect.ImmutableMap;
 import org.ecnumc.voxelflow.Application;
+import org.ecnumc.voxelflow.bo.ApprovalStateBo;
 import org.ecnumc.voxelflow.converter.RetrospectiveConverter;
 import org.ecnumc.voxelflow.enumeration.ClientErrorCode;
+import org.ecnumc.voxelflow.enumeration.RelationType;
 import org.ecnumc.voxelflow.enumeration.RetrospectiveStatus;
 import org.ecnumc.voxelflow.po.Retrospective;
 import org.ecnumc.voxelflow.repository.RetrospectiveCommandRepository;
@@ -12,13 +15,21 @@ import org.ecnumc.voxelflow.resp.RetrospectiveResp;
 import org.ecnumc.voxelflow.service.RetrospectiveService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.springframework.aop.framework.ProxyFactory;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.AnnotationTransactionAttributeSource;
+import org.springframework.transaction.interceptor.TransactionInterceptor;
+import org.springframework.transaction.support.SimpleTransactionStatus;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
@@ -61,6 +72,13 @@ class RetrospectiveServiceTest {
 		return retrospective;
 	}
 
+	private ApprovalStateBo createTestApprovalState(Retrospective retrospective) {
+		return ApprovalStateBo.builder()
+				.status(retrospective.getStatus())
+				.pendingUids(Collections.singletonList(TEST_UID))
+				.build();
+	}
+
 	private RetrospectiveResp createTestRetrospectiveResp() {
 		return RetrospectiveResp.builder()
 				.code(TEST_CODE)
@@ -195,14 +213,50 @@ class RetrospectiveServiceTest {
 		Retrospective retrospective = this.createTestRetrospective();
 		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
 
-		when(this.retrospectiveQueryRepository.getRetrospectiveByCode(TEST_CODE)).thenReturn(retrospective);
-		when(this.retrospectiveQueryRepository.getPendingRelationCount(TEST_CODE, RetrospectiveStatus.HANDLING)).thenReturn(0);
+		when(this.retrospectiveQueryRepository.getApprovalState(TEST_CODE)).thenReturn(this.createTestApprovalState(retrospective));
+		when(this.retrospectiveCommandRepository.approve(TEST_CODE, RetrospectiveStatus.HANDLING, RetrospectiveStatus.FINISHED, "Approved", TEST_UID)).thenReturn(true);
 
 		ClientErrorCode result = this.retrospectiveService.approve(TEST_CODE, nextOperators, "Approved", TEST_UID);
 
 		assertNull(result);
-		verify(this.retrospectiveQueryRepository, times(1)).getRetrospectiveByCode(TEST_CODE);
-		verify(this.retrospectiveCommandRepository, times(1)).updateStatus(TEST_CODE, RetrospectiveStatus.HANDLING, RetrospectiveStatus.FINISHED, TEST_UID);
+		verify(this.retrospectiveQueryRepository, times(1)).getApprovalState(TEST_CODE);
+		verify(this.retrospectiveCommandRepository, times(1)).approve(TEST_CODE, RetrospectiveStatus.HANDLING, RetrospectiveStatus.FINISHED, "Approved", TEST_UID);
+	}
+
+	/**
+	 * 测试会签的最后两人同时审批的场景：审批因复盘行锁串行执行，后执行的一方看到先提交的审批，由它推进状态
+	 */
+	@Test
+	void testApproveRetrospectiveLastTwoApprovers() {
+		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
+		when(this.retrospectiveQueryRepository.getApprovalState(TEST_CODE)).thenReturn(
+				ApprovalStateBo.builder().status(RetrospectiveStatus.READY.name()).pendingUids(Arrays.asList(TEST_UID, TEST_NEXT_OPERATOR)).build(),
+				ApprovalStateBo.builder().status(RetrospectiveStatus.READY.name()).pendingUids(Collections.singletonList(TEST_NEXT_OPERATOR)).build()
+		);
+		when(this.retrospectiveCommandRepository.updateRelation(TEST_CODE, RetrospectiveStatus.READY, "Approved", RelationType.APPROVED, TEST_UID)).thenReturn(true);
+		when(this.retrospectiveCommandRepository.approve(TEST_CODE, RetrospectiveStatus.READY, RetrospectiveStatus.READY.next(), "Approved", TEST_NEXT_OPERATOR)).thenReturn(true);
+
+		assertNull(this.retrospectiveService.approve(TEST_CODE, nextOperators, "Approved", TEST_UID));
+		assertNull(this.retrospectiveService.approve(TEST_CODE, nextOperators, "Approved", TEST_NEXT_OPERATOR));
+
+		verify(this.retrospectiveCommandRepository, times(1)).updateRelation(TEST_CODE, RetrospectiveStatus.READY, "Approved", RelationType.APPROVED, TEST_UID);
+		verify(this.retrospectiveCommandRepository, times(1)).approve(TEST_CODE, RetrospectiveStatus.READY, RetrospectiveStatus.READY.next(), "Approved", TEST_NEXT_OPERATOR);
+	}
+
+	/**
+	 * 测试会签状态下当前用户没有待处理关系的场景，不能当作审批成功
+	 */
+	@Test
+	void testApproveRetrospectiveWaitingForOthersFailNoPendingRelation() {
+		when(this.retrospectiveQueryRepository.getApprovalState(TEST_CODE)).thenReturn(
+				ApprovalStateBo.builder().status(RetrospectiveStatus.READY.name()).pendingUids(Collections.singletonList(TEST_NEXT_OPERATOR)).build()
+		);
+		when(this.retrospectiveCommandRepository.updateRelation(TEST_CODE, RetrospectiveStatus.READY, "Approved", RelationType.APPROVED, TEST_UID)).thenReturn(false);
+
+		ClientErrorCode result = this.retrospectiveService.approve(TEST_CODE, Collections.singletonList(TEST_NEXT_OPERATOR), "Approved", TEST_UID);
+
+		assertEquals(ClientErrorCode.ERROR_1491, result);
+		verify(this.retrospectiveCommandRepository, never()).approve(any(), any(), any(), any(), any());
 	}
 
 	/**
@@ -210,13 +264,13 @@ class RetrospectiveServiceTest {
 	 */
 	@Test
 	void testApproveRetrospectiveFailNotFound() {
-		when(this.retrospectiveQueryRepository.getRetrospectiveByCode(TEST_CODE)).thenReturn(null);
+		when(this.retrospectiveQueryRepository.getApprovalState(TEST_CODE)).thenReturn(null);
 
 		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
 		ClientErrorCode result = this.retrospectiveService.approve(TEST_CODE, nextOperators, "Approved", TEST_UID);
 
 		assertEquals(ClientErrorCode.ERROR_1450, result);
-		verify(this.retrospectiveQueryRepository, times(1)).getRetrospectiveByCode(TEST_CODE);
+		verify(this.retrospectiveQueryRepository, times(1)).getApprovalState(TEST_CODE);
 		verify(this.retrospectiveCommandRepository, never()).updateRelation(any(), any(), any(), any(), any());
 	}
 
@@ -227,13 +281,13 @@ class RetrospectiveServiceTest {
 	void testApproveRetrospectiveFailNotModifiable() {
 		Retrospective retrospective = this.createTestRetrospective();
 		retrospective.setStatus(RetrospectiveStatus.FINISHED.name());
-		when(this.retrospectiveQueryRepository.getRetrospectiveByCode(TEST_CODE)).thenReturn(retrospective);
+		when(this.retrospectiveQueryRepository.getApprovalState(TEST_CODE)).thenReturn(this.createTestApprovalState(retrospective));
 
 		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
 		ClientErrorCode result = this.retrospectiveService.approve(TEST_CODE, nextOperators, "Approved", TEST_UID);
 
 		assertEquals(ClientErrorCode.ERROR_1452, result);
-		verify(this.retrospectiveQueryRepository, times(1)).getRetrospectiveByCode(TEST_CODE);
+		verify(this.retrospectiveQueryRepository, times(1)).getApprovalState(TEST_CODE);
 		verify(this.retrospectiveCommandRepository, never()).updateRelation(any(), any(), any(), any(), any());
 	}
 
@@ -246,11 +300,14 @@ class RetrospectiveServiceTest {
 		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
 
 		when(this.retrospectiveQueryRepository.getRetrospectiveByCode(TEST_CODE)).thenReturn(retrospective);
+		when(this.retrospectiveCommandRepository.reject(TEST_CODE, RetrospectiveStatus.HANDLING, "Rejected", TEST_UID)).thenReturn(true);
 
 		ClientErrorCode result = this.retrospectiveService.reject(TEST_CODE, nextOperators, "Rejected", TEST_UID);
 
 		assertNull(result);
 		verify(this.retrospectiveQueryRepository, times(1)).getRetrospectiveByCode(TEST_CODE);
+		verify(this.retrospectiveCommandRepository, times(1)).reject(TEST_CODE, RetrospectiveStatus.HANDLING, "Rejected", TEST_UID);
+		verify(this.retrospectiveCommandRepository, times(1)).assignOperators(TEST_CODE, RetrospectiveStatus.CANCELED, nextOperators, TEST_UID);
 	}
 
 	/**
@@ -377,4 +434,142 @@ class RetrospectiveServiceTest {
 		verify(this.retrospectiveQueryRepository, times(1)).getRetrospectiveByCode(TEST_CODE);
 		verify(this.retrospectiveCommandRepository, never()).unassignOperator(any(), any(), any(), any());
 	}
+
+	/**
+	 * 用事务拦截器代理复盘服务，批量操作整批回滚时可以检查事务状态
+	 */
+	private RetrospectiveService transactional(PlatformTransactionManager transactionManager) {
+		ProxyFactory proxyFactory = new ProxyFactory(this.retrospectiveService);
+		proxyFactory.setProxyTargetClass(true);
+		proxyFactory.addAdvice(new TransactionInterceptor(transactionManager, new AnnotationTransactionAttributeSource()));
+		return (RetrospectiveService) proxyFactory.getProxy();
+	}
+
+	/**
+	 * 测试批量批准复盘部分校验失败的场景，失败的复盘逐项返回错误码，通过校验的复盘照常批量更新
+	 */
+	@Test
+	void testApproveAllRetrospectivesPartialValidation() {
+		Retrospective retrospective = this.createTestRetrospective();
+		Retrospective finished = this.createTestRetrospective();
+		finished.setCode("RTS-002");
+		finished.setStatus(RetrospectiveStatus.FINISHED.name());
+		List<String> codes = Arrays.asList(TEST_CODE, "RTS-002", "RTS-003", TEST_CODE);
+		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
+		List<String> approved = Collections.singletonList(TEST_CODE);
+
+		when(this.retrospectiveQueryRepository.getRetrospectivesByCodes(codes)).thenReturn(ImmutableMap.of(TEST_CODE, retrospective, "RTS-002", finished));
+		when(this.retrospectiveCommandRepository.updateStatusByCodes(approved, RetrospectiveStatus.HANDLING, RetrospectiveStatus.FINISHED, TEST_UID)).thenReturn(1);
+
+		Map<String, ClientErrorCode> result = this.retrospectiveService.approveAll(codes, nextOperators, "Approved", TEST_UID);
+
+		assertEquals(3, result.size());
+		assertNull(result.get(TEST_CODE));
+		assertEquals(ClientErrorCode.ERROR_1452, result.get("RTS-002"));
+		assertEquals(ClientErrorCode.ERROR_1450, result.get("RTS-003"));
+		verify(this.retrospectiveQueryRepository, never()).lockByCodes(any());
+		verify(this.retrospectiveCommandRepository, times(1)).skipRemainingRelationsByCodes(approved, RetrospectiveStatus.HANDLING, TEST_UID);
+		verify(this.retrospectiveCommandRepository, times(1)).assignOperatorsByCodes(approved, RetrospectiveStatus.FINISHED, nextOperators, TEST_UID);
+	}
+
+	/**
+	 * 测试批量会签时先锁定复盘再记录审批，只推进其他人都已确认的复盘
+	 */
+	@Test
+	void testApproveAllRetrospectivesCountersign() {
+		Retrospective first = this.createTestRetrospective();
+		first.setStatus(RetrospectiveStatus.READY.name());
+		Retrospective second = this.createTestRetrospective();
+		second.setCode("RTS-002");
+		second.setStatus(RetrospectiveStatus.READY.name());
+		List<String> codes = Arrays.asList(TEST_CODE, "RTS-002");
+		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
+		List<String> advancing = Collections.singletonList(TEST_CODE);
+
+		when(this.retrospectiveQueryRepository.getRetrospectivesByCodes(codes)).thenReturn(ImmutableMap.of(TEST_CODE, first, "RTS-002", second));
+		when(this.retrospectiveQueryRepository.getPendingRelationCounts(codes, RetrospectiveStatus.READY)).thenReturn(ImmutableMap.of("RTS-002", 1));
+		when(this.retrospectiveCommandRepository.updateStatusByCodes(advancing, RetrospectiveStatus.READY, RetrospectiveStatus.HANDLING, TEST_UID)).thenReturn(1);
+
+		Map<String, ClientErrorCode> result = this.retrospectiveService.approveAll(codes, nextOperators, "Approved", TEST_UID);
+
+		assertNull(result.get(TEST_CODE));
+		assertNull(result.get("RTS-002"));
+		InOrder inOrder = inOrder(this.retrospectiveQueryRepository, this.retrospectiveCommandRepository);
+		inOrder.verify(this.retrospectiveQueryRepository).lockByCodes(codes);
+		inOrder.verify(this.retrospectiveCommandRepository).updateRelationsByCodes(codes, RetrospectiveStatus.READY, "Approved", RelationType.APPROVED, TEST_UID);
+		inOrder.verify(this.retrospectiveQueryRepository).getPendingRelationCounts(codes, RetrospectiveStatus.READY);
+		inOrder.verify(this.retrospectiveCommandRepository).updateStatusByCodes(advancing, RetrospectiveStatus.READY, RetrospectiveStatus.HANDLING, TEST_UID);
+		inOrder.verify(this.retrospectiveCommandRepository).assignOperatorsByCodes(advancing, RetrospectiveStatus.HANDLING, nextOperators, TEST_UID);
+		verify(this.retrospectiveCommandRepository, never()).skipRemainingRelationsByCodes(any(), any(), any());
+	}
+
+	/**
+	 * 测试批量批准复盘时后一组的状态已被其他人修改，整批回滚，已成功的一组也标记为需要重试
+	 */
+	@Test
+	void testApproveAllRetrospectivesConflictRollsBackBatch() {
+		Retrospective ready = this.createTestRetrospective();
+		ready.setStatus(RetrospectiveStatus.READY.name());
+		Retrospective handling = this.createTestRetrospective();
+		handling.setCode("RTS-002");
+		List<String> codes = Arrays.asList(TEST_CODE, "RTS-002");
+		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
+		PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+		SimpleTransactionStatus status = new SimpleTransactionStatus();
+
+		when(transactionManager.getTransaction(any())).thenReturn(status);
+		when(this.retrospectiveQueryRepository.getRetrospectivesByCodes(codes)).thenReturn(ImmutableMap.of(TEST_CODE, ready, "RTS-002", handling));
+		when(this.retrospectiveQueryRepository.getPendingRelationCounts(Collections.singletonList(TEST_CODE), RetrospectiveStatus.READY)).thenReturn(Collections.emptyMap());
+		when(this.retrospectiveCommandRepository.updateStatusByCodes(Collections.singletonList(TEST_CODE), RetrospectiveStatus.READY, RetrospectiveStatus.HANDLING, TEST_UID)).thenReturn(1);
+		when(this.retrospectiveCommandRepository.updateStatusByCodes(Collections.singletonList("RTS-002"), RetrospectiveStatus.HANDLING, RetrospectiveStatus.FINISHED, TEST_UID)).thenReturn(0);
+
+		Map<String, ClientErrorCode> result = this.transactional(transactionManager).approveAll(codes, nextOperators, "Approved", TEST_UID);
+
+		assertEquals(ClientErrorCode.ERROR_1496, result.get(TEST_CODE));
+		assertEquals(ClientErrorCode.ERROR_1496, result.get("RTS-002"));
+		assertTrue(status.isRollbackOnly());
+		verify(transactionManager, times(1)).commit(status);
+		verify(this.retrospectiveCommandRepository, never()).assignOperatorsByCodes(eq(Collections.singletonList("RTS-002")), any(), any(), any());
+	}
+
+	/**
+	 * 测试批量拒绝复盘时状态已被其他人修改，整批回滚，不记录拒绝
+	 */
+	@Test
+	void testRejectAllRetrospectivesConflictRollsBackBatch() {
+		List<String> codes = Collections.singletonList(TEST_CODE);
+		PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+		SimpleTransactionStatus status = new SimpleTransactionStatus();
+
+		when(transactionManager.getTransaction(any())).thenReturn(status);
+		when(this.retrospectiveQueryRepository.getRetrospectivesByCodes(codes)).thenReturn(ImmutableMap.of(TEST_CODE, this.createTestRetrospective()));
+
+		Map<String, ClientErrorCode> result = this.transactional(transactionManager).rejectAll(codes, Collections.emptyList(), "Rejected", TEST_UID);
+
+		assertEquals(ClientErrorCode.ERROR_1496, result.get(TEST_CODE));
+		assertTrue(status.isRollbackOnly());
+		verify(this.retrospectiveCommandRepository, never()).updateRelationsByCodes(any(), any(), any(), any(), any());
+		verify(this.retrospectiveCommandRepository, never()).assignOperatorsByCodes(any(), any(), any(), any());
+	}
+
+	/**
+	 * 测试批量分配复盘部分校验失败的场景，只委派通过校验的复盘
+	 */
+	@Test
+	void testAssignAllRetrospectivesPartialValidation() {
+		Retrospective canceled = this.createTestRetrospective();
+		canceled.setCode("RTS-002");
+		canceled.setStatus(RetrospectiveStatus.CANCELED.name());
+		List<String> codes = Arrays.asList(TEST_CODE, "RTS-002");
+
+		when(this.retrospectiveQueryRepository.getRetrospectivesByCodes(codes)).thenReturn(ImmutableMap.of(TEST_CODE, this.createTestRetrospective(), "RTS-002", canceled));
+
+		Map<String, ClientErrorCode> result = this.retrospectiveService.assignAll(codes, TEST_NEXT_OPERATOR, TEST_UID);
+
+		assertNull(result.get(TEST_CODE));
+		assertEquals(ClientErrorCode.ERROR_1452, result.get("RTS-002"));
+		verify(this.retrospectiveCommandRepository, times(1)).assignOperatorsByCodes(
+				Collections.singletonList(TEST_CODE), RetrospectiveStatus.HANDLING, Collections.singletonList(TEST_NEXT_OPERATOR), TEST_UID
+		);
+	}
 }
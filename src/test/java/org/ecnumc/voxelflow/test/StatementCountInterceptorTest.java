@@ -0,0 +1,32 @@
+package org.ecnumc.voxelflow.test;
+
+import org.apache.ibatis.plugin.Invocation;
+import org.ecnumc.voxelflow.interceptor.StatementCountInterceptor;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * StatementCountInterceptor 单元测试喵~
+ *
+ * @author liudongyu
+ */
+class StatementCountInterceptorTest {
+	/**
+	 * 测试每准备一条语句计数加一，并继续执行原调用喵~
+	 */
+	@Test
+	void testCount() throws Throwable {
+		StatementCountInterceptor interceptor = new StatementCountInterceptor();
+		Invocation invocation = mock(Invocation.class);
+		when(invocation.proceed()).thenReturn("statement");
+
+		long start = StatementCountInterceptor.current();
+		assertEquals("statement", interceptor.intercept(invocation));
+		interceptor.intercept(invocation);
+
+		assertEquals(2L, StatementCountInterceptor.current() - start);
+		verify(invocation, times(2)).proceed();
+	}
+}
@@ -0,0 +1,66 @@
+package org.ecnumc.voxelflow.test;
+
+import org.apache.ibatis.plugin.Invocation;
+import org.ecnumc.voxelflow.interceptor.StatementTimeoutInterceptor;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+/**
+ * StatementTimeoutInterceptor 单元测试喵~
+ *
+ * @author liudongyu
+ */
+class StatementTimeoutInterceptorTest {
+	/**
+	 * 测试只在 withTimeout 内设置查询超时喵~
+	 */
+	@Test
+	void testTimeoutOnlyWithin() throws Throwable {
+		StatementTimeoutInterceptor interceptor = new StatementTimeoutInterceptor();
+		Statement statement = mock(Statement.class);
+		Invocation invocation = mock(Invocation.class);
+		when(invocation.proceed()).thenReturn(statement);
+
+		assertSame(statement, interceptor.intercept(invocation));
+		verify(statement, never()).setQueryTimeout(anyInt());
+
+		StatementTimeoutInterceptor.withTimeout(2, () -> {
+			try {
+				return interceptor.intercept(invocation);
+			} catch (Throwable e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		verify(statement).setQueryTimeout(2);
+
+		interceptor.intercept(invocation);
+		verify(statement, times(1)).setQueryTimeout(anyInt());
+	}
+
+	/**
+	 * 测试语句已有更短的超时时保留原值喵~
+	 */
+	@Test
+	void testKeepShorterTimeout() throws Throwable {
+		StatementTimeoutInterceptor interceptor = new StatementTimeoutInterceptor();
+		Statement statement = mock(Statement.class);
+		when(statement.getQueryTimeout()).thenReturn(1);
+		Invocation invocation = mock(Invocation.class);
+		when(invocation.proceed()).thenReturn(statement);
+
+		StatementTimeoutInterceptor.withTimeout(2, () -> {
+			try {
+				return interceptor.intercept(invocation);
+			} catch (Throwable e) {
+				throw new IllegalStateException(e);
+			}
+		});
+
+		verify(statement, never()).setQueryTimeout(anyInt());
+	}
+}
@@ -0,0 +1,94 @@
+package org.ecnumc.voxelflow.test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.session.Configuration;
+import org.ecnumc.voxelflow.interceptor.StatementTimingInterceptor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * StatementTimingInterceptor 单元测试喵~
+ *
+ * @author liudongyu
+ */
+class StatementTimingInterceptorTest {
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	private StatementTimingInterceptor interceptor;
+
+	private StatementTimingInterceptor createInterceptor(long thresholdMillis) {
+		StatementTimingInterceptor interceptor = new StatementTimingInterceptor();
+		ReflectionTestUtils.setField(interceptor, "meterRegistry", this.meterRegistry);
+		ReflectionTestUtils.setField(interceptor, "thresholdMillis", thresholdMillis);
+		ReflectionTestUtils.setField(interceptor, "sampleRate", 1.0D);
+		ReflectionTestUtils.setField(interceptor, "queueCapacity", 16);
+		interceptor.init();
+		return interceptor;
+	}
+
+	private static Invocation createInvocation() throws Throwable {
+		Configuration configuration = new Configuration();
+		MappedStatement statement = new MappedStatement.Builder(
+				configuration, "org.ecnumc.voxelflow.mapper.IssueMapper.selectOne",
+				new StaticSqlSource(configuration, "SELECT * FROM `issue`\n WHERE code = ?"), SqlCommandType.SELECT
+		).build();
+		Invocation invocation = mock(Invocation.class);
+		when(invocation.getArgs()).thenReturn(new Object[] { statement, "BUG-1" });
+		when(invocation.proceed()).thenReturn("result");
+		return invocation;
+	}
+
+	@AfterEach
+	void tearDown() {
+		this.interceptor.destroy();
+	}
+
+	/**
+	 * 测试按 Mapper 方法记录耗时，并继续执行原调用喵~
+	 */
+	@Test
+	void testTiming() throws Throwable {
+		this.interceptor = this.createInterceptor(60000L);
+		Invocation invocation = createInvocation();
+
+		assertEquals("result", this.interceptor.intercept(invocation));
+		this.interceptor.intercept(invocation);
+
+		assertEquals(2L, this.meterRegistry.get("voxelflow.db.statement")
+				.tag("mapper", "IssueMapper").tag("method", "selectOne").timer().count());
+		assertEquals(0.0D, this.meterRegistry.get("voxelflow.db.slow").counter().count());
+	}
+
+	/**
+	 * 测试超过阈值的语句计入慢查询喵~
+	 */
+	@Test
+	void testSlow() throws Throwable {
+		this.interceptor = this.createInterceptor(0L);
+
+		this.interceptor.intercept(createInvocation());
+
+		assertEquals(1.0D, this.meterRegistry.get("voxelflow.db.slow").counter().count());
+	}
+
+	/**
+	 * 测试执行失败时仍记录耗时喵~
+	 */
+	@Test
+	void testTimingOnFailure() throws Throwable {
+		this.interceptor = this.createInterceptor(60000L);
+		Invocation invocation = createInvocation();
+		when(invocation.proceed()).thenThrow(new IllegalStateException("connection reset"));
+
+		assertThrows(IllegalStateException.class, () -> this.interceptor.intercept(invocation));
+		assertEquals(1L, this.meterRegistry.get("voxelflow.db.statement").timer().count());
+	}
+}
@@ -1,8 +1,11 @@
 package org.ecnumc.voxelflow.test;
 
+import com.google.common.collect.ImmutableMap;
 import org.ecnumc.voxelflow.Application;
+import org.ecnumc.voxelflow.bo.ApprovalStateBo;
 import org.ecnumc.voxelflow.converter.StoryConverter;
 import org.ecnumc.voxelflow.enumeration.ClientErrorCode;
+import org.ecnumc.voxelflow.enumeration.RelationType;
 import org.ecnumc.voxelflow.enumeration.StoryStatus;
 import org.ecnumc.voxelflow.enumeration.UserRole;
 import org.ecnumc.voxelflow.po.Requirement;
@@ -17,11 +20,18 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.springframework.aop.framework.ProxyFactory;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.AnnotationTransactionAttributeSource;
+import org.springframework.transaction.interceptor.TransactionInterceptor;
+import org.springframework.transaction.support.SimpleTransactionStatus;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
@@ -71,6 +81,13 @@ class StoryServiceTest {
 		return story;
 	}
 
+	private ApprovalStateBo createTestApprovalState(Story story) {
+		return ApprovalStateBo.builder()
+				.status(story.getStatus())
+				.pendingUids(Collections.singletonList(TEST_UID))
+				.build();
+	}
+
 	private StoryResp createTestStoryResp() {
 		return StoryResp.builder()
 				.code(TEST_CODE)
@@ -179,10 +196,10 @@ class StoryServiceTest {
 	@Test
 	void testUpdateStorySuccess() {
 		Story story = this.createTestStory();
-		List<UserRole> userRoles = Collections.singletonList(UserRole.DEVELOPMENT);
+		int userRoleMask = UserRole.DEVELOPMENT.getMask();
 
 		when(this.storyQueryRepository.getStoryByCode(TEST_CODE)).thenReturn(story);
-		when(this.userQueryRepository.getUserRoles(TEST_UID)).thenReturn(userRoles);
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(userRoleMask);
 
 		String newTitle = "Updated Title";
 		String newDescription = "Updated Description";
@@ -191,7 +208,7 @@ class StoryServiceTest {
 
 		assertNull(result);
 		verify(this.storyQueryRepository, times(1)).getStoryByCode(TEST_CODE);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_UID);
+		verify(this.userQueryRepository, times(1)).getUserRoleMask(TEST_UID);
 		verify(this.storyCommandRepository, times(1))
 				.updateStory(TEST_CODE, newTitle, newDescription, 2, TEST_REQ_CODE, TEST_UID);
 	}
@@ -233,16 +250,16 @@ class StoryServiceTest {
 	@Test
 	void testUpdateStoryFailNoPermission() {
 		Story story = this.createTestStory();
-		List<UserRole> userRoles = Collections.singletonList(UserRole.BUSINESS);
+		int userRoleMask = UserRole.BUSINESS.getMask();
 
 		when(this.storyQueryRepository.getStoryByCode(TEST_CODE)).thenReturn(story);
-		when(this.userQueryRepository.getUserRoles(TEST_UID)).thenReturn(userRoles);
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(userRoleMask);
 
 		ClientErrorCode result = this.storyService.updateStory(TEST_CODE, "New Title", "New Description", 2, TEST_REQ_CODE, TEST_UID);
 
 		assertEquals(ClientErrorCode.ERROR_1491, result);
 		verify(this.storyQueryRepository, times(1)).getStoryByCode(TEST_CODE);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_UID);
+		verify(this.userQueryRepository, times(1)).getUserRoleMask(TEST_UID);
 		verify(this.storyCommandRepository, never()).updateStory(any(), any(), any(), any(), any(), any());
 	}
 
@@ -252,21 +269,22 @@ class StoryServiceTest {
 	@Test
 	void testApproveStorySuccess() {
 		Story story = this.createTestStory();
-		List<UserRole> userRoles = Collections.singletonList(UserRole.DEVELOPMENT);
-		List<UserRole> nextOperatorRoles = Collections.singletonList(UserRole.TEST);
+		int userRoleMask = UserRole.DEVELOPMENT.getMask();
+		int nextOperatorRoleMask = UserRole.TEST.getMask();
 		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
 
-		when(this.storyQueryRepository.getStoryByCode(TEST_CODE)).thenReturn(story);
-		when(this.userQueryRepository.getUserRoles(TEST_UID)).thenReturn(userRoles);
-		when(this.userQueryRepository.getUserRoles(TEST_NEXT_OPERATOR)).thenReturn(nextOperatorRoles);
+		when(this.storyQueryRepository.getApprovalState(TEST_CODE)).thenReturn(this.createTestApprovalState(story));
+		when(this.storyCommandRepository.approve(TEST_CODE, StoryStatus.PROGRESSING, StoryStatus.TESTING, "Approved", Collections.singletonList(TEST_UID), TEST_UID)).thenReturn(true);
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(userRoleMask);
+		when(this.userQueryRepository.getUserRoleMasksByUids(nextOperators)).thenReturn(ImmutableMap.of(TEST_NEXT_OPERATOR, nextOperatorRoleMask));
 
 		ClientErrorCode result = this.storyService.approve(TEST_CODE, nextOperators, "Approved", TEST_UID);
 
 		assertNull(result);
-		verify(this.storyQueryRepository, times(1)).getStoryByCode(TEST_CODE);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_UID);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_NEXT_OPERATOR);
-		verify(this.storyCommandRepository, times(1)).updateStatus(TEST_CODE, StoryStatus.PROGRESSING, StoryStatus.TESTING, TEST_UID);
+		verify(this.storyQueryRepository, times(1)).getApprovalState(TEST_CODE);
+		verify(this.userQueryRepository, times(1)).getUserRoleMask(TEST_UID);
+		verify(this.userQueryRepository, times(1)).getUserRoleMasksByUids(nextOperators);
+		verify(this.storyCommandRepository, times(1)).approve(TEST_CODE, StoryStatus.PROGRESSING, StoryStatus.TESTING, "Approved", Collections.singletonList(TEST_UID), TEST_UID);
 	}
 
 	/**
@@ -274,13 +292,13 @@ class StoryServiceTest {
 	 */
 	@Test
 	void testApproveStoryFailNotFound() {
-		when(this.storyQueryRepository.getStoryByCode(TEST_CODE)).thenReturn(null);
+		when(this.storyQueryRepository.getApprovalState(TEST_CODE)).thenReturn(null);
 
 		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
 		ClientErrorCode result = this.storyService.approve(TEST_CODE, nextOperators, "Approved", TEST_UID);
 
 		assertEquals(ClientErrorCode.ERROR_1430, result);
-		verify(this.storyQueryRepository, times(1)).getStoryByCode(TEST_CODE);
+		verify(this.storyQueryRepository, times(1)).getApprovalState(TEST_CODE);
 		verify(this.storyCommandRepository, never()).updateRelation(any(), any(), any(), any(), any());
 	}
 
@@ -291,13 +309,13 @@ class StoryServiceTest {
 	void testApproveStoryFailNotModifiable() {
 		Story story = this.createTestStory();
 		story.setStatus(StoryStatus.FINISHED.name());
-		when(this.storyQueryRepository.getStoryByCode(TEST_CODE)).thenReturn(story);
+		when(this.storyQueryRepository.getApprovalState(TEST_CODE)).thenReturn(this.createTestApprovalState(story));
 
 		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
 		ClientErrorCode result = this.storyService.approve(TEST_CODE, nextOperators, "Approved", TEST_UID);
 
 		assertEquals(ClientErrorCode.ERROR_1432, result);
-		verify(this.storyQueryRepository, times(1)).getStoryByCode(TEST_CODE);
+		verify(this.storyQueryRepository, times(1)).getApprovalState(TEST_CODE);
 		verify(this.storyCommandRepository, never()).updateRelation(any(), any(), any(), any(), any());
 	}
 
@@ -307,17 +325,17 @@ class StoryServiceTest {
 	@Test
 	void testApproveStoryFailNoPermission() {
 		Story story = this.createTestStory();
-		List<UserRole> userRoles = Collections.singletonList(UserRole.BUSINESS);
+		int userRoleMask = UserRole.BUSINESS.getMask();
 
-		when(this.storyQueryRepository.getStoryByCode(TEST_CODE)).thenReturn(story);
-		when(this.userQueryRepository.getUserRoles(TEST_UID)).thenReturn(userRoles);
+		when(this.storyQueryRepository.getApprovalState(TEST_CODE)).thenReturn(this.createTestApprovalState(story));
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(userRoleMask);
 
 		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
 		ClientErrorCode result = this.storyService.approve(TEST_CODE, nextOperators, "Approved", TEST_UID);
 
 		assertEquals(ClientErrorCode.ERROR_1491, result);
-		verify(this.storyQueryRepository, times(1)).getStoryByCode(TEST_CODE);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_UID);
+		verify(this.storyQueryRepository, times(1)).getApprovalState(TEST_CODE);
+		verify(this.userQueryRepository, times(1)).getUserRoleMask(TEST_UID);
 		verify(this.storyCommandRepository, never()).updateRelation(any(), any(), any(), any(), any());
 	}
 
@@ -327,20 +345,20 @@ class StoryServiceTest {
 	@Test
 	void testApproveStoryFailNextOperatorNoPermission() {
 		Story story = this.createTestStory();
-		List<UserRole> userRoles = Collections.singletonList(UserRole.DEVELOPMENT);
-		List<UserRole> nextOperatorRoles = Collections.singletonList(UserRole.BUSINESS);
+		int userRoleMask = UserRole.DEVELOPMENT.getMask();
+		int nextOperatorRoleMask = UserRole.BUSINESS.getMask();
 		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
 
-		when(this.storyQueryRepository.getStoryByCode(TEST_CODE)).thenReturn(story);
-		when(this.userQueryRepository.getUserRoles(TEST_UID)).thenReturn(userRoles);
-		when(this.userQueryRepository.getUserRoles(TEST_NEXT_OPERATOR)).thenReturn(nextOperatorRoles);
+		when(this.storyQueryRepository.getApprovalState(TEST_CODE)).thenReturn(this.createTestApprovalState(story));
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(userRoleMask);
+		when(this.userQueryRepository.getUserRoleMasksByUids(nextOperators)).thenReturn(ImmutableMap.of(TEST_NEXT_OPERATOR, nextOperatorRoleMask));
 
 		ClientErrorCode result = this.storyService.approve(TEST_CODE, nextOperators, "Approved", TEST_UID);
 
 		assertEquals(ClientErrorCode.ERROR_1492, result);
-		verify(this.storyQueryRepository, times(1)).getStoryByCode(TEST_CODE);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_UID);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_NEXT_OPERATOR);
+		verify(this.storyQueryRepository, times(1)).getApprovalState(TEST_CODE);
+		verify(this.userQueryRepository, times(1)).getUserRoleMask(TEST_UID);
+		verify(this.userQueryRepository, times(1)).getUserRoleMasksByUids(nextOperators);
 		verify(this.storyCommandRepository, never()).updateRelation(any(), any(), any(), any(), any());
 	}
 
@@ -351,20 +369,44 @@ class StoryServiceTest {
 	void testRejectStorySuccess() {
 		Story story = this.createTestStory();
 		story.setStatus(StoryStatus.TESTING.name());
-		List<UserRole> userRoles = Collections.singletonList(UserRole.TEST);
-		List<UserRole> nextOperatorRoles = Collections.singletonList(UserRole.DEVELOPMENT);
+		int userRoleMask = UserRole.TEST.getMask();
+		int nextOperatorRoleMask = UserRole.DEVELOPMENT.getMask();
 		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
 
-		when(this.storyQueryRepository.getStoryByCode(TEST_CODE)).thenReturn(story);
-		when(this.userQueryRepository.getUserRoles(TEST_UID)).thenReturn(userRoles);
-		when(this.userQueryRepository.getUserRoles(TEST_NEXT_OPERATOR)).thenReturn(nextOperatorRoles);
+		when(this.storyQueryRepository.getApprovalState(TEST_CODE)).thenReturn(this.createTestApprovalState(story));
+		when(this.storyCommandRepository.reject(TEST_CODE, StoryStatus.TESTING, "Rejected", Collections.singletonList(TEST_UID), TEST_UID)).thenReturn(true);
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(userRoleMask);
+		when(this.userQueryRepository.getUserRoleMasksByUids(nextOperators)).thenReturn(ImmutableMap.of(TEST_NEXT_OPERATOR, nextOperatorRoleMask));
 
 		ClientErrorCode result = this.storyService.reject(TEST_CODE, nextOperators, "Rejected", TEST_UID);
 
 		assertNull(result);
-		verify(this.storyQueryRepository, times(1)).getStoryByCode(TEST_CODE);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_UID);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_NEXT_OPERATOR);
+		verify(this.storyQueryRepository, times(1)).getApprovalState(TEST_CODE);
+		verify(this.userQueryRepository, times(1)).getUserRoleMask(TEST_UID);
+		verify(this.userQueryRepository, times(1)).getUserRoleMasksByUids(nextOperators);
+		verify(this.storyCommandRepository, times(1)).reject(TEST_CODE, StoryStatus.TESTING, "Rejected", Collections.singletonList(TEST_UID), TEST_UID);
+		verify(this.storyCommandRepository, times(1)).assignOperators(TEST_CODE, StoryStatus.PROGRESSING, nextOperators, TEST_UID);
+	}
+
+	/**
+	 * 测试拒绝故事失败的场景，故事状态已被其他人修改
+	 */
+	@Test
+	void testRejectStoryFailConflict() {
+		Story story = this.createTestStory();
+		story.setStatus(StoryStatus.TESTING.name());
+		int userRoleMask = UserRole.TEST.getMask();
+		int nextOperatorRoleMask = UserRole.DEVELOPMENT.getMask();
+		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
+
+		when(this.storyQueryRepository.getApprovalState(TEST_CODE)).thenReturn(this.createTestApprovalState(story));
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(userRoleMask);
+		when(this.userQueryRepository.getUserRoleMasksByUids(nextOperators)).thenReturn(ImmutableMap.of(TEST_NEXT_OPERATOR, nextOperatorRoleMask));
+
+		ClientErrorCode result = this.storyService.reject(TEST_CODE, nextOperators, "Rejected", TEST_UID);
+
+		assertEquals(ClientErrorCode.ERROR_1496, result);
+		verify(this.storyCommandRepository, never()).assignOperators(any(), any(), any(), any());
 	}
 
 	/**
@@ -372,13 +414,13 @@ class StoryServiceTest {
 	 */
 	@Test
 	void testRejectStoryFailNotFound() {
-		when(this.storyQueryRepository.getStoryByCode(TEST_CODE)).thenReturn(null);
+		when(this.storyQueryRepository.getApprovalState(TEST_CODE)).thenReturn(null);
 
 		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
 		ClientErrorCode result = this.storyService.reject(TEST_CODE, nextOperators, "Rejected", TEST_UID);
 
 		assertEquals(ClientErrorCode.ERROR_1430, result);
-		verify(this.storyQueryRepository, times(1)).getStoryByCode(TEST_CODE);
+		verify(this.storyQueryRepository, times(1)).getApprovalState(TEST_CODE);
 		verify(this.storyCommandRepository, never()).updateRelation(any(), any(), any(), any(), any());
 	}
 
@@ -389,13 +431,13 @@ class StoryServiceTest {
 	void testRejectStoryFailNotModifiable() {
 		Story story = this.createTestStory();
 		story.setStatus(StoryStatus.FINISHED.name());
-		when(this.storyQueryRepository.getStoryByCode(TEST_CODE)).thenReturn(story);
+		when(this.storyQueryRepository.getApprovalState(TEST_CODE)).thenReturn(this.createTestApprovalState(story));
 
 		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
 		ClientErrorCode result = this.storyService.reject(TEST_CODE, nextOperators, "Rejected", TEST_UID);
 
 		assertEquals(ClientErrorCode.ERROR_1432, result);
-		verify(this.storyQueryRepository, times(1)).getStoryByCode(TEST_CODE);
+		verify(this.storyQueryRepository, times(1)).getApprovalState(TEST_CODE);
 		verify(this.storyCommandRepository, never()).updateRelation(any(), any(), any(), any(), any());
 	}
 
@@ -405,17 +447,17 @@ class StoryServiceTest {
 	@Test
 	void testRejectStoryFailNoPermission() {
 		Story story = this.createTestStory();
-		List<UserRole> userRoles = Collections.singletonList(UserRole.BUSINESS);
+		int userRoleMask = UserRole.BUSINESS.getMask();
 
-		when(this.storyQueryRepository.getStoryByCode(TEST_CODE)).thenReturn(story);
-		when(this.userQueryRepository.getUserRoles(TEST_UID)).thenReturn(userRoles);
+		when(this.storyQueryRepository.getApprovalState(TEST_CODE)).thenReturn(this.createTestApprovalState(story));
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(userRoleMask);
 
 		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
 		ClientErrorCode result = this.storyService.reject(TEST_CODE, nextOperators, "Rejected", TEST_UID);
 
 		assertEquals(ClientErrorCode.ERROR_1491, result);
-		verify(this.storyQueryRepository, times(1)).getStoryByCode(TEST_CODE);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_UID);
+		verify(this.storyQueryRepository, times(1)).getApprovalState(TEST_CODE);
+		verify(this.userQueryRepository, times(1)).getUserRoleMask(TEST_UID);
 		verify(this.storyCommandRepository, never()).updateRelation(any(), any(), any(), any(), any());
 	}
 
@@ -426,20 +468,20 @@ class StoryServiceTest {
 	void testRejectStoryFailNextOperatorNoPermission() {
 		Story story = this.createTestStory();
 		story.setStatus(StoryStatus.TESTING.name());
-		List<UserRole> userRoles = Collections.singletonList(UserRole.TEST);
-		List<UserRole> nextOperatorRoles = Collections.singletonList(UserRole.BUSINESS);
+		int userRoleMask = UserRole.TEST.getMask();
+		int nextOperatorRoleMask = UserRole.BUSINESS.getMask();
 		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
 
-		when(this.storyQueryRepository.getStoryByCode(TEST_CODE)).thenReturn(story);
-		when(this.userQueryRepository.getUserRoles(TEST_UID)).thenReturn(userRoles);
-		when(this.userQueryRepository.getUserRoles(TEST_NEXT_OPERATOR)).thenReturn(nextOperatorRoles);
+		when(this.storyQueryRepository.getApprovalState(TEST_CODE)).thenReturn(this.createTestApprovalState(story));
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(userRoleMask);
+		when(this.userQueryRepository.getUserRoleMasksByUids(nextOperators)).thenReturn(ImmutableMap.of(TEST_NEXT_OPERATOR, nextOperatorRoleMask));
 
 		ClientErrorCode result = this.storyService.reject(TEST_CODE, nextOperators, "Rejected", TEST_UID);
 
 		assertEquals(ClientErrorCode.ERROR_1492, result);
-		verify(this.storyQueryRepository, times(1)).getStoryByCode(TEST_CODE);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_UID);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_NEXT_OPERATOR);
+		verify(this.storyQueryRepository, times(1)).getApprovalState(TEST_CODE);
+		verify(this.userQueryRepository, times(1)).getUserRoleMask(TEST_UID);
+		verify(this.userQueryRepository, times(1)).getUserRoleMasksByUids(nextOperators);
 		verify(this.storyCommandRepository, never()).updateRelation(any(), any(), any(), any(), any());
 	}
 
@@ -449,19 +491,19 @@ class StoryServiceTest {
 	@Test
 	void testAssignStorySuccess() {
 		Story story = this.createTestStory();
-		List<UserRole> userRoles = Collections.singletonList(UserRole.DEVELOPMENT);
-		List<UserRole> assigneeRoles = Collections.singletonList(UserRole.DEVELOPMENT);
+		int userRoleMask = UserRole.DEVELOPMENT.getMask();
+		int assigneeRoleMask = UserRole.DEVELOPMENT.getMask();
 
 		when(this.storyQueryRepository.getStoryByCode(TEST_CODE)).thenReturn(story);
-		when(this.userQueryRepository.getUserRoles(TEST_UID)).thenReturn(userRoles);
-		when(this.userQueryRepository.getUserRoles(TEST_NEXT_OPERATOR)).thenReturn(assigneeRoles);
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(userRoleMask);
+		when(this.userQueryRepository.getUserRoleMask(TEST_NEXT_OPERATOR)).thenReturn(assigneeRoleMask);
 
 		ClientErrorCode result = this.storyService.assign(TEST_CODE, TEST_NEXT_OPERATOR, TEST_UID);
 
 		assertNull(result);
 		verify(this.storyQueryRepository, times(1)).getStoryByCode(TEST_CODE);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_UID);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_NEXT_OPERATOR);
+		verify(this.userQueryRepository, times(1)).getUserRoleMask(TEST_UID);
+		verify(this.userQueryRepository, times(1)).getUserRoleMask(TEST_NEXT_OPERATOR);
 		verify(this.storyCommandRepository, times(1)).assignOperator(TEST_CODE, StoryStatus.PROGRESSING, TEST_NEXT_OPERATOR, TEST_UID);
 	}
 
@@ -501,16 +543,16 @@ class StoryServiceTest {
 	@Test
 	void testAssignStoryFailNoPermission() {
 		Story story = this.createTestStory();
-		List<UserRole> userRoles = Collections.singletonList(UserRole.BUSINESS);
+		int userRoleMask = UserRole.BUSINESS.getMask();
 
 		when(this.storyQueryRepository.getStoryByCode(TEST_CODE)).thenReturn(story);
-		when(this.userQueryRepository.getUserRoles(TEST_UID)).thenReturn(userRoles);
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(userRoleMask);
 
 		ClientErrorCode result = this.storyService.assign(TEST_CODE, TEST_NEXT_OPERATOR, TEST_UID);
 
 		assertEquals(ClientErrorCode.ERROR_1491, result);
 		verify(this.storyQueryRepository, times(1)).getStoryByCode(TEST_CODE);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_UID);
+		verify(this.userQueryRepository, times(1)).getUserRoleMask(TEST_UID);
 		verify(this.storyCommandRepository, never()).assignOperator(any(), any(), any(), any());
 	}
 
@@ -520,19 +562,19 @@ class StoryServiceTest {
 	@Test
 	void testAssignStoryFailAssigneeNoPermission() {
 		Story story = this.createTestStory();
-		List<UserRole> userRoles = Collections.singletonList(UserRole.DEVELOPMENT);
-		List<UserRole> assigneeRoles = Collections.singletonList(UserRole.BUSINESS);
+		int userRoleMask = UserRole.DEVELOPMENT.getMask();
+		int assigneeRoleMask = UserRole.BUSINESS.getMask();
 
 		when(this.storyQueryRepository.getStoryByCode(TEST_CODE)).thenReturn(story);
-		when(this.userQueryRepository.getUserRoles(TEST_UID)).thenReturn(userRoles);
-		when(this.userQueryRepository.getUserRoles(TEST_NEXT_OPERATOR)).thenReturn(assigneeRoles);
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(userRoleMask);
+		when(this.userQueryRepository.getUserRoleMask(TEST_NEXT_OPERATOR)).thenReturn(assigneeRoleMask);
 
 		ClientErrorCode result = this.storyService.assign(TEST_CODE, TEST_NEXT_OPERATOR, TEST_UID);
 
 		assertEquals(ClientErrorCode.ERROR_1491, result);
 		verify(this.storyQueryRepository, times(1)).getStoryByCode(TEST_CODE);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_UID);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_NEXT_OPERATOR);
+		verify(this.userQueryRepository, times(1)).getUserRoleMask(TEST_UID);
+		verify(this.userQueryRepository, times(1)).getUserRoleMask(TEST_NEXT_OPERATOR);
 		verify(this.storyCommandRepository, never()).assignOperator(any(), any(), any(), any());
 	}
 
@@ -542,17 +584,17 @@ class StoryServiceTest {
 	@Test
 	void testUnassignStorySuccess() {
 		Story story = this.createTestStory();
-		List<UserRole> userRoles = Collections.singletonList(UserRole.DEVELOPMENT);
+		int userRoleMask = UserRole.DEVELOPMENT.getMask();
 
 		when(this.storyQueryRepository.getStoryByCode(TEST_CODE)).thenReturn(story);
-		when(this.userQueryRepository.getUserRoles(TEST_UID)).thenReturn(userRoles);
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(userRoleMask);
 		when(this.storyCommandRepository.unassignOperator(TEST_CODE, StoryStatus.PROGRESSING, TEST_NEXT_OPERATOR, TEST_UID)).thenReturn(false);
 
 		ClientErrorCode result = this.storyService.unassign(TEST_CODE, TEST_NEXT_OPERATOR, TEST_UID);
 
 		assertNull(result);
 		verify(this.storyQueryRepository, times(1)).getStoryByCode(TEST_CODE);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_UID);
+		verify(this.userQueryRepository, times(1)).getUserRoleMask(TEST_UID);
 		verify(this.storyCommandRepository, times(1)).unassignOperator(TEST_CODE, StoryStatus.PROGRESSING, TEST_NEXT_OPERATOR, TEST_UID);
 	}
 
@@ -592,16 +634,163 @@ class StoryServiceTest {
 	@Test
 	void testUnassignStoryFailNoPermission() {
 		Story story = this.createTestStory();
-		List<UserRole> userRoles = Collections.singletonList(UserRole.BUSINESS);
+		int userRoleMask = UserRole.BUSINESS.getMask();
 
 		when(this.storyQueryRepository.getStoryByCode(TEST_CODE)).thenReturn(story);
-		when(this.userQueryRepository.getUserRoles(TEST_UID)).thenReturn(userRoles);
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(userRoleMask);
 
 		ClientErrorCode result = this.storyService.unassign(TEST_CODE, TEST_NEXT_OPERATOR, TEST_UID);
 
 		assertEquals(ClientErrorCode.ERROR_1491, result);
 		verify(this.storyQueryRepository, times(1)).getStoryByCode(TEST_CODE);
-		verify(this.userQueryRepository, times(1)).getUserRoles(TEST_UID);
+		verify(this.userQueryRepository, times(1)).getUserRoleMask(TEST_UID);
 		verify(this.storyCommandRepository, never()).unassignOperator(any(), any(), any(), any());
 	}
+
+	/**
+	 * 用事务拦截器代理故事服务，批量操作整批回滚时可以检查事务状态
+	 */
+	private StoryService transactional(PlatformTransactionManager transactionManager) {
+		ProxyFactory proxyFactory = new ProxyFactory(this.storyService);
+		proxyFactory.setProxyTargetClass(true);
+		proxyFactory.addAdvice(new TransactionInterceptor(transactionManager, new AnnotationTransactionAttributeSource()));
+		return (StoryService) proxyFactory.getProxy();
+	}
+
+	/**
+	 * 测试批量批准故事部分校验失败的场景，失败的故事逐项返回错误码，通过校验的故事照常批量更新
+	 */
+	@Test
+	void testApproveAllStoriesPartialValidation() {
+		Story story = this.createTestStory();
+		Story finished = this.createTestStory();
+		finished.setCode("LDY-9528");
+		finished.setStatus(StoryStatus.FINISHED.name());
+		Story testing = this.createTestStory();
+		testing.setCode("LDY-9529");
+		testing.setStatus(StoryStatus.TESTING.name());
+		List<String> codes = Arrays.asList(TEST_CODE, "LDY-9528", "LDY-9529", "LDY-9530");
+		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
+
+		when(this.storyQueryRepository.getStorysByCodes(codes)).thenReturn(ImmutableMap.of(TEST_CODE, story, "LDY-9528", finished, "LDY-9529", testing));
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(UserRole.DEVELOPMENT.getMask());
+		when(this.userQueryRepository.getUserRoleMasksByUids(nextOperators)).thenReturn(ImmutableMap.of(TEST_NEXT_OPERATOR, UserRole.TEST.getMask()));
+		List<String> approved = Collections.singletonList(TEST_CODE);
+		when(this.storyCommandRepository.updateStatusByCodes(approved, StoryStatus.PROGRESSING, StoryStatus.TESTING, TEST_UID)).thenReturn(1);
+
+		Map<String, ClientErrorCode> result = this.storyService.approveAll(codes, nextOperators, "Approved", TEST_UID);
+
+		assertNull(result.get(TEST_CODE));
+		assertEquals(ClientErrorCode.ERROR_1432, result.get("LDY-9528"));
+		assertEquals(ClientErrorCode.ERROR_1491, result.get("LDY-9529"));
+		assertEquals(ClientErrorCode.ERROR_1430, result.get("LDY-9530"));
+		verify(this.storyCommandRepository, times(1)).updateRelationsByCodes(approved, StoryStatus.PROGRESSING, "Approved", RelationType.APPROVED, TEST_UID);
+		verify(this.storyCommandRepository, times(1)).skipRemainingRelationsByCodes(approved, StoryStatus.PROGRESSING, TEST_UID);
+		verify(this.storyCommandRepository, times(1)).assignOperatorsByCodes(approved, StoryStatus.TESTING, nextOperators, TEST_UID);
+	}
+
+	/**
+	 * 测试批量批准故事时后一组的状态已被其他人修改，整批回滚，已成功的一组也标记为需要重试
+	 */
+	@Test
+	void testApproveAllStoriesConflictRollsBackBatch() {
+		Story draft = this.createTestStory();
+		draft.setStatus(StoryStatus.DRAFT.name());
+		Story progressing = this.createTestStory();
+		progressing.setCode("LDY-9528");
+		List<String> codes = Arrays.asList(TEST_CODE, "LDY-9528", "LDY-9530");
+		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
+		PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+		SimpleTransactionStatus status = new SimpleTransactionStatus();
+
+		when(transactionManager.getTransaction(any())).thenReturn(status);
+		when(this.storyQueryRepository.getStorysByCodes(codes)).thenReturn(ImmutableMap.of(TEST_CODE, draft, "LDY-9528", progressing));
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(UserRole.DEVELOPMENT.getMask());
+		when(this.userQueryRepository.getUserRoleMasksByUids(nextOperators))
+				.thenReturn(ImmutableMap.of(TEST_NEXT_OPERATOR, UserRole.DEVELOPMENT.getMask() | UserRole.TEST.getMask()));
+		when(this.storyCommandRepository.updateStatusByCodes(Collections.singletonList(TEST_CODE), StoryStatus.DRAFT, StoryStatus.PROGRESSING, TEST_UID)).thenReturn(1);
+		when(this.storyCommandRepository.updateStatusByCodes(Collections.singletonList("LDY-9528"), StoryStatus.PROGRESSING, StoryStatus.TESTING, TEST_UID)).thenReturn(0);
+
+		Map<String, ClientErrorCode> result = this.transactional(transactionManager).approveAll(codes, nextOperators, "Approved", TEST_UID);
+
+		assertEquals(ClientErrorCode.ERROR_1496, result.get(TEST_CODE));
+		assertEquals(ClientErrorCode.ERROR_1496, result.get("LDY-9528"));
+		assertEquals(ClientErrorCode.ERROR_1430, result.get("LDY-9530"));
+		assertTrue(status.isRollbackOnly());
+		verify(transactionManager, times(1)).commit(status);
+		verify(this.storyCommandRepository, never()).assignOperatorsByCodes(eq(Collections.singletonList("LDY-9528")), any(), any(), any());
+	}
+
+	/**
+	 * 测试批量拒绝故事时状态已被其他人修改，整批回滚，不记录拒绝
+	 */
+	@Test
+	void testRejectAllStoriesConflictRollsBackBatch() {
+		Story testing = this.createTestStory();
+		testing.setStatus(StoryStatus.TESTING.name());
+		List<String> codes = Collections.singletonList(TEST_CODE);
+		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
+		PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+		SimpleTransactionStatus status = new SimpleTransactionStatus();
+
+		when(transactionManager.getTransaction(any())).thenReturn(status);
+		when(this.storyQueryRepository.getStorysByCodes(codes)).thenReturn(ImmutableMap.of(TEST_CODE, testing));
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(UserRole.TEST.getMask());
+		when(this.userQueryRepository.getUserRoleMasksByUids(nextOperators)).thenReturn(ImmutableMap.of(TEST_NEXT_OPERATOR, UserRole.DEVELOPMENT.getMask()));
+
+		Map<String, ClientErrorCode> result = this.transactional(transactionManager).rejectAll(codes, nextOperators, "Rejected", TEST_UID);
+
+		assertEquals(ClientErrorCode.ERROR_1496, result.get(TEST_CODE));
+		assertTrue(status.isRollbackOnly());
+		verify(this.storyCommandRepository, never()).updateRelationsByCodes(any(), any(), any(), any(), any());
+		verify(this.storyCommandRepository, never()).assignOperatorsByCodes(any(), any(), any(), any());
+	}
+
+	/**
+	 * 测试批量拒绝故事，先确认状态再记录拒绝并委派下一位责任人
+	 */
+	@Test
+	void testRejectAllStories() {
+		Story testing = this.createTestStory();
+		testing.setStatus(StoryStatus.TESTING.name());
+		List<String> codes = Arrays.asList(TEST_CODE, "LDY-9530");
+		List<String> nextOperators = Collections.singletonList(TEST_NEXT_OPERATOR);
+		List<String> rejected = Collections.singletonList(TEST_CODE);
+
+		when(this.storyQueryRepository.getStorysByCodes(codes)).thenReturn(ImmutableMap.of(TEST_CODE, testing));
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(UserRole.TEST.getMask());
+		when(this.userQueryRepository.getUserRoleMasksByUids(nextOperators)).thenReturn(ImmutableMap.of(TEST_NEXT_OPERATOR, UserRole.DEVELOPMENT.getMask()));
+		when(this.storyCommandRepository.updateStatusByCodes(rejected, StoryStatus.TESTING, StoryStatus.TESTING, TEST_UID)).thenReturn(1);
+
+		Map<String, ClientErrorCode> result = this.storyService.rejectAll(codes, nextOperators, "Rejected", TEST_UID);
+
+		assertNull(result.get(TEST_CODE));
+		assertEquals(ClientErrorCode.ERROR_1430, result.get("LDY-9530"));
+		verify(this.storyCommandRepository, times(1)).updateRelationsByCodes(rejected, StoryStatus.TESTING, "Rejected", RelationType.REJECTED, TEST_UID);
+		verify(this.storyCommandRepository, times(1)).assignOperatorsByCodes(rejected, StoryStatus.PROGRESSING, nextOperators, TEST_UID);
+	}
+
+	/**
+	 * 测试批量分配给自己时不检查被分配者权限，按状态分组委派
+	 */
+	@Test
+	void testAssignAllStoriesToSelf() {
+		Story progressing = this.createTestStory();
+		Story testing = this.createTestStory();
+		testing.setCode("LDY-9528");
+		testing.setStatus(StoryStatus.TESTING.name());
+		List<String> codes = Arrays.asList(TEST_CODE, "LDY-9528");
+
+		when(this.storyQueryRepository.getStorysByCodes(codes)).thenReturn(ImmutableMap.of(TEST_CODE, progressing, "LDY-9528", testing));
+		when(this.userQueryRepository.getUserRoleMask(TEST_UID)).thenReturn(UserRole.DEVELOPMENT.getMask() | UserRole.TEST.getMask());
+
+		Map<String, ClientErrorCode> result = this.storyService.assignAll(codes, TEST_UID, TEST_UID);
+
+		assertNull(result.get(TEST_CODE));
+		assertNull(result.get("LDY-9528"));
+		verify(this.userQueryRepository, times(1)).getUserRoleMasksByUids(Collections.emptyList());
+		List<String> self = Collections.singletonList(TEST_UID);
+		verify(this.storyCommandRepository, times(1)).assignOperatorsByCodes(Collections.singletonList(TEST_CODE), StoryStatus.PROGRESSING, self, TEST_UID);
+		verify(this.storyCommandRepository, times(1)).assignOperatorsByCodes(Collections.singletonList("LDY-9528"), StoryStatus.TESTING, self, TEST_UID);
+	}
 }
@@ -0,0 +1,173 @@
+package org.ecnumc.voxelflow.test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.ecnumc.voxelflow.enumeration.UserRole;
+import org.ecnumc.voxelflow.mapper.UserMapper;
+import org.ecnumc.voxelflow.mapper.UserRoleRelationMapper;
+import org.ecnumc.voxelflow.po.User;
+import org.ecnumc.voxelflow.po.UserRoleRelation;
+import org.ecnumc.voxelflow.repository.RedisRepository;
+import org.ecnumc.voxelflow.repository.UserQueryRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * 用户角色缓存和邮箱缓存单元测试喵~
+ *
+ * @author liudongyu
+ */
+class UserQueryRepositoryTest {
+	private static final String TEST_UID = "00000000-0000-0000-0000-000000000001";
+
+	private static final String TEST_EMAIL = "tester@ecnumc.org";
+
+	private UserQueryRepository userQueryRepository;
+
+	private UserMapper userMapper;
+
+	private UserRoleRelationMapper userRoleRelationMapper;
+
+	private RedisRepository redisRepository;
+
+	@BeforeEach
+	void setUp() {
+		this.userQueryRepository = new UserQueryRepository();
+		this.userMapper = mock(UserMapper.class);
+		this.userRoleRelationMapper = mock(UserRoleRelationMapper.class);
+		this.redisRepository = mock(RedisRepository.class);
+		ReflectionTestUtils.setField(this.userQueryRepository, "userMapper", this.userMapper);
+		ReflectionTestUtils.setField(this.userQueryRepository, "userRoleRelationMapper", this.userRoleRelationMapper);
+		ReflectionTestUtils.setField(this.userQueryRepository, "redisRepository", this.redisRepository);
+		ReflectionTestUtils.setField(this.userQueryRepository, "redisMessageListenerContainer", mock(RedisMessageListenerContainer.class));
+		ReflectionTestUtils.setField(this.userQueryRepository, "meterRegistry", new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(this.userQueryRepository, "roleCacheMaximumSize", 100L);
+		ReflectionTestUtils.setField(this.userQueryRepository, "roleCacheExpireSeconds", 300L);
+		ReflectionTestUtils.setField(this.userQueryRepository, "emailCacheMaximumSize", 100L);
+		ReflectionTestUtils.setField(this.userQueryRepository, "emailCacheExpireSeconds", 600L);
+		this.userQueryRepository.init();
+	}
+
+	private static List<UserRoleRelation> roles(UserRole... roles) {
+		List<UserRoleRelation> relations = new ArrayList<>();
+		for(UserRole role: roles) {
+			UserRoleRelation relation = new UserRoleRelation();
+			relation.setUid(TEST_UID);
+			relation.setRole(role.name());
+			relations.add(relation);
+		}
+		return relations;
+	}
+
+	/**
+	 * 测试角色命中缓存后不再查询数据库喵~
+	 */
+	@Test
+	void testRoleMaskCached() {
+		when(this.userRoleRelationMapper.selectList(any())).thenReturn(roles(UserRole.PRODUCT));
+
+		assertEquals(UserRole.PRODUCT.getMask(), this.userQueryRepository.getUserRoleMask(TEST_UID));
+		assertEquals(UserRole.PRODUCT.getMask(), this.userQueryRepository.getUserRoleMask(TEST_UID));
+
+		verify(this.userRoleRelationMapper, times(1)).selectList(any());
+	}
+
+	/**
+	 * 测试撤销角色后失效缓存并通知其它节点，下次读取重新查询数据库喵~
+	 */
+	@Test
+	void testEvictUserRoles() {
+		when(this.userRoleRelationMapper.selectList(any()))
+				.thenReturn(roles(UserRole.PRODUCT, UserRole.SECURITY))
+				.thenReturn(roles(UserRole.PRODUCT));
+
+		assertEquals(UserRole.maskOf(UserRole.PRODUCT, UserRole.SECURITY), this.userQueryRepository.getUserRoleMask(TEST_UID));
+		this.userQueryRepository.evictUserRoles(TEST_UID);
+
+		assertEquals(UserRole.PRODUCT.getMask(), this.userQueryRepository.getUserRoleMask(TEST_UID));
+		verify(this.userRoleRelationMapper, times(2)).selectList(any());
+		verify(this.redisRepository, times(1)).publish(anyString(), eq(TEST_UID));
+	}
+
+	/**
+	 * 测试加载角色期间撤销角色时，已撤销的角色不会留在缓存中喵~
+	 */
+	@Test
+	void testEvictUserRolesRacingWithLoad() {
+		// 第一次读到的是撤销前的角色，读完后、写入缓存前撤销
+		when(this.userRoleRelationMapper.selectList(any())).thenAnswer(invocation -> {
+			this.userQueryRepository.evictUserRoles(TEST_UID);
+			return roles(UserRole.PRODUCT, UserRole.SECURITY);
+		}).thenReturn(roles(UserRole.PRODUCT));
+
+		this.userQueryRepository.getUserRoleMasksByUids(Collections.singletonList(TEST_UID));
+
+		assertEquals(UserRole.PRODUCT.getMask(), this.userQueryRepository.getUserRoleMask(TEST_UID));
+		verify(this.userRoleRelationMapper, times(2)).selectList(any());
+	}
+
+	private static List<User> user(String email) {
+		User user = new User();
+		user.setUid(TEST_UID);
+		user.setEmail(email);
+		return Collections.singletonList(user);
+	}
+
+	/**
+	 * 测试未注册的邮箱被缓存，邮箱不区分大小写喵~
+	 */
+	@Test
+	void testUnregisteredEmailCached() {
+		when(this.userMapper.selectList(any())).thenReturn(Collections.emptyList());
+
+		assertTrue(this.userQueryRepository.getUidsByEmails(Collections.singletonList(TEST_EMAIL)).isEmpty());
+		assertTrue(this.userQueryRepository.getUidsByEmails(Collections.singletonList(TEST_EMAIL.toUpperCase(Locale.ROOT))).isEmpty());
+
+		verify(this.userMapper, times(1)).selectList(any());
+	}
+
+	/**
+	 * 测试注册后失效邮箱缓存，新用户的提交能被识别喵~
+	 */
+	@Test
+	void testEvictEmailAfterRegister() {
+		when(this.userMapper.selectList(any()))
+				.thenReturn(Collections.emptyList())
+				.thenReturn(user(TEST_EMAIL));
+
+		assertTrue(this.userQueryRepository.getUidsByEmails(Collections.singletonList(TEST_EMAIL)).isEmpty());
+		this.userQueryRepository.evictEmail(TEST_EMAIL);
+
+		assertEquals(TEST_UID, this.userQueryRepository.getUidsByEmails(Collections.singletonList(TEST_EMAIL)).get(TEST_EMAIL));
+		verify(this.redisRepository, times(1)).publish(anyString(), eq(TEST_EMAIL));
+	}
+
+	/**
+	 * 测试查询邮箱期间有用户注册时，不会把该邮箱缓存为未注册喵~
+	 */
+	@Test
+	void testEvictEmailRacingWithLoad() {
+		// 第一次查询时用户尚未注册，查询后、写入缓存前注册
+		when(this.userMapper.selectList(any())).thenAnswer(invocation -> {
+			this.userQueryRepository.evictEmail(TEST_EMAIL);
+			return Collections.emptyList();
+		}).thenReturn(user(TEST_EMAIL));
+
+		assertTrue(this.userQueryRepository.getUidsByEmails(Collections.singletonList(TEST_EMAIL)).isEmpty());
+
+		assertEquals(TEST_UID, this.userQueryRepository.getUidsByEmails(Collections.singletonList(TEST_EMAIL)).get(TEST_EMAIL));
+		verify(this.userMapper, times(2)).selectList(any());
+	}
+}
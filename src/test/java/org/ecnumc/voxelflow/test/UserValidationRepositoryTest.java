@@ -0,0 +1,85 @@
+package org.ecnumc.voxelflow.test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.ecnumc.voxelflow.repository.RedisRepository;
+import org.ecnumc.voxelflow.repository.UserValidationRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * 用户 token 本地缓存单元测试喵~
+ *
+ * @author liudongyu
+ */
+class UserValidationRepositoryTest {
+	private static final String TEST_UID = "U1";
+
+	private static final String TEST_TOKEN = "test-token";
+
+	private UserValidationRepository userValidationRepository;
+
+	private RedisRepository redisRepository;
+
+	@BeforeEach
+	void setUp() {
+		this.userValidationRepository = new UserValidationRepository();
+		this.redisRepository = mock(RedisRepository.class);
+		ReflectionTestUtils.setField(this.userValidationRepository, "redisRepository", this.redisRepository);
+		ReflectionTestUtils.setField(this.userValidationRepository, "redisMessageListenerContainer", mock(RedisMessageListenerContainer.class));
+		ReflectionTestUtils.setField(this.userValidationRepository, "meterRegistry", new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(this.userValidationRepository, "maximumSize", 100L);
+		ReflectionTestUtils.setField(this.userValidationRepository, "expireSeconds", 60L);
+		this.userValidationRepository.init();
+	}
+
+	/**
+	 * 测试校验结果命中本地缓存后不再访问 Redis 喵~
+	 */
+	@Test
+	void testValidateTokenUsesLocalCache() {
+		when(this.redisRepository.get(TEST_UID)).thenReturn(TEST_TOKEN);
+
+		assertTrue(this.userValidationRepository.validateToken(TEST_UID, TEST_TOKEN));
+		assertTrue(this.userValidationRepository.validateToken(TEST_UID, TEST_TOKEN));
+		assertFalse(this.userValidationRepository.validateToken(TEST_UID, "other-token"));
+
+		verify(this.redisRepository, times(1)).get(TEST_UID);
+	}
+
+	/**
+	 * 测试从 Redis 加载 token 期间发生登出时，已撤销的 token 不会留在本地缓存中喵~
+	 */
+	@Test
+	void testLogoutRacingWithValidation() {
+		// 第一次读到的是登出前的 token，读完后、写入缓存前登出
+		when(this.redisRepository.get(TEST_UID)).thenAnswer(invocation -> {
+			this.userValidationRepository.deleteToken(TEST_UID);
+			return TEST_TOKEN;
+		}).thenReturn(null);
+
+		this.userValidationRepository.validateToken(TEST_UID, TEST_TOKEN);
+
+		assertFalse(this.userValidationRepository.validateToken(TEST_UID, TEST_TOKEN));
+		verify(this.redisRepository, times(2)).get(TEST_UID);
+		verify(this.redisRepository, times(1)).delete(TEST_UID);
+	}
+
+	/**
+	 * 测试重新登录后旧 token 立即失效喵~
+	 */
+	@Test
+	void testSetTokenInvalidatesCachedToken() {
+		when(this.redisRepository.get(TEST_UID)).thenReturn(TEST_TOKEN).thenReturn("new-token");
+
+		assertTrue(this.userValidationRepository.validateToken(TEST_UID, TEST_TOKEN));
+		this.userValidationRepository.setToken(TEST_UID, "new-token");
+
+		assertFalse(this.userValidationRepository.validateToken(TEST_UID, TEST_TOKEN));
+		assertTrue(this.userValidationRepository.validateToken(TEST_UID, "new-token"));
+	}
+}
@@ -2,17 +2,20 @@ package org.ecnumc.voxelflow.test;
 
 import org.ecnumc.voxelflow.Application;
 import org.ecnumc.voxelflow.controller.WebhookController;
-import org.ecnumc.voxelflow.service.CommitCommandService;
+import org.ecnumc.voxelflow.service.WebhookIngestService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 
 import javax.servlet.http.HttpServletRequest;
 
 import static org.ecnumc.voxelflow.test.WebhookServiceTest.LEGAL_PAYLOAD;
 import static org.ecnumc.voxelflow.test.WebhookServiceTest.wrapPayload;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 import static org.mockito.Mockito.when;
@@ -20,24 +23,48 @@ import static org.mockito.Mockito.when;
 @SpringBootTest(classes = Application.class)
 class WebhookControllerTest {
 	@Mock
-	private CommitCommandService commitCommandService;
+	private WebhookIngestService webhookIngestService;
 
 	@InjectMocks
 	private WebhookController webhookController;
 
+	@Mock
+	private HttpServletRequest pushRequest;
+
 	@Mock
 	private HttpServletRequest issueRequest;
 
 	@BeforeEach
 	void setUp() {
-		reset(this.commitCommandService, this.issueRequest);
+		reset(this.webhookIngestService, this.pushRequest, this.issueRequest);
+		when(this.pushRequest.getHeader("X-GitHub-Event")).thenReturn("push");
 		when(this.issueRequest.getHeader("X-GitHub-Event")).thenReturn("issue");
 	}
 
 	@Test
 	void testNonPush() {
-		this.webhookController.webhook(wrapPayload(LEGAL_PAYLOAD), this.issueRequest);
+		ResponseEntity<Void> response = this.webhookController.webhook(wrapPayload(LEGAL_PAYLOAD), this.issueRequest);
+
+		assertEquals(HttpStatus.OK, response.getStatusCode());
+		verify(this.webhookIngestService, never()).submitPush(any());
+	}
+
+	@Test
+	void testPushAccepted() {
+		when(this.webhookIngestService.submitPush(LEGAL_PAYLOAD)).thenReturn(true);
+
+		ResponseEntity<Void> response = this.webhookController.webhook(wrapPayload(LEGAL_PAYLOAD), this.pushRequest);
+
+		assertEquals(HttpStatus.ACCEPTED, response.getStatusCode());
+		verify(this.webhookIngestService, times(1)).submitPush(LEGAL_PAYLOAD);
+	}
+
+	@Test
+	void testPushRejectedWhenQueueFull() {
+		when(this.webhookIngestService.submitPush(LEGAL_PAYLOAD)).thenReturn(false);
+
+		ResponseEntity<Void> response = this.webhookController.webhook(wrapPayload(LEGAL_PAYLOAD), this.pushRequest);
 
-		verify(this.commitCommandService, never()).push(any());
+		assertEquals(HttpStatus.SERVICE_UNAVAILABLE, response.getStatusCode());
 	}
 }
@@ -4,7 +4,6 @@ import com.alibaba.fastjson.JSONObject;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import org.ecnumc.voxelflow.Application;
-import org.ecnumc.voxelflow.controller.WebhookController;
 import org.ecnumc.voxelflow.po.User;
 import org.ecnumc.voxelflow.repository.CommitCommandRepository;
 import org.ecnumc.voxelflow.repository.UserQueryRepository;
@@ -15,10 +14,10 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.springframework.boot.test.context.SpringBootTest;
 
-import javax.servlet.http.HttpServletRequest;
-import java.lang.reflect.Field;
 import java.util.Date;
 
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.Mockito.*;
 
 @SpringBootTest(classes = Application.class)
@@ -32,15 +31,6 @@ class WebhookServiceTest {
 	@InjectMocks
 	private CommitCommandService commitCommandService;
 
-	@Mock
-	private HttpServletRequest pushRequest;
-
-	@Mock
-	private HttpServletRequest issueRequest;
-
-	@InjectMocks
-	private WebhookController webhookController;
-
 	private static final String CORRECT_EMAIL = "test@test.com";
 
 	private static final String REPO_HTML_URL = "https://github.com/ecnumc/voxelflow";
@@ -119,42 +109,35 @@ class WebhookServiceTest {
 
 	@BeforeEach
 	void setUp() {
-		reset(this.commitCommandRepository, this.userQueryRepository, this.pushRequest, this.issueRequest);
-		try {
-			Field service = WebhookController.class.getDeclaredField("commitCommandService");
-			service.setAccessible(true);
-			service.set(this.webhookController, this.commitCommandService);
-		} catch (NoSuchFieldException | IllegalAccessException e) {
-			throw new RuntimeException(e);
-		}
-
-		when(this.userQueryRepository.getByEmail(CORRECT_EMAIL)).thenReturn(CORRECT_USER);
-		when(this.pushRequest.getHeader("X-GitHub-Event")).thenReturn("push");
-		when(this.issueRequest.getHeader("X-GitHub-Event")).thenReturn("issue");
+		reset(this.commitCommandRepository, this.userQueryRepository);
+
+		when(this.userQueryRepository.getUidsByEmails(anyCollection())).thenReturn(ImmutableMap.of(CORRECT_EMAIL, CORRECT_USER.getUid()));
 	}
 
 	@Test
 	void testIllegalPush() {
-		this.webhookController.webhook(wrapPayload(ILLEGAL_PAYLOAD), this.pushRequest);
+		this.commitCommandService.push(ILLEGAL_PAYLOAD);
 
-		verify(this.commitCommandRepository, never()).add(any(), any(), any(), any(), any(), any(), any());
-		verify(this.userQueryRepository, times(2)).getByEmail(any());
+		verify(this.commitCommandRepository, times(1)).addAll(argThat(commits -> commits.isEmpty()));
+		verify(this.userQueryRepository, times(1)).getUidsByEmails(anyCollection());
 	}
 
 	@Test
 	void testPartiallyLegalPush() {
-		this.webhookController.webhook(wrapPayload(PARTIALLY_LEGAL_PAYLOAD), this.pushRequest);
+		this.commitCommandService.push(PARTIALLY_LEGAL_PAYLOAD);
 
-		verify(this.commitCommandRepository, times(1)).add(any(), any(), any(), any(), any(), any(), any());
-		verify(this.userQueryRepository, times(2)).getByEmail(any());
+		verify(this.commitCommandRepository, times(1)).addAll(argThat(commits -> commits.size() == 1));
+		verify(this.userQueryRepository, times(1)).getUidsByEmails(anyCollection());
 	}
 
 	@Test
 	void testLegalPush() {
-		this.webhookController.webhook(wrapPayload(LEGAL_PAYLOAD), this.pushRequest);
+		this.commitCommandService.push(LEGAL_PAYLOAD);
 
-		verify(this.commitCommandRepository, times(2)).add(any(), any(), any(), any(), any(), any(), any());
-		verify(this.userQueryRepository, times(2)).getByEmail(any());
+		verify(this.commitCommandRepository, times(1)).addAll(argThat(commits ->
+				commits.size() == 2 && "fix".equals(commits.get(0).getCommitType()) && "BUG-123".equals(commits.get(0).getCode())
+		));
+		verify(this.userQueryRepository, times(1)).getUidsByEmails(argThat(emails -> emails.size() == 1));
 	}
 
 	static JSONObject wrapPayload(JSONObject payload) {
@@ -0,0 +1,231 @@
+package org.ecnumc.voxelflow.test;
+
+import com.alibaba.fastjson.JSON;
+import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.ecnumc.voxelflow.mapper.IssueMapper;
+import org.ecnumc.voxelflow.po.Issue;
+import org.ecnumc.voxelflow.repository.IssueCommandRepository;
+import org.ecnumc.voxelflow.repository.IssueQueryRepository;
+import org.ecnumc.voxelflow.repository.RedisRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.listener.Topic;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.*;
+
+/**
+ * 工作项两级缓存单元测试喵~
+ *
+ * @author liudongyu
+ */
+class WorkItemCacheTest {
+	private static final String TEST_CODE = "BUG-1";
+
+	private static final String CACHE_KEY = "item_issue:" + TEST_CODE;
+
+	private static final String VERSION_KEY = "item_issue_version:" + TEST_CODE;
+
+	private IssueQueryRepository issueQueryRepository;
+
+	private IssueMapper issueMapper;
+
+	private RedisRepository redisRepository;
+
+	private RedisMessageListenerContainer redisMessageListenerContainer;
+
+	/**
+	 * 模拟 Redis 中的版本 key
+	 */
+	private Map<String, String> versions;
+
+	@BeforeEach
+	void setUp() {
+		this.issueQueryRepository = new IssueQueryRepository();
+		this.issueMapper = mock(IssueMapper.class);
+		this.redisRepository = mock(RedisRepository.class);
+		this.redisMessageListenerContainer = mock(RedisMessageListenerContainer.class);
+		this.versions = new ConcurrentHashMap<>();
+		// 版本 key 的读取、比较和递增与 Redis 脚本的语义一致
+		when(this.redisRepository.get(startsWith("item_issue_version:"))).thenAnswer(
+				invocation -> this.versions.get(invocation.<String>getArgument(0))
+		);
+		when(this.redisRepository.setIfVersion(anyString(), anyString(), anyLong(), anyString(), any())).thenAnswer(
+				invocation -> Objects.equals(this.versions.get(invocation.<String>getArgument(3)), invocation.getArgument(4))
+		);
+		doAnswer(invocation -> {
+			List<String> versionKeys = invocation.getArgument(1);
+			versionKeys.forEach(key -> this.versions.merge(key, "1", (a, b) -> String.valueOf(Long.parseLong(a) + 1)));
+			return null;
+		}).when(this.redisRepository).deleteAndBumpVersion(any(), any(), anyLong());
+		ReflectionTestUtils.setField(this.issueQueryRepository, "issueMapper", this.issueMapper);
+		ReflectionTestUtils.setField(this.issueQueryRepository, "redisRepository", this.redisRepository);
+		ReflectionTestUtils.setField(this.issueQueryRepository, "redisMessageListenerContainer", this.redisMessageListenerContainer);
+		ReflectionTestUtils.setField(this.issueQueryRepository, "meterRegistry", new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(this.issueQueryRepository, "cacheMaximumSize", 100L);
+		ReflectionTestUtils.setField(this.issueQueryRepository, "cacheLocalExpireSeconds", 30L);
+		ReflectionTestUtils.setField(this.issueQueryRepository, "cacheRedisExpireSeconds", 600L);
+		this.issueQueryRepository.init();
+	}
+
+	private static Issue createTestIssue() {
+		Issue issue = new Issue();
+		issue.setCode(TEST_CODE);
+		issue.setTitle("Test Issue");
+		return issue;
+	}
+
+	/**
+	 * 测试两级缓存都未命中时查询数据库并回填，再次读取命中本地缓存喵~
+	 */
+	@Test
+	void testLoadOnceThenHitLocal() {
+		when(this.issueMapper.selectOne(any())).thenReturn(createTestIssue());
+
+		assertEquals(TEST_CODE, this.issueQueryRepository.getIssueByCode(TEST_CODE).getCode());
+		assertEquals(TEST_CODE, this.issueQueryRepository.getIssueByCode(TEST_CODE).getCode());
+
+		verify(this.issueMapper, times(1)).selectOne(any());
+		verify(this.redisRepository, times(1)).get(CACHE_KEY);
+		verify(this.redisRepository).setIfVersion(eq(CACHE_KEY), anyString(), eq(600L), eq(VERSION_KEY), isNull());
+	}
+
+	/**
+	 * 测试 Redis 命中时不查询数据库喵~
+	 */
+	@Test
+	void testHitRedis() {
+		when(this.redisRepository.get("item_issue:" + TEST_CODE)).thenReturn(JSON.toJSONString(createTestIssue()));
+
+		assertEquals("Test Issue", this.issueQueryRepository.getIssueByCode(TEST_CODE).getTitle());
+
+		verify(this.issueMapper, never()).selectOne(any());
+	}
+
+	/**
+	 * 测试不存在的编码不缓存喵~
+	 */
+	@Test
+	void testMissingNotCached() {
+		assertNull(this.issueQueryRepository.getIssueByCode(TEST_CODE));
+		assertNull(this.issueQueryRepository.getIssueByCode(TEST_CODE));
+
+		verify(this.issueMapper, times(2)).selectOne(any());
+		verify(this.redisRepository, never()).setIfVersion(anyString(), anyString(), anyLong(), anyString(), any());
+	}
+
+	/**
+	 * 测试失效后重新查询数据库，并通知其它节点喵~
+	 */
+	@Test
+	void testEvict() {
+		when(this.issueMapper.selectOne(any())).thenReturn(createTestIssue());
+
+		this.issueQueryRepository.getIssueByCode(TEST_CODE);
+		this.issueQueryRepository.evict(TEST_CODE);
+		this.issueQueryRepository.getIssueByCode(TEST_CODE);
+
+		verify(this.issueMapper, times(2)).selectOne(any());
+		verify(this.redisRepository).deleteAndBumpVersion(
+				Collections.singletonList(CACHE_KEY), Collections.singletonList(VERSION_KEY), 600L
+		);
+		verify(this.redisRepository).publish("item_issue_invalidation", TEST_CODE);
+	}
+
+	/**
+	 * 测试写入前的并发读取回填的旧值在写入后被失效，之后读到新值喵~
+	 */
+	@Test
+	void testReadInterleavedWithWrite() {
+		Issue oldIssue = createTestIssue();
+		Issue newIssue = createTestIssue();
+		newIssue.setTitle("New Title");
+		when(this.issueMapper.selectOne(any())).thenReturn(oldIssue, newIssue);
+		IssueCommandRepository issueCommandRepository = new IssueCommandRepository();
+		ReflectionTestUtils.setField(issueCommandRepository, "issueMapper", this.issueMapper);
+		ReflectionTestUtils.setField(issueCommandRepository, "issueQueryRepository", this.issueQueryRepository);
+		// 写入执行之前，并发的读取读到旧值并回填缓存
+		when(this.issueMapper.update(any(UpdateWrapper.class))).thenAnswer(invocation -> {
+			assertEquals("Test Issue", this.issueQueryRepository.getIssueByCode(TEST_CODE).getTitle());
+			return 1;
+		});
+
+		issueCommandRepository.updateIssue(TEST_CODE, "New Title", null, null, "uid");
+
+		assertEquals("New Title", this.issueQueryRepository.getIssueByCode(TEST_CODE).getTitle());
+		verify(this.issueMapper, times(2)).selectOne(any());
+	}
+
+	/**
+	 * 测试查询数据库期间被失效时，读到的旧值不回填 Redis 和本地缓存喵~
+	 */
+	@Test
+	void testStaleFillRejectedAfterEvict() {
+		Issue oldIssue = createTestIssue();
+		Issue newIssue = createTestIssue();
+		newIssue.setTitle("New Title");
+		// 读取方查到旧值之后、回填之前，写入方提交并失效
+		when(this.issueMapper.selectOne(any())).thenAnswer(invocation -> {
+			this.issueQueryRepository.evict(TEST_CODE);
+			return oldIssue;
+		}).thenReturn(newIssue);
+
+		assertEquals("Test Issue", this.issueQueryRepository.getIssueByCode(TEST_CODE).getTitle());
+		assertEquals("New Title", this.issueQueryRepository.getIssueByCode(TEST_CODE).getTitle());
+		assertEquals("New Title", this.issueQueryRepository.getIssueByCode(TEST_CODE).getTitle());
+
+		verify(this.issueMapper, times(2)).selectOne(any());
+		verify(this.redisRepository).setIfVersion(eq(CACHE_KEY), eq(JSON.toJSONString(oldIssue)), eq(600L), eq(VERSION_KEY), isNull());
+		verify(this.redisRepository).setIfVersion(eq(CACHE_KEY), eq(JSON.toJSONString(newIssue)), eq(600L), eq(VERSION_KEY), eq("1"));
+	}
+
+	/**
+	 * 测试读取 Redis 期间收到其它节点的失效通知时，读到的值不回填本地缓存喵~
+	 */
+	@Test
+	void testStaleLocalFillDroppedAfterRemoteInvalidation() {
+		ArgumentCaptor<MessageListener> listener = ArgumentCaptor.forClass(MessageListener.class);
+		verify(this.redisMessageListenerContainer).addMessageListener(listener.capture(), any(Topic.class));
+		when(this.redisRepository.get(CACHE_KEY)).thenAnswer(invocation -> {
+			listener.getValue().onMessage(new DefaultMessage(
+					"item_issue_invalidation".getBytes(StandardCharsets.UTF_8), TEST_CODE.getBytes(StandardCharsets.UTF_8)
+			), null);
+			return JSON.toJSONString(createTestIssue());
+		});
+
+		this.issueQueryRepository.getIssueByCode(TEST_CODE);
+		this.issueQueryRepository.getIssueByCode(TEST_CODE);
+
+		verify(this.redisRepository, times(2)).get(CACHE_KEY);
+	}
+
+	/**
+	 * 测试 Redis 不可用时退化为查询数据库喵~
+	 */
+	@Test
+	void testRedisUnavailable() {
+		when(this.redisRepository.get(anyString())).thenThrow(new IllegalStateException("redis down"));
+		when(this.issueMapper.selectOne(any())).thenReturn(createTestIssue());
+
+		assertEquals(TEST_CODE, this.issueQueryRepository.getIssueByCode(TEST_CODE).getCode());
+	}
+}